@@ -0,0 +1,62 @@
+package com.example.machine_factory.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.machine_factory.dto.MachineEventRejected;
+import com.example.machine_factory.dto.MachineEventsBatchResponse;
+import com.example.machine_factory.dto.RejectionReason;
+
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.json.JsonMapper;
+
+// The /events/batch response body, with a growing rejections list
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class BatchResponseJsonBenchmark {
+    @Param({"0", "100", "10000"})
+    private int rejections;
+
+    private ObjectMapper objectMapper;
+    private MachineEventsBatchResponse response;
+    private byte[] json;
+
+    @Setup
+    public void setUp() {
+        objectMapper = JsonMapper.builder().build();
+        List<MachineEventRejected> rejected = new ArrayList<>(rejections);
+        for (int i = 0; i < rejections; i++) {
+            rejected.add(new MachineEventRejected("E-" + i,
+                i % 2 == 0 ? RejectionReason.INVALID_DURATION : RejectionReason.FUTURE_EVENT_TIME));
+        }
+        response = new MachineEventsBatchResponse(1000, 10, 5, rejections, rejected);
+        json = objectMapper.writeValueAsBytes(response);
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return objectMapper.writeValueAsBytes(response);
+    }
+
+    @Benchmark
+    public MachineEventsBatchResponse deserialize() {
+        return objectMapper.readValue(json, MachineEventsBatchResponse.class);
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.machine_factory.benchmark;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.machine_factory.entity.MachineEvent;
+import com.example.machine_factory.service.MachineEventBinaryCodec;
+
+import tools.jackson.core.type.TypeReference;
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.json.JsonMapper;
+
+// Decoding an /events/batch body into events: the JSON array against the columnar binary
+// encoding of the same batch. The body sizes of both are printed once per fork.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class IngestDecodeBenchmark {
+    private static final TypeReference<List<MachineEvent>> EVENT_LIST = new TypeReference<>() {
+    };
+
+    @Param({"100", "1000", "10000"})
+    private int batchSize;
+
+    private ObjectMapper objectMapper;
+    private byte[] json;
+    private byte[] binary;
+
+    @Setup
+    public void setUp() {
+        objectMapper = JsonMapper.builder().build();
+        SplittableRandom random = new SplittableRandom(42);
+        Instant start = Instant.now().truncatedTo(ChronoUnit.MICROS).minus(1, ChronoUnit.HOURS);
+        List<MachineEvent> events = new ArrayList<>(batchSize);
+        // Time-ordered like a collector's buffer: 50 machines on 5 lines of 2 factories
+        for (int i = 0; i < batchSize; i++) {
+            int machine = random.nextInt(50);
+            events.add(new MachineEvent("E-" + Long.toHexString(random.nextLong()), start.plusMillis(i * 37L), null,
+                "M-" + machine, random.nextInt(100, 5000), random.nextInt(10) == 0 ? -1 : random.nextInt(5),
+                "L-" + machine % 5, "F-" + machine % 2));
+        }
+        json = objectMapper.writeValueAsBytes(events);
+        binary = MachineEventBinaryCodec.encode(events);
+        System.out.printf("%n%d events: JSON %d bytes, binary %d bytes (%.1f%%)%n", batchSize, json.length,
+            binary.length, binary.length * 100.0 / json.length);
+    }
+
+    @Benchmark
+    public List<MachineEvent> decodeJson() {
+        return objectMapper.readValue(json, EVENT_LIST);
+    }
+
+    @Benchmark
+    public List<MachineEvent> decodeBinary() {
+        return MachineEventBinaryCodec.decode(binary);
+    }
+}
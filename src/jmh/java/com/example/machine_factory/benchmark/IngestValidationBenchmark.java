@@ -0,0 +1,89 @@
+package com.example.machine_factory.benchmark;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.example.machine_factory.dto.MachineEventRejected;
+import com.example.machine_factory.entity.MachineEvent;
+import com.example.machine_factory.metrics.MachineFactoryMetrics;
+import com.example.machine_factory.service.MachineEventService;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// The in-memory half of saveBatch: validation and dedup by eventId, without the database.
+// duplicateRatio is the share of events repeating an earlier eventId, rejectRatio the share
+// failing validation (split between invalid duration and future event time).
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class IngestValidationBenchmark {
+    @Param({"100", "1000", "10000", "100000"})
+    private int batchSize;
+
+    @Param({"0.0", "0.1", "0.5"})
+    private double duplicateRatio;
+
+    @Param({"0.0", "0.1"})
+    private double rejectRatio;
+
+    private MachineEventService machineEventService;
+    private List<MachineEvent> events;
+    private Instant now;
+
+    @Setup
+    public void setUp() {
+        // validate and dedupeById never reach the repository, the event publisher or a transaction; the metrics
+        // are real so their recording cost is part of the measurement
+        machineEventService = new MachineEventService(null, null,
+            new MachineFactoryMetrics(new SimpleMeterRegistry()), null, Integer.MAX_VALUE, 1, Integer.MAX_VALUE, 1);
+        now = Instant.now();
+        SplittableRandom random = new SplittableRandom(42);
+        events = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            String eventId = i > 0 && random.nextDouble() < duplicateRatio
+                ? events.get(random.nextInt(i)).getEventId()
+                : "E-" + i;
+            int duration = 1000;
+            Instant eventTime = now.minusSeconds(random.nextInt(86_400));
+            if (random.nextDouble() < rejectRatio) {
+                if (random.nextBoolean()) {
+                    duration = -1;
+                } else {
+                    eventTime = now.plusSeconds(3600);
+                }
+            }
+            // No -1 defect counts: validate rewrites them in place, which would change later invocations
+            events.add(new MachineEvent(eventId, eventTime, null, "M-" + random.nextInt(100), duration,
+                random.nextInt(10), "L-" + random.nextInt(10), "F-01"));
+        }
+    }
+
+    @Benchmark
+    public void validateAndDedupe(Blackhole blackhole) {
+        List<MachineEvent> valid = new ArrayList<>();
+        List<MachineEventRejected> rejected = machineEventService.validate(events, now, valid);
+        Map<String, MachineEvent> deduped = MachineEventService.dedupeById(valid);
+        blackhole.consume(rejected);
+        blackhole.consume(deduped);
+    }
+}
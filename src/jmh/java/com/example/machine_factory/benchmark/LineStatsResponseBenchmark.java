@@ -0,0 +1,39 @@
+package com.example.machine_factory.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.machine_factory.dto.LineStatsResponse;
+
+// One instance per row of /stats/top-defect-lines, including the rounded defect percentage
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class LineStatsResponseBenchmark {
+    // Non-final fields, so the constructor arguments are not constant-folded
+    private String lineId = "L-01";
+    private Long totalDefects = 1234L;
+    private long eventCount = 5678;
+
+    @Benchmark
+    public LineStatsResponse withDefects() {
+        return new LineStatsResponse(lineId, totalDefects, eventCount);
+    }
+
+    @Benchmark
+    public LineStatsResponse unknownDefects() {
+        return new LineStatsResponse(lineId, null, eventCount);
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.machine_factory.benchmark;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.machine_factory.entity.MachineEvent;
+
+// Equal payloads compare every field; the other cases stop at the first differing one
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MachineEventEqualsBenchmark {
+    private MachineEvent event;
+    private MachineEvent equal;
+    private MachineEvent differentId;
+    private MachineEvent differentFactory;
+
+    @Setup
+    public void setUp() {
+        Instant eventTime = Instant.parse("2026-01-15T10:00:00.123456Z");
+        event = new MachineEvent("E-000123", eventTime, null, "M-001", 1000, 2, "L-01", "F-01");
+        // Fresh String and Instant instances, so equals cannot short-circuit on identity
+        equal = new MachineEvent(new String("E-000123"), Instant.parse("2026-01-15T10:00:00.123456Z"), null,
+            new String("M-001"), 1000, 2, new String("L-01"), new String("F-01"));
+        differentId = new MachineEvent("E-000124", eventTime, null, "M-001", 1000, 2, "L-01", "F-01");
+        differentFactory = new MachineEvent("E-000123", eventTime, null, "M-001", 1000, 2, "L-01", "F-02");
+    }
+
+    @Benchmark
+    public boolean equalPayload() {
+        return event.equals(equal);
+    }
+
+    @Benchmark
+    public boolean differentEventId() {
+        return event.equals(differentId);
+    }
+
+    @Benchmark
+    public boolean differentLastField() {
+        return event.equals(differentFactory);
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.machine_factory.config;
+
+import java.time.Duration;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+// With machine-factory.datasource.replica.url set, read-only transactions (the stats queries) run
+// on a replica with its own pool, and everything else stays on the primary. The DataSource is
+// wrapped in a LazyConnectionDataSourceProxy, which takes the connection only once the
+// transaction is known to be read-only. The replica pool is not a bean, so the auto-configured
+// primary stays the only DataSource.
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(name = "machine-factory.datasource.replica.url")
+public class ReadReplicaConfig {
+
+    @Bean(destroyMethod = "close")
+    ReplicaLagMonitor replicaLagMonitor(MeterRegistry meterRegistry,
+            @Value("${machine-factory.datasource.replica.url}") String url,
+            @Value("${machine-factory.datasource.replica.username:${spring.datasource.username:}}") String username,
+            @Value("${machine-factory.datasource.replica.password:${spring.datasource.password:}}") String password,
+            @Value("${machine-factory.datasource.replica.maximum-pool-size:10}") int maximumPoolSize,
+            @Value("${machine-factory.datasource.replica.connection-timeout:2s}") Duration connectionTimeout,
+            @Value("${machine-factory.datasource.replica.max-lag:5s}") Duration maxLag,
+            @Value("${machine-factory.datasource.replica.check-interval:PT1S}") Duration checkInterval,
+            @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+            @Value("${machine-factory.datasource.acquire-timeout:30s}") Duration acquireTimeout) {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("replica");
+        config.setJdbcUrl(url);
+        config.setUsername(username);
+        config.setPassword(password);
+        config.setMaximumPoolSize(maximumPoolSize);
+        config.setConnectionTimeout(connectionTimeout.toMillis());
+        config.setReadOnly(true);
+        // Starts without the replica; reads use the primary until the first successful check
+        config.setInitializationFailTimeout(-1);
+        config.setMetricRegistry(meterRegistry);
+        HikariDataSource pool = new HikariDataSource(config);
+        DataSource replica = virtualThreads
+            ? new ConcurrencyLimitingDataSource(pool, maximumPoolSize, acquireTimeout)
+            : pool;
+        return new ReplicaLagMonitor(pool, replica, maxLag, checkInterval);
+    }
+
+    // Each pool gets its own semaphore under virtual threads. VirtualThreadConfig leaves the routing
+    // proxy alone, so the primary is limited here, unless it already was.
+    @Bean
+    static BeanPostProcessor readReplicaRoutingPostProcessor(ObjectProvider<ReplicaLagMonitor> replicaLagMonitor,
+            @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+            @Value("${machine-factory.datasource.max-concurrency:${spring.datasource.hikari.maximum-pool-size:10}}") int maxConcurrency,
+            @Value("${machine-factory.datasource.acquire-timeout:30s}") Duration acquireTimeout) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof DataSource dataSource && !(bean instanceof LazyConnectionDataSourceProxy)) {
+                    DataSource primary = virtualThreads && !(dataSource instanceof ConcurrencyLimitingDataSource)
+                        ? new ConcurrencyLimitingDataSource(dataSource, maxConcurrency, acquireTimeout)
+                        : dataSource;
+                    LazyConnectionDataSourceProxy routing = new LazyConnectionDataSourceProxy(primary);
+                    routing.setReadOnlyDataSource(replicaLagMonitor.getObject().readOnlyDataSource(primary));
+                    return routing;
+                }
+                return bean;
+            }
+        };
+    }
+}
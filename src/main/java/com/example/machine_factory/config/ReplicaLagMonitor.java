@@ -0,0 +1,140 @@
+package com.example.machine_factory.config;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+// Owns the replica pool and measures how far the replica's replay is behind. Read-only
+// transactions fall back to the primary while the last check failed, is too old, or measured more
+// than max-lag, and when the replica refuses a connection.
+public class ReplicaLagMonitor implements MeterBinder {
+    private static final Logger log = LoggerFactory.getLogger(ReplicaLagMonitor.class);
+
+    // Zero while the replica has replayed everything it received, so a primary without writes does
+    // not look like lag. A server that is not in recovery (a plain second instance) has no lag.
+    private static final String LAG_SQL = """
+        SELECT CASE
+            WHEN NOT pg_is_in_recovery() OR pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0
+            ELSE (EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000)::bigint
+        END
+        """;
+
+    private final HikariDataSource pool;
+    private final DataSource replica;
+    private final JdbcTemplate replicaJdbcTemplate;
+    private final long maxLagMillis;
+    private final long maxCheckAgeNanos;
+    // -1 until the first successful check and after a failed one
+    private volatile long lagMillis = -1;
+    private volatile long checkedAtNanos;
+    private final LongAdder fallbacks = new LongAdder();
+
+    public ReplicaLagMonitor(HikariDataSource pool, DataSource replica, Duration maxLag, Duration checkInterval) {
+        this.pool = pool;
+        this.replica = replica;
+        this.replicaJdbcTemplate = new JdbcTemplate(replica);
+        this.maxLagMillis = maxLag.toMillis();
+        // A check that stopped running is as bad as a failed one
+        this.maxCheckAgeNanos = checkInterval.multipliedBy(3).toNanos();
+    }
+
+    @Scheduled(fixedDelayString = "${machine-factory.datasource.replica.check-interval:PT1S}")
+    public void check() {
+        long previous = lagMillis;
+        try {
+            Long lag = replicaJdbcTemplate.queryForObject(LAG_SQL, Long.class);
+            lagMillis = lag == null ? -1 : Math.max(0, lag);
+        } catch (DataAccessException e) {
+            lagMillis = -1;
+            if (previous >= 0) {
+                log.warn("Replica lag check failed, reading from the primary: {}", e.getMostSpecificCause().getMessage());
+            }
+        }
+        checkedAtNanos = System.nanoTime();
+        boolean wasUsable = previous >= 0 && previous <= maxLagMillis;
+        if (wasUsable != isLagWithinLimit()) {
+            log.info("Replica {} (lag {} ms)", wasUsable ? "too far behind, reading from the primary" : "caught up",
+                lagMillis);
+        }
+    }
+
+    public boolean isReplicaUsable() {
+        return isLagWithinLimit() && System.nanoTime() - checkedAtNanos <= maxCheckAgeNanos;
+    }
+
+    public long getLagMillis() {
+        return lagMillis;
+    }
+
+    // The read-only target for the routing proxy: the replica, or the primary when it is not usable
+    public DataSource readOnlyDataSource(DataSource primary) {
+        return new ReplicaOrPrimaryDataSource(primary);
+    }
+
+    public void close() {
+        pool.close();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("machine_factory.datasource.replica.lag", this, ReplicaLagMonitor::getLagMillis)
+            .description("Replay lag of the replica at the last check, -1 when unknown")
+            .baseUnit("milliseconds").register(registry);
+        Gauge.builder("machine_factory.datasource.replica.usable", this, m -> m.isReplicaUsable() ? 1 : 0)
+            .register(registry);
+        FunctionCounter.builder("machine_factory.datasource.replica.fallbacks", fallbacks, LongAdder::sum)
+            .description("Read-only connections taken from the primary instead of the replica")
+            .register(registry);
+    }
+
+    private boolean isLagWithinLimit() {
+        long lag = lagMillis;
+        return lag >= 0 && lag <= maxLagMillis;
+    }
+
+    private final class ReplicaOrPrimaryDataSource extends DelegatingDataSource {
+        private final DataSource primary;
+
+        ReplicaOrPrimaryDataSource(DataSource primary) {
+            super(replica);
+            this.primary = primary;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            if (isReplicaUsable()) {
+                try {
+                    return replica.getConnection();
+                } catch (SQLException e) {
+                    // Until the next successful check
+                    lagMillis = -1;
+                    log.warn("Replica connection failed, reading from the primary: {}", e.getMessage());
+                }
+            }
+            fallbacks.increment();
+            return primary.getConnection();
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            return getConnection();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.machine_factory.controller;
+
+import java.lang.reflect.Type;
+
+import org.springframework.core.MethodParameter;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.servlet.mvc.method.annotation.RequestBodyAdviceAdapter;
+
+import com.example.machine_factory.metrics.MachineFactoryMetrics;
+import com.example.machine_factory.metrics.MachineFactoryMetrics.IngestStage;
+
+// Times the JSON binding of batch ingest bodies, from the converter opening the body until the
+// event list is bound
+@ControllerAdvice(assignableTypes = MachineEventsBatchController.class)
+public class IngestBindingMetricsAdvice extends RequestBodyAdviceAdapter {
+    private static final String START_ATTRIBUTE = IngestBindingMetricsAdvice.class.getName() + ".start";
+
+    private final MachineFactoryMetrics metrics;
+
+    public IngestBindingMetricsAdvice(MachineFactoryMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public boolean supports(MethodParameter methodParameter, Type targetType,
+            Class<? extends HttpMessageConverter<?>> converterType) {
+        return true;
+    }
+
+    @Override
+    public HttpInputMessage beforeBodyRead(HttpInputMessage inputMessage, MethodParameter parameter, Type targetType,
+            Class<? extends HttpMessageConverter<?>> converterType) {
+        RequestContextHolder.currentRequestAttributes()
+            .setAttribute(START_ATTRIBUTE, System.nanoTime(), RequestAttributes.SCOPE_REQUEST);
+        return inputMessage;
+    }
+
+    @Override
+    public Object afterBodyRead(Object body, HttpInputMessage inputMessage, MethodParameter parameter, Type targetType,
+            Class<? extends HttpMessageConverter<?>> converterType) {
+        if (RequestContextHolder.currentRequestAttributes()
+                .getAttribute(START_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST) instanceof Long start) {
+            metrics.recordStage(IngestStage.BIND, start);
+        }
+        return body;
+    }
+}
@@ -4,25 +4,63 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import com.example.machine_factory.dto.MachineEventsBatchResponse;
+import com.example.machine_factory.dto.MachineEventsTicketResponse;
 import com.example.machine_factory.entity.MachineEvent;
+import com.example.machine_factory.service.MachineEventBinaryCodec;
 import com.example.machine_factory.service.MachineEventService;
+import com.example.machine_factory.service.MachineEventWriteBehindService;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
 
 @RestController
 @RequestMapping(path = "/events/batch")
 public class MachineEventsBatchController {
     private final MachineEventService machineEventService;
+    private final MachineEventWriteBehindService machineEventWriteBehindService;
+    private final MachineEventBinaryCodec machineEventBinaryCodec;
 
-    public MachineEventsBatchController(MachineEventService machineEventService) {
+    public MachineEventsBatchController(MachineEventService machineEventService,
+            MachineEventWriteBehindService machineEventWriteBehindService,
+            MachineEventBinaryCodec machineEventBinaryCodec) {
         this.machineEventService = machineEventService;
+        this.machineEventWriteBehindService = machineEventWriteBehindService;
+        this.machineEventBinaryCodec = machineEventBinaryCodec;
     }
 
     @PostMapping
     public MachineEventsBatchResponse postMethodName(@RequestBody List<MachineEvent> events) {
         return machineEventService.saveBatch(events);
     }
+
+    // The same batch in the columnar binary encoding, decoded straight into events
+    @PostMapping(consumes = MachineEventBinaryCodec.MEDIA_TYPE)
+    public MachineEventsBatchResponse postBinary(InputStream body) throws IOException {
+        return machineEventService.saveBatch(machineEventBinaryCodec.read(body));
+    }
+
+    @PostMapping("/async")
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    public MachineEventsTicketResponse postAsync(@RequestBody List<MachineEvent> events) {
+        return machineEventWriteBehindService.submit(events);
+    }
+
+    @PostMapping(path = "/async", consumes = MachineEventBinaryCodec.MEDIA_TYPE)
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    public MachineEventsTicketResponse postAsyncBinary(InputStream body) throws IOException {
+        return machineEventWriteBehindService.submit(machineEventBinaryCodec.read(body));
+    }
+
+    @GetMapping("/async/{ticketId}")
+    public MachineEventsTicketResponse getTicket(@PathVariable String ticketId) {
+        return machineEventWriteBehindService.getTicket(ticketId);
+    }
 }
@@ -0,0 +1,48 @@
+package com.example.machine_factory.controller;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.example.machine_factory.dto.MachineEventsStreamResponse;
+import com.example.machine_factory.service.MachineEventStreamService;
+
+import jakarta.servlet.http.HttpServletResponse;
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.SequenceWriter;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.springframework.web.bind.annotation.PostMapping;
+
+@RestController
+@RequestMapping(path = "/events/stream")
+public class MachineEventsStreamController {
+    private final MachineEventStreamService machineEventStreamService;
+    private final ObjectMapper objectMapper;
+
+    public MachineEventsStreamController(MachineEventStreamService machineEventStreamService,
+            ObjectMapper objectMapper) {
+        this.machineEventStreamService = machineEventStreamService;
+        this.objectMapper = objectMapper;
+    }
+
+    // Newline-delimited summaries, one written and flushed per committed chunk, then the totals.
+    // A malformed event is reported in the totals line; it is a 400 only when no chunk committed,
+    // since the status went out with the first summary.
+    @PostMapping(consumes = { MediaType.APPLICATION_NDJSON_VALUE, MediaType.APPLICATION_JSON_VALUE })
+    public void postEventStream(InputStream body, HttpServletResponse response) throws IOException {
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        try (SequenceWriter writer = objectMapper.writer()
+                .withRootValueSeparator("\n")
+                .writeValues(response.getOutputStream())) {
+            MachineEventsStreamResponse totals = machineEventStreamService.ingest(body, writer::write);
+            if (totals.getError() != null && totals.getChunks() == 0) {
+                response.setStatus(HttpStatus.BAD_REQUEST.value());
+            }
+            writer.write(totals);
+        }
+    }
+}
@@ -3,33 +3,91 @@ package com.example.machine_factory.controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
-import com.example.machine_factory.dto.LineStatsResponse;
-import com.example.machine_factory.dto.MachineStatsResponse;
+import com.example.machine_factory.dto.DurationStatsResponse;
+import com.example.machine_factory.dto.MachineStatsBulkRequest;
+import com.example.machine_factory.dto.StatsCacheResponse;
+import com.example.machine_factory.dto.StatsTimeseriesResponse;
 import com.example.machine_factory.service.MachineStatsService;
+import com.example.machine_factory.service.StatsResponseCache;
+import com.example.machine_factory.service.StatsSubscriptionService;
 
+import java.io.IOException;
+import java.time.Duration;
 import java.time.Instant;
-import java.util.List;
 
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import jakarta.servlet.http.HttpServletResponse;
 
 @RestController
 @RequestMapping(path = "/stats")
 public class MachineStatsController {
     private final MachineStatsService machineStatsService;
+    private final StatsResponseCache statsResponseCache;
+    private final StatsSubscriptionService statsSubscriptionService;
 
-    public MachineStatsController(MachineStatsService machineStatsService) {
+    public MachineStatsController(MachineStatsService machineStatsService, StatsResponseCache statsResponseCache,
+            StatsSubscriptionService statsSubscriptionService) {
         this.machineStatsService = machineStatsService;
+        this.statsResponseCache = statsResponseCache;
+        this.statsSubscriptionService = statsSubscriptionService;
+    }
+
+    @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+    public byte[] getMachineStats(@RequestParam String machineId, @RequestParam Instant start, @RequestParam Instant end) {
+        return machineStatsService.getMachineStatsJson(machineId, start, end);
+    }
+
+    // With approximate=true, answered from the per-bucket sketches with error bounds per line
+    @GetMapping(path = "/top-defect-lines", produces = MediaType.APPLICATION_JSON_VALUE)
+    public byte[] getTopDefectLines(@RequestParam String factoryId, @RequestParam Instant from, @RequestParam Instant to, @RequestParam int limit,
+            @RequestParam(defaultValue = "false") boolean approximate) {
+        if (approximate) {
+            return machineStatsService.getApproximateTopDefectLinesJson(factoryId, from, to, limit);
+        }
+        return machineStatsService.getTopDefectLinesJson(factoryId, from, to, limit);
+    }
+
+    // One of machineId, lineId with factoryId, or factoryId; interval is an ISO-8601 duration such as PT1H
+    @GetMapping(path = "/timeseries", produces = MediaType.APPLICATION_JSON_VALUE)
+    public StatsTimeseriesResponse getStatsTimeseries(@RequestParam(required = false) String machineId,
+            @RequestParam(required = false) String lineId, @RequestParam(required = false) String factoryId,
+            @RequestParam Instant start, @RequestParam Instant end, @RequestParam Duration interval) {
+        return machineStatsService.getStatsTimeseries(machineId, lineId, factoryId, start, end, interval);
+    }
+
+    // p50/p95/p99 of durationMs for one of machineId, lineId with factoryId, or factoryId
+    @GetMapping(path = "/durations", produces = MediaType.APPLICATION_JSON_VALUE)
+    public DurationStatsResponse getDurationStats(@RequestParam(required = false) String machineId,
+            @RequestParam(required = false) String lineId, @RequestParam(required = false) String factoryId,
+            @RequestParam Instant start, @RequestParam Instant end) {
+        return machineStatsService.getDurationStats(machineId, lineId, factoryId, start, end);
+    }
+
+    // Newline-delimited stats of many machines, written while the grouped query is read
+    @PostMapping(path = "/machines", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public void getBulkMachineStats(@RequestBody MachineStatsBulkRequest request, HttpServletResponse response)
+            throws IOException {
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        machineStatsService.writeMachineStats(request, response.getOutputStream());
     }
 
-    @GetMapping
-    public MachineStatsResponse getMachineStats(@RequestParam String machineId, @RequestParam Instant start, @RequestParam Instant end) {
-        return machineStatsService.getMachineStats(machineId, start, end);
+    // Server-sent events with the stats of a machine, or the line stats of a factory, over the
+    // trailing window, pushed when they change
+    @GetMapping(path = "/subscribe", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter subscribe(@RequestParam(required = false) String machineId,
+            @RequestParam(required = false) String factoryId, @RequestParam(defaultValue = "PT1H") Duration window) {
+        return statsSubscriptionService.subscribe(machineId, factoryId, window);
     }
 
-    @GetMapping("/top-defect-lines")
-    public List<LineStatsResponse> getTopDefectLines(@RequestParam String factoryId, @RequestParam Instant from, @RequestParam Instant to, @RequestParam int limit) {
-        return machineStatsService.getTopDefectLines(factoryId, from, to, limit);
+    @GetMapping("/cache")
+    public StatsCacheResponse getCacheStats() {
+        return statsResponseCache.getStats();
     }
     
 }
@@ -0,0 +1,338 @@
+package com.example.machine_factory.controller;
+
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import com.example.machine_factory.metrics.MachineFactoryMetrics;
+import com.example.machine_factory.metrics.MachineFactoryMetrics.RequestEncoding;
+import com.github.luben.zstd.ZstdInputStream;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+
+// Decompresses request bodies sent with Content-Encoding gzip or zstd while they are read, so the
+// JSON parser, the NDJSON stream and the binary codec see the plain body without it being buffered
+// in full. A body that inflates past max-decompressed-size, or by more than max-ratio once past
+// RATIO_CHECK_BYTES, is cut off and answered with 413. The decoders block on the wire stream, so a
+// handler that asks for non-blocking reads gets 415. Responses are compressed by the server
+// (server.compression).
+@Component
+public class RequestDecompressionFilter extends OncePerRequestFilter {
+    // Tiny bodies can legitimately have huge ratios (a few bytes of header for a run of spaces)
+    private static final long RATIO_CHECK_BYTES = 1024 * 1024;
+
+    private final MachineFactoryMetrics metrics;
+    private final long maxDecompressedBytes;
+    private final int maxRatio;
+
+    public RequestDecompressionFilter(MachineFactoryMetrics metrics,
+            @Value("${machine-factory.compression.max-decompressed-size:256MB}") DataSize maxDecompressedSize,
+            @Value("${machine-factory.compression.max-ratio:100}") int maxRatio) {
+        this.metrics = metrics;
+        this.maxDecompressedBytes = maxDecompressedSize.toBytes();
+        this.maxRatio = maxRatio;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String encoding = request.getHeader(HttpHeaders.CONTENT_ENCODING);
+        return encoding == null || encoding.isBlank() || encoding.trim().equalsIgnoreCase("identity");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String header = request.getHeader(HttpHeaders.CONTENT_ENCODING).trim().toLowerCase(Locale.ROOT);
+        RequestEncoding encoding = switch (header) {
+            case "gzip", "x-gzip" -> RequestEncoding.GZIP;
+            case "zstd" -> RequestEncoding.ZSTD;
+            default -> null;
+        };
+        if (encoding == null) {
+            response.sendError(HttpStatus.UNSUPPORTED_MEDIA_TYPE.value(), "Unsupported Content-Encoding " + header);
+            return;
+        }
+
+        DecompressingRequest decompressing = new DecompressingRequest(request, encoding);
+        try {
+            chain.doFilter(decompressing, new RejectionAwareResponse(response, decompressing));
+        } catch (IOException | ServletException | RuntimeException e) {
+            // The rejection surfaces as whatever the reader made of the exception
+            if (decompressing.rejectedStatus == null || response.isCommitted()) {
+                throw e;
+            }
+            response.sendError(decompressing.rejectedStatus.value(), decompressing.rejectedMessage);
+        } finally {
+            decompressing.close();
+        }
+    }
+
+    private static final class DecompressionLimitException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        DecompressionLimitException(String message) {
+            super(message);
+        }
+    }
+
+    private final class DecompressingRequest extends HttpServletRequestWrapper {
+        private final RequestEncoding encoding;
+        private CountingInputStream compressed;
+        private BodyInputStream body;
+        private BufferedReader reader;
+        private volatile HttpStatus rejectedStatus;
+        private volatile String rejectedMessage;
+
+        DecompressingRequest(HttpServletRequest request, RequestEncoding encoding) {
+            super(request);
+            this.encoding = encoding;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() throws IOException {
+            if (reader != null) {
+                throw new IllegalStateException("getReader() has already been called");
+            }
+            if (body == null) {
+                compressed = new CountingInputStream(super.getInputStream());
+                InputStream decoder = switch (encoding) {
+                    case GZIP -> new GZIPInputStream(compressed, 8192);
+                    case ZSTD -> new ZstdInputStream(compressed);
+                };
+                body = new BodyInputStream(decoder);
+            }
+            return body;
+        }
+
+        @Override
+        public BufferedReader getReader() throws IOException {
+            if (reader == null) {
+                if (body != null) {
+                    throw new IllegalStateException("getInputStream() has already been called");
+                }
+                String characterEncoding = getCharacterEncoding();
+                Charset charset = characterEncoding == null ? StandardCharsets.UTF_8 : Charset.forName(characterEncoding);
+                InputStream stream = getInputStream();
+                reader = new BufferedReader(new InputStreamReader(stream, charset));
+            }
+            return reader;
+        }
+
+        // The length and encoding of the wire body no longer describe what the application reads
+        @Override
+        public int getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            return -1;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return isWireHeader(name) ? null : super.getHeader(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String name) {
+            return isWireHeader(name) ? Collections.emptyEnumeration() : super.getHeaders(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaderNames() {
+            return Collections.enumeration(Collections.list(super.getHeaderNames()).stream()
+                .filter(name -> !isWireHeader(name))
+                .toList());
+        }
+
+        private static boolean isWireHeader(String name) {
+            return HttpHeaders.CONTENT_ENCODING.equalsIgnoreCase(name) || HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name);
+        }
+
+        void checkLimits(long decompressed) throws DecompressionLimitException {
+            if (decompressed > maxDecompressedBytes) {
+                exceeded("Decompressed body exceeds " + maxDecompressedBytes + " bytes");
+            }
+            if (decompressed > RATIO_CHECK_BYTES && decompressed > compressed.count * maxRatio) {
+                exceeded("Body decompresses by more than " + maxRatio + " times");
+            }
+        }
+
+        private void exceeded(String message) throws DecompressionLimitException {
+            if (reject(HttpStatus.CONTENT_TOO_LARGE, message)) {
+                metrics.recordDecompressionRejected(encoding);
+            }
+            throw new DecompressionLimitException(message);
+        }
+
+        // Only the first rejection counts; the status is published after the message
+        private boolean reject(HttpStatus status, String message) {
+            if (rejectedStatus != null) {
+                return false;
+            }
+            rejectedMessage = message;
+            rejectedStatus = status;
+            return true;
+        }
+
+        // Releases the decoder (zstd holds native buffers); the container closes the wire stream
+        void close() {
+            if (body == null) {
+                return;
+            }
+            metrics.recordDecompression(encoding, compressed.count, body.count);
+            try {
+                body.decoder.close();
+            } catch (IOException e) {
+                // Nothing left to read
+            }
+        }
+
+        private final class BodyInputStream extends ServletInputStream {
+            private final InputStream decoder;
+            private long count;
+            private boolean finished;
+
+            BodyInputStream(InputStream decoder) {
+                this.decoder = decoder;
+            }
+
+            @Override
+            public int read() throws IOException {
+                int b = decoder.read();
+                if (b < 0) {
+                    finished = true;
+                } else {
+                    count += 1;
+                    checkLimits(count);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int n = decoder.read(buffer, offset, length);
+                if (n < 0) {
+                    finished = true;
+                } else {
+                    count += n;
+                    checkLimits(count);
+                }
+                return n;
+            }
+
+            @Override
+            public boolean isFinished() {
+                return finished;
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            // The decoders read the wire stream blocking, so they cannot tell when data is ready
+            @Override
+            public void setReadListener(ReadListener readListener) {
+                String message = "Content-Encoding " + encoding.name().toLowerCase(Locale.ROOT)
+                    + " is not supported for non-blocking reads";
+                reject(HttpStatus.UNSUPPORTED_MEDIA_TYPE, message);
+                throw new IllegalStateException(message);
+            }
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = in.read(buffer, offset, length);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        // The decoders must not think they can rewind the wire stream
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    // Whatever status the handler picked for a body it could not read (400 from the converter or
+    // the stream reader, 500 for a failed setReadListener), the filter's rejection is the answer
+    private static final class RejectionAwareResponse extends HttpServletResponseWrapper {
+        private final DecompressingRequest request;
+
+        RejectionAwareResponse(HttpServletResponse response, DecompressingRequest request) {
+            super(response);
+            this.request = request;
+        }
+
+        @Override
+        public void sendError(int status, String message) throws IOException {
+            HttpStatus rejected = request.rejectedStatus;
+            if (rejected != null) {
+                super.sendError(rejected.value(), request.rejectedMessage);
+            } else {
+                super.sendError(status, message);
+            }
+        }
+
+        @Override
+        public void sendError(int status) throws IOException {
+            sendError(status, null);
+        }
+
+        @Override
+        public void setStatus(int status) {
+            HttpStatus rejected = request.rejectedStatus;
+            super.setStatus(rejected != null && status >= 400 ? rejected.value() : status);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.machine_factory.dto;
+
+// The line's true defect sum is in [totalDefects - maxError, totalDefects]
+public class ApproximateLineStatsResponse {
+    private String lineId;
+    private long totalDefects;
+    private long maxError;
+
+    public ApproximateLineStatsResponse(String lineId, long totalDefects, long maxError) {
+        this.lineId = lineId;
+        this.totalDefects = totalDefects;
+        this.maxError = maxError;
+    }
+
+    public String getLineId() {
+        return lineId;
+    }
+
+    public void setLineId(String lineId) {
+        this.lineId = lineId;
+    }
+
+    public long getTotalDefects() {
+        return totalDefects;
+    }
+
+    public void setTotalDefects(long totalDefects) {
+        this.totalDefects = totalDefects;
+    }
+
+    public long getMaxError() {
+        return maxError;
+    }
+
+    public void setMaxError(long maxError) {
+        this.maxError = maxError;
+    }
+}
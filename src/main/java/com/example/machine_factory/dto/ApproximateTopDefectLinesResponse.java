@@ -0,0 +1,73 @@
+package com.example.machine_factory.dto;
+
+import java.time.Instant;
+import java.util.List;
+
+public class ApproximateTopDefectLinesResponse {
+    private String factoryId;
+    private Instant from;
+    private Instant to;
+    // False when the window could not be answered from the sketches and was computed exactly
+    private boolean approximate;
+    // No line missing from `lines` has more defects than this
+    private long otherLinesMaxDefects;
+    private List<ApproximateLineStatsResponse> lines;
+
+    public ApproximateTopDefectLinesResponse(String factoryId, Instant from, Instant to, boolean approximate,
+            long otherLinesMaxDefects, List<ApproximateLineStatsResponse> lines) {
+        this.factoryId = factoryId;
+        this.from = from;
+        this.to = to;
+        this.approximate = approximate;
+        this.otherLinesMaxDefects = otherLinesMaxDefects;
+        this.lines = lines;
+    }
+
+    public String getFactoryId() {
+        return factoryId;
+    }
+
+    public void setFactoryId(String factoryId) {
+        this.factoryId = factoryId;
+    }
+
+    public Instant getFrom() {
+        return from;
+    }
+
+    public void setFrom(Instant from) {
+        this.from = from;
+    }
+
+    public Instant getTo() {
+        return to;
+    }
+
+    public void setTo(Instant to) {
+        this.to = to;
+    }
+
+    public boolean isApproximate() {
+        return approximate;
+    }
+
+    public void setApproximate(boolean approximate) {
+        this.approximate = approximate;
+    }
+
+    public long getOtherLinesMaxDefects() {
+        return otherLinesMaxDefects;
+    }
+
+    public void setOtherLinesMaxDefects(long otherLinesMaxDefects) {
+        this.otherLinesMaxDefects = otherLinesMaxDefects;
+    }
+
+    public List<ApproximateLineStatsResponse> getLines() {
+        return lines;
+    }
+
+    public void setLines(List<ApproximateLineStatsResponse> lines) {
+        this.lines = lines;
+    }
+}
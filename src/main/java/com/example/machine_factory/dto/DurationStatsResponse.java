@@ -0,0 +1,91 @@
+package com.example.machine_factory.dto;
+
+import java.time.Instant;
+
+// Percentiles of durationMs in milliseconds, null without events
+public class DurationStatsResponse {
+    private StatsScope scope;
+    private String id;
+    private Instant start;
+    private Instant end;
+    private long eventsCount;
+    private Long p50;
+    private Long p95;
+    private Long p99;
+
+    public DurationStatsResponse(StatsScope scope, String id, Instant start, Instant end, long eventsCount, Long p50,
+            Long p95, Long p99) {
+        this.scope = scope;
+        this.id = id;
+        this.start = start;
+        this.end = end;
+        this.eventsCount = eventsCount;
+        this.p50 = p50;
+        this.p95 = p95;
+        this.p99 = p99;
+    }
+
+    public StatsScope getScope() {
+        return scope;
+    }
+
+    public void setScope(StatsScope scope) {
+        this.scope = scope;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public Instant getStart() {
+        return start;
+    }
+
+    public void setStart(Instant start) {
+        this.start = start;
+    }
+
+    public Instant getEnd() {
+        return end;
+    }
+
+    public void setEnd(Instant end) {
+        this.end = end;
+    }
+
+    public long getEventsCount() {
+        return eventsCount;
+    }
+
+    public void setEventsCount(long eventsCount) {
+        this.eventsCount = eventsCount;
+    }
+
+    public Long getP50() {
+        return p50;
+    }
+
+    public void setP50(Long p50) {
+        this.p50 = p50;
+    }
+
+    public Long getP95() {
+        return p95;
+    }
+
+    public void setP95(Long p95) {
+        this.p95 = p95;
+    }
+
+    public Long getP99() {
+        return p99;
+    }
+
+    public void setP99(Long p99) {
+        this.p99 = p99;
+    }
+}
@@ -0,0 +1,7 @@
+package com.example.machine_factory.dto;
+
+public enum IngestTicketStatus {
+    PENDING,
+    COMPLETED,
+    FAILED
+}
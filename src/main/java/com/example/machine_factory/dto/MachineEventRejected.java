@@ -4,6 +4,9 @@ public class MachineEventRejected {
     private String eventId;
     private RejectionReason reason;
 
+    public MachineEventRejected() {
+    }
+
     public MachineEventRejected(String eventId, RejectionReason reason) {
         this.eventId = eventId;
         this.reason = reason;
@@ -0,0 +1,40 @@
+package com.example.machine_factory.dto;
+
+import com.example.machine_factory.entity.MachineEvent;
+
+public class MachineEventUpsertResult {
+    private String eventId;
+    private UpsertOutcome outcome;
+    private MachineEvent previous;
+
+    public MachineEventUpsertResult(String eventId, UpsertOutcome outcome, MachineEvent previous) {
+        this.eventId = eventId;
+        this.outcome = outcome;
+        this.previous = previous;
+    }
+
+    public String getEventId() {
+        return eventId;
+    }
+
+    public void setEventId(String eventId) {
+        this.eventId = eventId;
+    }
+
+    public UpsertOutcome getOutcome() {
+        return outcome;
+    }
+
+    public void setOutcome(UpsertOutcome outcome) {
+        this.outcome = outcome;
+    }
+
+    // Payload that an UPDATED row replaced; null for other outcomes
+    public MachineEvent getPrevious() {
+        return previous;
+    }
+
+    public void setPrevious(MachineEvent previous) {
+        this.previous = previous;
+    }
+}
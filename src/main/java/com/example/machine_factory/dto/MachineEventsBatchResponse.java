@@ -9,6 +9,9 @@ public class MachineEventsBatchResponse {
     private int rejected;
     private List<MachineEventRejected> rejections;
 
+    public MachineEventsBatchResponse() {
+    }
+
     public MachineEventsBatchResponse(int accepted, int deduped, int updated, int rejected,
             List<MachineEventRejected> rejections) {
         this.accepted = accepted;
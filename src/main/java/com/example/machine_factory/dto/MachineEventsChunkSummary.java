@@ -0,0 +1,79 @@
+package com.example.machine_factory.dto;
+
+import java.util.List;
+
+public class MachineEventsChunkSummary {
+    private int chunk;
+    private int events;
+    private int accepted;
+    private int deduped;
+    private int updated;
+    private int rejected;
+    private List<MachineEventRejected> rejections;
+
+    public MachineEventsChunkSummary(int chunk, int events, MachineEventsBatchResponse response) {
+        this.chunk = chunk;
+        this.events = events;
+        this.accepted = response.getAccepted();
+        this.deduped = response.getDeduped();
+        this.updated = response.getUpdated();
+        this.rejected = response.getRejected();
+        this.rejections = response.getRejections();
+    }
+
+    public int getChunk() {
+        return chunk;
+    }
+
+    public void setChunk(int chunk) {
+        this.chunk = chunk;
+    }
+
+    public int getEvents() {
+        return events;
+    }
+
+    public void setEvents(int events) {
+        this.events = events;
+    }
+
+    public int getAccepted() {
+        return accepted;
+    }
+
+    public void setAccepted(int accepted) {
+        this.accepted = accepted;
+    }
+
+    public int getDeduped() {
+        return deduped;
+    }
+
+    public void setDeduped(int deduped) {
+        this.deduped = deduped;
+    }
+
+    public int getUpdated() {
+        return updated;
+    }
+
+    public void setUpdated(int updated) {
+        this.updated = updated;
+    }
+
+    public int getRejected() {
+        return rejected;
+    }
+
+    public void setRejected(int rejected) {
+        this.rejected = rejected;
+    }
+
+    public List<MachineEventRejected> getRejections() {
+        return rejections;
+    }
+
+    public void setRejections(List<MachineEventRejected> rejections) {
+        this.rejections = rejections;
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.machine_factory.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Totals of a streamed upload. rejected counts every rejection, while rejections keeps only the
+// first maxRejections of them; each chunk summary has the rejections of its own chunk.
+public class MachineEventsStreamResponse extends MachineEventsBatchResponse {
+    private int chunks;
+    private String error;
+    private final int maxRejections;
+
+    public MachineEventsStreamResponse(int maxRejections) {
+        super(0, 0, 0, 0, new ArrayList<>());
+        this.maxRejections = maxRejections;
+    }
+
+    public MachineEventsChunkSummary addChunk(int events, MachineEventsBatchResponse response) {
+        MachineEventsChunkSummary summary = new MachineEventsChunkSummary(chunks++, events, response);
+        setAccepted(getAccepted() + response.getAccepted());
+        setDeduped(getDeduped() + response.getDeduped());
+        setUpdated(getUpdated() + response.getUpdated());
+        setRejected(getRejected() + response.getRejected());
+        List<MachineEventRejected> rejections = response.getRejections();
+        int retained = Math.min(rejections.size(), maxRejections - getRejections().size());
+        if (retained > 0) {
+            getRejections().addAll(rejections.subList(0, retained));
+        }
+        return summary;
+    }
+
+    public int getChunks() {
+        return chunks;
+    }
+
+    public void setChunks(int chunks) {
+        this.chunks = chunks;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+}
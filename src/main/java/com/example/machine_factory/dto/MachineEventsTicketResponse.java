@@ -0,0 +1,51 @@
+package com.example.machine_factory.dto;
+
+import java.util.List;
+
+public class MachineEventsTicketResponse extends MachineEventsBatchResponse {
+    private String ticketId;
+    private IngestTicketStatus status;
+    private int pending;
+    private String error;
+
+    public MachineEventsTicketResponse(String ticketId, IngestTicketStatus status, int pending, String error,
+            int accepted, int deduped, int updated, int rejected, List<MachineEventRejected> rejections) {
+        super(accepted, deduped, updated, rejected, rejections);
+        this.ticketId = ticketId;
+        this.status = status;
+        this.pending = pending;
+        this.error = error;
+    }
+
+    public String getTicketId() {
+        return ticketId;
+    }
+
+    public void setTicketId(String ticketId) {
+        this.ticketId = ticketId;
+    }
+
+    public IngestTicketStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(IngestTicketStatus status) {
+        this.status = status;
+    }
+
+    public int getPending() {
+        return pending;
+    }
+
+    public void setPending(int pending) {
+        this.pending = pending;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+}
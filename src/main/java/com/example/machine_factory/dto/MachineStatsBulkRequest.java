@@ -0,0 +1,44 @@
+package com.example.machine_factory.dto;
+
+import java.time.Instant;
+import java.util.List;
+
+// Either machineIds or factoryId selects the machines
+public class MachineStatsBulkRequest {
+    private List<String> machineIds;
+    private String factoryId;
+    private Instant start;
+    private Instant end;
+
+    public List<String> getMachineIds() {
+        return machineIds;
+    }
+
+    public void setMachineIds(List<String> machineIds) {
+        this.machineIds = machineIds;
+    }
+
+    public String getFactoryId() {
+        return factoryId;
+    }
+
+    public void setFactoryId(String factoryId) {
+        this.factoryId = factoryId;
+    }
+
+    public Instant getStart() {
+        return start;
+    }
+
+    public void setStart(Instant start) {
+        this.start = start;
+    }
+
+    public Instant getEnd() {
+        return end;
+    }
+
+    public void setEnd(Instant end) {
+        this.end = end;
+    }
+}
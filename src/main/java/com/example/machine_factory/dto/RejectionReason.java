@@ -2,5 +2,6 @@ package com.example.machine_factory.dto;
 
 public enum RejectionReason {
     INVALID_DURATION,
-    FUTURE_EVENT_TIME
+    FUTURE_EVENT_TIME,
+    ARCHIVED_EVENT
 }
\ No newline at end of file
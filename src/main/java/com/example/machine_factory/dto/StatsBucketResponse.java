@@ -0,0 +1,50 @@
+package com.example.machine_factory.dto;
+
+import java.time.Instant;
+
+public class StatsBucketResponse {
+    private Instant start;
+    private long eventsCount;
+    private Long defectsCount;
+    private Double avgDefectRate;
+
+    // The rate is per hour of the bucket, which is shorter than the interval if the window ends inside it
+    public StatsBucketResponse(Instant start, Instant end, long eventsCount, Long defectsCount) {
+        this.start = start;
+        this.eventsCount = eventsCount;
+        this.defectsCount = defectsCount;
+        this.avgDefectRate = defectsCount == null ? null : defectsCount / ((end.toEpochMilli() - start.toEpochMilli()) / 3_600_000.0);
+    }
+
+    public Instant getStart() {
+        return start;
+    }
+
+    public void setStart(Instant start) {
+        this.start = start;
+    }
+
+    public long getEventsCount() {
+        return eventsCount;
+    }
+
+    public void setEventsCount(long eventsCount) {
+        this.eventsCount = eventsCount;
+    }
+
+    public Long getDefectsCount() {
+        return defectsCount;
+    }
+
+    public void setDefectsCount(Long defectsCount) {
+        this.defectsCount = defectsCount;
+    }
+
+    public Double getAvgDefectRate() {
+        return avgDefectRate;
+    }
+
+    public void setAvgDefectRate(Double avgDefectRate) {
+        this.avgDefectRate = avgDefectRate;
+    }
+}
@@ -0,0 +1,7 @@
+package com.example.machine_factory.dto;
+
+public enum StatsScope {
+    MACHINE,
+    LINE,
+    FACTORY
+}
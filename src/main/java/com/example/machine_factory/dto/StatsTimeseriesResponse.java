@@ -0,0 +1,87 @@
+package com.example.machine_factory.dto;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+public class StatsTimeseriesResponse {
+    private StatsScope scope;
+    private String id;
+    private Instant start;
+    private Instant end;
+    private Duration interval;
+    private Duration requestedInterval;
+    private List<StatsBucketResponse> buckets;
+
+    public StatsTimeseriesResponse(StatsScope scope, String id, Instant start, Instant end, Duration interval,
+            Duration requestedInterval, List<StatsBucketResponse> buckets) {
+        this.scope = scope;
+        this.id = id;
+        this.start = start;
+        this.end = end;
+        this.interval = interval;
+        this.requestedInterval = requestedInterval;
+        this.buckets = buckets;
+    }
+
+    public StatsScope getScope() {
+        return scope;
+    }
+
+    public void setScope(StatsScope scope) {
+        this.scope = scope;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public Instant getStart() {
+        return start;
+    }
+
+    public void setStart(Instant start) {
+        this.start = start;
+    }
+
+    public Instant getEnd() {
+        return end;
+    }
+
+    public void setEnd(Instant end) {
+        this.end = end;
+    }
+
+    // Wider than the requested interval when the window was downsampled
+    public Duration getInterval() {
+        return interval;
+    }
+
+    public void setInterval(Duration interval) {
+        this.interval = interval;
+    }
+
+    public Duration getRequestedInterval() {
+        return requestedInterval;
+    }
+
+    public void setRequestedInterval(Duration requestedInterval) {
+        this.requestedInterval = requestedInterval;
+    }
+
+    public boolean isDownsampled() {
+        return !interval.equals(requestedInterval);
+    }
+
+    public List<StatsBucketResponse> getBuckets() {
+        return buckets;
+    }
+
+    public void setBuckets(List<StatsBucketResponse> buckets) {
+        this.buckets = buckets;
+    }
+}
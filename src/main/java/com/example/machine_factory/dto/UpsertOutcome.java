@@ -0,0 +1,10 @@
+package com.example.machine_factory.dto;
+
+public enum UpsertOutcome {
+    INSERTED,
+    UPDATED,
+    DEDUPED,
+    IGNORED,
+    // A changed payload for an event already moved to cold storage
+    ARCHIVED
+}
@@ -2,10 +2,14 @@ package com.example.machine_factory.entity;
 
 import java.time.Instant;
 
+import org.hibernate.annotations.Formula;
+
 import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
 import jakarta.persistence.Table;
 
+// machine_events stores dictionary keys for the machine, line and factory (see IdentifierDictionary);
+// loading the entity maps them back to the IDs. Writes go through MachineEventRepositoryCustomImpl.
 @Entity
 @Table(name = "machine_events")
 public class MachineEvent {
@@ -13,10 +17,13 @@ public class MachineEvent {
     private String eventId;
     private Instant eventTime;
     private Instant receivedTime;
+    @Formula("(SELECT m.machine_id FROM machines m WHERE m.machine_key = machine_key)")
     private String machineId;
     private int durationMs;
     private Integer defectCount;
+    @Formula("(SELECT l.line_id FROM lines l WHERE l.line_key = line_key)")
     private String lineId;
+    @Formula("(SELECT f.factory_id FROM factories f WHERE f.factory_key = factory_key)")
     private String factoryId;
 
     public MachineEvent() {
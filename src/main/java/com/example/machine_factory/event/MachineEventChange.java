@@ -0,0 +1,33 @@
+package com.example.machine_factory.event;
+
+import com.example.machine_factory.dto.UpsertOutcome;
+import com.example.machine_factory.entity.MachineEvent;
+
+public class MachineEventChange {
+    private final MachineEvent current;
+    private final MachineEvent previous;
+    private final UpsertOutcome outcome;
+
+    public MachineEventChange(MachineEvent current, MachineEvent previous, UpsertOutcome outcome) {
+        this.current = current;
+        this.previous = previous;
+        this.outcome = outcome;
+    }
+
+    public MachineEvent getCurrent() {
+        return current;
+    }
+
+    public MachineEvent getPrevious() {
+        return previous;
+    }
+
+    public UpsertOutcome getOutcome() {
+        return outcome;
+    }
+
+    // An update whose replaced payload could not be read, so derived state cannot be corrected
+    public boolean isPreviousUnknown() {
+        return outcome == UpsertOutcome.UPDATED && previous == null;
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.machine_factory.event;
+
+import java.util.List;
+
+// Published inside the ingest transaction for every written (inserted or updated) event. Listeners
+// that keep derived state should act on it after commit.
+public class MachineEventsChangedEvent {
+    private final List<MachineEventChange> changes;
+
+    public MachineEventsChangedEvent(List<MachineEventChange> changes) {
+        this.changes = changes;
+    }
+
+    public List<MachineEventChange> getChanges() {
+        return changes;
+    }
+}
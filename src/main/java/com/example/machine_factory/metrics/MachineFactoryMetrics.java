@@ -0,0 +1,148 @@
+package com.example.machine_factory.metrics;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.stereotype.Component;
+
+import com.example.machine_factory.dto.MachineEventRejected;
+import com.example.machine_factory.dto.RejectionReason;
+import com.example.machine_factory.dto.UpsertOutcome;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+// Every meter is registered once up front, so the hot path only calls record/increment on a held
+// reference and never looks a meter up by name and tags. Stage timers take nanoTime deltas.
+@Component
+public class MachineFactoryMetrics {
+    public enum IngestStage {
+        BIND, VALIDATE, DEDUPE, UPSERT
+    }
+
+    public enum StatsStage {
+        MEMORY, EDGES, ROLLUP, RAW, TOP_DEFECT_LINES, BULK, TIMESERIES, COLD, SKETCH, DURATIONS
+    }
+
+    // Content-Encoding of request bodies decompressed by RequestDecompressionFilter
+    public enum RequestEncoding {
+        GZIP, ZSTD
+    }
+
+    private final Map<IngestStage, Timer> ingestStages = new EnumMap<>(IngestStage.class);
+    private final Map<StatsStage, Timer> statsStages = new EnumMap<>(StatsStage.class);
+    private final Map<RejectionReason, Counter> rejections = new EnumMap<>(RejectionReason.class);
+    private final Map<UpsertOutcome, Counter> outcomes = new EnumMap<>(UpsertOutcome.class);
+    private final DistributionSummary batchSize;
+    private final Map<RequestEncoding, DistributionSummary> compressionRatios = new EnumMap<>(RequestEncoding.class);
+    private final Map<RequestEncoding, Counter> compressedBytes = new EnumMap<>(RequestEncoding.class);
+    private final Map<RequestEncoding, Counter> decompressedBytes = new EnumMap<>(RequestEncoding.class);
+    private final Map<RequestEncoding, Counter> decompressionRejections = new EnumMap<>(RequestEncoding.class);
+
+    public MachineFactoryMetrics(MeterRegistry registry) {
+        for (IngestStage stage : IngestStage.values()) {
+            ingestStages.put(stage, stageTimer("machine_factory.ingest.stage", stage.name(), registry));
+        }
+        for (StatsStage stage : StatsStage.values()) {
+            statsStages.put(stage, stageTimer("machine_factory.stats.stage", stage.name(), registry));
+        }
+        for (RejectionReason reason : RejectionReason.values()) {
+            rejections.put(reason, Counter.builder("machine_factory.ingest.rejected")
+                .description("Events rejected by validation")
+                .tag("reason", reason.name())
+                .register(registry));
+        }
+        for (UpsertOutcome outcome : UpsertOutcome.values()) {
+            outcomes.put(outcome, Counter.builder("machine_factory.ingest.events")
+                .description("Valid events by upsert outcome")
+                .tag("outcome", outcome.name().toLowerCase())
+                .register(registry));
+        }
+        batchSize = DistributionSummary.builder("machine_factory.ingest.batch.size")
+            .description("Events per ingest batch, before validation")
+            .baseUnit("events")
+            .serviceLevelObjectives(1, 10, 100, 1_000, 5_000, 10_000, 20_000, 100_000)
+            .register(registry);
+        for (RequestEncoding encoding : RequestEncoding.values()) {
+            String tag = encoding.name().toLowerCase();
+            compressionRatios.put(encoding, DistributionSummary.builder("machine_factory.http.request.compression.ratio")
+                .description("Decompressed over compressed size of request bodies")
+                .tag("encoding", tag)
+                .serviceLevelObjectives(2, 5, 10, 20, 50, 100)
+                .register(registry));
+            compressedBytes.put(encoding, Counter.builder("machine_factory.http.request.compressed")
+                .baseUnit("bytes").tag("encoding", tag).register(registry));
+            decompressedBytes.put(encoding, Counter.builder("machine_factory.http.request.decompressed")
+                .baseUnit("bytes").tag("encoding", tag).register(registry));
+            decompressionRejections.put(encoding, Counter.builder("machine_factory.http.request.decompression.rejected")
+                .description("Request bodies cut off by the decompressed size or ratio limit")
+                .tag("encoding", tag)
+                .register(registry));
+        }
+    }
+
+    public void recordStage(IngestStage stage, long startNanos) {
+        ingestStages.get(stage).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordStage(IngestStage stage, long startNanos, long endNanos) {
+        ingestStages.get(stage).record(endNanos - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordStage(StatsStage stage, long startNanos) {
+        statsStages.get(stage).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordBatchSize(int events) {
+        batchSize.record(events);
+    }
+
+    public void recordRejections(List<MachineEventRejected> rejected) {
+        if (rejected.isEmpty()) {
+            return;
+        }
+        int[] counts = new int[RejectionReason.values().length];
+        for (MachineEventRejected rejection : rejected) {
+            counts[rejection.getReason().ordinal()]++;
+        }
+        for (RejectionReason reason : RejectionReason.values()) {
+            if (counts[reason.ordinal()] > 0) {
+                rejections.get(reason).increment(counts[reason.ordinal()]);
+            }
+        }
+    }
+
+    public void recordOutcomes(int[] countsByOutcome) {
+        for (UpsertOutcome outcome : UpsertOutcome.values()) {
+            if (countsByOutcome[outcome.ordinal()] > 0) {
+                outcomes.get(outcome).increment(countsByOutcome[outcome.ordinal()]);
+            }
+        }
+    }
+
+    public void recordDecompression(RequestEncoding encoding, long compressed, long decompressed) {
+        compressedBytes.get(encoding).increment(compressed);
+        decompressedBytes.get(encoding).increment(decompressed);
+        if (compressed > 0) {
+            compressionRatios.get(encoding).record((double) decompressed / compressed);
+        }
+    }
+
+    public void recordDecompressionRejected(RequestEncoding encoding) {
+        decompressionRejections.get(encoding).increment();
+    }
+
+    private static Timer stageTimer(String name, String stage, MeterRegistry registry) {
+        return Timer.builder(name)
+            .tag("stage", stage.toLowerCase())
+            .publishPercentileHistogram()
+            .minimumExpectedValue(Duration.ofNanos(1_000))
+            .maximumExpectedValue(Duration.ofSeconds(30))
+            .register(registry);
+    }
+}
@@ -0,0 +1,7 @@
+package com.example.machine_factory.repository;
+
+@FunctionalInterface
+public interface ColdEventCallback {
+    // defectCount is -1 when unknown
+    void accept(String machineId, long eventTimeMicros, int defectCount, String lineId, String factoryId);
+}
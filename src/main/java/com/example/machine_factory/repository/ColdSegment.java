@@ -0,0 +1,556 @@
+package com.example.machine_factory.repository;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.function.IntConsumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+import com.example.machine_factory.entity.MachineEvent;
+
+// An immutable file of archived events, sorted by machineId and eventTime, read through a
+// read-only memory mapping:
+//
+//   "MFCS" and the version byte 1
+//   blocks of up to BLOCK_EVENTS events of one machine, each a run of columns prefixed by their
+//   varint byte length:
+//     eventTime    zigzag varints of epoch microseconds, the difference to the previous event
+//                  (the first to the block's minimum)
+//     defectCount  zigzag varints, -1 unknown
+//     lineId       varints, dictionary index + 1, 0 for none
+//     factoryId    the same
+//     details      the varint raw length, then deflated: per event the eventId, receivedTime as a
+//                  zigzag difference to eventTime in microseconds, and durationMs as zigzag varint
+//   the footer: the dictionary of machine, line and factory IDs in String order, then per block
+//   its offset, machine (index + 1), minimum and maximum eventTime, event count and the smallest
+//   and largest factory (index + 1)
+//   the footer offset as 8 bytes, and "MFCS" again
+//
+// Varints and strings are encoded as in MachineEventBinaryCodec. Stats scans only decode the
+// first four columns of blocks whose machine, time range and factory range can match; details
+// are inflated only for durations and to read events back in full.
+public final class ColdSegment {
+    private static final byte[] MAGIC = { 'M', 'F', 'C', 'S' };
+    private static final byte VERSION = 1;
+    private static final int BLOCK_EVENTS = 4096;
+    private static final int TRAILER_BYTES = 8 + MAGIC.length;
+    private static final Comparator<MachineEvent> ORDER = Comparator
+        .comparing(MachineEvent::getMachineId, Comparator.nullsLast(Comparator.<String>naturalOrder()))
+        .thenComparing(MachineEvent::getEventTime)
+        .thenComparing(MachineEvent::getEventId);
+
+    private final String name;
+    private final ByteBuffer buffer;
+    private final String[] dictionary;
+    private final int[] blockOffsets;
+    private final int[] blockMachines;
+    private final long[] blockMinMicros;
+    private final long[] blockMaxMicros;
+    private final int[] blockCounts;
+    private final int[] blockMinFactories;
+    private final int[] blockMaxFactories;
+    private final long minMicros;
+    private final long maxMicros;
+    private final int eventsCount;
+
+    private ColdSegment(String name, ByteBuffer buffer) {
+        this.name = name;
+        this.buffer = buffer;
+        int size = buffer.capacity();
+        if (size < MAGIC.length + 1 + TRAILER_BYTES || !hasMagic(0) || !hasMagic(size - MAGIC.length)) {
+            throw new IllegalArgumentException("Not a cold segment");
+        }
+        if (buffer.get(MAGIC.length) != VERSION) {
+            throw new IllegalArgumentException("Unsupported cold segment version " + buffer.get(MAGIC.length));
+        }
+        long footerOffset = buffer.getLong(size - TRAILER_BYTES);
+        if (footerOffset < MAGIC.length + 1 || footerOffset > size - TRAILER_BYTES) {
+            throw new IllegalArgumentException("Footer offset " + footerOffset + " out of range");
+        }
+        Cursor footer = new Cursor(buffer, (int) footerOffset, size - TRAILER_BYTES);
+        dictionary = new String[footer.count()];
+        for (int i = 0; i < dictionary.length; i++) {
+            dictionary[i] = footer.string();
+        }
+        int blocks = footer.count();
+        blockOffsets = new int[blocks];
+        blockMachines = new int[blocks];
+        blockMinMicros = new long[blocks];
+        blockMaxMicros = new long[blocks];
+        blockCounts = new int[blocks];
+        blockMinFactories = new int[blocks];
+        blockMaxFactories = new int[blocks];
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        int count = 0;
+        for (int b = 0; b < blocks; b++) {
+            blockOffsets[b] = footer.index((int) footerOffset);
+            blockMachines[b] = footer.index(dictionary.length + 1);
+            blockMinMicros[b] = footer.zigzag();
+            blockMaxMicros[b] = blockMinMicros[b] + footer.varint();
+            blockCounts[b] = footer.index(BLOCK_EVENTS + 1);
+            blockMinFactories[b] = footer.index(dictionary.length + 1);
+            blockMaxFactories[b] = footer.index(dictionary.length + 1);
+            min = Math.min(min, blockMinMicros[b]);
+            max = Math.max(max, blockMaxMicros[b]);
+            count += blockCounts[b];
+        }
+        if (count == 0) {
+            throw new IllegalArgumentException("Cold segment without events");
+        }
+        minMicros = min;
+        maxMicros = max;
+        eventsCount = count;
+    }
+
+    public static ColdSegment open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Cold segment " + path + " is larger than 2 GB");
+            }
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new ColdSegment(path.getFileName().toString(), buffer);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt cold segment " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    // Writes and syncs the file; the events are sorted into a copy
+    public static void write(Path path, Collection<MachineEvent> events) throws IOException {
+        if (events.isEmpty()) {
+            throw new IllegalArgumentException("A cold segment needs at least one event");
+        }
+        List<MachineEvent> sorted = new ArrayList<>(events);
+        sorted.sort(ORDER);
+        TreeSet<String> ids = new TreeSet<>();
+        for (MachineEvent event : sorted) {
+            addId(ids, event.getMachineId());
+            addId(ids, event.getLineId());
+            addId(ids, event.getFactoryId());
+        }
+        Map<String, Integer> indexes = new HashMap<>();
+        for (String id : ids) {
+            indexes.put(id, indexes.size() + 1);
+        }
+
+        Output out = new Output(64 + sorted.size() * 16);
+        out.bytes(MAGIC, 0, MAGIC.length);
+        out.bytes(new byte[] { VERSION }, 0, 1);
+        Output index = new Output(256);
+        int blocks = 0;
+        int blockStart = 0;
+        for (int i = 1; i <= sorted.size(); i++) {
+            if (i == sorted.size() || i - blockStart == BLOCK_EVENTS
+                    || !Objects.equals(sorted.get(i).getMachineId(), sorted.get(blockStart).getMachineId())) {
+                writeBlock(out, index, sorted.subList(blockStart, i), indexes);
+                blocks++;
+                blockStart = i;
+            }
+        }
+
+        long footerOffset = out.size();
+        out.varint(ids.size());
+        ids.forEach(out::string);
+        out.varint(blocks);
+        out.bytes(index.buffer, 0, index.size());
+        out.bytes(ByteBuffer.allocate(8).putLong(footerOffset).array(), 0, 8);
+        out.bytes(MAGIC, 0, MAGIC.length);
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            ByteBuffer bytes = ByteBuffer.wrap(out.buffer, 0, out.size());
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(true);
+        }
+    }
+
+    private static void writeBlock(Output out, Output index, List<MachineEvent> events, Map<String, Integer> indexes)
+            throws IOException {
+        long min = toMicros(events.get(0).getEventTime());
+        long max = toMicros(events.get(events.size() - 1).getEventTime());
+        Output times = new Output(events.size() * 2);
+        Output defects = new Output(events.size());
+        Output lines = new Output(events.size());
+        Output factories = new Output(events.size());
+        Output details = new Output(events.size() * 24);
+        int minFactory = Integer.MAX_VALUE;
+        int maxFactory = 0;
+        long previous = min;
+        for (MachineEvent event : events) {
+            long micros = toMicros(event.getEventTime());
+            times.zigzag(micros - previous);
+            previous = micros;
+            defects.zigzag(event.getDefectCount() == null ? -1 : event.getDefectCount());
+            lines.varint(indexOf(indexes, event.getLineId()));
+            int factory = indexOf(indexes, event.getFactoryId());
+            factories.varint(factory);
+            minFactory = Math.min(minFactory, factory);
+            maxFactory = Math.max(maxFactory, factory);
+            details.string(event.getEventId());
+            details.zigzag(toMicros(Objects.requireNonNull(event.getReceivedTime(), "receivedTime")) - micros);
+            details.zigzag(event.getDurationMs());
+        }
+
+        index.varint(out.size());
+        index.varint(indexOf(indexes, events.get(0).getMachineId()));
+        index.zigzag(min);
+        index.varint(max - min);
+        index.varint(events.size());
+        index.varint(minFactory);
+        index.varint(maxFactory);
+
+        out.column(times);
+        out.column(defects);
+        out.column(lines);
+        out.column(factories);
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream(details.size() / 2 + 16);
+        try (DeflaterOutputStream deflater = new DeflaterOutputStream(deflated)) {
+            deflater.write(details.buffer, 0, details.size());
+        }
+        Output detailsColumn = new Output(deflated.size() + 5);
+        detailsColumn.varint(details.size());
+        detailsColumn.bytes(deflated.toByteArray(), 0, deflated.size());
+        out.column(detailsColumn);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Instant getMinEventTime() {
+        return toInstant(minMicros);
+    }
+
+    public Instant getMaxEventTime() {
+        return toInstant(maxMicros);
+    }
+
+    public int getEventsCount() {
+        return eventsCount;
+    }
+
+    public long getSizeBytes() {
+        return buffer.capacity();
+    }
+
+    public boolean overlaps(long startMicros, long endMicros) {
+        return minMicros < endMicros && maxMicros >= startMicros;
+    }
+
+    // Visits the events in [startMicros, endMicros) of the given machines (null for all), factory
+    // and line (null for any)
+    public void scan(Collection<String> machineIds, String factoryId, String lineId, long startMicros, long endMicros,
+            ColdEventCallback callback) {
+        scan(machineIds, factoryId, lineId, startMicros, endMicros, callback, null);
+    }
+
+    // The durationMs of the same events. Inflates the details column of every matching block.
+    public void scanDurations(Collection<String> machineIds, String factoryId, String lineId, long startMicros,
+            long endMicros, IntConsumer durations) {
+        scan(machineIds, factoryId, lineId, startMicros, endMicros, null, durations);
+    }
+
+    private void scan(Collection<String> machineIds, String factoryId, String lineId, long startMicros, long endMicros,
+            ColdEventCallback callback, IntConsumer durations) {
+        if (!overlaps(startMicros, endMicros)) {
+            return;
+        }
+        BitSet machines = null;
+        if (machineIds != null) {
+            machines = new BitSet(dictionary.length + 1);
+            for (String machineId : machineIds) {
+                int i = Arrays.binarySearch(dictionary, machineId);
+                if (i >= 0) {
+                    machines.set(i + 1);
+                }
+            }
+            if (machines.isEmpty()) {
+                return;
+            }
+        }
+        // 0 matches any; an ID that is not in the dictionary is in no event
+        int factory = factoryId == null ? 0 : Arrays.binarySearch(dictionary, factoryId) + 1;
+        int line = lineId == null ? 0 : Arrays.binarySearch(dictionary, lineId) + 1;
+        if ((factoryId != null && factory <= 0) || (lineId != null && line <= 0)) {
+            return;
+        }
+
+        for (int b = 0; b < blockOffsets.length; b++) {
+            if ((machines != null && !machines.get(blockMachines[b]))
+                    || blockMaxMicros[b] < startMicros || blockMinMicros[b] >= endMicros
+                    || (factory != 0 && (factory < blockMinFactories[b] || factory > blockMaxFactories[b]))) {
+                continue;
+            }
+            Cursor block = new Cursor(buffer, blockOffsets[b], buffer.capacity());
+            Cursor times = block.column();
+            Cursor defects = block.column();
+            Cursor lines = block.column();
+            Cursor factories = block.column();
+            Cursor details = null;
+            if (durations != null) {
+                try {
+                    details = inflate(block.column());
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Could not read cold segment " + name, e);
+                }
+            }
+            String machineId = id(blockMachines[b]);
+            long micros = blockMinMicros[b];
+            for (int i = 0; i < blockCounts[b]; i++) {
+                micros += times.zigzag();
+                int defectCount = (int) defects.zigzag();
+                int lineIndex = (int) lines.varint();
+                int factoryIndex = (int) factories.varint();
+                int durationMs = 0;
+                if (details != null) {
+                    details.skipString();
+                    details.zigzag();
+                    durationMs = (int) details.zigzag();
+                }
+                if (micros >= endMicros) {
+                    break;
+                }
+                if (micros < startMicros || (factory != 0 && factoryIndex != factory)
+                        || (line != 0 && lineIndex != line)) {
+                    continue;
+                }
+                if (durations != null) {
+                    durations.accept(durationMs);
+                } else {
+                    callback.accept(machineId, micros, defectCount, id(lineIndex), id(factoryIndex));
+                }
+            }
+        }
+    }
+
+    // Every event in full, in file order
+    public List<MachineEvent> readEvents() throws IOException {
+        List<MachineEvent> events = new ArrayList<>(eventsCount);
+        for (int b = 0; b < blockOffsets.length; b++) {
+            Cursor block = new Cursor(buffer, blockOffsets[b], buffer.capacity());
+            Cursor times = block.column();
+            Cursor defects = block.column();
+            Cursor lines = block.column();
+            Cursor factories = block.column();
+            Cursor details = inflate(block.column());
+            long micros = blockMinMicros[b];
+            for (int i = 0; i < blockCounts[b]; i++) {
+                micros += times.zigzag();
+                int defectCount = (int) defects.zigzag();
+                String eventId = details.string();
+                long receivedMicros = micros + details.zigzag();
+                events.add(new MachineEvent(eventId, toInstant(micros), toInstant(receivedMicros), id(blockMachines[b]),
+                    (int) details.zigzag(), defectCount == -1 ? null : defectCount, id((int) lines.varint()),
+                    id((int) factories.varint())));
+            }
+        }
+        return events;
+    }
+
+    private static Cursor inflate(Cursor column) throws IOException {
+        int rawLength = (int) column.varint();
+        byte[] raw = new byte[rawLength];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(column.buffer.slice(column.position, column.limit - column.position));
+            int inflated = 0;
+            while (inflated < rawLength && !inflater.finished()) {
+                int n = inflater.inflate(raw, inflated, rawLength - inflated);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += n;
+            }
+            if (inflated != rawLength) {
+                throw new IOException("Details column inflates to " + inflated + " bytes instead of " + rawLength);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt details column", e);
+        } finally {
+            inflater.end();
+        }
+        return new Cursor(ByteBuffer.wrap(raw), 0, rawLength);
+    }
+
+    private String id(int index) {
+        return index == 0 ? null : dictionary[index - 1];
+    }
+
+    private boolean hasMagic(int offset) {
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (buffer.get(offset + i) != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void addId(TreeSet<String> ids, String id) {
+        if (id != null) {
+            ids.add(id);
+        }
+    }
+
+    private static int indexOf(Map<String, Integer> indexes, String id) {
+        return id == null ? 0 : indexes.get(id);
+    }
+
+    // Event times are stored in microseconds, the precision of event_time
+    public static long toMicros(Instant instant) {
+        return Math.addExact(Math.multiplyExact(instant.getEpochSecond(), 1_000_000L), instant.getNano() / 1000);
+    }
+
+    public static Instant toInstant(long micros) {
+        return Instant.ofEpochSecond(Math.floorDiv(micros, 1_000_000L), Math.floorMod(micros, 1_000_000L) * 1000);
+    }
+
+    private static final class Cursor {
+        private final ByteBuffer buffer;
+        private int position;
+        private final int limit;
+
+        Cursor(ByteBuffer buffer, int position, int limit) {
+            this.buffer = buffer;
+            this.position = position;
+            this.limit = limit;
+        }
+
+        long varint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= limit) {
+                    throw new IllegalArgumentException("Cold segment ends inside a value");
+                }
+                byte b = buffer.get(position++);
+                value |= (long) (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Varint longer than 64 bits at byte " + position);
+        }
+
+        long zigzag() {
+            long value = varint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        // A non-negative value below bound
+        int index(int bound) {
+            long value = varint();
+            if (value < 0 || value >= bound) {
+                throw new IllegalArgumentException("Value " + value + " out of range before byte " + position);
+            }
+            return (int) value;
+        }
+
+        // A count of items of at least a byte each
+        int count() {
+            return index(limit - position + 1);
+        }
+
+        String string() {
+            long length = varint();
+            if (length == 0) {
+                return null;
+            }
+            if (length - 1 > limit - position) {
+                throw new IllegalArgumentException("String exceeds the segment at byte " + position);
+            }
+            byte[] bytes = new byte[(int) (length - 1)];
+            buffer.get(position, bytes);
+            position += bytes.length;
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        void skipString() {
+            long length = varint();
+            if (length - 1 > limit - position) {
+                throw new IllegalArgumentException("String exceeds the segment at byte " + position);
+            }
+            position += (int) Math.max(0, length - 1);
+        }
+
+        // The column at the cursor, which moves on to the next one
+        Cursor column() {
+            int length = (int) varint();
+            Cursor column = new Cursor(buffer, position, position + length);
+            position += length;
+            return column;
+        }
+    }
+
+    private static final class Output {
+        private byte[] buffer;
+        private int size;
+
+        Output(int capacity) {
+            buffer = new byte[Math.max(16, capacity)];
+        }
+
+        int size() {
+            return size;
+        }
+
+        void varint(long value) {
+            ensure(10);
+            while ((value & ~0x7fL) != 0) {
+                buffer[size++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        void zigzag(long value) {
+            varint((value << 1) ^ (value >> 63));
+        }
+
+        void string(String value) {
+            if (value == null) {
+                varint(0);
+                return;
+            }
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            varint(utf8.length + 1L);
+            bytes(utf8, 0, utf8.length);
+        }
+
+        void column(Output column) {
+            varint(column.size);
+            bytes(column.buffer, 0, column.size);
+        }
+
+        void bytes(byte[] value, int offset, int length) {
+            ensure(length);
+            System.arraycopy(value, offset, buffer, size, length);
+            size += length;
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+            }
+        }
+    }
+}
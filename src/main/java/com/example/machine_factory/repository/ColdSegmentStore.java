@@ -0,0 +1,447 @@
+package com.example.machine_factory.repository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.example.machine_factory.dto.MachineStatsQueryResult;
+import com.example.machine_factory.dto.StatsScope;
+import com.example.machine_factory.entity.MachineEvent;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import jakarta.annotation.PostConstruct;
+
+// The cold tier: ColdSegment files under `directory` that are listed in cold_segments, mapped at
+// startup. archiveBatch moves a batch of events from machine_events into a new segment in the
+// caller's transaction, and the segment is added to the scans when that transaction commits,
+// under the write lock. Stats queries that combine the table with the segments run under the read
+// lock (read()), so every batch is counted exactly once: still in the table, or in its segment.
+// Segments are local files, so the tier belongs to one instance.
+@Repository
+public class ColdSegmentStore implements MeterBinder {
+    private static final Logger log = LoggerFactory.getLogger(ColdSegmentStore.class);
+    private static final String SUFFIX = ".mfcs";
+    private static final DateTimeFormatter NAME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd_HHmm").withZone(ZoneOffset.UTC);
+    // An unlisted file younger than this may belong to a batch that is about to commit
+    private static final Duration ORPHAN_AGE = Duration.ofHours(1);
+
+    // The next `limit` events of the range in machineId order, deleted and returned with their
+    // IDs. The rollup trigger runs as for any delete, while the keys stay, marked archived with the
+    // hash of the archived payload so that a resend is recognized (see V7). A row updated meanwhile
+    // is deleted in its new version, or not at all when the update moved its eventTime.
+    private static final String ARCHIVE_BATCH_SQL = """
+        WITH batch AS (
+            SELECT e.event_id, e.event_time
+            FROM machine_events e
+            LEFT JOIN machines m ON m.machine_key = e.machine_key
+            WHERE e.event_time >= ? AND e.event_time < ?
+            ORDER BY m.machine_id COLLATE "C", e.event_time
+            LIMIT ?
+        ),
+        archived AS (
+            DELETE FROM machine_events e USING batch b
+            WHERE e.event_id = b.event_id AND e.event_time = b.event_time
+            RETURNING e.event_id, e.event_time, e.received_time, e.machine_key, e.duration_ms, e.defect_count,
+                e.line_key, e.factory_key
+        ),
+        archived_keys AS (
+            UPDATE machine_event_ids k SET archived = true,
+                payload_hash = machine_event_payload_hash(a.event_time, a.machine_key, a.duration_ms, a.defect_count,
+                    a.line_key, a.factory_key)
+            FROM archived a
+            WHERE k.event_id = a.event_id AND k.event_time = a.event_time
+        )
+        SELECT a.event_id, a.event_time, a.received_time, m.machine_id, a.duration_ms, a.defect_count,
+            l.line_id, f.factory_id
+        FROM archived a
+        LEFT JOIN machines m ON m.machine_key = a.machine_key
+        LEFT JOIN lines l ON l.line_key = a.line_key
+        LEFT JOIN factories f ON f.factory_key = a.factory_key
+        """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Path directory;
+    private final boolean enabled;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // Replaced, never modified
+    private volatile List<ColdSegment> segments = List.of();
+    // Without segments and without archiving, queries skip the lock
+    private volatile boolean active;
+    private final LongAdder archived = new LongAdder();
+
+    public ColdSegmentStore(JdbcTemplate jdbcTemplate,
+            @Value("${machine-factory.cold-storage.directory:cold-segments}") String directory,
+            @Value("${machine-factory.cold-storage.enabled:false}") boolean enabled) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.directory = Path.of(directory);
+        this.enabled = enabled;
+    }
+
+    @PostConstruct
+    void load() {
+        List<String> names = jdbcTemplate.queryForList("SELECT name FROM cold_segments ORDER BY min_event_time, name",
+            String.class);
+        List<ColdSegment> loaded = new ArrayList<>();
+        for (String name : names) {
+            try {
+                loaded.add(ColdSegment.open(directory.resolve(name)));
+            } catch (NoSuchFileException e) {
+                log.error("Cold segment {} is missing from {}, its events are not counted", name, directory.toAbsolutePath());
+            } catch (IOException e) {
+                log.error("Could not open cold segment {}, its events are not counted: {}", name, e.getMessage());
+            }
+        }
+        segments = List.copyOf(loaded);
+        active = enabled || !loaded.isEmpty();
+        removeOrphans(new HashSet<>(names));
+        if (!loaded.isEmpty()) {
+            log.info("Mapped {} cold segments with {} events", loaded.size(), getEventsCount());
+        }
+    }
+
+    // Runs a query over the table and the segments, with no batch moving between them meanwhile
+    public <T> T read(Supplier<T> query) {
+        if (!active) {
+            return query.get();
+        }
+        lock.readLock().lock();
+        try {
+            return query.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Whether queries need read() at all: segments exist or archiving is enabled
+    public boolean isActive() {
+        return active;
+    }
+
+    public boolean overlaps(Instant start, Instant end) {
+        long startMicros = ColdSegment.toMicros(start);
+        long endMicros = ColdSegment.toMicros(end);
+        for (ColdSegment segment : segments) {
+            if (segment.overlaps(startMicros, endMicros)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public Instant findOldestEventBefore(Instant cutoff) {
+        OffsetDateTime oldest = jdbcTemplate.queryForObject("SELECT min(event_time) FROM machine_events WHERE event_time < ?",
+            OffsetDateTime.class, timestamp(cutoff));
+        return oldest == null ? null : oldest.toInstant();
+    }
+
+    // Moves up to `limit` events of [from, to) into a new segment and returns how many. Must run in
+    // a transaction; the file is written and synced before the delete commits, and removed again
+    // when it rolls back.
+    public int archiveBatch(Instant from, Instant to, int limit) {
+        List<MachineEvent> events = jdbcTemplate.query(ARCHIVE_BATCH_SQL, (rs, rowNum) -> new MachineEvent(
+                rs.getString(1), rs.getObject(2, OffsetDateTime.class).toInstant(),
+                rs.getObject(3, OffsetDateTime.class).toInstant(), rs.getString(4), rs.getInt(5),
+                rs.getObject(6, Integer.class), rs.getString(7), rs.getString(8)),
+            timestamp(from), timestamp(to), limit);
+        if (events.isEmpty()) {
+            return 0;
+        }
+        active = true;
+        String name = "segment_" + NAME_FORMAT.format(from) + "_" + UUID.randomUUID() + SUFFIX;
+        Publication publication = new Publication(directory.resolve(name));
+        TransactionSynchronizationManager.registerSynchronization(publication);
+        try {
+            Files.createDirectories(directory);
+            ColdSegment.write(publication.path, events);
+            publication.segment = ColdSegment.open(publication.path);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write cold segment " + publication.path, e);
+        }
+        jdbcTemplate.update("INSERT INTO cold_segments (name, min_event_time, max_event_time, events_count) VALUES (?, ?, ?, ?)",
+            name, timestamp(publication.segment.getMinEventTime()), timestamp(publication.segment.getMaxEventTime()),
+            publication.segment.getEventsCount());
+        return events.size();
+    }
+
+    // Deletes the segments whose events all happened before the cutoff (cold retention)
+    public int deleteSegmentsBefore(Instant cutoff) {
+        List<ColdSegment> expired = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            List<ColdSegment> kept = new ArrayList<>();
+            for (ColdSegment segment : segments) {
+                if (segment.getMaxEventTime().isBefore(cutoff)) {
+                    expired.add(segment);
+                } else {
+                    kept.add(segment);
+                }
+            }
+            for (ColdSegment segment : expired) {
+                jdbcTemplate.update("DELETE FROM cold_segments WHERE name = ?", segment.getName());
+            }
+            // The keys of the deleted events go too, except where a kept segment covers the time
+            Instant latest = null;
+            for (ColdSegment segment : expired) {
+                if (latest == null || segment.getMaxEventTime().isAfter(latest)) {
+                    latest = segment.getMaxEventTime();
+                }
+            }
+            if (latest != null) {
+                jdbcTemplate.update("""
+                    DELETE FROM machine_event_ids k
+                    WHERE k.archived AND k.event_time <= ?
+                        AND NOT EXISTS (SELECT 1 FROM cold_segments s
+                            WHERE k.event_time BETWEEN s.min_event_time AND s.max_event_time)
+                    """, timestamp(latest));
+            }
+            segments = List.copyOf(kept);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        // The mappings go away with the segments; the files can be removed while still mapped
+        for (ColdSegment segment : expired) {
+            deleteQuietly(directory.resolve(segment.getName()));
+        }
+        return expired.size();
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    public long getEventsCount() {
+        long count = 0;
+        for (ColdSegment segment : segments) {
+            count += segment.getEventsCount();
+        }
+        return count;
+    }
+
+    public long getSizeBytes() {
+        long bytes = 0;
+        for (ColdSegment segment : segments) {
+            bytes += segment.getSizeBytes();
+        }
+        return bytes;
+    }
+
+    // Scans below are meant to run inside read(), together with the table query they complement
+
+    public MachineStatsQueryResult getMachineStats(String machineId, Instant start, Instant end) {
+        Totals totals = new Totals();
+        scan(List.of(machineId), null, null, start, end,
+            (machine, micros, defectCount, line, factory) -> totals.add(defectCount));
+        return totals.toResult();
+    }
+
+    // Per machine, of the given machines or of every machine with events of the factory
+    public Map<String, MachineStatsQueryResult> getMachineStats(Collection<String> machineIds, String factoryId,
+            Instant start, Instant end) {
+        Map<String, Totals> totals = new HashMap<>();
+        scan(machineIds, factoryId, null, start, end, (machine, micros, defectCount, line, factory) -> {
+            if (machine != null) {
+                totals.computeIfAbsent(machine, m -> new Totals()).add(defectCount);
+            }
+        });
+        return toResults(totals);
+    }
+
+    // Per line of the factory; events without a line are under null
+    public Map<String, MachineStatsQueryResult> getLineStats(String factoryId, Instant start, Instant end) {
+        Map<String, Totals> totals = new HashMap<>();
+        scan(null, factoryId, null, start, end,
+            (machine, micros, defectCount, line, factory) -> totals.computeIfAbsent(line, l -> new Totals()).add(defectCount));
+        return toResults(totals);
+    }
+
+    // Like MachineEventRepositoryCustom.forEachStatsBucket: buckets without events are not reported
+    public void forEachStatsBucket(StatsScope scope, String id, String factoryId, Instant start, Instant end,
+            Duration interval, StatsBucketCallback callback) {
+        long startMicros = ColdSegment.toMicros(start);
+        long intervalMicros = interval.toNanos() / 1000;
+        int bucketCount = (int) Math.ceilDiv(ColdSegment.toMicros(end) - startMicros, intervalMicros);
+        long[] eventsCounts = new long[bucketCount];
+        long[] defectsSums = new long[bucketCount];
+        long[] defectEvents = new long[bucketCount];
+        ColdEventCallback count = (machine, micros, defectCount, line, factory) -> {
+            int bucket = (int) ((micros - startMicros) / intervalMicros);
+            eventsCounts[bucket]++;
+            if (defectCount >= 0) {
+                defectsSums[bucket] += defectCount;
+                defectEvents[bucket]++;
+            }
+        };
+        switch (scope) {
+            case MACHINE -> scan(List.of(id), null, null, start, end, count);
+            case LINE -> scan(null, factoryId, id, start, end, count);
+            case FACTORY -> scan(null, id, null, start, end, count);
+        }
+        for (int i = 0; i < bucketCount; i++) {
+            if (eventsCounts[i] > 0) {
+                callback.accept(i, eventsCounts[i], defectEvents[i] == 0 ? null : defectsSums[i]);
+            }
+        }
+    }
+
+    // Adds the durations of the scope's archived events in [start, end) to the histogram
+    public void addDurations(StatsScope scope, String id, String factoryId, Instant start, Instant end,
+            DurationHistogram histogram) {
+        long startMicros = ColdSegment.toMicros(start);
+        long endMicros = ColdSegment.toMicros(end);
+        for (ColdSegment segment : segments) {
+            switch (scope) {
+                case MACHINE -> segment.scanDurations(List.of(id), null, null, startMicros, endMicros, histogram::record);
+                case LINE -> segment.scanDurations(null, factoryId, id, startMicros, endMicros, histogram::record);
+                case FACTORY -> segment.scanDurations(null, id, null, startMicros, endMicros, histogram::record);
+            }
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("machine_factory.cold_storage.segments", this, ColdSegmentStore::getSegmentCount)
+            .register(registry);
+        Gauge.builder("machine_factory.cold_storage.events", this, ColdSegmentStore::getEventsCount)
+            .register(registry);
+        Gauge.builder("machine_factory.cold_storage.size", this, ColdSegmentStore::getSizeBytes)
+            .baseUnit("bytes").register(registry);
+        FunctionCounter.builder("machine_factory.cold_storage.archived", archived, LongAdder::sum)
+            .description("Events moved from machine_events into cold segments")
+            .register(registry);
+    }
+
+    private void scan(Collection<String> machineIds, String factoryId, String lineId, Instant start, Instant end,
+            ColdEventCallback callback) {
+        long startMicros = ColdSegment.toMicros(start);
+        long endMicros = ColdSegment.toMicros(end);
+        for (ColdSegment segment : segments) {
+            segment.scan(machineIds, factoryId, lineId, startMicros, endMicros, callback);
+        }
+    }
+
+    private void removeOrphans(Set<String> listed) {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        Instant orphanedBefore = Instant.now().minus(ORPHAN_AGE);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                if (!listed.contains(file.getFileName().toString())
+                        && Files.getLastModifiedTime(file).toInstant().isBefore(orphanedBefore)) {
+                    log.info("Removing cold segment {} of a batch that did not commit", file.getFileName());
+                    deleteQuietly(file);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Could not look for orphaned cold segments in {}: {}", directory, e.getMessage());
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Could not delete cold segment {}: {}", path, e.getMessage());
+        }
+    }
+
+    private static Map<String, MachineStatsQueryResult> toResults(Map<String, Totals> totals) {
+        Map<String, MachineStatsQueryResult> results = new HashMap<>();
+        totals.forEach((key, value) -> results.put(key, value.toResult()));
+        return results;
+    }
+
+    private static OffsetDateTime timestamp(Instant instant) {
+        return instant.atOffset(ZoneOffset.UTC);
+    }
+
+    private static final class Totals {
+        private long events;
+        private long defects;
+        private long defectEvents;
+
+        void add(int defectCount) {
+            events++;
+            if (defectCount >= 0) {
+                defects += defectCount;
+                defectEvents++;
+            }
+        }
+
+        MachineStatsQueryResult toResult() {
+            return new MachineStatsQueryResult(events, defectEvents == 0 ? null : defects);
+        }
+    }
+
+    // Makes a batch's segment visible exactly when its delete commits. The write lock is held from
+    // before the commit until the segment list is updated, so no read() sees the table without the
+    // batch and the segments without it, or both with it.
+    private final class Publication implements TransactionSynchronization {
+        private final Path path;
+        private ColdSegment segment;
+        private boolean locked;
+
+        Publication(Path path) {
+            this.path = path;
+        }
+
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            lock.writeLock().lock();
+            locked = true;
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            try {
+                if (status == STATUS_COMMITTED && segment != null) {
+                    List<ColdSegment> updated = new ArrayList<>(segments);
+                    updated.add(segment);
+                    segments = List.copyOf(updated);
+                    archived.add(segment.getEventsCount());
+                } else if (status == STATUS_ROLLED_BACK) {
+                    deleteQuietly(path);
+                } else {
+                    // Listed or not, the next start decides from cold_segments
+                    log.warn("Commit of cold segment {} has an unknown outcome, it is counted after a restart if it committed",
+                        path.getFileName());
+                }
+            } finally {
+                if (locked) {
+                    lock.writeLock().unlock();
+                }
+            }
+        }
+    }
+}
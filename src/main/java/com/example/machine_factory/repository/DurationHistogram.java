@@ -0,0 +1,67 @@
+package com.example.machine_factory.repository;
+
+// Event counts per duration bin, with the bins of machine_duration_bin (V5 migration): one per
+// millisecond below 128 ms, then 64 per power of two. Histograms merge by adding counts, so a
+// window costs one pass over its buckets' bins whatever the number of events. A percentile is
+// reported as the middle of its bin, within 1/128 of the true duration.
+public final class DurationHistogram {
+    // Bin of Integer.MAX_VALUE is 64 * 24 + 127
+    public static final int BINS = 64 * 26;
+
+    private final long[] counts = new long[BINS];
+    private long count;
+
+    public static int bin(int durationMs) {
+        if (durationMs < 128) {
+            return Math.max(durationMs, 0);
+        }
+        int shift = 32 - Integer.numberOfLeadingZeros(durationMs) - 7;
+        return 64 * shift + (durationMs >> shift);
+    }
+
+    public static long lowerBound(int bin) {
+        if (bin < 128) {
+            return bin;
+        }
+        int shift = bin / 64 - 1;
+        return (long) (bin - 64 * shift) << shift;
+    }
+
+    // Inclusive
+    public static long upperBound(int bin) {
+        if (bin < 128) {
+            return bin;
+        }
+        int shift = bin / 64 - 1;
+        return ((long) (bin - 64 * shift + 1) << shift) - 1;
+    }
+
+    public void add(int bin, long events) {
+        counts[bin] += events;
+        count += events;
+    }
+
+    public void record(int durationMs) {
+        add(bin(durationMs), 1);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    // Nearest rank: the duration of the event at rank ceil(quantile * count); null without events
+    public Long percentile(double quantile) {
+        if (count <= 0) {
+            return null;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int bin = 0; bin < BINS; bin++) {
+            seen += counts[bin];
+            if (seen >= rank) {
+                return (lowerBound(bin) + upperBound(bin)) / 2;
+            }
+        }
+        return upperBound(BINS - 1);
+    }
+}
@@ -0,0 +1,321 @@
+package com.example.machine_factory.repository;
+
+import java.sql.PreparedStatement;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+// Scalable Bloom filter of the eventIds in machine_event_ids. An ID it does not contain is new,
+// so the event can skip the claim and the lookup of its current row. The filter is only a hint:
+// an ID missed by it (written by another instance, or during a seed) conflicts on insert and
+// falls back to the regular upsert, and deleted IDs stay in it as false positives until the next
+// seed. When a segment is full a new one is added with twice the capacity and half the false
+// positive rate, so the rates sum to at most false-positive-rate, until max-bytes is reached and
+// the last segment keeps filling up.
+@Repository
+public class EventIdFilter implements MeterBinder {
+    private static final Logger log = LoggerFactory.getLogger(EventIdFilter.class);
+
+    private final JdbcTemplate jdbcTemplate;
+    // Not read-only, so it runs on the primary: a seed from a lagging replica would miss commits
+    private final TransactionTemplate seedTransaction;
+    private final boolean enabled;
+    private final long initialCapacity;
+    private final double falsePositiveRate;
+    private final long maxBytes;
+    private final ReentrantLock seedLock = new ReentrantLock();
+    // Null until the first seed has finished; every ID is then possibly known
+    private volatile ScalableBloomFilter filter;
+    // The filter being seeded, which receives concurrent writes as well
+    private volatile ScalableBloomFilter seeding;
+    private final LongAdder newEvents = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+
+    public EventIdFilter(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+            @Value("${machine-factory.ingest.event-id-filter.enabled:true}") boolean enabled,
+            @Value("${machine-factory.ingest.event-id-filter.initial-capacity:1000000}") long initialCapacity,
+            @Value("${machine-factory.ingest.event-id-filter.false-positive-rate:0.01}") double falsePositiveRate,
+            @Value("${machine-factory.ingest.event-id-filter.max-bytes:256MB}") DataSize maxBytes) {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("machine-factory.ingest.event-id-filter.false-positive-rate must be in (0, 1)");
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.seedTransaction = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.initialCapacity = Math.max(1_000, initialCapacity);
+        this.falsePositiveRate = falsePositiveRate;
+        this.maxBytes = maxBytes.toBytes();
+    }
+
+    // Seeding reads every key, so it runs off the startup thread; until then nothing is known new
+    @EventListener(ApplicationReadyEvent.class)
+    public void seedAsync() {
+        if (enabled) {
+            CompletableFuture.runAsync(this::seed);
+        }
+    }
+
+    public void seed() {
+        if (!enabled) {
+            return;
+        }
+        seedLock.lock();
+        try {
+            long start = System.nanoTime();
+            Long estimate = jdbcTemplate.queryForObject(
+                "SELECT GREATEST(reltuples, 0)::bigint FROM pg_class WHERE oid = 'machine_event_ids'::regclass", Long.class);
+            ScalableBloomFilter next = new ScalableBloomFilter(Math.max(initialCapacity, estimate == null ? 0 : estimate));
+            // Published before the scan starts, so writes from here on reach the new filter too
+            seeding = next;
+            try {
+                seedTransaction.executeWithoutResult(status -> jdbcTemplate.query(con -> {
+                    PreparedStatement ps = con.prepareStatement("SELECT event_id FROM machine_event_ids");
+                    ps.setFetchSize(10_000);
+                    return ps;
+                }, rs -> {
+                    next.put(rs.getString(1));
+                }));
+                filter = next;
+            } finally {
+                seeding = null;
+            }
+            log.info("Event ID filter seeded with {} IDs in {} ms ({} bytes)", next.size(),
+                Duration.ofNanos(System.nanoTime() - start).toMillis(), next.bytes());
+        } finally {
+            seedLock.unlock();
+        }
+    }
+
+    // False means the ID is certainly not stored (unless written by another instance since the seed)
+    public boolean mightContain(String eventId) {
+        ScalableBloomFilter current = filter;
+        return current == null || current.mightContain(eventId);
+    }
+
+    public void putAll(Collection<String> eventIds) {
+        ScalableBloomFilter current = filter;
+        ScalableBloomFilter next = seeding;
+        for (String eventId : eventIds) {
+            if (current != null) {
+                current.put(eventId);
+            }
+            if (next != null) {
+                next.put(eventId);
+            }
+        }
+    }
+
+    // Events sent down the insert path because the filter did not contain them
+    public void recordNewEvents(int count) {
+        newEvents.add(count);
+    }
+
+    // Events the filter possibly contained that turned out to be new; before the first seed every
+    // event is possibly known, so those are not false positives
+    public void recordFalsePositives(int count) {
+        if (filter != null) {
+            falsePositives.add(count);
+        }
+    }
+
+    // Events the filter did not contain whose ID already existed
+    public void recordConflicts(int count) {
+        conflicts.add(count);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("machine_factory.event_id_filter.bytes", this, f -> f.filter == null ? 0 : f.filter.bytes())
+            .baseUnit("bytes").register(registry);
+        Gauge.builder("machine_factory.event_id_filter.ids", this, f -> f.filter == null ? 0 : f.filter.size())
+            .register(registry);
+        Gauge.builder("machine_factory.event_id_filter.expected_false_positive_rate", this,
+            f -> f.filter == null ? 1 : f.filter.expectedFalsePositiveRate()).register(registry);
+        FunctionCounter.builder("machine_factory.event_id_filter.new_events", newEvents, LongAdder::sum)
+            .register(registry);
+        FunctionCounter.builder("machine_factory.event_id_filter.false_positives", falsePositives, LongAdder::sum)
+            .register(registry);
+        FunctionCounter.builder("machine_factory.event_id_filter.conflicts", conflicts, LongAdder::sum)
+            .register(registry);
+    }
+
+    // FNV-1a over the chars, finished with the murmur3 64-bit mixer
+    static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    final class ScalableBloomFilter {
+        private final ReentrantLock growLock = new ReentrantLock();
+        private volatile BloomFilter[] segments;
+
+        ScalableBloomFilter(long capacity) {
+            segments = new BloomFilter[] { new BloomFilter(capacity, falsePositiveRate / 2) };
+        }
+
+        boolean mightContain(String eventId) {
+            long h1 = hash(eventId);
+            long h2 = mix(h1 ^ 0x9e3779b97f4a7c15L);
+            for (BloomFilter segment : segments) {
+                if (segment.mightContain(h1, h2)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void put(String eventId) {
+            long h1 = hash(eventId);
+            long h2 = mix(h1 ^ 0x9e3779b97f4a7c15L);
+            BloomFilter[] current = segments;
+            BloomFilter last = current[current.length - 1];
+            if (last.isFull()) {
+                last = grow(current);
+            }
+            last.put(h1, h2);
+        }
+
+        private BloomFilter grow(BloomFilter[] seen) {
+            growLock.lock();
+            try {
+                BloomFilter[] current = segments;
+                BloomFilter last = current[current.length - 1];
+                if (current != seen && !last.isFull()) {
+                    return last;
+                }
+                BloomFilter next = new BloomFilter(last.capacity * 2, last.falsePositiveRate / 2);
+                if (bytes() + next.bytes() > maxBytes) {
+                    return last;
+                }
+                BloomFilter[] grown = Arrays.copyOf(current, current.length + 1);
+                grown[current.length] = next;
+                segments = grown;
+                return next;
+            } finally {
+                growLock.unlock();
+            }
+        }
+
+        long size() {
+            long size = 0;
+            for (BloomFilter segment : segments) {
+                size += segment.count.get();
+            }
+            return size;
+        }
+
+        long bytes() {
+            long bytes = 0;
+            for (BloomFilter segment : segments) {
+                bytes += segment.bytes();
+            }
+            return bytes;
+        }
+
+        double expectedFalsePositiveRate() {
+            double none = 1;
+            for (BloomFilter segment : segments) {
+                none *= 1 - segment.expectedFalsePositiveRate();
+            }
+            return 1 - none;
+        }
+    }
+
+    static final class BloomFilter {
+        private final long capacity;
+        private final double falsePositiveRate;
+        private final long bitSize;
+        private final int hashes;
+        private final AtomicLongArray bits;
+        // IDs that set at least one new bit
+        private final AtomicLong count = new AtomicLong();
+
+        BloomFilter(long capacity, double falsePositiveRate) {
+            this.capacity = capacity;
+            this.falsePositiveRate = falsePositiveRate;
+            long words = (long) Math.ceil(-capacity * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)) / 64);
+            this.bits = new AtomicLongArray((int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, words)));
+            this.bitSize = bits.length() * 64L;
+            this.hashes = Math.max(1, (int) Math.round((double) bitSize / capacity * Math.log(2)));
+        }
+
+        boolean isFull() {
+            return count.get() >= capacity;
+        }
+
+        // Double hashing: the i-th bit is h1 + i * h2
+        boolean mightContain(long h1, long h2) {
+            long combined = h1;
+            for (int i = 0; i < hashes; i++) {
+                long bit = (combined & Long.MAX_VALUE) % bitSize;
+                if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+                combined += h2;
+            }
+            return true;
+        }
+
+        void put(long h1, long h2) {
+            boolean changed = false;
+            long combined = h1;
+            for (int i = 0; i < hashes; i++) {
+                long bit = (combined & Long.MAX_VALUE) % bitSize;
+                int word = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                if ((bits.get(word) & mask) == 0) {
+                    bits.getAndAccumulate(word, mask, (a, b) -> a | b);
+                    changed = true;
+                }
+                combined += h2;
+            }
+            if (changed) {
+                count.incrementAndGet();
+            }
+        }
+
+        long bytes() {
+            return bitSize / 8;
+        }
+
+        // (1 - e^(-k n / m))^k for the IDs added so far
+        double expectedFalsePositiveRate() {
+            return Math.pow(1 - Math.exp(-(double) hashes * count.get() / bitSize), hashes);
+        }
+    }
+}
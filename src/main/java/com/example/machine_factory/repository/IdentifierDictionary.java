@@ -0,0 +1,167 @@
+package com.example.machine_factory.repository;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.example.machine_factory.entity.MachineEvent;
+
+// Maps machine, line and factory IDs to the int keys stored in machine_events and
+// machine_stats_rollup. Keys are never deleted or reused, so every committed key is cached for the
+// life of the process. A key created by the current transaction is only visible to that
+// transaction until it commits, so a rollback never leaves a key in the cache without its row.
+@Repository
+public class IdentifierDictionary {
+    public enum Kind {
+        MACHINE("machines", "machine_key", "machine_id"),
+        LINE("lines", "line_key", "line_id"),
+        FACTORY("factories", "factory_key", "factory_id");
+
+        private final String selectSql;
+        private final String insertSql;
+
+        Kind(String table, String keyColumn, String idColumn) {
+            this.selectSql = "SELECT " + keyColumn + ", " + idColumn + " FROM " + table
+                + " WHERE " + idColumn + " = ANY(?::text[])";
+            // Sorted, so concurrent transactions creating the same IDs lock them in the same order
+            this.insertSql = "INSERT INTO " + table + " (" + idColumn + ")"
+                + " SELECT id FROM unnest(?::text[]) AS t(id) ORDER BY id"
+                + " ON CONFLICT (" + idColumn + ") DO NOTHING RETURNING " + keyColumn + ", " + idColumn;
+        }
+    }
+
+    private record Identifier(String id, int key) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Map<Kind, Map<String, Identifier>> cache = new EnumMap<>(Kind.class);
+
+    public IdentifierDictionary(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        for (Kind kind : Kind.values()) {
+            cache.put(kind, new ConcurrentHashMap<>());
+        }
+    }
+
+    // Makes sure every identifier of the events has a key, creating the missing ones. Cached IDs
+    // are replaced by the cached String instance, so the copies bound from JSON can be collected.
+    public void resolve(Collection<MachineEvent> events) {
+        Map<Kind, Set<String>> missing = new EnumMap<>(Kind.class);
+        for (MachineEvent event : events) {
+            intern(Kind.MACHINE, event.getMachineId(), event::setMachineId, missing);
+            intern(Kind.LINE, event.getLineId(), event::setLineId, missing);
+            intern(Kind.FACTORY, event.getFactoryId(), event::setFactoryId, missing);
+        }
+        // Kinds in a fixed order, for the same reason the IDs are sorted
+        for (Kind kind : Kind.values()) {
+            Set<String> ids = missing.get(kind);
+            if (ids != null) {
+                load(kind, ids);
+            }
+        }
+    }
+
+    // The key of an ID resolved earlier, or null for a null ID
+    public Integer key(Kind kind, String id) {
+        if (id == null) {
+            return null;
+        }
+        Identifier identifier = cache.get(kind).get(id);
+        if (identifier != null) {
+            return identifier.key();
+        }
+        Map<Kind, Map<String, Integer>> created = createdInTransaction(false);
+        Integer key = created == null ? null : created.getOrDefault(kind, Map.of()).get(id);
+        if (key == null) {
+            throw new IllegalStateException(kind + " " + id + " was not resolved");
+        }
+        return key;
+    }
+
+    private void intern(Kind kind, String id, Consumer<String> setter, Map<Kind, Set<String>> missing) {
+        if (id == null) {
+            return;
+        }
+        Identifier identifier = cache.get(kind).get(id);
+        if (identifier != null) {
+            if (identifier.id() != id) {
+                setter.accept(identifier.id());
+            }
+            return;
+        }
+        Map<Kind, Map<String, Integer>> created = createdInTransaction(false);
+        if (created == null || !created.getOrDefault(kind, Map.of()).containsKey(id)) {
+            missing.computeIfAbsent(kind, k -> new TreeSet<>()).add(id);
+        }
+    }
+
+    private void load(Kind kind, Set<String> ids) {
+        Set<String> remaining = new TreeSet<>(ids);
+        selectInto(kind, remaining);
+        if (remaining.isEmpty()) {
+            return;
+        }
+        Map<String, Integer> inserted = new HashMap<>();
+        jdbcTemplate.query(kind.insertSql, rs -> {
+            inserted.put(rs.getString(2), rs.getInt(1));
+        }, (Object) remaining.toArray(String[]::new));
+        remaining.removeAll(inserted.keySet());
+        Map<Kind, Map<String, Integer>> created = createdInTransaction(true);
+        if (created == null) {
+            inserted.forEach((id, key) -> cache.get(kind).putIfAbsent(id, new Identifier(id, key)));
+        } else {
+            created.computeIfAbsent(kind, k -> new HashMap<>()).putAll(inserted);
+        }
+        // Created and committed by a concurrent transaction after the first select; the insert
+        // waited for it, and this new statement sees its rows
+        if (!remaining.isEmpty()) {
+            selectInto(kind, remaining);
+        }
+    }
+
+    // Caches the committed rows of the IDs and removes them from ids
+    private void selectInto(Kind kind, Set<String> ids) {
+        jdbcTemplate.query(kind.selectSql, rs -> {
+            String id = rs.getString(2);
+            cache.get(kind).putIfAbsent(id, new Identifier(id, rs.getInt(1)));
+            ids.remove(id);
+        }, (Object) ids.toArray(String[]::new));
+    }
+
+    // Keys created by the current transaction, moved to the cache when it commits. Null outside a
+    // transaction, where created keys are committed right away.
+    @SuppressWarnings("unchecked")
+    private Map<Kind, Map<String, Integer>> createdInTransaction(boolean create) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return null;
+        }
+        Map<Kind, Map<String, Integer>> created =
+            (Map<Kind, Map<String, Integer>>) TransactionSynchronizationManager.getResource(this);
+        if (created == null && create) {
+            Map<Kind, Map<String, Integer>> pending = new EnumMap<>(Kind.class);
+            TransactionSynchronizationManager.bindResource(this, pending);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(IdentifierDictionary.this);
+                    if (status == STATUS_COMMITTED) {
+                        pending.forEach((kind, keys) -> keys.forEach(
+                            (id, key) -> cache.get(kind).putIfAbsent(id, new Identifier(id, key))));
+                    }
+                }
+            });
+            created = pending;
+        }
+        return created;
+    }
+}
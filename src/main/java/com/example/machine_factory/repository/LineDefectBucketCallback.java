@@ -0,0 +1,7 @@
+package com.example.machine_factory.repository;
+
+@FunctionalInterface
+public interface LineDefectBucketCallback {
+    // bucket is the epoch second of the bucket start divided by the bucket width in seconds
+    void accept(String factoryId, String lineId, long bucket, long defectsSum);
+}
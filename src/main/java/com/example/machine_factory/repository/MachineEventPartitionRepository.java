@@ -0,0 +1,69 @@
+package com.example.machine_factory.repository;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+// Partition DDL for machine_events. Names are generated by MachineEventPartitionService and
+// bounds are rendered from Instants, so nothing user supplied reaches the statements.
+@Repository
+public class MachineEventPartitionRepository {
+    public static final String DEFAULT_PARTITION = "machine_events_default";
+
+    // Hour buckets can span partitions, so the partition's rows are subtracted from the duration
+    // histograms by the same function as in their delete trigger instead of deleting whole buckets
+    private static final String SUBTRACT_DURATION_HISTOGRAMS_SQL = """
+        SELECT machine_duration_histograms_subtract(ARRAY(
+            SELECT ROW(COALESCE(machine_key, 0), machine_duration_histogram_bucket(event_time), COALESCE(factory_key, 0),
+                COALESCE(line_key, 0), machine_duration_bin(duration_ms), COUNT(*))::machine_duration_histograms
+            FROM %s
+            GROUP BY COALESCE(machine_key, 0), machine_duration_histogram_bucket(event_time), COALESCE(factory_key, 0),
+                COALESCE(line_key, 0), machine_duration_bin(duration_ms)))
+        """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public MachineEventPartitionRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public List<String> findPartitionNames() {
+        return jdbcTemplate.queryForList("""
+            SELECT c.relname FROM pg_inherits i
+            JOIN pg_class c ON c.oid = i.inhrelid
+            WHERE i.inhparent = 'machine_events'::regclass
+            """, String.class);
+    }
+
+    // Fails when the default partition already holds rows in [from, to)
+    public void createPartition(String name, Instant from, Instant to) {
+        jdbcTemplate.execute("CREATE TABLE " + name + " PARTITION OF machine_events FOR VALUES FROM ('"
+            + from + "') TO ('" + to + "')");
+    }
+
+    // DROP and DETACH fire no row triggers, so the keys, rollup buckets and duration histogram
+    // counts of the partition are removed explicitly. Must run in a transaction.
+    public void expirePartition(String name, Instant from, Instant to, boolean detach) {
+        jdbcTemplate.update("DELETE FROM machine_event_ids k USING " + name
+            + " p WHERE k.event_id = p.event_id AND k.event_time = p.event_time");
+        jdbcTemplate.update("DELETE FROM machine_stats_rollup WHERE bucket_start >= ? AND bucket_start < ?",
+            timestamp(from), timestamp(to));
+        jdbcTemplate.execute(SUBTRACT_DURATION_HISTOGRAMS_SQL.formatted(name));
+        jdbcTemplate.execute(detach
+            ? "ALTER TABLE machine_events DETACH PARTITION " + name
+            : "DROP TABLE " + name);
+    }
+
+    // A plain DELETE through the root, so the rollup and key triggers run
+    public int deleteEventsBefore(Instant cutoff) {
+        return jdbcTemplate.update("DELETE FROM machine_events WHERE event_time < ?", timestamp(cutoff));
+    }
+
+    private static OffsetDateTime timestamp(Instant instant) {
+        return instant.atOffset(ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.machine_factory.repository;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+import com.example.machine_factory.dto.LineStatsResponse;
+import com.example.machine_factory.dto.MachineEventUpsertResult;
+import com.example.machine_factory.dto.MachineStatsQueryResult;
+import com.example.machine_factory.dto.StatsScope;
+import com.example.machine_factory.entity.MachineEvent;
+
+public interface MachineEventRepositoryCustom {
+    List<MachineEventUpsertResult> upsertAll(Collection<MachineEvent> events, Instant receivedTime);
+
+    List<MachineEventUpsertResult> copyUpsertAll(Collection<MachineEvent> events, Instant receivedTime);
+
+    MachineStatsQueryResult getMachineStats(String machineId, Instant start, Instant end);
+
+    MachineStatsQueryResult getMachineEdgeStats(String machineId, Instant start, Instant alignedStart, Instant alignedEnd,
+            Instant end);
+
+    List<LineStatsResponse> findTopDefectLines(String factoryId, Instant from, Instant to, int limit);
+
+    MachineStatsQueryResult getMachineStatsWithRollup(String machineId, Instant start, Instant end,
+            Instant alignedStart, Instant alignedEnd);
+
+    // Next batch of machine_event_ids after afterEventId; lastEventId is null past the last key
+    PayloadHashBackfillBatch backfillPayloadHashes(String afterEventId, int limit);
+
+    void forEachRollupBucket(Instant since, RollupBucketCallback callback);
+
+    // One row per requested machine, known or not, ordered by machineId: whole buckets in
+    // [alignedStart, alignedEnd) from the rollup, the unaligned edges from raw rows
+    void forEachMachineStats(List<String> machineIds, Instant start, Instant alignedStart, Instant alignedEnd,
+            Instant end, MachineStatsCallback callback);
+
+    // One row per machine with events of the factory in [start, end), ordered by machineId
+    void forEachFactoryMachineStats(String factoryId, Instant start, Instant end, MachineStatsCallback callback);
+
+    // Counts and defect sums of the scope per interval-wide bucket of [start, end), by bucket index;
+    // buckets without events are not reported. factoryId is only used for the LINE scope.
+    void forEachStatsBucket(StatsScope scope, String id, String factoryId, Instant start, Instant end,
+            Duration interval, StatsBucketCallback callback);
+
+    // The same for a machine, from the rollup up to alignedEnd; start and interval must be whole minutes
+    void forEachMachineStatsBucketWithRollup(String machineId, Instant start, Instant alignedEnd, Instant end,
+            Duration interval, StatsBucketCallback callback);
+
+    // Minute buckets of every line of the factory in [start, end); the callback gets the lineId
+    void forEachFactoryLineMinute(String factoryId, Instant start, Instant end, RollupBucketCallback callback);
+
+    // Duration histogram of the scope in [start, end): whole hours in [alignedStart, alignedEnd) from
+    // machine_duration_histograms, the unaligned edges from raw rows. factoryId is only used for
+    // the LINE scope.
+    DurationHistogram getDurationHistogram(StatsScope scope, String id, String factoryId, Instant start,
+            Instant alignedStart, Instant alignedEnd, Instant end);
+
+    // Defect sums since `since` per factory, line and bucket of bucketSeconds; events without a
+    // factory or a positive defect count are left out
+    void forEachLineDefectBucket(Instant since, long bucketSeconds, LineDefectBucketCallback callback);
+}
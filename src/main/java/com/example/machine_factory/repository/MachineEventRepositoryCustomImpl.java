@@ -0,0 +1,831 @@
+package com.example.machine_factory.repository;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import com.example.machine_factory.dto.LineStatsResponse;
+import com.example.machine_factory.dto.MachineEventUpsertResult;
+import com.example.machine_factory.dto.MachineStatsQueryResult;
+import com.example.machine_factory.dto.StatsScope;
+import com.example.machine_factory.dto.UpsertOutcome;
+import com.example.machine_factory.entity.MachineEvent;
+import com.example.machine_factory.repository.IdentifierDictionary.Kind;
+
+public class MachineEventRepositoryCustomImpl implements MachineEventRepositoryCustom {
+    // Locks the machine_event_ids row of every incoming eventId, claiming the ones not seen before,
+    // so concurrent batches touching the same events serialize here. The DO UPDATE never writes
+    // (WHERE false) but still takes the row lock. Rows are claimed in eventId order to avoid deadlocks.
+    // New keys get no payload hash until the upsert has written their row.
+    private static final String CLAIM_TEMPLATE = """
+        INSERT INTO machine_event_ids AS k (event_id, event_time)
+        SELECT event_id, event_time FROM (
+            %s
+        ) c
+        ORDER BY event_id
+        ON CONFLICT (event_id) DO UPDATE SET event_time = k.event_time WHERE false
+        """;
+
+    // Runs after the claim, so its snapshot already holds the latest committed version of every
+    // incoming event. machine_event_ids stores the event_time of the current row, and therefore its
+    // partition, and the hash of its payload: an event with the same hash is a duplicate and never
+    // reaches machine_events. Other events are compared with the current row by hash, updated in
+    // place (moving partition when event_time changes) or inserted, and their key rows take the
+    // written event_time and hash. A key without a hash (claimed by this transaction, or written
+    // before the hash existed) always falls through to machine_events. An archived key has no row
+    // left to update, so a changed payload is reported as ARCHIVED and written nowhere.
+    private static final String UPSERT_TEMPLATE = """
+        WITH incoming AS (
+            SELECT t.*, k.event_time AS key_event_time, k.payload_hash AS key_payload_hash, k.archived AS key_archived,
+                machine_event_payload_hash(t.event_time, t.machine_key, t.duration_ms, t.defect_count, t.line_key, t.factory_key)
+                    AS payload_hash
+            FROM (
+                %s
+            ) t
+            JOIN machine_event_ids k ON k.event_id = t.event_id
+        ),
+        previous AS (
+            SELECT e.event_id, e.event_time, e.received_time, e.machine_key, e.duration_ms, e.defect_count, e.line_key, e.factory_key,
+                machine_event_payload_hash(e.event_time, e.machine_key, e.duration_ms, e.defect_count, e.line_key, e.factory_key)
+                    AS payload_hash
+            FROM incoming i
+            JOIN machine_events e ON e.event_id = i.event_id AND e.event_time = i.key_event_time
+            WHERE i.key_payload_hash IS DISTINCT FROM i.payload_hash
+        ),
+        updated AS (
+            UPDATE machine_events m SET
+                event_time = i.event_time,
+                received_time = ?::timestamptz,
+                machine_key = i.machine_key,
+                duration_ms = i.duration_ms,
+                defect_count = i.defect_count,
+                line_key = i.line_key,
+                factory_key = i.factory_key
+            FROM incoming i
+            JOIN previous p ON p.event_id = i.event_id
+            WHERE m.event_id = p.event_id AND m.event_time = p.event_time
+                AND p.payload_hash <> i.payload_hash
+                AND (i.claimed_received_time IS NULL OR i.claimed_received_time >= p.received_time)
+            RETURNING m.event_id, m.event_time, i.payload_hash
+        ),
+        inserted AS (
+            INSERT INTO machine_events (event_id, event_time, received_time, machine_key, duration_ms, defect_count, line_key, factory_key)
+            SELECT i.event_id, i.event_time, ?::timestamptz, i.machine_key, i.duration_ms, i.defect_count, i.line_key, i.factory_key
+            FROM incoming i
+            WHERE i.key_payload_hash IS NULL
+                AND NOT EXISTS (SELECT 1 FROM previous p WHERE p.event_id = i.event_id)
+            RETURNING event_id, event_time
+        ),
+        written_keys AS (
+            UPDATE machine_event_ids k SET event_time = w.event_time, payload_hash = w.payload_hash
+            FROM (
+                SELECT event_id, event_time, payload_hash FROM updated
+                UNION ALL
+                SELECT n.event_id, n.event_time, i.payload_hash FROM inserted n JOIN incoming i ON i.event_id = n.event_id
+                UNION ALL
+                -- Rows left as they were whose key had no hash yet
+                SELECT p.event_id, p.event_time, p.payload_hash FROM previous p JOIN incoming i ON i.event_id = p.event_id
+                WHERE i.key_payload_hash IS NULL AND NOT EXISTS (SELECT 1 FROM updated u WHERE u.event_id = p.event_id)
+            ) w
+            WHERE k.event_id = w.event_id
+                AND (k.event_time <> w.event_time OR k.payload_hash IS DISTINCT FROM w.payload_hash)
+        )
+        SELECT i.event_id,
+            CASE
+                WHEN n.event_id IS NOT NULL THEN 'INSERTED'
+                WHEN u.event_id IS NOT NULL THEN 'UPDATED'
+                WHEN i.key_archived AND i.key_payload_hash <> i.payload_hash THEN 'ARCHIVED'
+                WHEN p.payload_hash <> i.payload_hash THEN 'IGNORED'
+                ELSE 'DEDUPED'
+            END AS outcome,
+            p.event_id IS NOT NULL AS existed, p.event_time, pm.machine_id, p.duration_ms, p.defect_count, pl.line_id, pf.factory_id
+        FROM incoming i
+        LEFT JOIN inserted n ON n.event_id = i.event_id
+        LEFT JOIN updated u ON u.event_id = i.event_id
+        LEFT JOIN previous p ON p.event_id = i.event_id
+        LEFT JOIN machines pm ON pm.machine_key = p.machine_key
+        LEFT JOIN lines pl ON pl.line_key = p.line_key
+        LEFT JOIN factories pf ON pf.factory_key = p.factory_key
+        """;
+
+    private static final String ARRAY_CLAIM_SQL = CLAIM_TEMPLATE.formatted("""
+        SELECT * FROM unnest(?::text[], ?::timestamptz[]) AS t(event_id, event_time)""");
+
+    // Rows are passed as parallel arrays and unnested server-side
+    private static final String ARRAY_ROWS_SQL = """
+        SELECT * FROM unnest(?::text[], ?::timestamptz[], ?::timestamptz[], ?::int[], ?::int[], ?::int[], ?::int[], ?::int[])
+                AS t(event_id, event_time, claimed_received_time, machine_key, duration_ms, defect_count, line_key, factory_key)""";
+
+    private static final String ARRAY_UPSERT_SQL = UPSERT_TEMPLATE.formatted(ARRAY_ROWS_SQL);
+
+    // Events the EventIdFilter has never seen: each key is claimed with its payload hash and its row
+    // inserted in one statement. IDs that exist after all (missed by the filter, or claimed by a
+    // concurrent batch first) are left alone and returned by neither insert.
+    private static final String ARRAY_INSERT_NEW_SQL = """
+        WITH incoming AS (
+            SELECT t.*,
+                machine_event_payload_hash(t.event_time, t.machine_key, t.duration_ms, t.defect_count, t.line_key, t.factory_key)
+                    AS payload_hash
+            FROM (
+                %s
+            ) t
+        ),
+        claimed AS (
+            INSERT INTO machine_event_ids (event_id, event_time, payload_hash)
+            SELECT event_id, event_time, payload_hash FROM incoming
+            ORDER BY event_id
+            ON CONFLICT (event_id) DO NOTHING
+            RETURNING event_id
+        )
+        INSERT INTO machine_events (event_id, event_time, received_time, machine_key, duration_ms, defect_count, line_key, factory_key)
+        SELECT i.event_id, i.event_time, ?::timestamptz, i.machine_key, i.duration_ms, i.defect_count, i.line_key, i.factory_key
+        FROM incoming i
+        JOIN claimed c ON c.event_id = i.event_id
+        RETURNING event_id
+        """.formatted(ARRAY_ROWS_SQL);
+
+    private static final String STAGING_COLUMNS =
+        "event_id, event_time, claimed_received_time, machine_key, duration_ms, defect_count, line_key, factory_key";
+
+    private static final String CREATE_STAGING_SQL = """
+        CREATE UNLOGGED TABLE %s (
+            event_id text NOT NULL,
+            event_time timestamptz NOT NULL,
+            claimed_received_time timestamptz,
+            machine_key int,
+            duration_ms int NOT NULL,
+            defect_count int,
+            line_key int,
+            factory_key int
+        )
+        """;
+
+    private static final int COPY_BUFFER_CHARS = 64 * 1024;
+
+    // The stats queries filter and group on the dictionary keys; an unknown ID has a null key and
+    // matches no rows
+    private static final String MACHINE_KEY_SQL = "(SELECT machine_key FROM machines WHERE machine_id = ?)";
+
+    // The raw stats queries are public so that partition pruning is tested on the statements as run
+    public static final String MACHINE_STATS_SQL = """
+        SELECT COUNT(*), SUM(defect_count)
+        FROM machine_events
+        WHERE machine_key = %s AND event_time >= ? AND event_time < ?
+        """.formatted(MACHINE_KEY_SQL);
+
+    public static final String MACHINE_EDGE_STATS_SQL = """
+        SELECT COUNT(*), SUM(defect_count)
+        FROM machine_events
+        WHERE machine_key = %s
+            AND ((event_time >= ? AND event_time < ?) OR (event_time >= ? AND event_time < ?))
+        """.formatted(MACHINE_KEY_SQL);
+
+    // Whole buckets in [alignedStart, alignedEnd) come from the rollup, the unaligned edges from raw rows
+    private static final String ROLLUP_STATS_SQL = """
+        SELECT COALESCE(SUM(events_count), 0), CASE WHEN SUM(defect_events) > 0 THEN SUM(defects_sum)::bigint END
+        FROM (
+            SELECT SUM(events_count) AS events_count, SUM(defects_sum) AS defects_sum, SUM(defect_events) AS defect_events
+            FROM machine_stats_rollup
+            WHERE machine_key = %1$s AND bucket_start >= ? AND bucket_start < ?
+            UNION ALL
+            SELECT COUNT(*), COALESCE(SUM(defect_count), 0), COUNT(defect_count)
+            FROM machine_events
+            WHERE machine_key = %1$s
+                AND ((event_time >= ? AND event_time < ?) OR (event_time >= ? AND event_time < ?))
+        ) parts
+        """.formatted(MACHINE_KEY_SQL);
+
+    // ROLLUP_STATS_SQL for many machines at once: every requested machineId gets a row, and the
+    // rollup buckets and raw edges are each grouped once for all of them
+    private static final String BULK_MACHINE_STATS_SQL = """
+        WITH requested AS (
+            SELECT q.machine_id, m.machine_key
+            FROM unnest(?::text[]) AS q(machine_id)
+            LEFT JOIN machines m ON m.machine_id = q.machine_id
+        ),
+        parts AS (
+            SELECT machine_key, SUM(events_count) AS events_count, SUM(defects_sum) AS defects_sum,
+                SUM(defect_events) AS defect_events
+            FROM machine_stats_rollup
+            WHERE machine_key IN (SELECT machine_key FROM requested) AND bucket_start >= ? AND bucket_start < ?
+            GROUP BY machine_key
+            UNION ALL
+            SELECT machine_key, COUNT(*), COALESCE(SUM(defect_count), 0), COUNT(defect_count)
+            FROM machine_events
+            WHERE machine_key IN (SELECT machine_key FROM requested)
+                AND ((event_time >= ? AND event_time < ?) OR (event_time >= ? AND event_time < ?))
+            GROUP BY machine_key
+        )
+        SELECT q.machine_id, COALESCE(SUM(p.events_count), 0),
+            CASE WHEN SUM(p.defect_events) > 0 THEN SUM(p.defects_sum)::bigint END
+        FROM requested q
+        LEFT JOIN parts p ON p.machine_key = q.machine_key
+        GROUP BY q.machine_id
+        ORDER BY q.machine_id
+        """;
+
+    // The rollup has no factory, so factory-wide stats group the raw rows of the factory by machine
+    private static final String FACTORY_MACHINE_STATS_SQL = """
+        SELECT m.machine_id, t.events_count, t.defects_count
+        FROM (
+            SELECT machine_key, COUNT(*) AS events_count, SUM(defect_count) AS defects_count
+            FROM machine_events
+            WHERE factory_key = (SELECT factory_key FROM factories WHERE factory_id = ?)
+                AND event_time >= ? AND event_time < ?
+            GROUP BY machine_key
+        ) t
+        JOIN machines m ON m.machine_key = t.machine_key
+        ORDER BY m.machine_id
+        """;
+
+    // Index of the interval-wide bucket of a time, counted in microseconds from the window start
+    private static final String BUCKET_SQL = "((EXTRACT(EPOCH FROM %s - ?) * 1000000)::bigint / ?)::int";
+
+    // A line is filtered within its factory, so the factory index covers the scan
+    private static final Map<StatsScope, String> SCOPE_FILTER_SQL = Map.of(
+        StatsScope.MACHINE, "machine_key = " + MACHINE_KEY_SQL,
+        StatsScope.LINE, "factory_key = (SELECT factory_key FROM factories WHERE factory_id = ?)"
+            + " AND line_key = (SELECT line_key FROM lines WHERE line_id = ?)",
+        StatsScope.FACTORY, "factory_key = (SELECT factory_key FROM factories WHERE factory_id = ?)");
+
+    private static final String TIMESERIES_SQL_TEMPLATE = """
+        SELECT %s, COUNT(*), SUM(defect_count)
+        FROM machine_events
+        WHERE %s AND event_time >= ? AND event_time < ?
+        GROUP BY 1
+        """;
+
+    // Buckets that are whole multiples of the rollup's minute come from the rollup up to
+    // alignedEnd, and the unaligned end from raw rows
+    private static final String ROLLUP_TIMESERIES_SQL = """
+        SELECT bucket, SUM(events_count), CASE WHEN SUM(defect_events) > 0 THEN SUM(defects_sum)::bigint END
+        FROM (
+            SELECT %1$s AS bucket, SUM(events_count) AS events_count, SUM(defects_sum) AS defects_sum,
+                SUM(defect_events) AS defect_events
+            FROM machine_stats_rollup
+            WHERE machine_key = %3$s AND bucket_start >= ? AND bucket_start < ?
+            GROUP BY 1
+            UNION ALL
+            SELECT %2$s, COUNT(*), COALESCE(SUM(defect_count), 0), COUNT(defect_count)
+            FROM machine_events
+            WHERE machine_key = %3$s AND event_time >= ? AND event_time < ?
+            GROUP BY 1
+        ) parts
+        GROUP BY bucket
+        """.formatted(BUCKET_SQL.formatted("bucket_start"), BUCKET_SQL.formatted("event_time"), MACHINE_KEY_SQL);
+
+    // Minute buckets of every line of a factory, in the shape of the rollup, for the line stats
+    // subscriptions; events without a line are left out
+    private static final String FACTORY_LINE_MINUTES_SQL = """
+        SELECT l.line_id, t.minute, t.events_count, t.defects_sum, t.defect_events
+        FROM (
+            SELECT line_key, date_trunc('minute', event_time) AS minute, COUNT(*) AS events_count,
+                COALESCE(SUM(defect_count), 0) AS defects_sum, COUNT(defect_count) AS defect_events
+            FROM machine_events
+            WHERE factory_key = (SELECT factory_key FROM factories WHERE factory_id = ?)
+                AND event_time >= ? AND event_time < ? AND line_key IS NOT NULL
+            GROUP BY 1, 2
+        ) t
+        JOIN lines l ON l.line_key = t.line_key
+        """;
+
+    // Groups on the int line key and only resolves the line IDs of the returned rows
+    // The histogram table has the same key columns, so the scope filters apply to both parts
+    private static final String DURATION_HISTOGRAM_SQL_TEMPLATE = """
+        SELECT bin, SUM(events_count)::bigint
+        FROM (
+            SELECT bin, events_count
+            FROM machine_duration_histograms
+            WHERE %1$s AND bucket_start >= ? AND bucket_start < ?
+            UNION ALL
+            SELECT machine_duration_bin(duration_ms), COUNT(*)
+            FROM machine_events
+            WHERE %1$s AND ((event_time >= ? AND event_time < ?) OR (event_time >= ? AND event_time < ?))
+            GROUP BY 1
+        ) parts
+        GROUP BY bin
+        """;
+
+    private static final String LINE_DEFECT_BUCKETS_SQL = """
+        SELECT f.factory_id, l.line_id, t.bucket, t.defects_sum
+        FROM (
+            SELECT factory_key, line_key, floor(EXTRACT(EPOCH FROM event_time) / ?)::bigint AS bucket,
+                SUM(defect_count)::bigint AS defects_sum
+            FROM machine_events
+            WHERE event_time >= ? AND factory_key IS NOT NULL AND defect_count > 0
+            GROUP BY 1, 2, 3
+        ) t
+        JOIN factories f ON f.factory_key = t.factory_key
+        LEFT JOIN lines l ON l.line_key = t.line_key
+        """;
+
+    public static final String TOP_DEFECT_LINES_SQL = """
+        SELECT l.line_id, t.total_defects, t.event_count
+        FROM (
+            SELECT line_key, SUM(defect_count) AS total_defects, COUNT(*) AS event_count
+            FROM machine_events
+            WHERE factory_key = (SELECT factory_key FROM factories WHERE factory_id = ?)
+                AND event_time >= ? AND event_time < ?
+            GROUP BY line_key
+            ORDER BY total_defects DESC
+            LIMIT ?
+        ) t
+        LEFT JOIN lines l ON l.line_key = t.line_key
+        ORDER BY t.total_defects DESC
+        """;
+
+    // Hashes the keys in the next `limit` event IDs after the cursor that have none. Locks are taken
+    // in eventId order like the claim, and keys held by an ingest are skipped: it hashes them itself.
+    private static final String BACKFILL_PAYLOAD_HASH_SQL = """
+        WITH batch AS (
+            SELECT event_id FROM machine_event_ids
+            WHERE event_id > ?
+            ORDER BY event_id
+            LIMIT ?
+        ),
+        pending AS (
+            SELECT k.event_id, k.event_time FROM machine_event_ids k
+            JOIN batch b ON b.event_id = k.event_id
+            WHERE k.payload_hash IS NULL
+            ORDER BY k.event_id
+            FOR UPDATE OF k SKIP LOCKED
+        ),
+        hashed AS (
+            UPDATE machine_event_ids k SET payload_hash =
+                machine_event_payload_hash(e.event_time, e.machine_key, e.duration_ms, e.defect_count, e.line_key, e.factory_key)
+            FROM pending p
+            JOIN machine_events e ON e.event_id = p.event_id AND e.event_time = p.event_time
+            WHERE k.event_id = p.event_id
+            RETURNING k.event_id
+        )
+        SELECT (SELECT MAX(event_id) FROM batch), (SELECT COUNT(*) FROM hashed)
+        """;
+
+    private static final RowMapper<MachineStatsQueryResult> STATS_RESULT_MAPPER =
+        (rs, rowNum) -> new MachineStatsQueryResult(rs.getLong(1), rs.getObject(2, Long.class));
+
+    private static final RowMapper<MachineEventUpsertResult> UPSERT_RESULT_MAPPER = (rs, rowNum) -> {
+        String eventId = rs.getString(1);
+        UpsertOutcome outcome = UpsertOutcome.valueOf(rs.getString(2));
+        MachineEvent previous = null;
+        if (outcome == UpsertOutcome.UPDATED && rs.getBoolean(3)) {
+            previous = new MachineEvent(eventId, rs.getObject(4, OffsetDateTime.class).toInstant(), null,
+                rs.getString(5), rs.getInt(6), rs.getObject(7, Integer.class), rs.getString(8), rs.getString(9));
+        }
+        return new MachineEventUpsertResult(eventId, outcome, previous);
+    };
+
+    private final JdbcTemplate jdbcTemplate;
+    private final IdentifierDictionary identifierDictionary;
+    private final EventIdFilter eventIdFilter;
+    private final int chunkSize;
+
+    public MachineEventRepositoryCustomImpl(JdbcTemplate jdbcTemplate, IdentifierDictionary identifierDictionary,
+            EventIdFilter eventIdFilter, @Value("${machine-factory.ingest.upsert-chunk-size:5000}") int chunkSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.identifierDictionary = identifierDictionary;
+        this.eventIdFilter = eventIdFilter;
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public List<MachineEventUpsertResult> upsertAll(Collection<MachineEvent> events, Instant receivedTime) {
+        identifierDictionary.resolve(events);
+        List<MachineEventUpsertResult> results = new ArrayList<>(events.size());
+        List<MachineEvent> chunk = new ArrayList<>(Math.min(chunkSize, events.size()));
+        for (MachineEvent event : events) {
+            chunk.add(event);
+            if (chunk.size() == chunkSize) {
+                results.addAll(upsertChunk(chunk, receivedTime));
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            results.addAll(upsertChunk(chunk, receivedTime));
+        }
+        return results;
+    }
+
+    @Override
+    public MachineStatsQueryResult getMachineStats(String machineId, Instant start, Instant end) {
+        return jdbcTemplate.queryForObject(MACHINE_STATS_SQL, STATS_RESULT_MAPPER,
+            machineId, timestamp(start), timestamp(end));
+    }
+
+    @Override
+    public MachineStatsQueryResult getMachineEdgeStats(String machineId, Instant start, Instant alignedStart,
+            Instant alignedEnd, Instant end) {
+        return jdbcTemplate.queryForObject(MACHINE_EDGE_STATS_SQL, STATS_RESULT_MAPPER,
+            machineId, timestamp(start), timestamp(alignedStart), timestamp(alignedEnd), timestamp(end));
+    }
+
+    @Override
+    public List<LineStatsResponse> findTopDefectLines(String factoryId, Instant from, Instant to, int limit) {
+        return jdbcTemplate.query(TOP_DEFECT_LINES_SQL,
+            (rs, rowNum) -> new LineStatsResponse(rs.getString(1), rs.getObject(2, Long.class), rs.getLong(3)),
+            factoryId, timestamp(from), timestamp(to), limit);
+    }
+
+    @Override
+    public MachineStatsQueryResult getMachineStatsWithRollup(String machineId, Instant start, Instant end,
+            Instant alignedStart, Instant alignedEnd) {
+        return jdbcTemplate.queryForObject(ROLLUP_STATS_SQL, STATS_RESULT_MAPPER,
+            machineId, timestamp(alignedStart), timestamp(alignedEnd),
+            machineId, timestamp(start), timestamp(alignedStart), timestamp(alignedEnd), timestamp(end));
+    }
+
+    @Override
+    public PayloadHashBackfillBatch backfillPayloadHashes(String afterEventId, int limit) {
+        return jdbcTemplate.queryForObject(BACKFILL_PAYLOAD_HASH_SQL,
+            (rs, rowNum) -> new PayloadHashBackfillBatch(rs.getString(1), rs.getInt(2)), afterEventId, limit);
+    }
+
+    @Override
+    public void forEachRollupBucket(Instant since, RollupBucketCallback callback) {
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(
+                "SELECT m.machine_id, r.bucket_start, r.events_count, r.defects_sum, r.defect_events"
+                    + " FROM machine_stats_rollup r JOIN machines m ON m.machine_key = r.machine_key"
+                    + " WHERE r.bucket_start >= ? AND r.events_count <> 0");
+            ps.setObject(1, timestamp(since));
+            ps.setFetchSize(chunkSize);
+            return ps;
+        }, rs -> {
+            callback.accept(rs.getString(1), rs.getObject(2, OffsetDateTime.class).toInstant(),
+                rs.getLong(3), rs.getLong(4), rs.getLong(5));
+        });
+    }
+
+    @Override
+    public void forEachMachineStats(List<String> machineIds, Instant start, Instant alignedStart, Instant alignedEnd,
+            Instant end, MachineStatsCallback callback) {
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(BULK_MACHINE_STATS_SQL);
+            ps.setArray(1, con.createArrayOf("text", machineIds.toArray()));
+            ps.setObject(2, timestamp(alignedStart));
+            ps.setObject(3, timestamp(alignedEnd));
+            ps.setObject(4, timestamp(start));
+            ps.setObject(5, timestamp(alignedStart));
+            ps.setObject(6, timestamp(alignedEnd));
+            ps.setObject(7, timestamp(end));
+            ps.setFetchSize(chunkSize);
+            return ps;
+        }, rs -> {
+            callback.accept(rs.getString(1), rs.getLong(2), rs.getObject(3, Long.class));
+        });
+    }
+
+    @Override
+    public void forEachFactoryMachineStats(String factoryId, Instant start, Instant end, MachineStatsCallback callback) {
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(FACTORY_MACHINE_STATS_SQL);
+            ps.setString(1, factoryId);
+            ps.setObject(2, timestamp(start));
+            ps.setObject(3, timestamp(end));
+            ps.setFetchSize(chunkSize);
+            return ps;
+        }, rs -> {
+            callback.accept(rs.getString(1), rs.getLong(2), rs.getObject(3, Long.class));
+        });
+    }
+
+    @Override
+    public void forEachStatsBucket(StatsScope scope, String id, String factoryId, Instant start, Instant end,
+            Duration interval, StatsBucketCallback callback) {
+        String sql = TIMESERIES_SQL_TEMPLATE.formatted(BUCKET_SQL.formatted("event_time"), SCOPE_FILTER_SQL.get(scope));
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(sql);
+            int i = 1;
+            ps.setObject(i++, timestamp(start));
+            ps.setLong(i++, toMicros(interval));
+            if (scope == StatsScope.LINE) {
+                ps.setString(i++, factoryId);
+            }
+            ps.setString(i++, id);
+            ps.setObject(i++, timestamp(start));
+            ps.setObject(i++, timestamp(end));
+            return ps;
+        }, rs -> {
+            callback.accept(rs.getInt(1), rs.getLong(2), rs.getObject(3, Long.class));
+        });
+    }
+
+    @Override
+    public void forEachMachineStatsBucketWithRollup(String machineId, Instant start, Instant alignedEnd, Instant end,
+            Duration interval, StatsBucketCallback callback) {
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(ROLLUP_TIMESERIES_SQL);
+            ps.setObject(1, timestamp(start));
+            ps.setLong(2, toMicros(interval));
+            ps.setString(3, machineId);
+            ps.setObject(4, timestamp(start));
+            ps.setObject(5, timestamp(alignedEnd));
+            ps.setObject(6, timestamp(start));
+            ps.setLong(7, toMicros(interval));
+            ps.setString(8, machineId);
+            ps.setObject(9, timestamp(alignedEnd));
+            ps.setObject(10, timestamp(end));
+            return ps;
+        }, rs -> {
+            callback.accept(rs.getInt(1), rs.getLong(2), rs.getObject(3, Long.class));
+        });
+    }
+
+    @Override
+    public void forEachFactoryLineMinute(String factoryId, Instant start, Instant end, RollupBucketCallback callback) {
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(FACTORY_LINE_MINUTES_SQL);
+            ps.setString(1, factoryId);
+            ps.setObject(2, timestamp(start));
+            ps.setObject(3, timestamp(end));
+            ps.setFetchSize(chunkSize);
+            return ps;
+        }, rs -> {
+            callback.accept(rs.getString(1), rs.getObject(2, OffsetDateTime.class).toInstant(),
+                rs.getLong(3), rs.getLong(4), rs.getLong(5));
+        });
+    }
+
+    @Override
+    public DurationHistogram getDurationHistogram(StatsScope scope, String id, String factoryId, Instant start,
+            Instant alignedStart, Instant alignedEnd, Instant end) {
+        String sql = DURATION_HISTOGRAM_SQL_TEMPLATE.formatted(SCOPE_FILTER_SQL.get(scope));
+        DurationHistogram histogram = new DurationHistogram();
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(sql);
+            int i = 1;
+            if (scope == StatsScope.LINE) {
+                ps.setString(i++, factoryId);
+            }
+            ps.setString(i++, id);
+            ps.setObject(i++, timestamp(alignedStart));
+            ps.setObject(i++, timestamp(alignedEnd));
+            if (scope == StatsScope.LINE) {
+                ps.setString(i++, factoryId);
+            }
+            ps.setString(i++, id);
+            ps.setObject(i++, timestamp(start));
+            ps.setObject(i++, timestamp(alignedStart));
+            ps.setObject(i++, timestamp(alignedEnd));
+            ps.setObject(i++, timestamp(end));
+            return ps;
+        }, rs -> {
+            histogram.add(rs.getInt(1), rs.getLong(2));
+        });
+        return histogram;
+    }
+
+    @Override
+    public void forEachLineDefectBucket(Instant since, long bucketSeconds, LineDefectBucketCallback callback) {
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(LINE_DEFECT_BUCKETS_SQL);
+            ps.setLong(1, bucketSeconds);
+            ps.setObject(2, timestamp(since));
+            ps.setFetchSize(chunkSize);
+            return ps;
+        }, rs -> {
+            callback.accept(rs.getString(1), rs.getString(2), rs.getLong(3), rs.getLong(4));
+        });
+    }
+
+    private static long toMicros(Duration duration) {
+        return duration.toNanos() / 1000;
+    }
+
+    private static OffsetDateTime timestamp(Instant instant) {
+        return instant.atOffset(ZoneOffset.UTC);
+    }
+
+    // Events the filter has never seen take the insert path. The rest, and any of those that
+    // existed after all, are claimed and upserted; both statements must share the caller's
+    // transaction, which holds the claimed key locks.
+    private List<MachineEventUpsertResult> upsertChunk(List<MachineEvent> chunk, Instant receivedTime) {
+        List<MachineEventUpsertResult> results = new ArrayList<>(chunk.size());
+        List<MachineEvent> known = new ArrayList<>();
+        List<MachineEvent> fresh = new ArrayList<>();
+        for (MachineEvent event : chunk) {
+            (eventIdFilter.mightContain(event.getEventId()) ? known : fresh).add(event);
+        }
+
+        if (!fresh.isEmpty()) {
+            Set<String> inserted = new HashSet<>(jdbcTemplate.query(
+                con -> prepareRows(con, ARRAY_INSERT_NEW_SQL, fresh, receivedTime, 1),
+                (rs, rowNum) -> rs.getString(1)
+            ));
+            for (MachineEvent event : fresh) {
+                if (inserted.contains(event.getEventId())) {
+                    results.add(new MachineEventUpsertResult(event.getEventId(), UpsertOutcome.INSERTED, null));
+                } else {
+                    known.add(event);
+                }
+            }
+            eventIdFilter.putAll(inserted);
+            eventIdFilter.recordNewEvents(inserted.size());
+            eventIdFilter.recordConflicts(fresh.size() - inserted.size());
+        }
+
+        if (!known.isEmpty()) {
+            jdbcTemplate.update(con -> prepareClaim(con, known));
+            List<MachineEventUpsertResult> upserted = jdbcTemplate.query(
+                con -> prepareRows(con, ARRAY_UPSERT_SQL, known, receivedTime, 2),
+                UPSERT_RESULT_MAPPER
+            );
+            List<String> inserted = new ArrayList<>();
+            for (MachineEventUpsertResult result : upserted) {
+                if (result.getOutcome() == UpsertOutcome.INSERTED) {
+                    inserted.add(result.getEventId());
+                }
+            }
+            eventIdFilter.putAll(inserted);
+            eventIdFilter.recordFalsePositives(inserted.size());
+            results.addAll(upserted);
+        }
+        return results;
+    }
+
+    @Override
+    public List<MachineEventUpsertResult> copyUpsertAll(Collection<MachineEvent> events, Instant receivedTime) {
+        // A staging table per batch keeps concurrent bulk loads apart and is dropped afterwards
+        String stagingTable = "machine_events_staging_" + UUID.randomUUID().toString().replace("-", "");
+        identifierDictionary.resolve(events);
+        return jdbcTemplate.execute((ConnectionCallback<List<MachineEventUpsertResult>>) con -> {
+            try {
+                try (Statement statement = con.createStatement()) {
+                    statement.execute(CREATE_STAGING_SQL.formatted(stagingTable));
+                }
+                copyIntoStaging(con, stagingTable, events);
+                try (Statement statement = con.createStatement()) {
+                    statement.execute("ANALYZE " + stagingTable);
+                }
+
+                try (Statement statement = con.createStatement()) {
+                    statement.execute(CLAIM_TEMPLATE.formatted("SELECT event_id, event_time FROM " + stagingTable));
+                }
+                List<MachineEventUpsertResult> results = new ArrayList<>(events.size());
+                String mergeSql = UPSERT_TEMPLATE.formatted("SELECT " + STAGING_COLUMNS + " FROM " + stagingTable);
+                try (PreparedStatement ps = con.prepareStatement(mergeSql)) {
+                    ps.setString(1, receivedTime.toString());
+                    ps.setString(2, receivedTime.toString());
+                    ps.setFetchSize(chunkSize);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            results.add(UPSERT_RESULT_MAPPER.mapRow(rs, results.size()));
+                        }
+                    }
+                }
+
+                try (Statement statement = con.createStatement()) {
+                    statement.execute("DROP TABLE " + stagingTable);
+                }
+                // Bulk loads always merge, but the filter still has to learn their new IDs
+                List<String> inserted = new ArrayList<>();
+                for (MachineEventUpsertResult result : results) {
+                    if (result.getOutcome() == UpsertOutcome.INSERTED) {
+                        inserted.add(result.getEventId());
+                    }
+                }
+                eventIdFilter.putAll(inserted);
+                return results;
+            } catch (SQLException | RuntimeException e) {
+                // Inside a transaction the rollback removes the staging table as well
+                if (con.getAutoCommit()) {
+                    try (Statement statement = con.createStatement()) {
+                        statement.execute("DROP TABLE IF EXISTS " + stagingTable);
+                    } catch (SQLException dropFailure) {
+                        e.addSuppressed(dropFailure);
+                    }
+                }
+                throw e;
+            }
+        });
+    }
+
+    private void copyIntoStaging(Connection con, String stagingTable, Collection<MachineEvent> events)
+            throws SQLException {
+        CopyManager copyManager = con.unwrap(PGConnection.class).getCopyAPI();
+        CopyIn copyIn = copyManager.copyIn("COPY " + stagingTable + " (" + STAGING_COLUMNS + ") FROM STDIN");
+        try {
+            StringBuilder buffer = new StringBuilder(COPY_BUFFER_CHARS + 512);
+            for (MachineEvent event : events) {
+                appendCopyField(buffer, event.getEventId()).append('\t');
+                appendCopyField(buffer, event.getEventTime()).append('\t');
+                appendCopyField(buffer, event.getReceivedTime()).append('\t');
+                appendCopyField(buffer, identifierDictionary.key(Kind.MACHINE, event.getMachineId())).append('\t');
+                buffer.append(event.getDurationMs()).append('\t');
+                appendCopyField(buffer, event.getDefectCount()).append('\t');
+                appendCopyField(buffer, identifierDictionary.key(Kind.LINE, event.getLineId())).append('\t');
+                appendCopyField(buffer, identifierDictionary.key(Kind.FACTORY, event.getFactoryId())).append('\n');
+                if (buffer.length() >= COPY_BUFFER_CHARS) {
+                    writeToCopy(copyIn, buffer);
+                }
+            }
+            writeToCopy(copyIn, buffer);
+            copyIn.endCopy();
+        } finally {
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+        }
+    }
+
+    private static void writeToCopy(CopyIn copyIn, StringBuilder buffer) throws SQLException {
+        byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+        copyIn.writeToCopy(bytes, 0, bytes.length);
+        buffer.setLength(0);
+    }
+
+    // COPY text format: \N is NULL and backslash, tab and line breaks are backslash-escaped
+    private static StringBuilder appendCopyField(StringBuilder buffer, Object value) {
+        if (value == null) {
+            return buffer.append("\\N");
+        }
+        String text = value.toString();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '\\' -> buffer.append("\\\\");
+                case '\t' -> buffer.append("\\t");
+                case '\n' -> buffer.append("\\n");
+                case '\r' -> buffer.append("\\r");
+                default -> buffer.append(c);
+            }
+        }
+        return buffer;
+    }
+
+    // The eight row arrays, followed by receivedTime for each of its placeholders in the statement
+    private PreparedStatement prepareRows(Connection con, String sql, List<MachineEvent> chunk, Instant receivedTime,
+            int receivedTimeParams) throws SQLException {
+        int size = chunk.size();
+        String[] eventIds = new String[size];
+        String[] eventTimes = new String[size];
+        String[] claimedReceivedTimes = new String[size];
+        Integer[] machineKeys = new Integer[size];
+        Integer[] durations = new Integer[size];
+        Integer[] defectCounts = new Integer[size];
+        Integer[] lineKeys = new Integer[size];
+        Integer[] factoryKeys = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            MachineEvent event = chunk.get(i);
+            eventIds[i] = event.getEventId();
+            eventTimes[i] = event.getEventTime().toString();
+            claimedReceivedTimes[i] = event.getReceivedTime() == null ? null : event.getReceivedTime().toString();
+            machineKeys[i] = identifierDictionary.key(Kind.MACHINE, event.getMachineId());
+            durations[i] = event.getDurationMs();
+            defectCounts[i] = event.getDefectCount();
+            lineKeys[i] = identifierDictionary.key(Kind.LINE, event.getLineId());
+            factoryKeys[i] = identifierDictionary.key(Kind.FACTORY, event.getFactoryId());
+        }
+
+        PreparedStatement ps = con.prepareStatement(sql);
+        ps.setArray(1, con.createArrayOf("text", eventIds));
+        ps.setArray(2, con.createArrayOf("text", eventTimes));
+        ps.setArray(3, con.createArrayOf("text", claimedReceivedTimes));
+        ps.setArray(4, con.createArrayOf("int4", machineKeys));
+        ps.setArray(5, con.createArrayOf("int4", durations));
+        ps.setArray(6, con.createArrayOf("int4", defectCounts));
+        ps.setArray(7, con.createArrayOf("int4", lineKeys));
+        ps.setArray(8, con.createArrayOf("int4", factoryKeys));
+        for (int i = 0; i < receivedTimeParams; i++) {
+            ps.setString(9 + i, receivedTime.toString());
+        }
+        return ps;
+    }
+
+    private PreparedStatement prepareClaim(Connection con, List<MachineEvent> chunk) throws SQLException {
+        int size = chunk.size();
+        String[] eventIds = new String[size];
+        String[] eventTimes = new String[size];
+        for (int i = 0; i < size; i++) {
+            eventIds[i] = chunk.get(i).getEventId();
+            eventTimes[i] = chunk.get(i).getEventTime().toString();
+        }
+
+        PreparedStatement ps = con.prepareStatement(ARRAY_CLAIM_SQL);
+        ps.setArray(1, con.createArrayOf("text", eventIds));
+        ps.setArray(2, con.createArrayOf("text", eventTimes));
+        return ps;
+    }
+}
@@ -0,0 +1,6 @@
+package com.example.machine_factory.repository;
+
+@FunctionalInterface
+public interface MachineStatsCallback {
+    void accept(String machineId, long eventsCount, Long defectsCount);
+}
@@ -0,0 +1,4 @@
+package com.example.machine_factory.repository;
+
+public record PayloadHashBackfillBatch(String lastEventId, int hashed) {
+}
@@ -0,0 +1,8 @@
+package com.example.machine_factory.repository;
+
+import java.time.Instant;
+
+@FunctionalInterface
+public interface RollupBucketCallback {
+    void accept(String machineId, Instant bucketStart, long eventsCount, long defectsSum, long defectEvents);
+}
@@ -0,0 +1,6 @@
+package com.example.machine_factory.repository;
+
+@FunctionalInterface
+public interface StatsBucketCallback {
+    void accept(int bucket, long eventsCount, Long defectsCount);
+}
@@ -0,0 +1,110 @@
+package com.example.machine_factory.service;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.machine_factory.repository.ColdSegmentStore;
+
+// Moves events older than `after` from machine_events into cold segments, oldest first, one
+// segment-interval range at a time. Each batch of batch-size events is deleted and written to its
+// own segment in one short transaction, so the delete holds its row locks only briefly and never
+// locks a whole range. Events that arrive later for an archived range stay in the table until the
+// next run moves them into another segment.
+@Service
+public class ColdStorageService {
+    private static final Logger log = LoggerFactory.getLogger(ColdStorageService.class);
+
+    private final ColdSegmentStore coldSegmentStore;
+    private final StatsResponseCache statsResponseCache;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final Duration after;
+    private final Duration segmentInterval;
+    private final int batchSize;
+    private final Duration retention;
+
+    public ColdStorageService(ColdSegmentStore coldSegmentStore, StatsResponseCache statsResponseCache,
+            PlatformTransactionManager transactionManager,
+            @Value("${machine-factory.cold-storage.enabled:false}") boolean enabled,
+            @Value("${machine-factory.cold-storage.after:30d}") Duration after,
+            @Value("${machine-factory.cold-storage.segment-interval:1d}") Duration segmentInterval,
+            @Value("${machine-factory.cold-storage.batch-size:10000}") int batchSize,
+            @Value("${machine-factory.cold-storage.retention:0}") Duration retention,
+            @Value("${machine-factory.stats.memory.horizon:24h}") Duration memoryHorizon) {
+        if (segmentInterval.isZero() || segmentInterval.isNegative() || segmentInterval.toSeconds() % 60 != 0) {
+            throw new IllegalArgumentException("machine-factory.cold-storage.segment-interval must be a positive whole number of minutes");
+        }
+        // The in-memory engine and the subscriptions only know the table
+        if (enabled && after.compareTo(memoryHorizon) < 0) {
+            throw new IllegalArgumentException("machine-factory.cold-storage.after must not be shorter than machine-factory.stats.memory.horizon");
+        }
+        this.coldSegmentStore = coldSegmentStore;
+        this.statsResponseCache = statsResponseCache;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.after = after;
+        this.segmentInterval = segmentInterval;
+        this.batchSize = Math.max(1, batchSize);
+        this.retention = retention;
+    }
+
+    @Scheduled(fixedDelayString = "${machine-factory.cold-storage.interval:PT1H}",
+            initialDelayString = "${machine-factory.cold-storage.interval:PT1H}")
+    public void archive() {
+        if (!enabled) {
+            return;
+        }
+        Instant now = Instant.now();
+        archiveBefore(floor(now.minus(after)));
+        if (!retention.isZero()) {
+            Instant retainedFrom = now.minus(retention);
+            int deleted = coldSegmentStore.deleteSegmentsBefore(retainedFrom);
+            if (deleted > 0) {
+                statsResponseCache.invalidateRange(Instant.MIN, retainedFrom);
+                log.info("Deleted {} cold segments older than {}", deleted, retention);
+            }
+        }
+    }
+
+    // Returns the number of events moved
+    public long archiveBefore(Instant cutoff) {
+        Instant oldest = coldSegmentStore.findOldestEventBefore(cutoff);
+        if (oldest == null) {
+            return 0;
+        }
+        long moved = 0;
+        int segments = 0;
+        for (Instant from = floor(oldest); from.isBefore(cutoff); from = from.plus(segmentInterval)) {
+            Instant rangeStart = from;
+            Instant rangeEnd = from.plus(segmentInterval).isBefore(cutoff) ? from.plus(segmentInterval) : cutoff;
+            int count;
+            do {
+                count = transactionTemplate.execute(status -> coldSegmentStore.archiveBatch(rangeStart, rangeEnd, batchSize));
+                if (count > 0) {
+                    // Cached responses from before the commit, or from a replica that still has
+                    // the rows, would count the batch twice or not at all
+                    statsResponseCache.invalidateRange(rangeStart, rangeEnd);
+                }
+                moved += count;
+                segments += count > 0 ? 1 : 0;
+            } while (count == batchSize);
+        }
+        if (moved > 0) {
+            log.info("Moved {} events before {} into {} cold segments", moved, cutoff, segments);
+        }
+        return moved;
+    }
+
+    private Instant floor(Instant instant) {
+        long seconds = segmentInterval.toSeconds();
+        return Instant.ofEpochSecond(Math.floorDiv(instant.getEpochSecond(), seconds) * seconds);
+    }
+}
@@ -0,0 +1,314 @@
+package com.example.machine_factory.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.machine_factory.dto.ApproximateLineStatsResponse;
+import com.example.machine_factory.dto.ApproximateTopDefectLinesResponse;
+import com.example.machine_factory.entity.MachineEvent;
+import com.example.machine_factory.event.MachineEventChange;
+import com.example.machine_factory.event.MachineEventsChangedEvent;
+import com.example.machine_factory.repository.MachineEventRepository;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+// Space-Saving sketches of the defect sums per line, one per factory and bucket over the retained
+// horizon. Seeded from machine_events at startup and kept current from committed ingest changes,
+// so an approximate top-defect-lines query merges one small sketch per bucket of the window
+// instead of grouping every row.
+@Service
+public class DefectLineSketchEngine implements MeterBinder {
+    private static final Logger log = LoggerFactory.getLogger(DefectLineSketchEngine.class);
+
+    record BucketKey(String factoryId, long bucket) {
+    }
+
+    private final MachineEventRepository machineEventRepository;
+    // Not read-only, so it runs on the primary: a seed from a lagging replica would miss commits
+    private final TransactionTemplate seedTransaction;
+    private final boolean enabled;
+    private final long bucketSeconds;
+    private final long horizonBuckets;
+    private final int capacity;
+    private final Map<BucketKey, SpaceSaving> sketches = new ConcurrentHashMap<>();
+    // As in RecentMachineStatsEngine: commits hold the read lock from beforeCommit until their
+    // changes are applied, a seed holds the write lock
+    private final ReentrantReadWriteLock seedLock = new ReentrantReadWriteLock();
+    private volatile boolean ready;
+
+    public DefectLineSketchEngine(MachineEventRepository machineEventRepository,
+            PlatformTransactionManager transactionManager,
+            @Value("${machine-factory.stats.sketch.enabled:true}") boolean enabled,
+            @Value("${machine-factory.stats.sketch.bucket:1h}") Duration bucket,
+            @Value("${machine-factory.stats.sketch.horizon:7d}") Duration horizon,
+            @Value("${machine-factory.stats.sketch.capacity:256}") int capacity) {
+        if (bucket.toSeconds() < 60 || bucket.toSeconds() % 60 != 0) {
+            throw new IllegalArgumentException("machine-factory.stats.sketch.bucket must be a whole number of minutes");
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("machine-factory.stats.sketch.capacity must be positive");
+        }
+        this.machineEventRepository = machineEventRepository;
+        this.seedTransaction = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.bucketSeconds = bucket.toSeconds();
+        this.horizonBuckets = Math.max(1, horizon.toSeconds() / bucketSeconds);
+        this.capacity = capacity;
+    }
+
+    public Duration getBucket() {
+        return Duration.ofSeconds(bucketSeconds);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void seed() {
+        if (!enabled) {
+            return;
+        }
+        seedTransaction.executeWithoutResult(status -> {
+            seedLock.writeLock().lock();
+            try {
+                ready = false;
+                sketches.clear();
+                Instant since = Instant.ofEpochSecond(horizonStart() * bucketSeconds);
+                machineEventRepository.forEachLineDefectBucket(since, bucketSeconds,
+                    (factoryId, lineId, bucket, defectsSum) -> sketch(factoryId, bucket).add(lineId, defectsSum));
+                ready = true;
+            } finally {
+                seedLock.writeLock().unlock();
+            }
+        });
+        log.info("Defect line sketches seeded with {} buckets", sketches.size());
+    }
+
+    @EventListener
+    public void onMachineEventsChanged(MachineEventsChangedEvent event) {
+        if (!enabled) {
+            return;
+        }
+        List<MachineEventChange> changes = event.getChanges();
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            seedLock.readLock().lock();
+            try {
+                apply(changes);
+            } finally {
+                seedLock.readLock().unlock();
+            }
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            private boolean locked;
+
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                seedLock.readLock().lock();
+                locked = true;
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                try {
+                    if (status == STATUS_COMMITTED) {
+                        apply(changes);
+                    }
+                } finally {
+                    if (locked) {
+                        seedLock.readLock().unlock();
+                    }
+                }
+            }
+        });
+    }
+
+    // Merges the sketches of the factory over [alignedFrom, alignedTo), both on bucket boundaries,
+    // or returns null when the window starts before the retained horizon
+    public Estimate estimate(String factoryId, Instant alignedFrom, Instant alignedTo) {
+        if (!ready) {
+            return null;
+        }
+        long fromBucket = alignedFrom.getEpochSecond() / bucketSeconds;
+        long toBucket = alignedTo.getEpochSecond() / bucketSeconds;
+        if (fromBucket < horizonStart()) {
+            return null;
+        }
+        Estimate estimate = new Estimate();
+        for (long bucket = fromBucket; bucket < toBucket; bucket++) {
+            SpaceSaving sketch = sketches.get(new BucketKey(factoryId, bucket));
+            if (sketch != null) {
+                sketch.mergeInto(estimate);
+            }
+        }
+        return estimate;
+    }
+
+    @Scheduled(fixedDelayString = "${machine-factory.stats.sketch.eviction-interval:PT5M}")
+    public void evictExpiredBuckets() {
+        long horizonStart = horizonStart();
+        sketches.keySet().removeIf(key -> key.bucket() < horizonStart);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("machine_factory.stats.sketch.buckets", sketches, Map::size).register(registry);
+    }
+
+    private void apply(List<MachineEventChange> changes) {
+        if (!ready) {
+            return;
+        }
+        // Summed per sketch and line first, so a batch touches each counter once
+        Map<BucketKey, Map<String, Long>> deltas = new HashMap<>();
+        for (MachineEventChange change : changes) {
+            if (change.isPreviousUnknown()) {
+                ready = false;
+                CompletableFuture.runAsync(this::seed);
+                return;
+            }
+            if (change.getPrevious() != null) {
+                record(deltas, change.getPrevious(), -1);
+            }
+            record(deltas, change.getCurrent(), 1);
+        }
+        deltas.forEach((key, lines) -> {
+            SpaceSaving sketch = sketch(key.factoryId(), key.bucket());
+            lines.forEach(sketch::add);
+        });
+    }
+
+    private void record(Map<BucketKey, Map<String, Long>> deltas, MachineEvent event, int sign) {
+        if (event.getFactoryId() == null || event.getDefectCount() == null || event.getDefectCount() <= 0) {
+            return;
+        }
+        long bucket = Math.floorDiv(event.getEventTime().getEpochSecond(), bucketSeconds);
+        if (bucket < horizonStart()) {
+            return;
+        }
+        deltas.computeIfAbsent(new BucketKey(event.getFactoryId(), bucket), key -> new HashMap<>())
+            .merge(event.getLineId(), (long) sign * event.getDefectCount(), Long::sum);
+    }
+
+    private SpaceSaving sketch(String factoryId, long bucket) {
+        return sketches.computeIfAbsent(new BucketKey(factoryId, bucket), key -> new SpaceSaving(capacity));
+    }
+
+    private long horizonStart() {
+        return Instant.now().getEpochSecond() / bucketSeconds - horizonBuckets;
+    }
+
+    // Per line: the summed counters of the sketches that track it (an upper bound in each), their
+    // summed errors, and the summed bounds of those sketches for untracked lines. A sketch that does
+    // not track a line adds its untracked bound to the line's upper bound and nothing to the lower.
+    public static final class Estimate {
+        private final Map<String, long[]> lines = new HashMap<>();
+        private long untrackedSum;
+
+        // Defects counted exactly, e.g. the unaligned edges of the window
+        public void addExact(String lineId, long defects) {
+            if (defects > 0) {
+                lines.computeIfAbsent(lineId, id -> new long[3])[0] += defects;
+            }
+        }
+
+        void addTracked(String lineId, long count, long error, long untrackedBound) {
+            long[] line = lines.computeIfAbsent(lineId, id -> new long[3]);
+            line[0] += count;
+            line[1] += error;
+            line[2] += untrackedBound;
+        }
+
+        void addUntrackedBound(long untrackedBound) {
+            untrackedSum += untrackedBound;
+        }
+
+        // The limit lines with the highest upper bounds, highest first
+        public ApproximateTopDefectLinesResponse toResponse(String factoryId, Instant from, Instant to, int limit) {
+            List<ApproximateLineStatsResponse> ranked = new ArrayList<>(lines.size());
+            lines.forEach((lineId, line) -> {
+                long upper = line[0] + untrackedSum - line[2];
+                long lower = line[0] - line[1];
+                ranked.add(new ApproximateLineStatsResponse(lineId, upper, upper - Math.max(0, lower)));
+            });
+            ranked.sort(Comparator.comparingLong(ApproximateLineStatsResponse::getTotalDefects).reversed()
+                .thenComparing(ApproximateLineStatsResponse::getLineId, Comparator.nullsFirst(Comparator.naturalOrder())));
+            // A line outside the result is either untracked everywhere or ranked below the last one
+            long otherLinesMaxDefects = ranked.size() > limit
+                ? Math.max(untrackedSum, ranked.get(limit).getTotalDefects()) : untrackedSum;
+            return new ApproximateTopDefectLinesResponse(factoryId, from, to, true, otherLinesMaxDefects,
+                new ArrayList<>(ranked.subList(0, Math.min(limit, ranked.size()))));
+        }
+    }
+
+    // Space-Saving over weighted updates. Every tracked counter is at least the line's true sum and
+    // at most `error` above it; no untracked line has more than untrackedBound. Negative updates
+    // (replaced events) keep both bounds: a tracked counter and its true sum drop together, and an
+    // untracked line only drops.
+    static final class SpaceSaving {
+        private final int capacity;
+        // lineId -> {count, error}
+        private final Map<String, long[]> counters = new HashMap<>();
+        private long untrackedBound;
+
+        SpaceSaving(int capacity) {
+            this.capacity = capacity;
+        }
+
+        synchronized void add(String lineId, long defects) {
+            if (defects == 0) {
+                return;
+            }
+            long[] counter = counters.get(lineId);
+            if (counter != null) {
+                counter[0] += defects;
+                if (counter[0] <= 0) {
+                    // The true sum is at most the counter, so it is 0 now
+                    counters.remove(lineId);
+                }
+                return;
+            }
+            if (defects < 0) {
+                return;
+            }
+            if (counters.size() >= capacity) {
+                // Linear in the capacity, and only paid by a line that is not tracked yet
+                String minLine = null;
+                long minCount = Long.MAX_VALUE;
+                for (Map.Entry<String, long[]> entry : counters.entrySet()) {
+                    if (entry.getValue()[0] < minCount) {
+                        minLine = entry.getKey();
+                        minCount = entry.getValue()[0];
+                    }
+                }
+                counters.remove(minLine);
+                untrackedBound = Math.max(untrackedBound, minCount);
+            }
+            counters.put(lineId, new long[] {untrackedBound + defects, untrackedBound});
+        }
+
+        synchronized void mergeInto(Estimate estimate) {
+            estimate.addUntrackedBound(untrackedBound);
+            counters.forEach((lineId, counter) -> estimate.addTracked(lineId, counter[0], counter[1], untrackedBound));
+        }
+    }
+}
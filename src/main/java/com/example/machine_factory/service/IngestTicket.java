@@ -0,0 +1,76 @@
+package com.example.machine_factory.service;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.example.machine_factory.dto.IngestTicketStatus;
+import com.example.machine_factory.dto.MachineEventRejected;
+import com.example.machine_factory.dto.MachineEventUpsertResult;
+import com.example.machine_factory.dto.MachineEventsTicketResponse;
+import com.example.machine_factory.dto.RejectionReason;
+
+// Tracks one async request. Counters are written by the committer thread and read by status
+// requests, so they are atomics rather than guarded by a lock, and the rejections a list that is
+// safe to read while it grows.
+class IngestTicket {
+    private final String ticketId;
+    private final List<MachineEventRejected> rejections;
+    private final AtomicInteger pending;
+    private final AtomicInteger accepted = new AtomicInteger();
+    private final AtomicInteger deduped = new AtomicInteger();
+    private final AtomicInteger updated = new AtomicInteger();
+    private volatile String error;
+    private volatile Instant completedAt;
+
+    IngestTicket(String ticketId, int queuedEvents, List<MachineEventRejected> rejections) {
+        this.ticketId = ticketId;
+        this.rejections = new CopyOnWriteArrayList<>(rejections);
+        this.pending = new AtomicInteger(queuedEvents);
+        if (queuedEvents == 0) {
+            completedAt = Instant.now();
+        }
+    }
+
+    String getTicketId() {
+        return ticketId;
+    }
+
+    Instant getCompletedAt() {
+        return completedAt;
+    }
+
+    void record(MachineEventUpsertResult result) {
+        switch (result.getOutcome()) {
+            case INSERTED -> accepted.incrementAndGet();
+            case UPDATED -> updated.incrementAndGet();
+            case DEDUPED -> deduped.incrementAndGet();
+            case IGNORED -> {
+                // Older receivedTime than the stored row - neither applied nor counted
+            }
+            case ARCHIVED -> rejections.add(new MachineEventRejected(result.getEventId(), RejectionReason.ARCHIVED_EVENT));
+        }
+        release(1);
+    }
+
+    void fail(String message, int events) {
+        error = message;
+        release(events);
+    }
+
+    private void release(int events) {
+        if (pending.addAndGet(-events) == 0) {
+            completedAt = Instant.now();
+        }
+    }
+
+    MachineEventsTicketResponse toResponse() {
+        int remaining = pending.get();
+        IngestTicketStatus status = remaining > 0 ? IngestTicketStatus.PENDING
+            : error != null ? IngestTicketStatus.FAILED : IngestTicketStatus.COMPLETED;
+        List<MachineEventRejected> rejected = List.copyOf(rejections);
+        return new MachineEventsTicketResponse(ticketId, status, remaining, error,
+            accepted.get(), deduped.get(), updated.get(), rejected.size(), rejected);
+    }
+}
@@ -0,0 +1,287 @@
+package com.example.machine_factory.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.example.machine_factory.entity.MachineEvent;
+import com.example.machine_factory.metrics.MachineFactoryMetrics;
+import com.example.machine_factory.metrics.MachineFactoryMetrics.IngestStage;
+
+// Columnar binary encoding of an event batch (application/x-machine-events):
+//
+//   "MEV" and the version byte 1
+//   varint   number of events n
+//   varint   number of dictionary strings d, then d strings: the machine, line and factory IDs
+//   n strings        eventId
+//   n zigzag varints eventTime in epoch microseconds, the first absolute, then the difference to the previous
+//   n zigzag varints durationMs
+//   n zigzag varints defectCount (-1 unknown, as in JSON)
+//   n varints        machineId, lineId, factoryId (three columns): dictionary index + 1, 0 for none
+//
+// A varint is unsigned LEB128 (7 bits per byte, low bits first); zigzag maps 0, -1, 1, -2 to
+// 0, 1, 2, 3. A string is a varint of its UTF-8 length + 1 (0 for none) followed by the bytes.
+// Field names and timestamp text are gone, and sorted times encode in one or two bytes each.
+// receivedTime is not part of the format; the server sets it on every ingest anyway.
+@Component
+public class MachineEventBinaryCodec {
+    public static final String MEDIA_TYPE = "application/x-machine-events";
+    private static final byte[] MAGIC = { 'M', 'E', 'V' };
+    private static final byte VERSION = 1;
+    // Every event takes at least a byte in each of the seven columns
+    private static final int MIN_EVENT_BYTES = 7;
+
+    private final MachineFactoryMetrics metrics;
+    private final int maxBodyBytes;
+
+    // The body is decoded from one array, so it is held to the same limit as a decompressed body
+    public MachineEventBinaryCodec(MachineFactoryMetrics metrics,
+            @Value("${machine-factory.compression.max-decompressed-size:256MB}") DataSize maxBodySize) {
+        this.metrics = metrics;
+        this.maxBodyBytes = (int) Math.min(maxBodySize.toBytes(), Integer.MAX_VALUE - 8);
+    }
+
+    // Decodes a request body, timed as the bind stage like the JSON binding
+    public List<MachineEvent> read(InputStream body) throws IOException {
+        long stageStart = System.nanoTime();
+        byte[] bytes = body.readNBytes(maxBodyBytes);
+        if (body.read() >= 0) {
+            throw new ResponseStatusException(HttpStatus.CONTENT_TOO_LARGE,
+                "Machine event batch exceeds " + maxBodyBytes + " bytes");
+        }
+        List<MachineEvent> events;
+        try {
+            events = decode(bytes);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+        metrics.recordStage(IngestStage.BIND, stageStart);
+        return events;
+    }
+
+    public static List<MachineEvent> decode(byte[] bytes) {
+        if (bytes.length < MAGIC.length + 1 || !Arrays.equals(bytes, 0, MAGIC.length, MAGIC, 0, MAGIC.length)) {
+            throw new IllegalArgumentException("Not a machine event batch");
+        }
+        if (bytes[MAGIC.length] != VERSION) {
+            throw new IllegalArgumentException("Unsupported machine event batch version " + bytes[MAGIC.length]);
+        }
+        Reader reader = new Reader(bytes, MAGIC.length + 1);
+        // Bounded by the body size, so a corrupt count cannot allocate more than the body implies
+        int count = reader.count(MIN_EVENT_BYTES);
+        String[] dictionary = new String[reader.count(1)];
+        for (int i = 0; i < dictionary.length; i++) {
+            dictionary[i] = reader.string();
+        }
+
+        MachineEvent[] events = new MachineEvent[count];
+        for (int i = 0; i < count; i++) {
+            events[i] = new MachineEvent();
+            events[i].setEventId(reader.string());
+        }
+        long micros = 0;
+        for (int i = 0; i < count; i++) {
+            micros += reader.zigzag();
+            events[i].setEventTime(Instant.ofEpochSecond(Math.floorDiv(micros, 1_000_000L),
+                Math.floorMod(micros, 1_000_000L) * 1000));
+        }
+        for (int i = 0; i < count; i++) {
+            events[i].setDurationMs(reader.intValue());
+        }
+        for (int i = 0; i < count; i++) {
+            events[i].setDefectCount(reader.intValue());
+        }
+        for (int i = 0; i < count; i++) {
+            events[i].setMachineId(reader.id(dictionary));
+        }
+        for (int i = 0; i < count; i++) {
+            events[i].setLineId(reader.id(dictionary));
+        }
+        for (int i = 0; i < count; i++) {
+            events[i].setFactoryId(reader.id(dictionary));
+        }
+        if (reader.position != bytes.length) {
+            throw new IllegalArgumentException((bytes.length - reader.position) + " bytes after the last column");
+        }
+        return new ArrayList<>(Arrays.asList(events));
+    }
+
+    // Event times are truncated to microseconds, the precision of event_time
+    public static byte[] encode(List<MachineEvent> events) {
+        Map<String, Integer> dictionary = new LinkedHashMap<>();
+        for (MachineEvent event : events) {
+            index(dictionary, event.getMachineId());
+            index(dictionary, event.getLineId());
+            index(dictionary, event.getFactoryId());
+        }
+        Writer writer = new Writer(64 + events.size() * 24);
+        writer.bytes(MAGIC);
+        writer.bytes(new byte[] { VERSION });
+        writer.varint(events.size());
+        writer.varint(dictionary.size());
+        dictionary.keySet().forEach(writer::string);
+        for (MachineEvent event : events) {
+            writer.string(event.getEventId());
+        }
+        long previous = 0;
+        for (MachineEvent event : events) {
+            Instant eventTime = Objects.requireNonNull(event.getEventTime(), "eventTime");
+            long micros = Math.addExact(Math.multiplyExact(eventTime.getEpochSecond(), 1_000_000L), eventTime.getNano() / 1000);
+            writer.zigzag(micros - previous);
+            previous = micros;
+        }
+        for (MachineEvent event : events) {
+            writer.zigzag(event.getDurationMs());
+        }
+        for (MachineEvent event : events) {
+            writer.zigzag(event.getDefectCount() == null ? -1 : event.getDefectCount());
+        }
+        for (MachineEvent event : events) {
+            writer.varint(event.getMachineId() == null ? 0 : dictionary.get(event.getMachineId()) + 1);
+        }
+        for (MachineEvent event : events) {
+            writer.varint(event.getLineId() == null ? 0 : dictionary.get(event.getLineId()) + 1);
+        }
+        for (MachineEvent event : events) {
+            writer.varint(event.getFactoryId() == null ? 0 : dictionary.get(event.getFactoryId()) + 1);
+        }
+        return writer.toByteArray();
+    }
+
+    private static void index(Map<String, Integer> dictionary, String id) {
+        if (id != null) {
+            dictionary.putIfAbsent(id, dictionary.size());
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] bytes;
+        private int position;
+
+        Reader(byte[] bytes, int position) {
+            this.bytes = bytes;
+            this.position = position;
+        }
+
+        long varint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= bytes.length) {
+                    throw new IllegalArgumentException("Machine event batch ends inside a value");
+                }
+                byte b = bytes[position++];
+                value |= (long) (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Varint longer than 64 bits at byte " + position);
+        }
+
+        long zigzag() {
+            long value = varint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        int intValue() {
+            long value = zigzag();
+            if (value != (int) value) {
+                throw new IllegalArgumentException("Value out of int range before byte " + position);
+            }
+            return (int) value;
+        }
+
+        int count(int minBytesEach) {
+            long value = varint();
+            if (value < 0 || value > (bytes.length - position) / minBytesEach) {
+                throw new IllegalArgumentException("Count " + value + " exceeds the batch size");
+            }
+            return (int) value;
+        }
+
+        String string() {
+            long length = varint();
+            if (length == 0) {
+                return null;
+            }
+            if (length - 1 > bytes.length - position) {
+                throw new IllegalArgumentException("String exceeds the batch size at byte " + position);
+            }
+            String value = new String(bytes, position, (int) (length - 1), StandardCharsets.UTF_8);
+            position += (int) (length - 1);
+            return value;
+        }
+
+        String id(String[] dictionary) {
+            long index = varint();
+            if (index == 0) {
+                return null;
+            }
+            if (index < 0 || index > dictionary.length) {
+                throw new IllegalArgumentException("Dictionary index " + index + " out of range at byte " + position);
+            }
+            return dictionary[(int) index - 1];
+        }
+    }
+
+    private static final class Writer {
+        private byte[] buffer;
+        private int size;
+
+        Writer(int capacity) {
+            buffer = new byte[capacity];
+        }
+
+        void varint(long value) {
+            ensure(10);
+            while ((value & ~0x7fL) != 0) {
+                buffer[size++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        void zigzag(long value) {
+            varint((value << 1) ^ (value >> 63));
+        }
+
+        void string(String value) {
+            if (value == null) {
+                varint(0);
+                return;
+            }
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            varint(utf8.length + 1L);
+            bytes(utf8);
+        }
+
+        void bytes(byte[] value) {
+            ensure(value.length);
+            System.arraycopy(value, 0, buffer, size, value.length);
+            size += value.length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+            }
+        }
+    }
+}
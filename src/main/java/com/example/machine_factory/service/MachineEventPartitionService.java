@@ -0,0 +1,178 @@
+package com.example.machine_factory.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.machine_factory.repository.EventIdFilter;
+import com.example.machine_factory.repository.MachineEventPartitionRepository;
+
+import jakarta.annotation.PostConstruct;
+
+// Keeps machine_events partitioned by event_time in fixed intervals aligned to the epoch: every
+// run creates the partitions from the retention cutoff up to `premake` intervals ahead, and drops
+// or detaches the partitions that ended before the cutoff. The bounds are encoded in the name.
+@Service
+public class MachineEventPartitionService {
+    private static final Logger log = LoggerFactory.getLogger(MachineEventPartitionService.class);
+    static final String PREFIX = "machine_events_p";
+    private static final DateTimeFormatter NAME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd_HHmm").withZone(ZoneOffset.UTC);
+
+    public record Partition(String name, Instant from, Instant to) {
+    }
+
+    private final MachineEventPartitionRepository partitionRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final RecentMachineStatsEngine recentMachineStatsEngine;
+    private final StatsResponseCache statsResponseCache;
+    private final EventIdFilter eventIdFilter;
+    private final Duration interval;
+    private final int premake;
+    private final Duration retention;
+    private final boolean detach;
+
+    public MachineEventPartitionService(MachineEventPartitionRepository partitionRepository,
+            TransactionTemplate transactionTemplate,
+            RecentMachineStatsEngine recentMachineStatsEngine,
+            StatsResponseCache statsResponseCache,
+            EventIdFilter eventIdFilter,
+            @Value("${machine-factory.partitions.interval:1d}") Duration interval,
+            @Value("${machine-factory.partitions.premake:7}") int premake,
+            @Value("${machine-factory.partitions.retention:90d}") Duration retention,
+            @Value("${machine-factory.partitions.expire-action:drop}") String expireAction) {
+        if (interval.isZero() || interval.isNegative() || interval.toSeconds() % 60 != 0) {
+            throw new IllegalArgumentException("machine-factory.partitions.interval must be a positive whole number of minutes");
+        }
+        this.partitionRepository = partitionRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.recentMachineStatsEngine = recentMachineStatsEngine;
+        this.statsResponseCache = statsResponseCache;
+        this.eventIdFilter = eventIdFilter;
+        this.interval = interval;
+        this.premake = premake;
+        this.retention = retention;
+        this.detach = switch (expireAction) {
+            case "drop" -> false;
+            case "detach" -> true;
+            default -> throw new IllegalArgumentException(
+                "machine-factory.partitions.expire-action must be drop or detach, was " + expireAction);
+        };
+    }
+
+    // Runs before the web server accepts ingest, so current events never land in the default
+    // partition and block creation of their own partition
+    @PostConstruct
+    void init() {
+        maintain();
+    }
+
+    @Scheduled(fixedDelayString = "${machine-factory.partitions.maintenance-interval:PT1H}",
+            initialDelayString = "${machine-factory.partitions.maintenance-interval:PT1H}")
+    public void maintain() {
+        Instant now = Instant.now();
+        Instant cutoff = retention.isZero() ? null : now.minus(retention);
+        createPartitions(cutoff == null ? floor(now) : floor(cutoff), floor(now).plus(interval.multipliedBy(premake)));
+        if (cutoff != null) {
+            expirePartitions(cutoff);
+        }
+    }
+
+    public List<Partition> findPartitions() {
+        List<Partition> partitions = new ArrayList<>();
+        for (String name : partitionRepository.findPartitionNames()) {
+            Partition partition = parse(name);
+            if (partition != null) {
+                partitions.add(partition);
+            }
+        }
+        partitions.sort((a, b) -> a.from().compareTo(b.from()));
+        return partitions;
+    }
+
+    public Partition partitionFor(Instant eventTime) {
+        Instant from = floor(eventTime);
+        Instant to = from.plus(interval);
+        return new Partition(PREFIX + NAME_FORMAT.format(from) + "_" + NAME_FORMAT.format(to), from, to);
+    }
+
+    private void createPartitions(Instant first, Instant last) {
+        Set<String> existing = new HashSet<>(partitionRepository.findPartitionNames());
+        for (Instant from = first; !from.isAfter(last); from = from.plus(interval)) {
+            Partition partition = partitionFor(from);
+            if (existing.contains(partition.name())) {
+                continue;
+            }
+            try {
+                partitionRepository.createPartition(partition.name(), partition.from(), partition.to());
+                log.info("Created partition {} for [{}, {})", partition.name(), partition.from(), partition.to());
+            } catch (DataAccessException e) {
+                // Rows already in the default partition, or an overlap after an interval change
+                log.warn("Could not create partition {}: {}", partition.name(), e.getMostSpecificCause().getMessage());
+            }
+        }
+    }
+
+    private void expirePartitions(Instant cutoff) {
+        boolean removed = false;
+        Instant oldestKept = cutoff;
+        for (Partition partition : findPartitions()) {
+            if (partition.to().isAfter(cutoff)) {
+                if (partition.from().isBefore(oldestKept)) {
+                    oldestKept = partition.from();
+                }
+                continue;
+            }
+            transactionTemplate.executeWithoutResult(status -> partitionRepository.expirePartition(
+                partition.name(), partition.from(), partition.to(), detach));
+            log.info("{} expired partition {}", detach ? "Detached" : "Dropped", partition.name());
+            removed = true;
+        }
+        // Whatever is left below the oldest partition sits in the default partition
+        Instant defaultCutoff = oldestKept;
+        int deleted = transactionTemplate.execute(status -> partitionRepository.deleteEventsBefore(defaultCutoff));
+        if (deleted > 0) {
+            log.info("Deleted {} expired events from {}", deleted, MachineEventPartitionRepository.DEFAULT_PARTITION);
+        }
+        if (removed || deleted > 0) {
+            recentMachineStatsEngine.seed();
+            statsResponseCache.clear();
+            // Drops the expired IDs, which would otherwise stay in the filter as false positives
+            eventIdFilter.seedAsync();
+        }
+    }
+
+    private Instant floor(Instant instant) {
+        long seconds = interval.toSeconds();
+        return Instant.ofEpochSecond(Math.floorDiv(instant.getEpochSecond(), seconds) * seconds);
+    }
+
+    private static Partition parse(String name) {
+        if (!name.startsWith(PREFIX)) {
+            return null;
+        }
+        String[] parts = name.substring(PREFIX.length()).split("_");
+        if (parts.length != 4) {
+            return null;
+        }
+        try {
+            return new Partition(name, Instant.from(NAME_FORMAT.parse(parts[0] + "_" + parts[1])),
+                Instant.from(NAME_FORMAT.parse(parts[2] + "_" + parts[3])));
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
@@ -2,34 +2,108 @@ package com.example.machine_factory.service;
 
 import java.time.Instant;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.PessimisticLockingFailureException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import com.example.machine_factory.dto.MachineEventRejected;
+import com.example.machine_factory.dto.MachineEventUpsertResult;
 import com.example.machine_factory.dto.MachineEventsBatchResponse;
 import com.example.machine_factory.dto.RejectionReason;
+import com.example.machine_factory.dto.UpsertOutcome;
 import com.example.machine_factory.entity.MachineEvent;
+import com.example.machine_factory.event.MachineEventChange;
+import com.example.machine_factory.event.MachineEventsChangedEvent;
+import com.example.machine_factory.metrics.MachineFactoryMetrics;
+import com.example.machine_factory.metrics.MachineFactoryMetrics.IngestStage;
 import com.example.machine_factory.repository.MachineEventRepository;
 
-import jakarta.transaction.Transactional;
+import jakarta.annotation.PreDestroy;
 
 @Service
 public class MachineEventService {
+    private static final Logger log = LoggerFactory.getLogger(MachineEventService.class);
+    private static final int MAX_SHARD_ATTEMPTS = 3;
+
     private final MachineEventRepository machineEventRepository;
+    private final ApplicationEventPublisher eventPublisher;
+    private final MachineFactoryMetrics metrics;
+    private final TransactionTemplate transactionTemplate;
+    private final int copyThreshold;
+    private final int shards;
+    private final int parallelThreshold;
+    private final int maxShards;
+    // Connections taken by shard threads across all batches; the calling thread uses its own
+    private final Semaphore shardPermits;
+    private final ExecutorService shardExecutor;
 
-    public MachineEventService(MachineEventRepository machineEventRepository) {
+    public MachineEventService(MachineEventRepository machineEventRepository, ApplicationEventPublisher eventPublisher,
+            MachineFactoryMetrics metrics, TransactionTemplate transactionTemplate,
+            @Value("${machine-factory.ingest.copy-threshold:20000}") int copyThreshold,
+            @Value("${machine-factory.ingest.parallel.shards:1}") int shards,
+            @Value("${machine-factory.ingest.parallel.threshold:20000}") int parallelThreshold,
+            @Value("${spring.datasource.hikari.maximum-pool-size:10}") int poolSize) {
         this.machineEventRepository = machineEventRepository;
+        this.eventPublisher = eventPublisher;
+        this.metrics = metrics;
+        this.transactionTemplate = transactionTemplate;
+        this.copyThreshold = copyThreshold;
+        this.shards = Math.max(1, shards);
+        this.parallelThreshold = parallelThreshold;
+        // Half the pool at most, so large batches cannot starve stats queries and small batches
+        this.maxShards = Math.max(1, poolSize / 2);
+        this.shardPermits = new Semaphore(maxShards - 1);
+        this.shardExecutor = maxShards > 1 ? Executors.newFixedThreadPool(maxShards - 1, shardThreadFactory()) : null;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (shardExecutor != null) {
+            shardExecutor.shutdown();
+        }
     }
 
     public MachineEventsBatchResponse saveBatch(List<MachineEvent> events) {
+        return saveBatch(events, shards);
+    }
+
+    // Batches of at least parallel.threshold valid events are split into up to `shards` shards,
+    // unless the caller already runs in a transaction that the whole batch has to join
+    public MachineEventsBatchResponse saveBatch(List<MachineEvent> events, int shards) {
         final Instant now = Instant.now();
         List<MachineEvent> validMachineEvents = new ArrayList<>();
+        List<MachineEventRejected> rejectedMachineEvents = validate(events, now, validMachineEvents);
+
+        if (shards > 1 && validMachineEvents.size() >= parallelThreshold
+                && !TransactionSynchronizationManager.isActualTransactionActive()) {
+            return persistSharded(validMachineEvents, rejectedMachineEvents, now, shards);
+        }
+        return transactionTemplate.execute(status -> persistValidEvents(validMachineEvents, rejectedMachineEvents, now));
+    }
+
+    // Validate - fast, no DB access. Valid events are added to validMachineEvents.
+    public List<MachineEventRejected> validate(List<MachineEvent> events, Instant now,
+            List<MachineEvent> validMachineEvents) {
+        long stageStart = System.nanoTime();
+        metrics.recordBatchSize(events.size());
         List<MachineEventRejected> rejectedMachineEvents = new ArrayList<>();
-        
-        // Validate - fast, no DB access
         for (MachineEvent event : events) {
             if (event.getDurationMs() < 0 || event.getDurationMs() > 21600000) {
                 rejectedMachineEvents.add(
@@ -46,49 +120,190 @@ public class MachineEventService {
                 validMachineEvents.add(event);
             }
         }
-        
-        return persistValidEvents(validMachineEvents, rejectedMachineEvents, now);
+        metrics.recordRejections(rejectedMachineEvents);
+        metrics.recordStage(IngestStage.VALIDATE, stageStart);
+        return rejectedMachineEvents;
     }
 
-    @Transactional
-    protected MachineEventsBatchResponse persistValidEvents(List<MachineEvent> validMachineEvents, 
-            List<MachineEventRejected> rejectedMachineEvents, Instant now) {
-        
-        // Dedup in-memory first (faster than stream)
-        Map<String, MachineEvent> validEventsMap = new HashMap<>();
+    // Dedup in-memory first - a single upsert statement cannot touch the same row twice.
+    // The first occurrence of an eventId wins and batch order is kept.
+    public static Map<String, MachineEvent> dedupeById(List<MachineEvent> validMachineEvents) {
+        Map<String, MachineEvent> validEventsMap = new LinkedHashMap<>();
         for (MachineEvent event : validMachineEvents) {
             validEventsMap.putIfAbsent(event.getEventId(), event);
         }
+        return validEventsMap;
+    }
+
+    protected MachineEventsBatchResponse persistValidEvents(List<MachineEvent> validMachineEvents, 
+            List<MachineEventRejected> rejectedMachineEvents, Instant now) {
         
-        List<String> allValidIds = new ArrayList<>(validEventsMap.keySet());
-        List<MachineEvent> existingEvents = machineEventRepository.findAllById(allValidIds);
-        
-        int dedupedCount = 0, updatedCount = 0;
-        for (MachineEvent existingEvent : existingEvents) {
-            MachineEvent newEvent = validEventsMap.get(existingEvent.getEventId());
-            if (existingEvent.equals(newEvent)) {
-                dedupedCount++;
-                validEventsMap.remove(existingEvent.getEventId());
-            } else if (newEvent.getReceivedTime() != null && 
-                       newEvent.getReceivedTime().isBefore(existingEvent.getReceivedTime())) {
-                validEventsMap.remove(existingEvent.getEventId());
-            } else {
-                updatedCount++;
+        long stageStart = System.nanoTime();
+        Map<String, MachineEvent> validEventsMap = dedupeById(validMachineEvents);
+        metrics.recordStage(IngestStage.DEDUPE, stageStart);
+        List<MachineEventUpsertResult> results = upsertValidEvents(validEventsMap, now);
+        return toResponse(results, rejectedMachineEvents);
+    }
+
+    // Each shard is written in its own transaction on its own connection, so unlike the serial
+    // path the batch is not atomic: a failure leaves earlier shards committed. Every eventId falls
+    // into exactly one shard, which keeps the per-event dedupe and receivedTime rules, so the
+    // whole batch can be resent after a failure.
+    private MachineEventsBatchResponse persistSharded(List<MachineEvent> validMachineEvents,
+            List<MachineEventRejected> rejectedMachineEvents, Instant now, int requestedShards) {
+        long stageStart = System.nanoTime();
+        Map<String, MachineEvent> validEventsMap = dedupeById(validMachineEvents);
+        metrics.recordStage(IngestStage.DEDUPE, stageStart);
+
+        // Takes whatever shard connections are free right now instead of waiting for more
+        int shardCount = 1;
+        while (shardCount < Math.min(requestedShards, maxShards) && shardPermits.tryAcquire()) {
+            shardCount++;
+        }
+        try {
+            List<Map<String, MachineEvent>> shardEvents = new ArrayList<>(shardCount);
+            for (int i = 0; i < shardCount; i++) {
+                shardEvents.add(new LinkedHashMap<>());
+            }
+            for (MachineEvent event : validEventsMap.values()) {
+                shardEvents.get(Math.floorMod(event.getEventId().hashCode(), shardCount)).put(event.getEventId(), event);
+            }
+
+            List<Future<List<MachineEventUpsertResult>>> futures = new ArrayList<>(shardCount - 1);
+            for (Map<String, MachineEvent> shard : shardEvents.subList(1, shardCount)) {
+                futures.add(shardExecutor.submit(() -> upsertShard(shard, now)));
+            }
+            List<MachineEventUpsertResult> results = new ArrayList<>(validEventsMap.size());
+            RuntimeException failure = null;
+            try {
+                results.addAll(upsertShard(shardEvents.get(0), now));
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+            // Every shard is waited for, so its connection is back before the permits are
+            for (Future<List<MachineEventUpsertResult>> future : futures) {
+                try {
+                    results.addAll(future.get());
+                } catch (ExecutionException e) {
+                    RuntimeException cause = e.getCause() instanceof RuntimeException runtime
+                        ? runtime : new IllegalStateException("Ingest shard failed", e.getCause());
+                    if (failure == null) {
+                        failure = cause;
+                    } else {
+                        failure.addSuppressed(cause);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for ingest shards", e);
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return toResponse(results, rejectedMachineEvents);
+        } finally {
+            shardPermits.release(shardCount - 1);
+        }
+    }
+
+    // Shards of one batch can deadlock on the rollup buckets of machines they share. The losing
+    // shard is rolled back as a whole, so it is simply applied again.
+    private List<MachineEventUpsertResult> upsertShard(Map<String, MachineEvent> shard, Instant now) {
+        if (shard.isEmpty()) {
+            return List.of();
+        }
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return transactionTemplate.execute(status -> upsertValidEvents(shard, now));
+            } catch (PessimisticLockingFailureException e) {
+                if (attempt == MAX_SHARD_ATTEMPTS) {
+                    throw e;
+                }
+                log.warn("Retrying ingest shard of {} events after lock failure: {}", shard.size(),
+                    e.getMostSpecificCause().getMessage());
+            }
+        }
+    }
+
+    private static MachineEventsBatchResponse toResponse(List<MachineEventUpsertResult> results,
+            List<MachineEventRejected> rejectedMachineEvents) {
+        int acceptedCount = 0, dedupedCount = 0, updatedCount = 0;
+        List<MachineEventRejected> rejected = new ArrayList<>(rejectedMachineEvents);
+        for (MachineEventUpsertResult result : results) {
+            switch (result.getOutcome()) {
+                case INSERTED -> acceptedCount++;
+                case UPDATED -> updatedCount++;
+                case DEDUPED -> dedupedCount++;
+                case IGNORED -> {
+                    // Older receivedTime than the stored row - neither applied nor counted
+                }
+                case ARCHIVED -> rejected.add(new MachineEventRejected(result.getEventId(), RejectionReason.ARCHIVED_EVENT));
             }
         }
-        
-        // Set received time and save
-        validEventsMap.values().forEach(event -> event.setReceivedTime(now));
-        machineEventRepository.saveAll(validEventsMap.values());
-        
-        int acceptedCount = validEventsMap.size() - updatedCount;
         
         return new MachineEventsBatchResponse(
             acceptedCount, 
             dedupedCount, 
             updatedCount, 
-            rejectedMachineEvents.size(),
-            rejectedMachineEvents
+            rejected.size(),
+            rejected
         );
     }
+
+    // Insert, update or skip every row set-based and classify from the RETURNING output.
+    // Very large batches are streamed through COPY into a staging table and merged from there.
+    // Event IDs must already be unique; the caller owns the transaction.
+    public List<MachineEventUpsertResult> upsertValidEvents(Map<String, MachineEvent> eventsById, Instant now) {
+        long stageStart = System.nanoTime();
+        List<MachineEventUpsertResult> results = eventsById.size() >= copyThreshold
+            ? machineEventRepository.copyUpsertAll(eventsById.values(), now)
+            : machineEventRepository.upsertAll(eventsById.values(), now);
+        long stageEnd = System.nanoTime();
+
+        int[] outcomeCounts = new int[UpsertOutcome.values().length];
+        List<MachineEventChange> changes = new ArrayList<>();
+        for (MachineEventUpsertResult result : results) {
+            outcomeCounts[result.getOutcome().ordinal()]++;
+            if (result.getOutcome() == UpsertOutcome.INSERTED || result.getOutcome() == UpsertOutcome.UPDATED) {
+                // A copy, since the caller's event is applied again with its own receivedTime if
+                // this transaction rolls back and is retried
+                MachineEvent event = eventsById.get(result.getEventId());
+                MachineEvent written = new MachineEvent(event.getEventId(), event.getEventTime(), now,
+                    event.getMachineId(), event.getDurationMs(), event.getDefectCount(), event.getLineId(),
+                    event.getFactoryId());
+                changes.add(new MachineEventChange(written, result.getPrevious(), result.getOutcome()));
+            }
+        }
+        recordUpsert(stageStart, stageEnd, outcomeCounts);
+        if (!changes.isEmpty()) {
+            eventPublisher.publishEvent(new MachineEventsChangedEvent(changes));
+        }
+        return results;
+    }
+
+    // A transaction that is rolled back and applied again, like a shard after a deadlock or a
+    // write-behind group, would count its events twice, so only the committed attempt is recorded
+    private void recordUpsert(long stageStart, long stageEnd, int[] outcomeCounts) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            metrics.recordStage(IngestStage.UPSERT, stageStart, stageEnd);
+            metrics.recordOutcomes(outcomeCounts);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                metrics.recordStage(IngestStage.UPSERT, stageStart, stageEnd);
+                metrics.recordOutcomes(outcomeCounts);
+            }
+        });
+    }
+
+    private static ThreadFactory shardThreadFactory() {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "machine-event-shard-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
 }
@@ -0,0 +1,88 @@
+package com.example.machine_factory.service;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.example.machine_factory.dto.MachineEventsChunkSummary;
+import com.example.machine_factory.dto.MachineEventsStreamResponse;
+import com.example.machine_factory.entity.MachineEvent;
+
+import tools.jackson.core.JacksonException;
+import tools.jackson.core.JsonParser;
+import tools.jackson.core.JsonToken;
+import tools.jackson.core.exc.JacksonIOException;
+import tools.jackson.databind.DeserializationFeature;
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.ObjectReader;
+
+@Service
+public class MachineEventStreamService {
+    private final MachineEventService machineEventService;
+    private final ObjectMapper objectMapper;
+    // Each event is one value of the stream, so the tokens after it are the next events
+    private final ObjectReader eventReader;
+    private final int chunkSize;
+    private final int maxRejections;
+
+    public MachineEventStreamService(MachineEventService machineEventService, ObjectMapper objectMapper,
+            @Value("${machine-factory.ingest.stream-chunk-size:1000}") int chunkSize,
+            @Value("${machine-factory.ingest.stream-max-rejections:1000}") int maxRejections) {
+        this.machineEventService = machineEventService;
+        this.objectMapper = objectMapper;
+        this.eventReader = objectMapper.readerFor(MachineEvent.class)
+            .without(DeserializationFeature.FAIL_ON_TRAILING_TOKENS);
+        this.chunkSize = chunkSize;
+        this.maxRejections = maxRejections;
+    }
+
+    // Accepts newline-delimited JSON objects or a single JSON array. Only one chunk of
+    // events is held at a time; each chunk is validated and committed on its own and its summary
+    // handed to onChunk. A malformed event ends the stream: the events read since the last
+    // committed chunk are dropped and the totals so far are returned with the error.
+    public MachineEventsStreamResponse ingest(InputStream body, Consumer<MachineEventsChunkSummary> onChunk) {
+        MachineEventsStreamResponse response = new MachineEventsStreamResponse(maxRejections);
+        List<MachineEvent> chunk = new ArrayList<>(chunkSize);
+
+        try (JsonParser parser = objectMapper.createParser(body)) {
+            JsonToken token = parser.nextToken();
+            boolean array = token == JsonToken.START_ARRAY;
+            if (array) {
+                token = parser.nextToken();
+            }
+            while (token != null && token != JsonToken.END_ARRAY) {
+                if (token != JsonToken.START_OBJECT) {
+                    response.setError("Expected an event object but found " + token + " after chunk "
+                        + response.getChunks());
+                    return response;
+                }
+                chunk.add(eventReader.readValue(parser));
+                if (chunk.size() == chunkSize) {
+                    flush(chunk, response, onChunk);
+                }
+                token = parser.nextToken();
+            }
+        } catch (JacksonIOException e) {
+            // Reading the body failed, e.g. at the decompression limit, rather than the JSON
+            throw e;
+        } catch (JacksonException e) {
+            response.setError("Malformed event after chunk " + response.getChunks() + ": " + e.getOriginalMessage());
+            return response;
+        }
+
+        if (!chunk.isEmpty()) {
+            flush(chunk, response, onChunk);
+        }
+        return response;
+    }
+
+    private void flush(List<MachineEvent> chunk, MachineEventsStreamResponse response,
+            Consumer<MachineEventsChunkSummary> onChunk) {
+        onChunk.accept(response.addChunk(chunk.size(), machineEventService.saveBatch(chunk)));
+        chunk.clear();
+    }
+}
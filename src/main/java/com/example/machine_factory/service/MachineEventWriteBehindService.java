@@ -0,0 +1,244 @@
+package com.example.machine_factory.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.example.machine_factory.dto.MachineEventRejected;
+import com.example.machine_factory.dto.MachineEventUpsertResult;
+import com.example.machine_factory.dto.MachineEventsTicketResponse;
+import com.example.machine_factory.entity.MachineEvent;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+// Write-behind ingest: requests are validated inline and their valid events are queued. A single
+// committer thread drains events from many requests and writes them in one transaction, flushing
+// when the group reaches max-flush-size or max-flush-delay after its first event. A failed group
+// is retried when the failure is transient and otherwise split up by request.
+@Service
+public class MachineEventWriteBehindService {
+    private static final Logger log = LoggerFactory.getLogger(MachineEventWriteBehindService.class);
+    private static final int MAX_COMMIT_ATTEMPTS = 3;
+
+    private record PendingEvent(MachineEvent event, IngestTicket ticket) {
+    }
+
+    private final MachineEventService machineEventService;
+    private final TransactionTemplate transactionTemplate;
+    private final BlockingQueue<PendingEvent> queue = new LinkedBlockingQueue<>();
+    private final Map<String, IngestTicket> tickets = new ConcurrentHashMap<>();
+    private final Semaphore capacity;
+    private final int maxFlushSize;
+    private final Duration maxFlushDelay;
+    private final Duration ticketRetention;
+    private volatile boolean running;
+    private Thread committer;
+    private long lastPurgeNanos = System.nanoTime();
+
+    public MachineEventWriteBehindService(MachineEventService machineEventService,
+            TransactionTemplate transactionTemplate,
+            @Value("${machine-factory.ingest.async.queue-capacity:100000}") int queueCapacity,
+            @Value("${machine-factory.ingest.async.max-flush-size:5000}") int maxFlushSize,
+            @Value("${machine-factory.ingest.async.max-flush-delay:50ms}") Duration maxFlushDelay,
+            @Value("${machine-factory.ingest.async.ticket-retention:10m}") Duration ticketRetention) {
+        this.machineEventService = machineEventService;
+        this.transactionTemplate = transactionTemplate;
+        this.capacity = new Semaphore(queueCapacity);
+        this.maxFlushSize = maxFlushSize;
+        this.maxFlushDelay = maxFlushDelay;
+        this.ticketRetention = ticketRetention;
+    }
+
+    @PostConstruct
+    void start() {
+        running = true;
+        committer = new Thread(this::runCommitter, "machine-event-write-behind");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        // The committer drains whatever is still queued before it exits
+        running = false;
+        committer.join(TimeUnit.SECONDS.toMillis(30));
+    }
+
+    public MachineEventsTicketResponse submit(List<MachineEvent> events) {
+        final Instant now = Instant.now();
+        List<MachineEvent> validMachineEvents = new ArrayList<>();
+        List<MachineEventRejected> rejectedMachineEvents = machineEventService.validate(events, now, validMachineEvents);
+
+        Map<String, MachineEvent> validEventsMap = MachineEventService.dedupeById(validMachineEvents);
+
+        // All-or-nothing admission so a request is never partially queued
+        if (!capacity.tryAcquire(validEventsMap.size())) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Ingest queue is full, retry later");
+        }
+        IngestTicket ticket = new IngestTicket(UUID.randomUUID().toString(), validEventsMap.size(), rejectedMachineEvents);
+        tickets.put(ticket.getTicketId(), ticket);
+        for (MachineEvent event : validEventsMap.values()) {
+            queue.add(new PendingEvent(event, ticket));
+        }
+        return ticket.toResponse();
+    }
+
+    public MachineEventsTicketResponse getTicket(String ticketId) {
+        IngestTicket ticket = tickets.get(ticketId);
+        if (ticket == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown or expired ticket " + ticketId);
+        }
+        return ticket.toResponse();
+    }
+
+    public int getQueuedEvents() {
+        return queue.size();
+    }
+
+    private void runCommitter() {
+        List<PendingEvent> group = new ArrayList<>(maxFlushSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                purgeExpiredTickets();
+                PendingEvent first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                group.add(first);
+                long deadline = System.nanoTime() + maxFlushDelay.toNanos();
+                while (group.size() < maxFlushSize) {
+                    queue.drainTo(group, maxFlushSize - group.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (group.size() >= maxFlushSize || remaining <= 0) {
+                        break;
+                    }
+                    PendingEvent next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    group.add(next);
+                }
+                flush(group);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("Write-behind committer failed", e);
+            } finally {
+                capacity.release(group.size());
+                group.clear();
+            }
+        }
+    }
+
+    // A group that fails for good is applied again one request at a time, so only the request
+    // whose events cannot be written fails and the others still commit
+    private void flush(List<PendingEvent> group) {
+        try {
+            commit(group);
+        } catch (RuntimeException e) {
+            Map<IngestTicket, List<PendingEvent>> byTicket = new LinkedHashMap<>();
+            for (PendingEvent pending : group) {
+                byTicket.computeIfAbsent(pending.ticket(), ticket -> new ArrayList<>()).add(pending);
+            }
+            if (byTicket.size() == 1) {
+                log.error("Write-behind flush of {} events failed", group.size(), e);
+                group.get(0).ticket().fail(failureReason(e), group.size());
+                return;
+            }
+            log.warn("Write-behind flush of {} events from {} requests failed, applying each request on its own: {}",
+                group.size(), byTicket.size(), e.getMessage());
+            byTicket.forEach((ticket, events) -> {
+                try {
+                    commit(events);
+                } catch (RuntimeException ticketFailure) {
+                    log.error("Write-behind flush of {} events for ticket {} failed", events.size(),
+                        ticket.getTicketId(), ticketFailure);
+                    ticket.fail(failureReason(ticketFailure), events.size());
+                }
+            });
+        }
+    }
+
+    // Tickets are readable by any client, and a DataAccessException message carries the SQL, so
+    // the details only go to the log
+    private static String failureReason(RuntimeException e) {
+        return "Write failed: " + e.getClass().getSimpleName();
+    }
+
+    // One transaction, attempted again after a deadlock, lock or statement timeout. Counts become
+    // visible only once it committed.
+    private void commit(List<PendingEvent> events) {
+        // The same eventId from several requests is applied in arrival order, one round per
+        // occurrence, since a single upsert statement cannot touch the same row twice
+        List<Map<String, PendingEvent>> rounds = new ArrayList<>();
+        Map<String, Integer> occurrences = new HashMap<>();
+        for (PendingEvent pending : events) {
+            int round = occurrences.merge(pending.event().getEventId(), 1, Integer::sum) - 1;
+            if (round == rounds.size()) {
+                rounds.add(new LinkedHashMap<>());
+            }
+            rounds.get(round).put(pending.event().getEventId(), pending);
+        }
+
+        List<MachineEventUpsertResult> results = new ArrayList<>(events.size());
+        List<IngestTicket> resultTickets = new ArrayList<>(events.size());
+        for (int attempt = 1; ; attempt++) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> {
+                    for (Map<String, PendingEvent> round : rounds) {
+                        Map<String, MachineEvent> eventsById = new LinkedHashMap<>();
+                        round.forEach((eventId, pending) -> eventsById.put(eventId, pending.event()));
+                        for (MachineEventUpsertResult result : machineEventService.upsertValidEvents(eventsById, Instant.now())) {
+                            results.add(result);
+                            resultTickets.add(round.get(result.getEventId()).ticket());
+                        }
+                    }
+                });
+                break;
+            } catch (TransientDataAccessException e) {
+                if (attempt == MAX_COMMIT_ATTEMPTS) {
+                    throw e;
+                }
+                log.warn("Retrying write-behind flush of {} events after transient failure: {}", events.size(),
+                    e.getMostSpecificCause().getMessage());
+                results.clear();
+                resultTickets.clear();
+            }
+        }
+
+        for (int i = 0; i < results.size(); i++) {
+            resultTickets.get(i).record(results.get(i));
+        }
+    }
+
+    private void purgeExpiredTickets() {
+        long nowNanos = System.nanoTime();
+        if (nowNanos - lastPurgeNanos < TimeUnit.SECONDS.toNanos(1)) {
+            return;
+        }
+        lastPurgeNanos = nowNanos;
+        Instant cutoff = Instant.now().minus(ticketRetention);
+        tickets.values().removeIf(ticket -> ticket.getCompletedAt() != null && ticket.getCompletedAt().isBefore(cutoff));
+    }
+}
@@ -1,33 +1,441 @@
 package com.example.machine_factory.service;
 
+import java.io.OutputStream;
 import java.time.Duration;
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 
-import org.springframework.data.domain.Pageable;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
 
+import com.example.machine_factory.dto.ApproximateLineStatsResponse;
+import com.example.machine_factory.dto.ApproximateTopDefectLinesResponse;
+import com.example.machine_factory.dto.DurationStatsResponse;
 import com.example.machine_factory.dto.LineStatsResponse;
+import com.example.machine_factory.dto.MachineStatsBulkRequest;
 import com.example.machine_factory.dto.MachineStatsQueryResult;
 import com.example.machine_factory.dto.MachineStatsResponse;
+import com.example.machine_factory.dto.StatsBucketResponse;
+import com.example.machine_factory.dto.StatsScope;
+import com.example.machine_factory.dto.StatsTimeseriesResponse;
+import com.example.machine_factory.metrics.MachineFactoryMetrics;
+import com.example.machine_factory.metrics.MachineFactoryMetrics.StatsStage;
+import com.example.machine_factory.repository.ColdSegmentStore;
+import com.example.machine_factory.repository.DurationHistogram;
 import com.example.machine_factory.repository.MachineEventRepository;
+import com.example.machine_factory.repository.MachineStatsCallback;
+import com.example.machine_factory.repository.StatsBucketCallback;
+
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.SequenceWriter;
+import tools.jackson.databind.SerializationFeature;
 
 @Service
 public class MachineStatsService {
     private final MachineEventRepository machineEventRepository;
+    private final RecentMachineStatsEngine recentMachineStatsEngine;
+    private final ColdSegmentStore coldSegmentStore;
+    private final DefectLineSketchEngine defectLineSketchEngine;
+    private final StatsResponseCache statsResponseCache;
+    private final MachineFactoryMetrics metrics;
+    // Read-only, so the queries go to the read replica when one is configured (ReadReplicaConfig)
+    private final TransactionTemplate readOnlyTransaction;
+    private final ObjectMapper objectMapper;
+    private final int maxBulkMachines;
+    private final int maxTimeseriesBuckets;
 
-    public MachineStatsService(MachineEventRepository machineEventRepository) {
+    public MachineStatsService(MachineEventRepository machineEventRepository,
+            RecentMachineStatsEngine recentMachineStatsEngine, ColdSegmentStore coldSegmentStore,
+            DefectLineSketchEngine defectLineSketchEngine, StatsResponseCache statsResponseCache,
+            MachineFactoryMetrics metrics, PlatformTransactionManager transactionManager, ObjectMapper objectMapper,
+            @Value("${machine-factory.stats.bulk.max-machines:10000}") int maxBulkMachines,
+            @Value("${machine-factory.stats.timeseries.max-buckets:1000}") int maxTimeseriesBuckets) {
         this.machineEventRepository = machineEventRepository;
+        this.recentMachineStatsEngine = recentMachineStatsEngine;
+        this.coldSegmentStore = coldSegmentStore;
+        this.defectLineSketchEngine = defectLineSketchEngine;
+        this.statsResponseCache = statsResponseCache;
+        this.metrics = metrics;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.objectMapper = objectMapper;
+        this.maxBulkMachines = maxBulkMachines;
+        this.maxTimeseriesBuckets = Math.max(1, maxTimeseriesBuckets);
+    }
+
+    // Serialized responses for the controller, served from the response cache when possible. Only
+    // a miss opens a transaction.
+    public byte[] getMachineStatsJson(String machineId, Instant start, Instant end) {
+        return statsResponseCache.get(new StatsResponseCache.Key(StatsResponseCache.Kind.MACHINE, machineId, start, end, 0),
+            () -> readOnlyTransaction.execute(status -> getMachineStats(machineId, start, end)));
+    }
+
+    public byte[] getTopDefectLinesJson(String factoryId, Instant from, Instant to, int limit) {
+        return statsResponseCache.get(new StatsResponseCache.Key(StatsResponseCache.Kind.FACTORY, factoryId, from, to, limit),
+            () -> readOnlyTransaction.execute(status -> getTopDefectLines(factoryId, from, to, limit)));
     }
 
+    // Not cached: whole buckets are merged in memory, only the edges reach PostgreSQL
+    public byte[] getApproximateTopDefectLinesJson(String factoryId, Instant from, Instant to, int limit) {
+        return objectMapper.writeValueAsBytes(
+            readOnlyTransaction.execute(status -> getApproximateTopDefectLines(factoryId, from, to, limit)));
+    }
+
+    // Archived events are added from the cold segments; every query below reads the table and the
+    // segments under ColdSegmentStore.read, so no batch is archived in between
+    @Transactional(readOnly = true)
     public MachineStatsResponse getMachineStats(String machineId, Instant start, Instant end) {
-        MachineStatsQueryResult result = machineEventRepository.getMachineStats(machineId, start, end);
-        return new MachineStatsResponse(machineId, start, end, result.getEventsCount(), result.getDefectsCount(),
-                result.getDefectsCount() == null ? null
-                        : (result.getDefectsCount() / (Duration.between(start, end).getSeconds()/3600.0)));
+        MachineStatsQueryResult result = coldSegmentStore.read(() -> {
+            MachineStatsQueryResult hot = getTableMachineStats(machineId, start, end);
+            if (!coldSegmentStore.overlaps(start, end)) {
+                return hot;
+            }
+            long stageStart = System.nanoTime();
+            MachineStatsQueryResult cold = coldSegmentStore.getMachineStats(machineId, start, end);
+            metrics.recordStage(StatsStage.COLD, stageStart);
+            return combine(hot, cold);
+        });
+        return toResponse(machineId, start, end, result.getEventsCount(), result.getDefectsCount());
+    }
+
+    private MachineStatsQueryResult getTableMachineStats(String machineId, Instant start, Instant end) {
+        // Whole minute buckets come from the in-memory engine when the window is recent, else from
+        // machine_stats_rollup; only the unaligned edges scan raw rows
+        Instant alignedStart = start.truncatedTo(ChronoUnit.MINUTES);
+        if (alignedStart.isBefore(start)) {
+            alignedStart = alignedStart.plus(1, ChronoUnit.MINUTES);
+        }
+        Instant alignedEnd = end.truncatedTo(ChronoUnit.MINUTES);
+        MachineStatsQueryResult result;
+        long stageStart = System.nanoTime();
+        if (!alignedStart.isBefore(alignedEnd)) {
+            result = machineEventRepository.getMachineStats(machineId, start, end);
+            metrics.recordStage(StatsStage.RAW, stageStart);
+        } else {
+            MachineStatsQueryResult recent = recentMachineStatsEngine.getStats(machineId, alignedStart, alignedEnd);
+            if (recent == null) {
+                result = machineEventRepository.getMachineStatsWithRollup(machineId, start, end, alignedStart, alignedEnd);
+                metrics.recordStage(StatsStage.ROLLUP, stageStart);
+            } else {
+                metrics.recordStage(StatsStage.MEMORY, stageStart);
+                if (start.equals(alignedStart) && end.equals(alignedEnd)) {
+                    result = recent;
+                } else {
+                    stageStart = System.nanoTime();
+                    result = combine(recent,
+                        machineEventRepository.getMachineEdgeStats(machineId, start, alignedStart, alignedEnd, end));
+                    metrics.recordStage(StatsStage.EDGES, stageStart);
+                }
+            }
+        }
+        return result;
     }
 
+    // Writes one MachineStatsResponse per line for the requested machines, or for every machine
+    // with events of the factory, while the single grouped query is read. Not cached, and always
+    // from the database, so the in-memory engine is not consulted.
+    @Transactional(readOnly = true)
+    public void writeMachineStats(MachineStatsBulkRequest request, OutputStream out) {
+        Instant start = request.getStart();
+        Instant end = request.getEnd();
+        if (start == null || end == null || !start.isBefore(end)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "start and end are required, with start before end");
+        }
+        boolean byMachine = request.getMachineIds() != null;
+        if (byMachine == (request.getFactoryId() != null)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Exactly one of machineIds and factoryId is required");
+        }
+        // A repeated ID would be joined twice and double its counts
+        List<String> machineIds = byMachine ? new ArrayList<>(new LinkedHashSet<>(request.getMachineIds())) : new ArrayList<>();
+        machineIds.remove(null);
+        if (machineIds.size() > maxBulkMachines) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                "At most " + maxBulkMachines + " machineIds per request, got " + machineIds.size());
+        }
+
+        long stageStart = System.nanoTime();
+        // Flushed when the generator's buffer fills rather than after every machine
+        try (SequenceWriter writer = objectMapper.writer()
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+                .withRootValueSeparator("\n")
+                .writeValues(out)) {
+            if (!coldSegmentStore.isActive()) {
+                forEachTableMachineStats(request.getFactoryId(), byMachine ? machineIds : null, start, end,
+                    (machineId, eventsCount, defectsCount) ->
+                        writer.write(toResponse(machineId, start, end, eventsCount, defectsCount)));
+            } else {
+                // Collected under the read lock and written after it, so a slow client cannot hold
+                // up archiving. Machines with archived events only come last.
+                List<MachineStatsResponse> responses = coldSegmentStore.read(() -> {
+                    Map<String, MachineStatsQueryResult> cold = coldSegmentStore.overlaps(start, end)
+                        ? new HashMap<>(coldSegmentStore.getMachineStats(byMachine ? machineIds : null,
+                            request.getFactoryId(), start, end))
+                        : new HashMap<>();
+                    List<MachineStatsResponse> collected = new ArrayList<>();
+                    forEachTableMachineStats(request.getFactoryId(), byMachine ? machineIds : null, start, end,
+                        (machineId, eventsCount, defectsCount) -> {
+                            MachineStatsQueryResult result = new MachineStatsQueryResult(eventsCount, defectsCount);
+                            MachineStatsQueryResult archived = cold.remove(machineId);
+                            if (archived != null) {
+                                result = combine(result, archived);
+                            }
+                            collected.add(toResponse(machineId, start, end, result.getEventsCount(), result.getDefectsCount()));
+                        });
+                    cold.entrySet().stream()
+                        .sorted(Map.Entry.comparingByKey())
+                        .forEach(e -> collected.add(toResponse(e.getKey(), start, end, e.getValue().getEventsCount(),
+                            e.getValue().getDefectsCount())));
+                    return collected;
+                });
+                responses.forEach(writer::write);
+            }
+        }
+        metrics.recordStage(StatsStage.BULK, stageStart);
+    }
+
+    // machineIds null for every machine with events of the factory
+    private void forEachTableMachineStats(String factoryId, List<String> machineIds, Instant start, Instant end,
+            MachineStatsCallback callback) {
+        if (machineIds == null) {
+            machineEventRepository.forEachFactoryMachineStats(factoryId, start, end, callback);
+        } else if (!machineIds.isEmpty()) {
+            Instant alignedStart = start.truncatedTo(ChronoUnit.MINUTES);
+            if (alignedStart.isBefore(start)) {
+                alignedStart = alignedStart.plus(1, ChronoUnit.MINUTES);
+            }
+            Instant alignedEnd = end.truncatedTo(ChronoUnit.MINUTES);
+            // Shorter than a bucket: no rollup range, one raw edge covering the window
+            if (!alignedStart.isBefore(alignedEnd)) {
+                alignedStart = end;
+                alignedEnd = end;
+            }
+            machineEventRepository.forEachMachineStats(machineIds, start, alignedStart, alignedEnd, end, callback);
+        }
+    }
+
+    // Stats of a machine, of a line within its factory, or of a factory per interval-wide bucket,
+    // from a single grouped query. A window with more than max-buckets intervals is downsampled to
+    // a multiple of the interval, so the response never has more than max-buckets buckets.
+    @Transactional(readOnly = true)
+    public StatsTimeseriesResponse getStatsTimeseries(String machineId, String lineId, String factoryId,
+            Instant start, Instant end, Duration requestedInterval) {
+        if (!start.isBefore(end)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "start must be before end");
+        }
+        if (requestedInterval.toNanos() < 1000) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "interval must be at least one microsecond");
+        }
+        StatsScope scope = scopeOf(machineId, lineId, factoryId);
+        String id = scope == StatsScope.MACHINE ? machineId : scope == StatsScope.LINE ? lineId : factoryId;
+
+        // Whole microseconds, the resolution of event_time
+        Duration interval = Duration.ofNanos(requestedInterval.toNanos() / 1000 * 1000);
+        long windowMicros = ChronoUnit.MICROS.between(start, end);
+        long bucketCount = Math.ceilDiv(windowMicros, interval.toNanos() / 1000);
+        if (bucketCount > maxTimeseriesBuckets) {
+            interval = interval.multipliedBy(Math.ceilDiv(bucketCount, maxTimeseriesBuckets));
+            bucketCount = Math.ceilDiv(windowMicros, interval.toNanos() / 1000);
+        }
+
+        long[] eventsCounts = new long[(int) bucketCount];
+        Long[] defectsCounts = new Long[(int) bucketCount];
+        // Adds up, as a bucket can have events in the table and in the cold segments
+        StatsBucketCallback callback = (bucket, eventsCount, defectsCount) -> {
+            eventsCounts[bucket] += eventsCount;
+            defectsCounts[bucket] = sum(defectsCounts[bucket], defectsCount);
+        };
+        Duration bucketInterval = interval;
+        coldSegmentStore.read(() -> {
+            long stageStart = System.nanoTime();
+            // Minute-aligned buckets of a machine are sums of whole rollup buckets
+            Instant alignedEnd = end.truncatedTo(ChronoUnit.MINUTES);
+            if (scope == StatsScope.MACHINE && start.equals(start.truncatedTo(ChronoUnit.MINUTES))
+                    && bucketInterval.toNanos() % Duration.ofMinutes(1).toNanos() == 0 && start.isBefore(alignedEnd)) {
+                machineEventRepository.forEachMachineStatsBucketWithRollup(id, start, alignedEnd, end, bucketInterval, callback);
+            } else {
+                machineEventRepository.forEachStatsBucket(scope, id, factoryId, start, end, bucketInterval, callback);
+            }
+            metrics.recordStage(StatsStage.TIMESERIES, stageStart);
+            if (coldSegmentStore.overlaps(start, end)) {
+                stageStart = System.nanoTime();
+                coldSegmentStore.forEachStatsBucket(scope, id, factoryId, start, end, bucketInterval, callback);
+                metrics.recordStage(StatsStage.COLD, stageStart);
+            }
+            return null;
+        });
+
+        List<StatsBucketResponse> buckets = new ArrayList<>(eventsCounts.length);
+        for (int i = 0; i < eventsCounts.length; i++) {
+            Instant bucketStart = start.plus(interval.multipliedBy(i));
+            Instant bucketEnd = i == eventsCounts.length - 1 ? end : bucketStart.plus(interval);
+            buckets.add(new StatsBucketResponse(bucketStart, bucketEnd, eventsCounts[i], defectsCounts[i]));
+        }
+        return new StatsTimeseriesResponse(scope, id, start, end, interval, requestedInterval, buckets);
+    }
+
+    // p50/p95/p99 of durationMs for a machine, a line within its factory, or a factory. Whole hours
+    // are merged from machine_duration_histograms, so the cost grows with the number of hours in
+    // the window, not of events; only the unaligned edges read raw rows.
+    @Transactional(readOnly = true)
+    public DurationStatsResponse getDurationStats(String machineId, String lineId, String factoryId, Instant start,
+            Instant end) {
+        if (!start.isBefore(end)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "start must be before end");
+        }
+        StatsScope scope = scopeOf(machineId, lineId, factoryId);
+        String id = scope == StatsScope.MACHINE ? machineId : scope == StatsScope.LINE ? lineId : factoryId;
+        Instant alignedStart = start.truncatedTo(ChronoUnit.HOURS);
+        if (alignedStart.isBefore(start)) {
+            alignedStart = alignedStart.plus(1, ChronoUnit.HOURS);
+        }
+        Instant alignedEnd = end.truncatedTo(ChronoUnit.HOURS);
+        // Shorter than a bucket: no histogram range, one raw edge covering the window
+        if (!alignedStart.isBefore(alignedEnd)) {
+            alignedStart = end;
+            alignedEnd = end;
+        }
+        Instant histogramStart = alignedStart;
+        Instant histogramEnd = alignedEnd;
+        DurationHistogram histogram = coldSegmentStore.read(() -> {
+            long stageStart = System.nanoTime();
+            DurationHistogram merged = machineEventRepository.getDurationHistogram(scope, id, factoryId, start,
+                histogramStart, histogramEnd, end);
+            metrics.recordStage(StatsStage.DURATIONS, stageStart);
+            if (coldSegmentStore.overlaps(start, end)) {
+                stageStart = System.nanoTime();
+                coldSegmentStore.addDurations(scope, id, factoryId, start, end, merged);
+                metrics.recordStage(StatsStage.COLD, stageStart);
+            }
+            return merged;
+        });
+        return new DurationStatsResponse(scope, id, start, end, histogram.getCount(), histogram.percentile(0.5),
+            histogram.percentile(0.95), histogram.percentile(0.99));
+    }
+
+    private static StatsScope scopeOf(String machineId, String lineId, String factoryId) {
+        if (machineId != null && lineId == null && factoryId == null) {
+            return StatsScope.MACHINE;
+        } else if (lineId != null && factoryId != null && machineId == null) {
+            return StatsScope.LINE;
+        } else if (factoryId != null && machineId == null && lineId == null) {
+            return StatsScope.FACTORY;
+        }
+        throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+            "Exactly one of machineId, lineId with factoryId, and factoryId is required");
+    }
+
+    static MachineStatsResponse toResponse(String machineId, Instant start, Instant end, long eventsCount,
+            Long defectsCount) {
+        return new MachineStatsResponse(machineId, start, end, eventsCount, defectsCount,
+                defectsCount == null ? null
+                        : (defectsCount / (Duration.between(start, end).getSeconds()/3600.0)));
+    }
+
+    private static MachineStatsQueryResult combine(MachineStatsQueryResult a, MachineStatsQueryResult b) {
+        return new MachineStatsQueryResult(a.getEventsCount() + b.getEventsCount(),
+            sum(a.getDefectsCount(), b.getDefectsCount()));
+    }
+
+    // Null when neither side has a known defect count. Not a single conditional expression: a
+    // Long/long mix there unboxes both sides
+    private static Long sum(Long a, Long b) {
+        if (a == null) {
+            return b;
+        }
+        return b == null ? a : Long.valueOf(a + b);
+    }
+
+    @Transactional(readOnly = true)
     public List<LineStatsResponse> getTopDefectLines(String factoryId, Instant from, Instant to, int limit) {
-        return machineEventRepository.findTopDefectLines(factoryId, from, to, Pageable.ofSize(limit));
+        return coldSegmentStore.read(() -> {
+            boolean cold = coldSegmentStore.overlaps(from, to);
+            long stageStart = System.nanoTime();
+            // With archived events every line of the table is needed, the limit applies to the sums
+            List<LineStatsResponse> lines = machineEventRepository.findTopDefectLines(factoryId, from, to,
+                cold ? Integer.MAX_VALUE : limit);
+            metrics.recordStage(StatsStage.TOP_DEFECT_LINES, stageStart);
+            if (!cold) {
+                return lines;
+            }
+            stageStart = System.nanoTime();
+            Map<String, MachineStatsQueryResult> totals = new HashMap<>(coldSegmentStore.getLineStats(factoryId, from, to));
+            for (LineStatsResponse line : lines) {
+                totals.merge(line.getLineId(), new MachineStatsQueryResult(line.getEventCount(), line.getTotalDefects()),
+                    MachineStatsService::combine);
+            }
+            List<LineStatsResponse> combined = new ArrayList<>(totals.size());
+            totals.forEach((lineId, total) ->
+                combined.add(new LineStatsResponse(lineId, total.getDefectsCount(), total.getEventsCount())));
+            // As in the query: most defects first, lines without known defects before all others
+            combined.sort(Comparator.comparing(LineStatsResponse::getTotalDefects,
+                Comparator.nullsFirst(Comparator.<Long>reverseOrder())));
+            metrics.recordStage(StatsStage.COLD, stageStart);
+            return combined.size() > limit ? combined.subList(0, limit) : combined;
+        });
+    }
+
+    // Whole sketch buckets of the window are merged from DefectLineSketchEngine and the unaligned
+    // edges are counted exactly. Windows the sketches do not cover (before their horizon, or with
+    // archived events) are computed exactly and returned with approximate=false.
+    @Transactional(readOnly = true)
+    public ApproximateTopDefectLinesResponse getApproximateTopDefectLines(String factoryId, Instant from, Instant to,
+            int limit) {
+        if (limit < 1) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be positive");
+        }
+        long bucketSeconds = defectLineSketchEngine.getBucket().toSeconds();
+        Instant alignedFrom = Instant.ofEpochSecond(Math.floorDiv(from.getEpochSecond(), bucketSeconds) * bucketSeconds);
+        if (alignedFrom.isBefore(from)) {
+            alignedFrom = alignedFrom.plusSeconds(bucketSeconds);
+        }
+        Instant alignedTo = Instant.ofEpochSecond(Math.floorDiv(to.getEpochSecond(), bucketSeconds) * bucketSeconds);
+        DefectLineSketchEngine.Estimate estimate = null;
+        if (alignedFrom.isBefore(alignedTo) && !coldSegmentStore.overlaps(from, to)) {
+            long stageStart = System.nanoTime();
+            estimate = defectLineSketchEngine.estimate(factoryId, alignedFrom, alignedTo);
+            metrics.recordStage(StatsStage.SKETCH, stageStart);
+        }
+        if (estimate == null) {
+            return exactTopDefectLines(factoryId, from, to, limit);
+        }
+        long stageStart = System.nanoTime();
+        for (LineStatsResponse line : machineEventRepository.findTopDefectLines(factoryId, from, alignedFrom, Integer.MAX_VALUE)) {
+            estimate.addExact(line.getLineId(), line.getTotalDefects() == null ? 0 : line.getTotalDefects());
+        }
+        for (LineStatsResponse line : machineEventRepository.findTopDefectLines(factoryId, alignedTo, to, Integer.MAX_VALUE)) {
+            estimate.addExact(line.getLineId(), line.getTotalDefects() == null ? 0 : line.getTotalDefects());
+        }
+        metrics.recordStage(StatsStage.EDGES, stageStart);
+        return estimate.toResponse(factoryId, from, to, limit);
+    }
+
+    // The exact ranking in the approximate shape: lines without known defects are left out, as
+    // the sketches only count defects
+    private ApproximateTopDefectLinesResponse exactTopDefectLines(String factoryId, Instant from, Instant to, int limit) {
+        List<ApproximateLineStatsResponse> lines = new ArrayList<>();
+        long otherLinesMaxDefects = 0;
+        for (LineStatsResponse line : getTopDefectLines(factoryId, from, to, Integer.MAX_VALUE)) {
+            long defects = line.getTotalDefects() == null ? 0 : line.getTotalDefects();
+            if (defects <= 0) {
+                continue;
+            }
+            if (lines.size() < limit) {
+                lines.add(new ApproximateLineStatsResponse(line.getLineId(), defects, 0));
+            } else {
+                otherLinesMaxDefects = Math.max(otherLinesMaxDefects, defects);
+            }
+        }
+        return new ApproximateTopDefectLinesResponse(factoryId, from, to, false, otherLinesMaxDefects, lines);
     }
 }
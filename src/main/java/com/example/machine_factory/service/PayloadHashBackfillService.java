@@ -0,0 +1,55 @@
+package com.example.machine_factory.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.example.machine_factory.repository.MachineEventRepository;
+import com.example.machine_factory.repository.PayloadHashBackfillBatch;
+
+// Hashes the payload of keys written before machine_event_ids.payload_hash existed. Ingest works
+// without it, since a key without a hash falls back to comparing with machine_events, but only
+// hashed keys let duplicates skip that lookup. Walks the key table once per process in eventId
+// order, one short transaction per batch; keys written by ingest meanwhile are hashed by ingest.
+@Service
+public class PayloadHashBackfillService {
+    private static final Logger log = LoggerFactory.getLogger(PayloadHashBackfillService.class);
+
+    private final MachineEventRepository machineEventRepository;
+    private final boolean enabled;
+    private final int batchSize;
+    private volatile boolean complete;
+
+    public PayloadHashBackfillService(MachineEventRepository machineEventRepository,
+            @Value("${machine-factory.ingest.payload-hash-backfill.enabled:true}") boolean enabled,
+            @Value("${machine-factory.ingest.payload-hash-backfill.batch-size:10000}") int batchSize) {
+        this.machineEventRepository = machineEventRepository;
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    @Scheduled(fixedDelayString = "${machine-factory.ingest.payload-hash-backfill.interval:PT1M}",
+            initialDelayString = "${machine-factory.ingest.payload-hash-backfill.initial-delay:PT10S}")
+    public void backfill() {
+        if (!enabled || complete) {
+            return;
+        }
+        String cursor = "";
+        long hashed = 0;
+        while (cursor != null) {
+            PayloadHashBackfillBatch batch = machineEventRepository.backfillPayloadHashes(cursor, batchSize);
+            hashed += batch.hashed();
+            cursor = batch.lastEventId();
+        }
+        complete = true;
+        if (hashed > 0) {
+            log.info("Backfilled the payload hash of {} event keys", hashed);
+        }
+    }
+}
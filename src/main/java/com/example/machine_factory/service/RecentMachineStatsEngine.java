@@ -0,0 +1,271 @@
+package com.example.machine_factory.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.machine_factory.dto.MachineStatsQueryResult;
+import com.example.machine_factory.entity.MachineEvent;
+import com.example.machine_factory.event.MachineEventChange;
+import com.example.machine_factory.event.MachineEventsChangedEvent;
+import com.example.machine_factory.repository.MachineEventRepository;
+
+// Per-machine rings of minute buckets covering the retained horizon plus the 15 minutes of
+// allowed future event time. Seeded from machine_stats_rollup and kept current from committed
+// ingest changes, so /stats over recent minute-aligned windows never reaches PostgreSQL.
+@Service
+public class RecentMachineStatsEngine {
+    private static final Logger log = LoggerFactory.getLogger(RecentMachineStatsEngine.class);
+    static final int FUTURE_MINUTES = 16;
+
+    private final MachineEventRepository machineEventRepository;
+    // Not read-only, so it runs on the primary: a seed from a lagging replica would miss commits
+    private final TransactionTemplate seedTransaction;
+    private final boolean enabled;
+    private final int horizonMinutes;
+    private final int slots;
+    private final Map<String, MinuteRing> rings = new ConcurrentHashMap<>();
+    // Commits hold the read lock from beforeCommit until their delta is applied; a reseed holds
+    // the write lock, so each commit is either in the seed snapshot or applied after it, never both
+    private final ReentrantReadWriteLock seedLock = new ReentrantReadWriteLock();
+    private volatile boolean ready;
+
+    public RecentMachineStatsEngine(MachineEventRepository machineEventRepository,
+            PlatformTransactionManager transactionManager,
+            @Value("${machine-factory.stats.memory.enabled:true}") boolean enabled,
+            @Value("${machine-factory.stats.memory.horizon:24h}") Duration horizon) {
+        this.machineEventRepository = machineEventRepository;
+        this.seedTransaction = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.horizonMinutes = (int) horizon.toMinutes();
+        this.slots = horizonMinutes + FUTURE_MINUTES + 1;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void seed() {
+        if (!enabled) {
+            return;
+        }
+        // The transaction takes its connection before the write lock, so a seed never waits for a
+        // connection held by a commit that is itself waiting for the lock
+        seedTransaction.executeWithoutResult(status -> {
+            seedLock.writeLock().lock();
+            try {
+                ready = false;
+                rings.clear();
+                long horizonStart = currentMinute() - horizonMinutes;
+                machineEventRepository.forEachRollupBucket(Instant.ofEpochSecond(horizonStart * 60),
+                    (machineId, bucketStart, eventsCount, defectsSum, defectEvents) ->
+                        ring(machineId).add(bucketStart.getEpochSecond() / 60, (int) eventsCount, defectsSum, (int) defectEvents));
+                ready = true;
+            } finally {
+                seedLock.writeLock().unlock();
+            }
+        });
+        log.info("Recent stats engine seeded with {} machines over {} minutes", rings.size(), horizonMinutes);
+    }
+
+    @EventListener
+    public void onMachineEventsChanged(MachineEventsChangedEvent event) {
+        if (!enabled) {
+            return;
+        }
+        List<MachineEventChange> changes = event.getChanges();
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            seedLock.readLock().lock();
+            try {
+                apply(changes);
+            } finally {
+                seedLock.readLock().unlock();
+            }
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            private boolean locked;
+
+            // Ahead of other listeners (the response cache) that rely on the rings being current
+            @Override
+            public int getOrder() {
+                return 0;
+            }
+
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                seedLock.readLock().lock();
+                locked = true;
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                try {
+                    if (status == STATUS_COMMITTED) {
+                        apply(changes);
+                    }
+                } finally {
+                    if (locked) {
+                        seedLock.readLock().unlock();
+                    }
+                }
+            }
+        });
+    }
+
+    // Sums [alignedStart, alignedEnd), both minute-aligned, or returns null when the window is not
+    // fully inside the retained horizon and the caller has to ask the repository
+    public MachineStatsQueryResult getStats(String machineId, Instant alignedStart, Instant alignedEnd) {
+        if (!ready) {
+            return null;
+        }
+        long fromMinute = alignedStart.getEpochSecond() / 60;
+        long toMinute = alignedEnd.getEpochSecond() / 60;
+        long nowMinute = currentMinute();
+        if (fromMinute < nowMinute - horizonMinutes || toMinute > nowMinute + FUTURE_MINUTES) {
+            return null;
+        }
+        MinuteRing ring = rings.get(machineId);
+        if (ring == null) {
+            return new MachineStatsQueryResult(0, null);
+        }
+        return ring.sum(fromMinute, toMinute);
+    }
+
+    // Under the write lock no commit is holding a ring it is about to update
+    @Scheduled(fixedDelayString = "${machine-factory.stats.memory.eviction-interval:PT5M}")
+    public void evictIdleMachines() {
+        long horizonStart = currentMinute() - horizonMinutes;
+        seedLock.writeLock().lock();
+        try {
+            rings.values().removeIf(ring -> ring.latestMinute() < horizonStart);
+        } finally {
+            seedLock.writeLock().unlock();
+        }
+    }
+
+    private void apply(List<MachineEventChange> changes) {
+        if (!ready) {
+            return;
+        }
+        for (MachineEventChange change : changes) {
+            if (change.isPreviousUnknown()) {
+                // The replaced payload was not reported, so the delta cannot be applied; rebuild from the rollup
+                ready = false;
+                CompletableFuture.runAsync(this::seed);
+                return;
+            }
+            if (change.getPrevious() != null) {
+                record(change.getPrevious(), -1);
+            }
+            record(change.getCurrent(), 1);
+        }
+    }
+
+    private void record(MachineEvent event, int sign) {
+        if (event.getMachineId() == null) {
+            return;
+        }
+        int defectEvents = event.getDefectCount() == null ? 0 : sign;
+        long defects = event.getDefectCount() == null ? 0 : (long) sign * event.getDefectCount();
+        ring(event.getMachineId()).add(Math.floorDiv(event.getEventTime().getEpochSecond(), 60), sign, defects, defectEvents);
+    }
+
+    private MinuteRing ring(String machineId) {
+        return rings.computeIfAbsent(machineId, id -> new MinuteRing(slots));
+    }
+
+    private static long currentMinute() {
+        return Instant.now().getEpochSecond() / 60;
+    }
+
+    // Slot i holds the epoch minute minutes[i] (0 = empty). A minute older than the one in its slot
+    // is already outside the horizon and is dropped; a newer one resets the slot.
+    static final class MinuteRing {
+        private final int[] minutes;
+        private final int[] eventCounts;
+        private final long[] defectSums;
+        private final int[] defectEvents;
+        private final StampedLock lock = new StampedLock();
+        private volatile long latestMinute;
+
+        MinuteRing(int slots) {
+            minutes = new int[slots];
+            eventCounts = new int[slots];
+            defectSums = new long[slots];
+            defectEvents = new int[slots];
+        }
+
+        void add(long minute, int events, long defects, int knownDefects) {
+            int slot = (int) Math.floorMod(minute, (long) minutes.length);
+            long stamp = lock.writeLock();
+            try {
+                if (minutes[slot] < minute) {
+                    minutes[slot] = (int) minute;
+                    eventCounts[slot] = 0;
+                    defectSums[slot] = 0;
+                    defectEvents[slot] = 0;
+                } else if (minutes[slot] > minute) {
+                    return;
+                }
+                eventCounts[slot] += events;
+                defectSums[slot] += defects;
+                defectEvents[slot] += knownDefects;
+                if (minute > latestMinute) {
+                    latestMinute = minute;
+                }
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        long latestMinute() {
+            return latestMinute;
+        }
+
+        MachineStatsQueryResult sum(long fromMinute, long toMinute) {
+            long stamp = lock.tryOptimisticRead();
+            MachineStatsQueryResult result = sumUnlocked(fromMinute, toMinute);
+            if (!lock.validate(stamp)) {
+                stamp = lock.readLock();
+                try {
+                    result = sumUnlocked(fromMinute, toMinute);
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+            return result;
+        }
+
+        private MachineStatsQueryResult sumUnlocked(long fromMinute, long toMinute) {
+            long events = 0, defects = 0, knownDefects = 0;
+            for (long minute = fromMinute; minute < toMinute; minute++) {
+                int slot = (int) Math.floorMod(minute, (long) minutes.length);
+                if (minutes[slot] == minute) {
+                    events += eventCounts[slot];
+                    defects += defectSums[slot];
+                    knownDefects += defectEvents[slot];
+                }
+            }
+            return new MachineStatsQueryResult(events, knownDefects > 0 ? defects : null);
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package com.example.machine_factory.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.example.machine_factory.dto.StatsCacheResponse;
+import com.example.machine_factory.entity.MachineEvent;
+import com.example.machine_factory.event.MachineEventChange;
+import com.example.machine_factory.event.MachineEventsChangedEvent;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import tools.jackson.databind.ObjectMapper;
+
+// Bounded LRU of serialized /stats responses. Entries are indexed by the machine or factory they
+// cover, and a committed ingest evicts only the entries of that scope whose [from, to) contains one
+// of the event times it wrote or replaced.
+@Service
+public class StatsResponseCache implements MeterBinder {
+    public enum Kind {
+        MACHINE, FACTORY
+    }
+
+    public record Key(Kind kind, String scope, Instant from, Instant to, int limit) {
+    }
+
+    private record RangeInvalidation(Instant from, Instant to, long at) {
+    }
+
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final int maxEntries;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<Key, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Set<Key>> keysByScope = new HashMap<>();
+    // Bumped on every invalidation of a scope; a response computed before the bump is not stored
+    private final Map<String, Long> scopeVersions = new HashMap<>();
+    private long epoch;
+    // With a read replica a miss can be computed from data older than an invalidation that already
+    // happened, so a scope invalidated within the replica's staleness bound is not stored
+    private final long replicaStalenessNanos;
+    private final Map<String, Long> scopeInvalidatedAt = new HashMap<>();
+    private final List<RangeInvalidation> rangeInvalidations = new ArrayList<>();
+    private long clearedAt;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public StatsResponseCache(ObjectMapper objectMapper,
+            @Value("${machine-factory.stats.cache.enabled:true}") boolean enabled,
+            @Value("${machine-factory.stats.cache.max-entries:10000}") int maxEntries,
+            @Value("${machine-factory.datasource.replica.url:}") String replicaUrl,
+            @Value("${machine-factory.datasource.replica.max-lag:5s}") Duration replicaMaxLag,
+            @Value("${machine-factory.datasource.replica.check-interval:PT1S}") Duration replicaCheckInterval) {
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.maxEntries = maxEntries;
+        // The lag is measured once per check interval, so a read can be behind by both
+        this.replicaStalenessNanos = replicaUrl.isEmpty() ? 0 : replicaMaxLag.plus(replicaCheckInterval).toNanos();
+        this.clearedAt = System.nanoTime() - replicaStalenessNanos - 1;
+    }
+
+    public byte[] get(Key key, Supplier<?> loader) {
+        if (!enabled) {
+            return objectMapper.writeValueAsBytes(loader.get());
+        }
+        String scope = scope(key.kind(), key.scope());
+        long version;
+        long startEpoch;
+        lock.lock();
+        try {
+            byte[] cached = entries.get(key);
+            if (cached != null) {
+                hits.increment();
+                return cached;
+            }
+            version = scopeVersions.getOrDefault(scope, 0L);
+            startEpoch = epoch;
+        } finally {
+            lock.unlock();
+        }
+        misses.increment();
+
+        byte[] json = objectMapper.writeValueAsBytes(loader.get());
+        lock.lock();
+        try {
+            if (epoch == startEpoch && scopeVersions.getOrDefault(scope, 0L) == version && settled(scope, key)
+                    && entries.put(key, json) == null) {
+                keysByScope.computeIfAbsent(scope, s -> new HashSet<>()).add(key);
+                evictEldest();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return json;
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            clearLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void clearLocked() {
+        invalidations.add(entries.size());
+        entries.clear();
+        keysByScope.clear();
+        scopeVersions.clear();
+        scopeInvalidatedAt.clear();
+        rangeInvalidations.clear();
+        epoch++;
+        clearedAt = System.nanoTime();
+    }
+
+    // Evicts the entries of every scope whose window overlaps [from, to), after events in that range
+    // moved between machine_events and the cold segments or were dropped with their segments
+    public void invalidateRange(Instant from, Instant to) {
+        if (!enabled) {
+            return;
+        }
+        lock.lock();
+        try {
+            // Misses computed before the move are not stored
+            epoch++;
+            long now = System.nanoTime();
+            if (replicaStalenessNanos > 0) {
+                rangeInvalidations.removeIf(range -> now - range.at() > replicaStalenessNanos);
+                rangeInvalidations.add(new RangeInvalidation(from, to, now));
+            }
+            entries.keySet().removeIf(key -> {
+                if (!key.from().isBefore(to) || !key.to().isAfter(from)) {
+                    return false;
+                }
+                String scope = scope(key.kind(), key.scope());
+                Set<Key> keys = keysByScope.get(scope);
+                if (keys != null && keys.remove(key) && keys.isEmpty()) {
+                    keysByScope.remove(scope);
+                }
+                invalidations.increment();
+                return true;
+            });
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean settled(String scope, Key key) {
+        if (replicaStalenessNanos == 0) {
+            return true;
+        }
+        long now = System.nanoTime();
+        Long invalidatedAt = scopeInvalidatedAt.get(scope);
+        if (now - clearedAt <= replicaStalenessNanos
+                || (invalidatedAt != null && now - invalidatedAt <= replicaStalenessNanos)) {
+            return false;
+        }
+        // The replica's table can still hold events the segments already have
+        for (RangeInvalidation range : rangeInvalidations) {
+            if (now - range.at() <= replicaStalenessNanos && key.from().isBefore(range.to())
+                    && key.to().isAfter(range.from())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Read by the registry on scrape, so the request path only touches the LongAdders
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("machine_factory.stats.cache.hits", hits, LongAdder::sum).register(registry);
+        FunctionCounter.builder("machine_factory.stats.cache.misses", misses, LongAdder::sum).register(registry);
+        FunctionCounter.builder("machine_factory.stats.cache.evictions", evictions, LongAdder::sum).register(registry);
+        FunctionCounter.builder("machine_factory.stats.cache.invalidations", invalidations, LongAdder::sum)
+            .register(registry);
+        Gauge.builder("machine_factory.stats.cache.size", this, cache -> cache.getStats().getSize()).register(registry);
+    }
+
+    public StatsCacheResponse getStats() {
+        int size;
+        lock.lock();
+        try {
+            size = entries.size();
+        } finally {
+            lock.unlock();
+        }
+        return new StatsCacheResponse(enabled, size, maxEntries, hits.sum(), misses.sum(), evictions.sum(),
+            invalidations.sum());
+    }
+
+    @EventListener
+    public void onMachineEventsChanged(MachineEventsChangedEvent event) {
+        if (!enabled) {
+            return;
+        }
+        // An update whose replaced row is unknown could have moved counts out of any scope
+        Map<String, List<Instant>> touched = event.getChanges().stream().anyMatch(MachineEventChange::isPreviousUnknown)
+            ? null : touchedTimes(event.getChanges());
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidate(touched);
+            return;
+        }
+        // Default order runs after RecentMachineStatsEngine has applied the same commit, so a
+        // response recomputed right after the eviction already sees it
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED) {
+                    invalidate(touched);
+                }
+            }
+        });
+    }
+
+    private Map<String, List<Instant>> touchedTimes(List<MachineEventChange> changes) {
+        Map<String, List<Instant>> touched = new HashMap<>();
+        for (MachineEventChange change : changes) {
+            addTouched(touched, change.getCurrent());
+            if (change.getPrevious() != null) {
+                addTouched(touched, change.getPrevious());
+            }
+        }
+        touched.values().forEach(Collections::sort);
+        return touched;
+    }
+
+    private static void addTouched(Map<String, List<Instant>> touched, MachineEvent event) {
+        touched.computeIfAbsent(scope(Kind.MACHINE, event.getMachineId()), s -> new ArrayList<>()).add(event.getEventTime());
+        touched.computeIfAbsent(scope(Kind.FACTORY, event.getFactoryId()), s -> new ArrayList<>()).add(event.getEventTime());
+    }
+
+    private void invalidate(Map<String, List<Instant>> touched) {
+        lock.lock();
+        try {
+            if (touched == null) {
+                clearLocked();
+                return;
+            }
+            touched.forEach((scope, times) -> {
+                scopeVersions.merge(scope, 1L, Long::sum);
+                if (replicaStalenessNanos > 0) {
+                    scopeInvalidatedAt.put(scope, System.nanoTime());
+                }
+                Set<Key> keys = keysByScope.get(scope);
+                if (keys == null) {
+                    return;
+                }
+                keys.removeIf(key -> {
+                    if (!overlaps(key, times)) {
+                        return false;
+                    }
+                    entries.remove(key);
+                    invalidations.increment();
+                    return true;
+                });
+                if (keys.isEmpty()) {
+                    keysByScope.remove(scope);
+                }
+            });
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Whether any of the sorted times falls in [from, to)
+    private static boolean overlaps(Key key, List<Instant> times) {
+        int index = Collections.binarySearch(times, key.from());
+        int insertion = index >= 0 ? index : -index - 1;
+        return insertion < times.size() && times.get(insertion).isBefore(key.to());
+    }
+
+    private void evictEldest() {
+        while (entries.size() > maxEntries) {
+            Key eldest = entries.keySet().iterator().next();
+            entries.remove(eldest);
+            String scope = scope(eldest.kind(), eldest.scope());
+            Set<Key> keys = keysByScope.get(scope);
+            if (keys != null && keys.remove(eldest) && keys.isEmpty()) {
+                keysByScope.remove(scope);
+            }
+            evictions.increment();
+        }
+    }
+
+    private static String scope(Kind kind, String id) {
+        return kind + ":" + id;
+    }
+}
@@ -0,0 +1,456 @@
+package com.example.machine_factory.service;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.example.machine_factory.dto.LineStatsResponse;
+import com.example.machine_factory.dto.MachineStatsQueryResult;
+import com.example.machine_factory.dto.MachineStatsResponse;
+import com.example.machine_factory.dto.StatsScope;
+import com.example.machine_factory.entity.MachineEvent;
+import com.example.machine_factory.event.MachineEventChange;
+import com.example.machine_factory.event.MachineEventsChangedEvent;
+import com.example.machine_factory.repository.MachineEventRepository;
+import com.example.machine_factory.service.RecentMachineStatsEngine.MinuteRing;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import jakarta.annotation.PreDestroy;
+
+// Pushes the stats of a machine, or the line stats of a factory, over a trailing window to SSE
+// subscribers. Subscribers of the same machine or factory and window share a topic, which is
+// recomputed at most once per push-interval, only after a committed ingest touched it or the
+// window moved on by a minute, and only what changed is sent. Machine topics read the minute rings
+// of RecentMachineStatsEngine; factory topics keep per-line rings of their own, seeded once from
+// machine_events and then updated from the committed changes, so viewers add no queries.
+@Service
+public class StatsSubscriptionService implements MeterBinder {
+    private static final Logger log = LoggerFactory.getLogger(StatsSubscriptionService.class);
+
+    private final MachineEventRepository machineEventRepository;
+    private final RecentMachineStatsEngine recentMachineStatsEngine;
+    private final MachineStatsService machineStatsService;
+    // Not read-only: a seed from a lagging replica would miss commits that were already applied
+    private final TransactionTemplate seedTransaction;
+    private final long timeoutMillis;
+    private final long maxWindowMinutes;
+    private final int maxSubscribers;
+    private final Map<TopicKey, Topic> topics = new ConcurrentHashMap<>();
+    // As in RecentMachineStatsEngine: commits hold the read lock from beforeCommit until their delta
+    // is applied and a factory seed holds the write lock, so no commit is counted twice or missed
+    private final ReentrantReadWriteLock seedLock = new ReentrantReadWriteLock();
+    // Sends block on slow clients, so they run on their own thread instead of the shared scheduler
+    private final ScheduledExecutorService pushExecutor;
+    private final AtomicInteger subscribers = new AtomicInteger();
+    private final LongAdder eventsSent = new LongAdder();
+    private long pushedMinute;
+
+    record TopicKey(StatsScope scope, String id, long windowMinutes) {
+    }
+
+    public StatsSubscriptionService(MachineEventRepository machineEventRepository,
+            RecentMachineStatsEngine recentMachineStatsEngine, MachineStatsService machineStatsService,
+            PlatformTransactionManager transactionManager,
+            @Value("${machine-factory.stats.subscriptions.push-interval:PT2S}") Duration pushInterval,
+            @Value("${machine-factory.stats.subscriptions.timeout:30m}") Duration timeout,
+            @Value("${machine-factory.stats.subscriptions.max-window:24h}") Duration maxWindow,
+            @Value("${machine-factory.stats.subscriptions.max-subscribers:10000}") int maxSubscribers) {
+        this.machineEventRepository = machineEventRepository;
+        this.recentMachineStatsEngine = recentMachineStatsEngine;
+        this.machineStatsService = machineStatsService;
+        this.seedTransaction = new TransactionTemplate(transactionManager);
+        this.timeoutMillis = timeout.toMillis();
+        this.maxWindowMinutes = maxWindow.toMinutes();
+        this.maxSubscribers = maxSubscribers;
+        this.pushExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "stats-subscription-push");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long pushMillis = Math.max(1, pushInterval.toMillis());
+        pushExecutor.scheduleWithFixedDelay(this::pushSafely, pushMillis, pushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // The first event is the current state: a machine-stats event with a MachineStatsResponse, or a
+    // line-stats event with every line of the factory. Later events carry only what changed; a
+    // line that dropped out of the window is sent with an eventCount of 0.
+    public SseEmitter subscribe(String machineId, String factoryId, Duration window) {
+        if ((machineId == null) == (factoryId == null)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Exactly one of machineId and factoryId is required");
+        }
+        long windowMinutes = window.toMinutes();
+        if (windowMinutes < 1 || windowMinutes > maxWindowMinutes || !window.equals(Duration.ofMinutes(windowMinutes))) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                "window must be a whole number of minutes, at most " + maxWindowMinutes);
+        }
+        if (subscribers.incrementAndGet() > maxSubscribers) {
+            subscribers.decrementAndGet();
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many stats subscribers");
+        }
+        TopicKey key = machineId != null
+            ? new TopicKey(StatsScope.MACHINE, machineId, windowMinutes)
+            : new TopicKey(StatsScope.FACTORY, factoryId, windowMinutes);
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        while (true) {
+            Topic topic = topics.computeIfAbsent(key, Topic::new);
+            topic.lock.lock();
+            try {
+                // Removed by its last subscriber meanwhile
+                if (topic.closed) {
+                    continue;
+                }
+                try {
+                    if (topic.key.scope() == StatsScope.MACHINE) {
+                        MachineStatsResponse stats = machineStats(topic);
+                        if (topic.emitters.isEmpty()) {
+                            topic.lastStats = stats;
+                        }
+                        send(topic, emitter, "machine-stats", stats);
+                    } else {
+                        if (!topic.seeded) {
+                            seed(topic);
+                        }
+                        Map<String, LineStatsResponse> lines = lineStats(topic);
+                        if (topic.emitters.isEmpty()) {
+                            topic.lastLines = lines;
+                        }
+                        send(topic, emitter, "line-stats", new ArrayList<>(lines.values()));
+                    }
+                } catch (RuntimeException e) {
+                    subscribers.decrementAndGet();
+                    closeIfIdle(topic);
+                    throw e;
+                }
+                emitter.onCompletion(() -> unsubscribe(topic, emitter));
+                emitter.onTimeout(() -> unsubscribe(topic, emitter));
+                emitter.onError(e -> unsubscribe(topic, emitter));
+                topic.emitters.add(emitter);
+                return emitter;
+            } finally {
+                topic.lock.unlock();
+            }
+        }
+    }
+
+    // Always registered, so a topic seeded while this transaction commits still gets its delta
+    @EventListener
+    public void onMachineEventsChanged(MachineEventsChangedEvent event) {
+        List<MachineEventChange> changes = event.getChanges();
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            seedLock.readLock().lock();
+            try {
+                apply(changes);
+            } finally {
+                seedLock.readLock().unlock();
+            }
+            return;
+        }
+        // Default order runs after RecentMachineStatsEngine has applied the same commit, so a
+        // machine topic recomputed right after being marked sees it
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            private boolean locked;
+
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                seedLock.readLock().lock();
+                locked = true;
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                try {
+                    if (status == STATUS_COMMITTED) {
+                        apply(changes);
+                    }
+                } finally {
+                    if (locked) {
+                        seedLock.readLock().unlock();
+                    }
+                }
+            }
+        });
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("machine_factory.stats.subscriptions.subscribers", subscribers, AtomicInteger::get)
+            .register(registry);
+        Gauge.builder("machine_factory.stats.subscriptions.topics", topics, Map::size)
+            .description("Distinct machine or factory windows being pushed")
+            .register(registry);
+        FunctionCounter.builder("machine_factory.stats.subscriptions.events_sent", eventsSent, LongAdder::sum)
+            .register(registry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pushExecutor.shutdownNow();
+        for (Topic topic : topics.values()) {
+            topic.emitters.forEach(SseEmitter::complete);
+        }
+    }
+
+    private void pushSafely() {
+        try {
+            push();
+        } catch (RuntimeException e) {
+            log.warn("Stats subscription push failed", e);
+        }
+    }
+
+    void push() {
+        long minute = currentMinute();
+        boolean windowMoved = minute != pushedMinute;
+        pushedMinute = minute;
+        for (Topic topic : topics.values()) {
+            if (!windowMoved && !topic.dirty) {
+                continue;
+            }
+            try {
+                push(topic);
+            } catch (RuntimeException e) {
+                // Retried on the next push
+                topic.dirty = true;
+                log.warn("Stats subscription push of {} {} failed: {}", topic.key.scope(), topic.key.id(), e.getMessage());
+            }
+        }
+    }
+
+    private void push(Topic topic) {
+        topic.lock.lock();
+        try {
+            if (topic.closed) {
+                return;
+            }
+            // Cleared first, so a commit applied while this computes marks it again
+            topic.dirty = false;
+            if (topic.key.scope() == StatsScope.MACHINE) {
+                MachineStatsResponse stats = machineStats(topic);
+                if (sameStats(stats, topic.lastStats)) {
+                    return;
+                }
+                topic.lastStats = stats;
+                for (SseEmitter emitter : topic.emitters) {
+                    send(topic, emitter, "machine-stats", stats);
+                }
+            } else {
+                if (!topic.seeded) {
+                    seed(topic);
+                }
+                Map<String, LineStatsResponse> lines = lineStats(topic);
+                List<LineStatsResponse> changed = changedLines(topic.lastLines, lines);
+                topic.lastLines = lines;
+                if (changed.isEmpty()) {
+                    return;
+                }
+                for (SseEmitter emitter : topic.emitters) {
+                    send(topic, emitter, "line-stats", changed);
+                }
+            }
+        } finally {
+            topic.lock.unlock();
+        }
+    }
+
+    // [end - window, end) with end at the next minute, so the window is whole rollup minutes
+    private MachineStatsResponse machineStats(Topic topic) {
+        Instant end = Instant.ofEpochSecond((currentMinute() + 1) * 60);
+        Instant start = end.minus(topic.key.windowMinutes(), ChronoUnit.MINUTES);
+        MachineStatsQueryResult recent = recentMachineStatsEngine.getStats(topic.key.id(), start, end);
+        if (recent == null) {
+            // Engine disabled, reseeding, or the window is longer than its horizon
+            return machineStatsService.getMachineStats(topic.key.id(), start, end);
+        }
+        return MachineStatsService.toResponse(topic.key.id(), start, end, recent.getEventsCount(), recent.getDefectsCount());
+    }
+
+    private Map<String, LineStatsResponse> lineStats(Topic topic) {
+        long toMinute = currentMinute() + 1;
+        long fromMinute = toMinute - topic.key.windowMinutes();
+        Map<String, LineStatsResponse> lines = new HashMap<>();
+        topic.rings.forEach((lineId, ring) -> {
+            MachineStatsQueryResult sum = ring.sum(fromMinute, toMinute);
+            if (sum.getEventsCount() > 0) {
+                lines.put(lineId, new LineStatsResponse(lineId, sum.getDefectsCount(), sum.getEventsCount()));
+            }
+        });
+        return lines;
+    }
+
+    private static List<LineStatsResponse> changedLines(Map<String, LineStatsResponse> previous,
+            Map<String, LineStatsResponse> current) {
+        List<LineStatsResponse> changed = new ArrayList<>();
+        current.forEach((lineId, line) -> {
+            LineStatsResponse before = previous.get(lineId);
+            if (before == null || before.getEventCount() != line.getEventCount()
+                    || !Objects.equals(before.getTotalDefects(), line.getTotalDefects())) {
+                changed.add(line);
+            }
+        });
+        previous.keySet().stream()
+            .filter(lineId -> !current.containsKey(lineId))
+            .forEach(lineId -> changed.add(new LineStatsResponse(lineId, null, 0)));
+        return changed;
+    }
+
+    private static boolean sameStats(MachineStatsResponse a, MachineStatsResponse b) {
+        return b != null && a.getStart().equals(b.getStart()) && a.getEventsCount() == b.getEventsCount()
+            && Objects.equals(a.getDefectsCount(), b.getDefectsCount());
+    }
+
+    // The rings cover the window and the 15 minutes of allowed future event time, like the engine's.
+    // The transaction takes its connection before the write lock (see RecentMachineStatsEngine.seed).
+    private void seed(Topic topic) {
+        long nowMinute = currentMinute();
+        Instant from = Instant.ofEpochSecond((nowMinute + 1 - topic.key.windowMinutes()) * 60);
+        Instant to = Instant.ofEpochSecond((nowMinute + RecentMachineStatsEngine.FUTURE_MINUTES + 1) * 60);
+        seedTransaction.executeWithoutResult(status -> {
+            seedLock.writeLock().lock();
+            try {
+                topic.rings.clear();
+                machineEventRepository.forEachFactoryLineMinute(topic.key.id(), from, to,
+                    (lineId, bucketStart, eventsCount, defectsSum, defectEvents) ->
+                        topic.ring(lineId).add(bucketStart.getEpochSecond() / 60, (int) eventsCount, defectsSum, (int) defectEvents));
+                topic.seeded = true;
+            } finally {
+                seedLock.writeLock().unlock();
+            }
+        });
+    }
+
+    private void apply(List<MachineEventChange> changes) {
+        if (topics.isEmpty()) {
+            return;
+        }
+        for (MachineEventChange change : changes) {
+            if (change.isPreviousUnknown()) {
+                // The replaced payload is unknown; factory topics rebuild on their next push, and the
+                // engine reseeds itself for the machine topics
+                for (Topic topic : topics.values()) {
+                    if (topic.key.scope() == StatsScope.FACTORY) {
+                        topic.seeded = false;
+                    }
+                    topic.dirty = true;
+                }
+                return;
+            }
+            record(change.getPrevious(), -1);
+            record(change.getCurrent(), 1);
+        }
+    }
+
+    private void record(MachineEvent event, int sign) {
+        if (event == null) {
+            return;
+        }
+        for (Topic topic : topics.values()) {
+            if (topic.key.scope() == StatsScope.MACHINE) {
+                if (topic.key.id().equals(event.getMachineId())) {
+                    topic.dirty = true;
+                }
+            } else if (topic.key.id().equals(event.getFactoryId()) && event.getLineId() != null) {
+                int defectEvents = event.getDefectCount() == null ? 0 : sign;
+                long defects = event.getDefectCount() == null ? 0 : (long) sign * event.getDefectCount();
+                topic.ring(event.getLineId())
+                    .add(Math.floorDiv(event.getEventTime().getEpochSecond(), 60), sign, defects, defectEvents);
+                topic.dirty = true;
+            }
+        }
+    }
+
+    private void send(Topic topic, SseEmitter emitter, String name, Object data) {
+        try {
+            emitter.send(SseEmitter.event().name(name).data(data, MediaType.APPLICATION_JSON));
+            eventsSent.increment();
+        } catch (IOException | IllegalStateException e) {
+            // The client went away; completion callbacks may not follow an error on our side
+            emitter.completeWithError(e);
+            unsubscribe(topic, emitter);
+        }
+    }
+
+    private void unsubscribe(Topic topic, SseEmitter emitter) {
+        topic.lock.lock();
+        try {
+            if (topic.emitters.remove(emitter)) {
+                subscribers.decrementAndGet();
+                closeIfIdle(topic);
+            }
+        } finally {
+            topic.lock.unlock();
+        }
+    }
+
+    // Called with the topic lock held
+    private void closeIfIdle(Topic topic) {
+        if (topic.emitters.isEmpty()) {
+            topic.closed = true;
+            topics.remove(topic.key, topic);
+        }
+    }
+
+    private static long currentMinute() {
+        return Instant.now().getEpochSecond() / 60;
+    }
+
+    private static final class Topic {
+        private final TopicKey key;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Set<SseEmitter> emitters = new CopyOnWriteArraySet<>();
+        // Factory topics only, by lineId
+        private final Map<String, MinuteRing> rings = new ConcurrentHashMap<>();
+        private volatile boolean dirty;
+        private volatile boolean seeded;
+        private boolean closed;
+        private MachineStatsResponse lastStats;
+        private Map<String, LineStatsResponse> lastLines = Map.of();
+
+        Topic(TopicKey key) {
+            this.key = key;
+            this.seeded = key.scope() == StatsScope.MACHINE;
+        }
+
+        MinuteRing ring(String lineId) {
+            return rings.computeIfAbsent(lineId,
+                id -> new MinuteRing((int) key.windowMinutes() + RecentMachineStatsEngine.FUTURE_MINUTES + 1));
+        }
+    }
+}
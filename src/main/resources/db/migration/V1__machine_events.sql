@@ -0,0 +1,127 @@
+-- machine_events is range-partitioned by event_time. Partitions are created ahead of time and
+-- expired by MachineEventPartitionService; the default partition holds events outside every
+-- partition (older than the retention window when the table was first set up).
+CREATE TABLE machine_events (
+    event_id text NOT NULL,
+    event_time timestamptz NOT NULL,
+    received_time timestamptz NOT NULL,
+    machine_id text,
+    duration_ms int NOT NULL,
+    defect_count int,
+    line_id text,
+    factory_id text,
+    PRIMARY KEY (event_id, event_time)
+) PARTITION BY RANGE (event_time);
+
+CREATE TABLE machine_events_default PARTITION OF machine_events DEFAULT;
+
+-- Partitioned indexes, so every partition gets them on creation
+CREATE INDEX machine_events_machine_time_idx ON machine_events (machine_id, event_time) INCLUDE (defect_count);
+CREATE INDEX machine_events_factory_time_idx ON machine_events (factory_id, event_time) INCLUDE (line_id, defect_count);
+
+-- A unique index on a partitioned table has to contain the partition key, so eventId uniqueness
+-- across partitions is enforced here. Ingest locks the key rows of a batch before writing and uses
+-- the stored event_time to find the current row, whichever partition it lives in.
+CREATE TABLE machine_event_ids (
+    event_id text PRIMARY KEY,
+    event_time timestamptz NOT NULL
+);
+
+CREATE TABLE machine_stats_rollup (
+    machine_id text NOT NULL,
+    bucket_start timestamptz NOT NULL,
+    events_count bigint NOT NULL,
+    defects_sum bigint NOT NULL,
+    defect_events bigint NOT NULL,
+    PRIMARY KEY (machine_id, bucket_start)
+);
+
+-- machine_stats_rollup is kept in step with machine_events by statement-level triggers that read
+-- the transition tables, so each INSERT/UPDATE/DELETE statement applies one aggregated delta per
+-- (machine, minute) in the writing transaction. Updates subtract the old row and add the new one;
+-- an update that moves a row to another partition is captured by the root's UPDATE trigger.
+CREATE FUNCTION machine_stats_rollup_bucket(ts timestamptz) RETURNS timestamptz
+    LANGUAGE sql IMMUTABLE AS $$
+    SELECT date_trunc('minute', ts AT TIME ZONE 'UTC') AT TIME ZONE 'UTC'
+$$;
+
+CREATE FUNCTION machine_stats_rollup_on_insert() RETURNS trigger LANGUAGE plpgsql AS $$
+BEGIN
+    INSERT INTO machine_stats_rollup AS r (machine_id, bucket_start, events_count, defects_sum, defect_events)
+    SELECT machine_id, machine_stats_rollup_bucket(event_time), COUNT(*), COALESCE(SUM(defect_count), 0), COUNT(defect_count)
+    FROM new_rows
+    WHERE machine_id IS NOT NULL
+    GROUP BY 1, 2
+    ORDER BY 1, 2
+    ON CONFLICT (machine_id, bucket_start) DO UPDATE SET
+        events_count = r.events_count + EXCLUDED.events_count,
+        defects_sum = r.defects_sum + EXCLUDED.defects_sum,
+        defect_events = r.defect_events + EXCLUDED.defect_events;
+    RETURN NULL;
+END
+$$;
+
+CREATE FUNCTION machine_stats_rollup_on_update() RETURNS trigger LANGUAGE plpgsql AS $$
+BEGIN
+    INSERT INTO machine_stats_rollup AS r (machine_id, bucket_start, events_count, defects_sum, defect_events)
+    SELECT machine_id, machine_stats_rollup_bucket(event_time), SUM(sign), SUM(sign * COALESCE(defect_count, 0)),
+        SUM(CASE WHEN defect_count IS NULL THEN 0 ELSE sign END)
+    FROM (
+        SELECT machine_id, event_time, defect_count, 1 AS sign FROM new_rows
+        UNION ALL
+        SELECT machine_id, event_time, defect_count, -1 AS sign FROM old_rows
+    ) delta
+    WHERE machine_id IS NOT NULL
+    GROUP BY 1, 2
+    HAVING SUM(sign) <> 0 OR SUM(sign * COALESCE(defect_count, 0)) <> 0
+        OR SUM(CASE WHEN defect_count IS NULL THEN 0 ELSE sign END) <> 0
+    ORDER BY 1, 2
+    ON CONFLICT (machine_id, bucket_start) DO UPDATE SET
+        events_count = r.events_count + EXCLUDED.events_count,
+        defects_sum = r.defects_sum + EXCLUDED.defects_sum,
+        defect_events = r.defect_events + EXCLUDED.defect_events;
+    RETURN NULL;
+END
+$$;
+
+CREATE FUNCTION machine_stats_rollup_on_delete() RETURNS trigger LANGUAGE plpgsql AS $$
+BEGIN
+    UPDATE machine_stats_rollup r SET
+        events_count = r.events_count - d.events_count,
+        defects_sum = r.defects_sum - d.defects_sum,
+        defect_events = r.defect_events - d.defect_events
+    FROM (
+        SELECT machine_id, machine_stats_rollup_bucket(event_time) AS bucket_start, COUNT(*) AS events_count,
+            COALESCE(SUM(defect_count), 0) AS defects_sum, COUNT(defect_count) AS defect_events
+        FROM old_rows
+        WHERE machine_id IS NOT NULL
+        GROUP BY 1, 2
+    ) d
+    WHERE r.machine_id = d.machine_id AND r.bucket_start = d.bucket_start;
+    RETURN NULL;
+END
+$$;
+
+CREATE TRIGGER machine_stats_rollup_insert AFTER INSERT ON machine_events
+    REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION machine_stats_rollup_on_insert();
+CREATE TRIGGER machine_stats_rollup_update AFTER UPDATE ON machine_events
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION machine_stats_rollup_on_update();
+CREATE TRIGGER machine_stats_rollup_delete AFTER DELETE ON machine_events
+    REFERENCING OLD TABLE AS old_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION machine_stats_rollup_on_delete();
+
+-- Deleted events release their key; the event_time check skips keys already moved by an update
+CREATE FUNCTION machine_event_ids_on_delete() RETURNS trigger LANGUAGE plpgsql AS $$
+BEGIN
+    DELETE FROM machine_event_ids k
+    USING old_rows o
+    WHERE k.event_id = o.event_id AND k.event_time = o.event_time;
+    RETURN NULL;
+END
+$$;
+
+CREATE TRIGGER machine_event_ids_delete AFTER DELETE ON machine_events
+    REFERENCING OLD TABLE AS old_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION machine_event_ids_on_delete();
@@ -0,0 +1,135 @@
+-- Machine, line and factory IDs are stored once in dictionary tables and referenced by int keys
+-- from machine_events and machine_stats_rollup. Keys are created by ingest (IdentifierDictionary)
+-- and never deleted or reused. There are no foreign keys: they would add a row-level check to
+-- every ingested row for tables that only ever grow.
+CREATE TABLE machines (
+    machine_key int GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    machine_id text NOT NULL UNIQUE
+);
+
+CREATE TABLE lines (
+    line_key int GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    line_id text NOT NULL UNIQUE
+);
+
+CREATE TABLE factories (
+    factory_key int GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    factory_id text NOT NULL UNIQUE
+);
+
+-- The rollup is rebuilt below, so the triggers must not run during the conversion
+DROP TRIGGER machine_stats_rollup_insert ON machine_events;
+DROP TRIGGER machine_stats_rollup_update ON machine_events;
+DROP TRIGGER machine_stats_rollup_delete ON machine_events;
+
+INSERT INTO machines (machine_id)
+SELECT DISTINCT machine_id FROM machine_events WHERE machine_id IS NOT NULL ORDER BY 1;
+INSERT INTO lines (line_id)
+SELECT DISTINCT line_id FROM machine_events WHERE line_id IS NOT NULL ORDER BY 1;
+INSERT INTO factories (factory_id)
+SELECT DISTINCT factory_id FROM machine_events WHERE factory_id IS NOT NULL ORDER BY 1;
+
+ALTER TABLE machine_events
+    ADD COLUMN machine_key int,
+    ADD COLUMN line_key int,
+    ADD COLUMN factory_key int;
+
+UPDATE machine_events e SET
+    machine_key = (SELECT m.machine_key FROM machines m WHERE m.machine_id = e.machine_id),
+    line_key = (SELECT l.line_key FROM lines l WHERE l.line_id = e.line_id),
+    factory_key = (SELECT f.factory_key FROM factories f WHERE f.factory_id = e.factory_id)
+WHERE e.machine_id IS NOT NULL OR e.line_id IS NOT NULL OR e.factory_id IS NOT NULL;
+
+-- Also drops machine_events_machine_time_idx and machine_events_factory_time_idx. Rows written
+-- before this migration keep the dropped text until their partition is expired or rewritten.
+ALTER TABLE machine_events
+    DROP COLUMN machine_id,
+    DROP COLUMN line_id,
+    DROP COLUMN factory_id;
+
+CREATE INDEX machine_events_machine_time_idx ON machine_events (machine_key, event_time) INCLUDE (defect_count);
+CREATE INDEX machine_events_factory_time_idx ON machine_events (factory_key, event_time) INCLUDE (line_key, defect_count);
+
+DROP TABLE machine_stats_rollup;
+
+CREATE TABLE machine_stats_rollup (
+    machine_key int NOT NULL,
+    bucket_start timestamptz NOT NULL,
+    events_count bigint NOT NULL,
+    defects_sum bigint NOT NULL,
+    defect_events bigint NOT NULL,
+    PRIMARY KEY (machine_key, bucket_start)
+);
+
+INSERT INTO machine_stats_rollup (machine_key, bucket_start, events_count, defects_sum, defect_events)
+SELECT machine_key, machine_stats_rollup_bucket(event_time), COUNT(*), COALESCE(SUM(defect_count), 0), COUNT(defect_count)
+FROM machine_events
+WHERE machine_key IS NOT NULL
+GROUP BY 1, 2;
+
+CREATE OR REPLACE FUNCTION machine_stats_rollup_on_insert() RETURNS trigger LANGUAGE plpgsql AS $$
+BEGIN
+    INSERT INTO machine_stats_rollup AS r (machine_key, bucket_start, events_count, defects_sum, defect_events)
+    SELECT machine_key, machine_stats_rollup_bucket(event_time), COUNT(*), COALESCE(SUM(defect_count), 0), COUNT(defect_count)
+    FROM new_rows
+    WHERE machine_key IS NOT NULL
+    GROUP BY 1, 2
+    ORDER BY 1, 2
+    ON CONFLICT (machine_key, bucket_start) DO UPDATE SET
+        events_count = r.events_count + EXCLUDED.events_count,
+        defects_sum = r.defects_sum + EXCLUDED.defects_sum,
+        defect_events = r.defect_events + EXCLUDED.defect_events;
+    RETURN NULL;
+END
+$$;
+
+CREATE OR REPLACE FUNCTION machine_stats_rollup_on_update() RETURNS trigger LANGUAGE plpgsql AS $$
+BEGIN
+    INSERT INTO machine_stats_rollup AS r (machine_key, bucket_start, events_count, defects_sum, defect_events)
+    SELECT machine_key, machine_stats_rollup_bucket(event_time), SUM(sign), SUM(sign * COALESCE(defect_count, 0)),
+        SUM(CASE WHEN defect_count IS NULL THEN 0 ELSE sign END)
+    FROM (
+        SELECT machine_key, event_time, defect_count, 1 AS sign FROM new_rows
+        UNION ALL
+        SELECT machine_key, event_time, defect_count, -1 AS sign FROM old_rows
+    ) delta
+    WHERE machine_key IS NOT NULL
+    GROUP BY 1, 2
+    HAVING SUM(sign) <> 0 OR SUM(sign * COALESCE(defect_count, 0)) <> 0
+        OR SUM(CASE WHEN defect_count IS NULL THEN 0 ELSE sign END) <> 0
+    ORDER BY 1, 2
+    ON CONFLICT (machine_key, bucket_start) DO UPDATE SET
+        events_count = r.events_count + EXCLUDED.events_count,
+        defects_sum = r.defects_sum + EXCLUDED.defects_sum,
+        defect_events = r.defect_events + EXCLUDED.defect_events;
+    RETURN NULL;
+END
+$$;
+
+CREATE OR REPLACE FUNCTION machine_stats_rollup_on_delete() RETURNS trigger LANGUAGE plpgsql AS $$
+BEGIN
+    UPDATE machine_stats_rollup r SET
+        events_count = r.events_count - d.events_count,
+        defects_sum = r.defects_sum - d.defects_sum,
+        defect_events = r.defect_events - d.defect_events
+    FROM (
+        SELECT machine_key, machine_stats_rollup_bucket(event_time) AS bucket_start, COUNT(*) AS events_count,
+            COALESCE(SUM(defect_count), 0) AS defects_sum, COUNT(defect_count) AS defect_events
+        FROM old_rows
+        WHERE machine_key IS NOT NULL
+        GROUP BY 1, 2
+    ) d
+    WHERE r.machine_key = d.machine_key AND r.bucket_start = d.bucket_start;
+    RETURN NULL;
+END
+$$;
+
+CREATE TRIGGER machine_stats_rollup_insert AFTER INSERT ON machine_events
+    REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION machine_stats_rollup_on_insert();
+CREATE TRIGGER machine_stats_rollup_update AFTER UPDATE ON machine_events
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION machine_stats_rollup_on_update();
+CREATE TRIGGER machine_stats_rollup_delete AFTER DELETE ON machine_events
+    REFERENCING OLD TABLE AS old_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION machine_stats_rollup_on_delete();
@@ -0,0 +1,15 @@
+-- Hash of the event payload (everything but event_id and received_time) of the current row,
+-- kept on its key row. An incoming event whose hash matches is a duplicate and is classified from
+-- machine_event_ids alone. NULL means not known yet: keys claimed by an ingest that has not
+-- finished, and keys written before this migration until PayloadHashBackfillService reaches them.
+-- The column is deliberately not indexed, so writing it stays a HOT update of the key row.
+ALTER TABLE machine_event_ids ADD COLUMN payload_hash bigint;
+
+-- Dictionary keys stand in for the IDs, which is fine as a key never changes its ID. The event
+-- time is hashed as epoch microseconds, independent of the session time zone.
+CREATE FUNCTION machine_event_payload_hash(event_time timestamptz, machine_key int, duration_ms int,
+        defect_count int, line_key int, factory_key int) RETURNS bigint
+    LANGUAGE sql IMMUTABLE PARALLEL SAFE AS $$
+    SELECT hashtextextended(format('%s|%s|%s|%s|%s|%s', (extract(epoch FROM event_time) * 1000000)::bigint,
+        machine_key, duration_ms, defect_count, line_key, factory_key), 0)
+$$;
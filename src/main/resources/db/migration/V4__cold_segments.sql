@@ -0,0 +1,10 @@
+-- Segment files of events moved out of machine_events by ColdStorageService. A row is written in
+-- the transaction that deletes the segment's events, so a file without a row (a batch that rolled
+-- back or crashed before commit) holds nothing the table lost, and is ignored.
+CREATE TABLE cold_segments (
+    name text PRIMARY KEY,
+    min_event_time timestamptz NOT NULL,
+    max_event_time timestamptz NOT NULL,
+    events_count int NOT NULL,
+    created_at timestamptz NOT NULL DEFAULT now()
+);
@@ -0,0 +1,104 @@
+-- Histograms of duration_ms per machine, hour, factory and line, kept in step with machine_events
+-- by statement-level triggers like machine_stats_rollup. Each row counts the events of one bin:
+-- durations below 128 ms have a bin per millisecond, longer ones 64 bins per power of two
+-- (DurationHistogram), so a bin is at most 1/64 of its lower bound wide. Keys of events without
+-- a machine, factory or line are 0. Only bins with events have a row.
+CREATE FUNCTION machine_duration_bin(duration_ms int) RETURNS smallint
+    LANGUAGE sql IMMUTABLE AS $$
+    SELECT (CASE
+        WHEN duration_ms < 128 THEN greatest(duration_ms, 0)
+        ELSE 64 * (length(ltrim(duration_ms::bit(32)::text, '0')) - 7)
+            + (duration_ms >> (length(ltrim(duration_ms::bit(32)::text, '0')) - 7))
+    END)::smallint
+$$;
+
+CREATE FUNCTION machine_duration_histogram_bucket(ts timestamptz) RETURNS timestamptz
+    LANGUAGE sql IMMUTABLE AS $$
+    SELECT date_trunc('hour', ts AT TIME ZONE 'UTC') AT TIME ZONE 'UTC'
+$$;
+
+CREATE TABLE machine_duration_histograms (
+    machine_key int NOT NULL,
+    bucket_start timestamptz NOT NULL,
+    factory_key int NOT NULL,
+    line_key int NOT NULL,
+    bin smallint NOT NULL,
+    events_count bigint NOT NULL,
+    PRIMARY KEY (machine_key, bucket_start, factory_key, line_key, bin)
+);
+
+CREATE INDEX machine_duration_histograms_factory_idx ON machine_duration_histograms (factory_key, bucket_start, line_key);
+
+INSERT INTO machine_duration_histograms (machine_key, bucket_start, factory_key, line_key, bin, events_count)
+SELECT COALESCE(machine_key, 0), machine_duration_histogram_bucket(event_time), COALESCE(factory_key, 0),
+    COALESCE(line_key, 0), machine_duration_bin(duration_ms), COUNT(*)
+FROM machine_events
+GROUP BY 1, 2, 3, 4, 5;
+
+CREATE FUNCTION machine_duration_histograms_on_insert() RETURNS trigger LANGUAGE plpgsql AS $$
+BEGIN
+    INSERT INTO machine_duration_histograms AS h (machine_key, bucket_start, factory_key, line_key, bin, events_count)
+    SELECT COALESCE(machine_key, 0), machine_duration_histogram_bucket(event_time), COALESCE(factory_key, 0),
+        COALESCE(line_key, 0), machine_duration_bin(duration_ms), COUNT(*)
+    FROM new_rows
+    GROUP BY 1, 2, 3, 4, 5
+    ORDER BY 1, 2, 3, 4, 5
+    ON CONFLICT (machine_key, bucket_start, factory_key, line_key, bin) DO UPDATE SET
+        events_count = h.events_count + EXCLUDED.events_count;
+    RETURN NULL;
+END
+$$;
+
+CREATE FUNCTION machine_duration_histograms_on_update() RETURNS trigger LANGUAGE plpgsql AS $$
+BEGIN
+    INSERT INTO machine_duration_histograms AS h (machine_key, bucket_start, factory_key, line_key, bin, events_count)
+    SELECT COALESCE(machine_key, 0), machine_duration_histogram_bucket(event_time), COALESCE(factory_key, 0),
+        COALESCE(line_key, 0), machine_duration_bin(duration_ms), SUM(sign)
+    FROM (
+        SELECT machine_key, event_time, factory_key, line_key, duration_ms, 1 AS sign FROM new_rows
+        UNION ALL
+        SELECT machine_key, event_time, factory_key, line_key, duration_ms, -1 AS sign FROM old_rows
+    ) delta
+    GROUP BY 1, 2, 3, 4, 5
+    HAVING SUM(sign) <> 0
+    ORDER BY 1, 2, 3, 4, 5
+    ON CONFLICT (machine_key, bucket_start, factory_key, line_key, bin) DO UPDATE SET
+        events_count = h.events_count + EXCLUDED.events_count;
+    RETURN NULL;
+END
+$$;
+
+-- Bins that lose all their events are deleted, the others decremented. Both statements of the
+-- query see the same snapshot and touch disjoint rows.
+CREATE FUNCTION machine_duration_histograms_on_delete() RETURNS trigger LANGUAGE plpgsql AS $$
+BEGIN
+    WITH d AS (
+        SELECT COALESCE(machine_key, 0) AS machine_key, machine_duration_histogram_bucket(event_time) AS bucket_start,
+            COALESCE(factory_key, 0) AS factory_key, COALESCE(line_key, 0) AS line_key,
+            machine_duration_bin(duration_ms) AS bin, COUNT(*) AS events_count
+        FROM old_rows
+        GROUP BY 1, 2, 3, 4, 5
+    ),
+    decremented AS (
+        UPDATE machine_duration_histograms h SET events_count = h.events_count - d.events_count
+        FROM d
+        WHERE h.machine_key = d.machine_key AND h.bucket_start = d.bucket_start AND h.factory_key = d.factory_key
+            AND h.line_key = d.line_key AND h.bin = d.bin AND h.events_count <> d.events_count
+    )
+    DELETE FROM machine_duration_histograms h
+    USING d
+    WHERE h.machine_key = d.machine_key AND h.bucket_start = d.bucket_start AND h.factory_key = d.factory_key
+        AND h.line_key = d.line_key AND h.bin = d.bin AND h.events_count = d.events_count;
+    RETURN NULL;
+END
+$$;
+
+CREATE TRIGGER machine_duration_histograms_insert AFTER INSERT ON machine_events
+    REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION machine_duration_histograms_on_insert();
+CREATE TRIGGER machine_duration_histograms_update AFTER UPDATE ON machine_events
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION machine_duration_histograms_on_update();
+CREATE TRIGGER machine_duration_histograms_delete AFTER DELETE ON machine_events
+    REFERENCING OLD TABLE AS old_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION machine_duration_histograms_on_delete();
@@ -0,0 +1,30 @@
+-- One definition of removing events from the duration histograms, for the delete trigger and for
+-- partition expiry. The decrement is unconditional, like machine_stats_rollup_on_delete: a bin
+-- that a concurrent insert changed is re-read after that insert commits and still decremented. A
+-- conditional UPDATE or DELETE re-checks its condition against the new row version instead and
+-- could skip the bin, losing the decrement. Bins left without events are pruned by a separate
+-- statement, which keeps a bin that a concurrent insert has filled again. Bins with 0 events add
+-- nothing to a percentile, so one that is left behind is harmless.
+CREATE FUNCTION machine_duration_histograms_subtract(removed machine_duration_histograms[]) RETURNS void
+    LANGUAGE sql AS $$
+    UPDATE machine_duration_histograms h SET events_count = h.events_count - d.events_count
+    FROM unnest(removed) d
+    WHERE h.machine_key = d.machine_key AND h.bucket_start = d.bucket_start AND h.factory_key = d.factory_key
+        AND h.line_key = d.line_key AND h.bin = d.bin;
+    DELETE FROM machine_duration_histograms h
+    USING unnest(removed) d
+    WHERE h.machine_key = d.machine_key AND h.bucket_start = d.bucket_start AND h.factory_key = d.factory_key
+        AND h.line_key = d.line_key AND h.bin = d.bin AND h.events_count = 0;
+$$;
+
+CREATE OR REPLACE FUNCTION machine_duration_histograms_on_delete() RETURNS trigger LANGUAGE plpgsql AS $$
+BEGIN
+    PERFORM machine_duration_histograms_subtract(ARRAY(
+        SELECT ROW(COALESCE(machine_key, 0), machine_duration_histogram_bucket(event_time), COALESCE(factory_key, 0),
+            COALESCE(line_key, 0), machine_duration_bin(duration_ms), COUNT(*))::machine_duration_histograms
+        FROM old_rows
+        GROUP BY COALESCE(machine_key, 0), machine_duration_histogram_bucket(event_time), COALESCE(factory_key, 0),
+            COALESCE(line_key, 0), machine_duration_bin(duration_ms)));
+    RETURN NULL;
+END
+$$;
@@ -0,0 +1,19 @@
+-- Events moved into cold segments keep their key row, marked archived, so an event sent again
+-- after archiving is still known: the same payload is a duplicate, classified from the key's hash,
+-- and a different one is rejected, since a segment cannot be changed. Without the key the event
+-- would be inserted again and counted both in the table and in its segment.
+ALTER TABLE machine_event_ids ADD COLUMN archived boolean NOT NULL DEFAULT false;
+
+-- Cold retention drops the keys of the events it deletes by event_time
+CREATE INDEX machine_event_ids_archived_time_idx ON machine_event_ids (event_time) WHERE archived;
+
+-- Deleted events release their key unless they were archived; the event_time check skips keys
+-- already moved by an update
+CREATE OR REPLACE FUNCTION machine_event_ids_on_delete() RETURNS trigger LANGUAGE plpgsql AS $$
+BEGIN
+    DELETE FROM machine_event_ids k
+    USING old_rows o
+    WHERE k.event_id = o.event_id AND k.event_time = o.event_time AND NOT k.archived;
+    RETURN NULL;
+END
+$$;
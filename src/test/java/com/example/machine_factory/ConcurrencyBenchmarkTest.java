@@ -0,0 +1,127 @@
+package com.example.machine_factory;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+
+// Compares the two execution models by running the same load twice:
+//   ./mvnw test -Pbenchmark -Dtest=ConcurrencyBenchmarkTest -Dspring.threads.virtual.enabled=false
+//   ./mvnw test -Pbenchmark -Dtest=ConcurrencyBenchmarkTest -Dspring.threads.virtual.enabled=true
+@Tag("benchmark")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class ConcurrencyBenchmarkTest {
+    private static final int CLIENTS = Integer.getInteger("benchmark.clients", 2000);
+    private static final int REQUESTS_PER_CLIENT = Integer.getInteger("benchmark.requests", 5);
+
+    @Value("${local.server.port}")
+    private int port;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    @Test
+    void benchmarkConcurrentIngestAndStats() throws Exception {
+        HttpClient client = HttpClient.newBuilder()
+            .executor(Executors.newVirtualThreadPerTaskExecutor())
+            .connectTimeout(Duration.ofSeconds(30))
+            .build();
+        Instant eventTime = Instant.now().truncatedTo(ChronoUnit.MICROS).minus(1, ChronoUnit.HOURS);
+
+        List<Future<long[]>> clients = new ArrayList<>(CLIENTS);
+        long startTime = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < CLIENTS; c++) {
+                final int clientId = c;
+                clients.add(executor.submit(() -> runClient(client, clientId, eventTime)));
+            }
+        }
+        long elapsedNanos = System.nanoTime() - startTime;
+
+        List<Long> latencies = new ArrayList<>();
+        int failures = 0;
+        for (Future<long[]> future : clients) {
+            for (long latency : future.get()) {
+                if (latency < 0) {
+                    failures++;
+                } else {
+                    latencies.add(latency);
+                }
+            }
+        }
+        long[] sorted = latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+        int total = CLIENTS * REQUESTS_PER_CLIENT;
+
+        System.out.println("========================================");
+        System.out.println("CONCURRENCY BENCHMARK RESULTS (" + (virtualThreads ? "virtual" : "platform") + " threads)");
+        System.out.println("========================================");
+        System.out.println("Clients: " + CLIENTS + ", requests: " + total);
+        System.out.println("Elapsed: " + elapsedNanos / 1_000_000 + " ms");
+        System.out.println("Throughput: " + Math.round(total / (elapsedNanos / 1e9)) + " req/s");
+        System.out.println("p50: " + percentileMs(sorted, 0.50) + " ms, p99: " + percentileMs(sorted, 0.99) + " ms");
+        System.out.println("Failed requests: " + failures);
+        System.out.println("========================================");
+
+        assertEquals(total, sorted.length + failures);
+    }
+
+    // Alternates small ingest batches and stats queries; a failed request is recorded as -1
+    private long[] runClient(HttpClient client, int clientId, Instant eventTime) {
+        long[] latencies = new long[REQUESTS_PER_CLIENT];
+        for (int i = 0; i < REQUESTS_PER_CLIENT; i++) {
+            HttpRequest request = i % 2 == 0
+                ? HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/events/batch"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(batchJson(clientId, i, eventTime)))
+                    .build()
+                : HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/stats?machineId=M-" + (clientId % 50)
+                    + "&start=" + eventTime.minus(1, ChronoUnit.HOURS) + "&end=" + eventTime.plus(1, ChronoUnit.HOURS)))
+                    .GET()
+                    .build();
+            long requestStart = System.nanoTime();
+            try {
+                HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                latencies[i] = response.statusCode() == 200 ? System.nanoTime() - requestStart : -1;
+            } catch (Exception e) {
+                latencies[i] = -1;
+            }
+        }
+        return latencies;
+    }
+
+    private static String batchJson(int clientId, int requestId, Instant eventTime) {
+        StringBuilder json = new StringBuilder("[");
+        for (int e = 0; e < 10; e++) {
+            if (e > 0) {
+                json.append(',');
+            }
+            json.append("{\"eventId\":\"E-CB-").append(clientId).append('-').append(requestId).append('-').append(e)
+                .append("\",\"eventTime\":\"").append(eventTime).append("\",\"machineId\":\"M-").append(clientId % 50)
+                .append("\",\"durationMs\":1000,\"defectCount\":1,\"lineId\":\"L-01\",\"factoryId\":\"F-01\"}");
+        }
+        return json.append(']').toString();
+    }
+
+    private static long percentileMs(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return -1;
+        }
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1_000_000;
+    }
+}
@@ -0,0 +1,316 @@
+package com.example.machine_factory;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import com.example.machine_factory.repository.MachineEventRepository;
+
+import tools.jackson.databind.ObjectMapper;
+
+// Sweeps /events/batch over batch size x client concurrency x duplicate/update ratio, then /stats
+// and /stats/top-defect-lines over client concurrency, against the app on a random port and the
+// PostgreSQL from application.properties. Every scenario reports throughput and p50/p99/p99.9
+// latency to target/load-test/results.json and is compared with load-test-baseline.json if present.
+//   ./mvnw test -Pbenchmark -Dtest=EndToEndLoadTest
+//   ./mvnw test -Pbenchmark -Dtest=EndToEndLoadTest -Dloadtest.update-baseline=true
+@Tag("benchmark")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class EndToEndLoadTest {
+    private static final List<Integer> BATCH_SIZES = intList("loadtest.batch-sizes", "10,100,1000");
+    private static final List<Integer> CLIENTS = intList("loadtest.clients", "1,8,64");
+    private static final List<Double> DUPLICATE_RATIOS = doubleList("loadtest.duplicate-ratios", "0,0.5");
+    private static final List<Double> UPDATE_RATIOS = doubleList("loadtest.update-ratios", "0,0.2");
+    private static final int REQUESTS = Integer.getInteger("loadtest.requests", 200);
+    private static final int WARMUP_REQUESTS = Integer.getInteger("loadtest.warmup", 20);
+    private static final int POOL_SIZE = Integer.getInteger("loadtest.pool", 20000);
+    private static final int MACHINES = 50;
+    private static final int FACTORIES = 5;
+    private static final double TOLERANCE = Double.parseDouble(System.getProperty("loadtest.tolerance", "0.2"));
+    private static final Path RESULTS = Path.of(System.getProperty("loadtest.results", "target/load-test/results.json"));
+    private static final Path BASELINE = Path.of(System.getProperty("loadtest.baseline", "load-test-baseline.json"));
+    private static final boolean UPDATE_BASELINE = Boolean.getBoolean("loadtest.update-baseline");
+
+    record ScenarioResult(String name, String endpoint, int batchSize, int clients, double duplicateRatio,
+            double updateRatio, int requests, int failures, double requestsPerSecond, double eventsPerSecond,
+            double p50Ms, double p99Ms, double p999Ms) {
+    }
+
+    record LoadTestReport(String startedAt, String javaVersion, int processors, boolean virtualThreads,
+            List<ScenarioResult> scenarios) {
+    }
+
+    private record PoolEvent(String eventId, Instant eventTime, int machine, int defectCount) {
+    }
+
+    @Value("${local.server.port}")
+    private int port;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    @Autowired
+    private MachineEventRepository machineEventRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final AtomicLong nextEventId = new AtomicLong();
+    private final List<PoolEvent> pool = new ArrayList<>(POOL_SIZE);
+    private Instant dataStart;
+    private HttpClient client;
+
+    @Test
+    void runLoadTest() throws Exception {
+        String startedAt = Instant.now().toString();
+        client = HttpClient.newBuilder()
+            .executor(Executors.newVirtualThreadPerTaskExecutor())
+            .connectTimeout(Duration.ofSeconds(30))
+            .build();
+        machineEventRepository.deleteAllInBatch();
+        seedPool();
+
+        List<ScenarioResult> results = new ArrayList<>();
+        for (int batchSize : BATCH_SIZES) {
+            for (int clients : CLIENTS) {
+                for (double duplicateRatio : DUPLICATE_RATIOS) {
+                    for (double updateRatio : UPDATE_RATIOS) {
+                        String name = "ingest batch=" + batchSize + " clients=" + clients
+                            + " dup=" + duplicateRatio + " upd=" + updateRatio;
+                        results.add(run(name, "/events/batch", batchSize, clients, duplicateRatio, updateRatio,
+                            () -> batchRequest(batchSize, duplicateRatio, updateRatio)));
+                    }
+                }
+            }
+        }
+        for (int clients : CLIENTS) {
+            results.add(run("stats clients=" + clients, "/stats", 0, clients, 0, 0, this::statsRequest));
+            results.add(run("top-defect-lines clients=" + clients, "/stats/top-defect-lines", 0, clients, 0, 0,
+                this::topDefectLinesRequest));
+        }
+
+        LoadTestReport report = new LoadTestReport(startedAt, System.getProperty("java.version"),
+            Runtime.getRuntime().availableProcessors(), virtualThreads, results);
+        Files.createDirectories(RESULTS.toAbsolutePath().getParent());
+        objectMapper.writerWithDefaultPrettyPrinter().writeValue(RESULTS.toFile(), report);
+        print(report);
+
+        List<String> regressions = compareWithBaseline(results);
+        if (UPDATE_BASELINE) {
+            Files.copy(RESULTS, BASELINE, StandardCopyOption.REPLACE_EXISTING);
+            System.out.println("Baseline updated: " + BASELINE.toAbsolutePath());
+            return;
+        }
+        assertTrue(regressions.isEmpty(), "Regressions against " + BASELINE + ":\n" + String.join("\n", regressions));
+    }
+
+    // Warms up, then sends REQUESTS requests from `clients` concurrent clients; failures are -1
+    private ScenarioResult run(String name, String endpoint, int batchSize, int clients, double duplicateRatio,
+            double updateRatio, Supplier<HttpRequest> requests) throws InterruptedException {
+        send(WARMUP_REQUESTS, clients, requests, new long[WARMUP_REQUESTS]);
+        long[] latencies = new long[REQUESTS];
+        long startTime = System.nanoTime();
+        send(REQUESTS, clients, requests, latencies);
+        double elapsedSeconds = (System.nanoTime() - startTime) / 1e9;
+
+        long[] sorted = Arrays.stream(latencies).filter(latency -> latency >= 0).sorted().toArray();
+        int failures = REQUESTS - sorted.length;
+        return new ScenarioResult(name, endpoint, batchSize, clients, duplicateRatio, updateRatio, REQUESTS, failures,
+            round(sorted.length / elapsedSeconds), round((double) sorted.length * batchSize / elapsedSeconds),
+            percentileMs(sorted, 0.50), percentileMs(sorted, 0.99), percentileMs(sorted, 0.999));
+    }
+
+    private void send(int total, int clients, Supplier<HttpRequest> requests, long[] latencies)
+            throws InterruptedException {
+        AtomicInteger next = new AtomicInteger();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < clients; c++) {
+                executor.submit(() -> {
+                    for (int i = next.getAndIncrement(); i < total; i = next.getAndIncrement()) {
+                        HttpRequest request = requests.get();
+                        long requestStart = System.nanoTime();
+                        try {
+                            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                            latencies[i] = response.statusCode() == 200 ? System.nanoTime() - requestStart : -1;
+                        } catch (Exception e) {
+                            latencies[i] = -1;
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    // The first half of the pool is only ever resent unchanged, the second half only with a new
+    // defect count, so duplicates stay duplicates and updates stay updates
+    private HttpRequest batchRequest(int batchSize, double duplicateRatio, double updateRatio) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int half = pool.size() / 2;
+        StringBuilder json = new StringBuilder(batchSize * 160).append('[');
+        for (int e = 0; e < batchSize; e++) {
+            if (e > 0) {
+                json.append(',');
+            }
+            double kind = random.nextDouble();
+            if (kind < duplicateRatio) {
+                appendEvent(json, pool.get(random.nextInt(half)), -2);
+            } else if (kind < duplicateRatio + updateRatio) {
+                appendEvent(json, pool.get(half + random.nextInt(pool.size() - half)), 10 + random.nextInt(1000));
+            } else {
+                appendEvent(json, newEvent(random), -2);
+            }
+        }
+        return post(json.append(']').toString());
+    }
+
+    private HttpRequest statsRequest() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Instant start = dataStart.plus(random.nextInt(300), ChronoUnit.MINUTES).plusSeconds(random.nextInt(60));
+        return get("/stats?machineId=M-" + random.nextInt(MACHINES) + "&start=" + start
+            + "&end=" + start.plus(1, ChronoUnit.HOURS));
+    }
+
+    private HttpRequest topDefectLinesRequest() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Instant from = dataStart.plus(random.nextInt(300), ChronoUnit.MINUTES);
+        return get("/stats/top-defect-lines?factoryId=F-" + random.nextInt(FACTORIES) + "&from=" + from
+            + "&to=" + from.plus(1, ChronoUnit.HOURS) + "&limit=5");
+    }
+
+    private void seedPool() throws Exception {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        dataStart = Instant.now().truncatedTo(ChronoUnit.MINUTES).minus(6, ChronoUnit.HOURS);
+        for (int i = 0; i < POOL_SIZE; i++) {
+            pool.add(newEvent(random));
+        }
+        for (int from = 0; from < pool.size(); from += 1000) {
+            StringBuilder json = new StringBuilder("[");
+            for (int i = from; i < Math.min(from + 1000, pool.size()); i++) {
+                if (i > from) {
+                    json.append(',');
+                }
+                appendEvent(json, pool.get(i), -2);
+            }
+            HttpResponse<Void> response = client.send(post(json.append(']').toString()), HttpResponse.BodyHandlers.discarding());
+            assertEquals(200, response.statusCode());
+        }
+    }
+
+    private PoolEvent newEvent(ThreadLocalRandom random) {
+        return new PoolEvent("E-LT-" + nextEventId.incrementAndGet(),
+            dataStart.plusMillis(random.nextLong(Duration.ofHours(6).toMillis())),
+            random.nextInt(MACHINES), random.nextInt(10));
+    }
+
+    // A defectCount of -2 keeps the pool value
+    private static void appendEvent(StringBuilder json, PoolEvent event, int defectCount) {
+        int machine = event.machine();
+        json.append("{\"eventId\":\"").append(event.eventId())
+            .append("\",\"eventTime\":\"").append(event.eventTime())
+            .append("\",\"machineId\":\"M-").append(machine)
+            .append("\",\"durationMs\":1000,\"defectCount\":").append(defectCount == -2 ? event.defectCount() : defectCount)
+            .append(",\"lineId\":\"L-").append(machine % 10)
+            .append("\",\"factoryId\":\"F-").append(machine % FACTORIES).append("\"}");
+    }
+
+    private HttpRequest post(String body) {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/events/batch"))
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofString(body))
+            .build();
+    }
+
+    private HttpRequest get(String pathAndQuery) {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + port + pathAndQuery)).GET().build();
+    }
+
+    // Lower throughput or higher p99 than the baseline by more than TOLERANCE, or new failures
+    private List<String> compareWithBaseline(List<ScenarioResult> results) {
+        File baselineFile = BASELINE.toFile();
+        if (!baselineFile.exists()) {
+            System.out.println("No baseline at " + BASELINE.toAbsolutePath() + ", rerun with -Dloadtest.update-baseline=true to store one");
+            return List.of();
+        }
+        Map<String, ScenarioResult> baseline = new HashMap<>();
+        for (ScenarioResult result : objectMapper.readValue(baselineFile, LoadTestReport.class).scenarios()) {
+            baseline.put(result.name(), result);
+        }
+        List<String> regressions = new ArrayList<>();
+        for (ScenarioResult result : results) {
+            ScenarioResult base = baseline.get(result.name());
+            if (base == null) {
+                continue;
+            }
+            if (result.requestsPerSecond() < base.requestsPerSecond() * (1 - TOLERANCE)) {
+                regressions.add(result.name() + ": " + result.requestsPerSecond() + " req/s vs " + base.requestsPerSecond());
+            }
+            if (result.p99Ms() > base.p99Ms() * (1 + TOLERANCE)) {
+                regressions.add(result.name() + ": p99 " + result.p99Ms() + " ms vs " + base.p99Ms());
+            }
+            if (result.failures() > 0 && base.failures() == 0) {
+                regressions.add(result.name() + ": " + result.failures() + " failed requests");
+            }
+        }
+        return regressions;
+    }
+
+    private static void print(LoadTestReport report) {
+        System.out.println("========================================");
+        System.out.println("END-TO-END LOAD TEST (" + (report.virtualThreads() ? "virtual" : "platform") + " threads)");
+        System.out.println("========================================");
+        System.out.printf("%-50s %10s %12s %9s %9s %9s %6s%n", "scenario", "req/s", "events/s", "p50 ms", "p99 ms", "p99.9 ms", "fail");
+        for (ScenarioResult r : report.scenarios()) {
+            System.out.printf("%-50s %10.1f %12.1f %9.2f %9.2f %9.2f %6d%n", r.name(), r.requestsPerSecond(),
+                r.eventsPerSecond(), r.p50Ms(), r.p99Ms(), r.p999Ms(), r.failures());
+        }
+        System.out.println("Results: " + RESULTS.toAbsolutePath());
+        System.out.println("========================================");
+    }
+
+    private static double percentileMs(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return -1;
+        }
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1);
+        return round(sorted[Math.max(0, index)] / 1e6);
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+
+    private static List<Integer> intList(String property, String defaults) {
+        return Arrays.stream(System.getProperty(property, defaults).split(",")).map(String::trim).map(Integer::valueOf).toList();
+    }
+
+    private static List<Double> doubleList(String property, String defaults) {
+        return Arrays.stream(System.getProperty(property, defaults).split(",")).map(String::trim).map(Double::valueOf).toList();
+    }
+}
@@ -0,0 +1,244 @@
+package com.example.machine_factory.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import com.example.machine_factory.dto.DurationStatsResponse;
+import com.example.machine_factory.dto.LineStatsResponse;
+import com.example.machine_factory.dto.MachineEventsBatchResponse;
+import com.example.machine_factory.dto.MachineStatsBulkRequest;
+import com.example.machine_factory.dto.MachineStatsResponse;
+import com.example.machine_factory.dto.RejectionReason;
+import com.example.machine_factory.dto.StatsBucketResponse;
+import com.example.machine_factory.dto.StatsTimeseriesResponse;
+import com.example.machine_factory.entity.MachineEvent;
+import com.example.machine_factory.repository.ColdSegment;
+import com.example.machine_factory.repository.ColdSegmentStore;
+import com.example.machine_factory.repository.MachineEventRepository;
+
+@SpringBootTest(properties = {
+    "machine-factory.cold-storage.enabled=true",
+    "machine-factory.cold-storage.directory=target/cold-segments-test",
+    "machine-factory.cold-storage.batch-size=2",
+    "machine-factory.cold-storage.interval=PT24H"
+})
+class ColdStorageServiceTest {
+
+    @Autowired
+    private MachineEventService machineEventService;
+
+    @Autowired
+    private MachineStatsService machineStatsService;
+
+    @Autowired
+    private ColdStorageService coldStorageService;
+
+    @Autowired
+    private ColdSegmentStore coldSegmentStore;
+
+    @Autowired
+    private MachineEventRepository machineEventRepository;
+
+    @BeforeEach
+    void setUp() {
+        coldSegmentStore.deleteSegmentsBefore(Instant.MAX);
+        machineEventRepository.deleteAll();
+    }
+
+    @AfterEach
+    void tearDown() {
+        coldSegmentStore.deleteSegmentsBefore(Instant.MAX);
+    }
+
+    // ================== Stats are the same before and after archiving ==================
+    @Test
+    void testArchivedEventsAreStillCounted() {
+        Instant day = Instant.now().minus(40, ChronoUnit.DAYS).truncatedTo(ChronoUnit.DAYS);
+        Instant base = day.plus(10, ChronoUnit.HOURS);
+        machineEventService.saveBatch(List.of(
+            new MachineEvent("E-COLD-1", base, null, "M-COLD-1", 1000, 1, "L-COLD-1", "F-COLD"),
+            new MachineEvent("E-COLD-2", base.plusSeconds(90), null, "M-COLD-1", 1000, 2, "L-COLD-1", "F-COLD"),
+            new MachineEvent("E-COLD-3", base.plusSeconds(3600), null, "M-COLD-1", 1000, -1, "L-COLD-2", "F-COLD"),
+            new MachineEvent("E-COLD-4", base.plusSeconds(30), null, "M-COLD-2", 1000, 4, "L-COLD-2", "F-COLD"),
+            // The next day stays in the table
+            new MachineEvent("E-COLD-5", base.plus(1, ChronoUnit.DAYS), null, "M-COLD-1", 1000, 8, "L-COLD-1", "F-COLD")));
+
+        Instant start = day.plusSeconds(45);
+        Instant end = day.plus(2, ChronoUnit.DAYS);
+        MachineStatsResponse machineBefore = machineStatsService.getMachineStats("M-COLD-1", start, end);
+        List<LineStatsResponse> linesBefore = machineStatsService.getTopDefectLines("F-COLD", start, end, 10);
+        StatsTimeseriesResponse seriesBefore = machineStatsService.getStatsTimeseries(null, null, "F-COLD", day, end,
+            Duration.ofHours(1));
+        String bulkBefore = bulk(start, end);
+        DurationStatsResponse durationsBefore = machineStatsService.getDurationStats(null, null, "F-COLD", start, end);
+
+        assertEquals(4, coldStorageService.archiveBefore(day.plus(1, ChronoUnit.DAYS)));
+        assertEquals(2, coldSegmentStore.getSegmentCount());
+        assertEquals(4, coldSegmentStore.getEventsCount());
+        assertEquals(1, machineEventRepository.count());
+
+        MachineStatsResponse machineAfter = machineStatsService.getMachineStats("M-COLD-1", start, end);
+        assertEquals(4, machineAfter.getEventsCount());
+        assertEquals(machineBefore.getEventsCount(), machineAfter.getEventsCount());
+        assertEquals(machineBefore.getDefectsCount(), machineAfter.getDefectsCount());
+
+        List<LineStatsResponse> linesAfter = machineStatsService.getTopDefectLines("F-COLD", start, end, 10);
+        assertEquals(linesBefore.size(), linesAfter.size());
+        for (int i = 0; i < linesBefore.size(); i++) {
+            assertEquals(linesBefore.get(i).getLineId(), linesAfter.get(i).getLineId());
+            assertEquals(linesBefore.get(i).getTotalDefects(), linesAfter.get(i).getTotalDefects());
+            assertEquals(linesBefore.get(i).getEventCount(), linesAfter.get(i).getEventCount());
+        }
+
+        StatsTimeseriesResponse seriesAfter = machineStatsService.getStatsTimeseries(null, null, "F-COLD", day, end,
+            Duration.ofHours(1));
+        assertEquals(seriesBefore.getBuckets().size(), seriesAfter.getBuckets().size());
+        for (int i = 0; i < seriesBefore.getBuckets().size(); i++) {
+            StatsBucketResponse before = seriesBefore.getBuckets().get(i);
+            StatsBucketResponse after = seriesAfter.getBuckets().get(i);
+            assertEquals(before.getEventsCount(), after.getEventsCount(), "bucket " + i);
+            assertEquals(before.getDefectsCount(), after.getDefectsCount(), "bucket " + i);
+        }
+        assertEquals(bulkBefore, bulk(start, end));
+        DurationStatsResponse durationsAfter = machineStatsService.getDurationStats(null, null, "F-COLD", start, end);
+        assertEquals(durationsBefore.getEventsCount(), durationsAfter.getEventsCount());
+        assertEquals(durationsBefore.getP50(), durationsAfter.getP50());
+        assertEquals(durationsBefore.getP99(), durationsAfter.getP99());
+    }
+
+    // ================== Resent archived events are not stored again ==================
+    @Test
+    void testResentArchivedEventIsNotCountedTwice() {
+        Instant day = Instant.now().minus(40, ChronoUnit.DAYS).truncatedTo(ChronoUnit.DAYS);
+        Instant base = day.plus(10, ChronoUnit.HOURS);
+        MachineEvent event = new MachineEvent("E-COLD-R1", base, null, "M-COLD-R", 1000, 3, "L-COLD-1", "F-COLD-R");
+        machineEventService.saveBatch(List.of(event));
+        assertEquals(1, coldStorageService.archiveBefore(day.plus(1, ChronoUnit.DAYS)));
+        assertEquals(0, machineEventRepository.count());
+
+        MachineEventsBatchResponse same = machineEventService.saveBatch(List.of(
+            new MachineEvent("E-COLD-R1", base, null, "M-COLD-R", 1000, 3, "L-COLD-1", "F-COLD-R")));
+        assertEquals(1, same.getDeduped());
+        assertEquals(0, same.getAccepted());
+
+        // A segment cannot be changed, so a new payload is rejected
+        MachineEventsBatchResponse changed = machineEventService.saveBatch(List.of(
+            new MachineEvent("E-COLD-R1", base, null, "M-COLD-R", 1000, 9, "L-COLD-1", "F-COLD-R")));
+        assertEquals(0, changed.getAccepted());
+        assertEquals(0, changed.getUpdated());
+        assertEquals(1, changed.getRejected());
+        assertEquals("E-COLD-R1", changed.getRejections().get(0).getEventId());
+        assertEquals(RejectionReason.ARCHIVED_EVENT, changed.getRejections().get(0).getReason());
+
+        assertEquals(0, machineEventRepository.count());
+        MachineStatsResponse stats = machineStatsService.getMachineStats("M-COLD-R", day, day.plus(1, ChronoUnit.DAYS));
+        assertEquals(1, stats.getEventsCount());
+        assertEquals(3, stats.getDefectsCount());
+
+        // Once its segment is gone, the event is new again
+        assertEquals(1, coldSegmentStore.deleteSegmentsBefore(day.plus(1, ChronoUnit.DAYS)));
+        assertEquals(1, machineEventService.saveBatch(List.of(event)).getAccepted());
+        assertEquals(1, machineEventRepository.count());
+    }
+
+    // ================== Segment files keep every field ==================
+    // ================== Archiving evicts the cached responses of its range ==================
+    @Test
+    void testArchivingEvictsCachedResponses() {
+        Instant day = Instant.now().minus(40, ChronoUnit.DAYS).truncatedTo(ChronoUnit.DAYS);
+        Instant base = day.plus(10, ChronoUnit.HOURS);
+        machineEventService.saveBatch(List.of(
+            new MachineEvent("E-COLD-C1", base, null, "M-COLD-C", 1000, 1, "L-COLD-1", "F-COLD-C"),
+            new MachineEvent("E-COLD-C2", base.plusSeconds(60), null, "M-COLD-C", 1000, 2, "L-COLD-1", "F-COLD-C")));
+        Instant start = base.minusSeconds(600);
+        Instant end = base.plusSeconds(600);
+        // Same window on the next day, which is not archived
+        Instant laterStart = start.plus(1, ChronoUnit.DAYS);
+        Instant laterEnd = end.plus(1, ChronoUnit.DAYS);
+        byte[] stats = machineStatsService.getMachineStatsJson("M-COLD-C", start, end);
+        byte[] lines = machineStatsService.getTopDefectLinesJson("F-COLD-C", start, end, 5);
+        byte[] later = machineStatsService.getMachineStatsJson("M-COLD-C", laterStart, laterEnd);
+        assertSame(stats, machineStatsService.getMachineStatsJson("M-COLD-C", start, end));
+
+        assertEquals(2, coldStorageService.archiveBefore(day.plus(1, ChronoUnit.DAYS)));
+        byte[] archivedStats = machineStatsService.getMachineStatsJson("M-COLD-C", start, end);
+        assertNotSame(stats, archivedStats);
+        assertArrayEquals(stats, archivedStats);
+        assertNotSame(lines, machineStatsService.getTopDefectLinesJson("F-COLD-C", start, end, 5));
+        assertSame(later, machineStatsService.getMachineStatsJson("M-COLD-C", laterStart, laterEnd));
+    }
+
+    @Test
+    void testSegmentRoundTripAndScan(@TempDir Path directory) throws Exception {
+        Instant base = Instant.parse("2025-06-01T08:00:00.123456Z");
+        List<MachineEvent> events = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            events.add(new MachineEvent("E-SEG-" + i, base.plusMillis(i * 250L), base.plusSeconds(86_400 + i),
+                i % 3 == 0 ? "M-B" : "M-A", i, i % 7 == 0 ? null : i % 5, "L-" + (i % 2), i % 4 == 0 ? null : "F-01"));
+        }
+        Path file = directory.resolve("segment.mfcs");
+        ColdSegment.write(file, events);
+        ColdSegment segment = ColdSegment.open(file);
+        assertEquals(events.size(), segment.getEventsCount());
+        assertEquals(base, segment.getMinEventTime());
+
+        List<MachineEvent> expected = new ArrayList<>(events);
+        expected.sort(Comparator.comparing(MachineEvent::getMachineId).thenComparing(MachineEvent::getEventTime));
+        List<MachineEvent> decoded = segment.readEvents();
+        assertEquals(expected.size(), decoded.size());
+        for (int i = 0; i < expected.size(); i++) {
+            MachineEvent e = expected.get(i);
+            MachineEvent d = decoded.get(i);
+            assertEquals(e.getEventId(), d.getEventId());
+            assertEquals(e.getEventTime(), d.getEventTime());
+            assertEquals(e.getReceivedTime(), d.getReceivedTime());
+            assertEquals(e.getMachineId(), d.getMachineId());
+            assertEquals(e.getDurationMs(), d.getDurationMs());
+            assertEquals(e.getDefectCount(), d.getDefectCount());
+            assertEquals(e.getLineId(), d.getLineId());
+            assertEquals(e.getFactoryId(), d.getFactoryId());
+        }
+
+        // Machine, factory, line and time filters match a filter over the list
+        Instant from = base.plusSeconds(100);
+        Instant to = base.plusSeconds(900);
+        long expectedCount = events.stream()
+            .filter(e -> e.getMachineId().equals("M-A") && "F-01".equals(e.getFactoryId()) && e.getLineId().equals("L-1"))
+            .filter(e -> !e.getEventTime().isBefore(from) && e.getEventTime().isBefore(to))
+            .count();
+        long[] count = new long[1];
+        segment.scan(List.of("M-A"), "F-01", "L-1", ColdSegment.toMicros(from), ColdSegment.toMicros(to),
+            (machineId, micros, defectCount, lineId, factoryId) -> count[0]++);
+        assertEquals(expectedCount, count[0]);
+        count[0] = 0;
+        segment.scan(List.of("M-UNKNOWN"), null, null, Long.MIN_VALUE, Long.MAX_VALUE,
+            (machineId, micros, defectCount, lineId, factoryId) -> count[0]++);
+        assertEquals(0, count[0]);
+    }
+
+    private String bulk(Instant start, Instant end) {
+        MachineStatsBulkRequest request = new MachineStatsBulkRequest();
+        request.setFactoryId("F-COLD");
+        request.setStart(start);
+        request.setEnd(end);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        machineStatsService.writeMachineStats(request, out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.machine_factory.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import com.example.machine_factory.dto.ApproximateLineStatsResponse;
+import com.example.machine_factory.dto.ApproximateTopDefectLinesResponse;
+import com.example.machine_factory.dto.LineStatsResponse;
+import com.example.machine_factory.entity.MachineEvent;
+import com.example.machine_factory.repository.MachineEventRepository;
+
+@SpringBootTest(properties = {
+    "machine-factory.stats.sketch.capacity=4"
+})
+class DefectLineSketchEngineTest {
+
+    @Autowired
+    private MachineEventService machineEventService;
+
+    @Autowired
+    private MachineStatsService machineStatsService;
+
+    @Autowired
+    private DefectLineSketchEngine defectLineSketchEngine;
+
+    @Autowired
+    private MachineEventRepository machineEventRepository;
+
+    @BeforeEach
+    void setUp() {
+        machineEventRepository.deleteAll();
+        defectLineSketchEngine.seed();
+    }
+
+    // ================== Sketches that never dropped a line are exact ==================
+    @Test
+    void testFewLinesAreExact() {
+        Instant base = Instant.now().truncatedTo(ChronoUnit.HOURS).minus(3, ChronoUnit.HOURS);
+        machineEventService.saveBatch(List.of(
+            new MachineEvent("E-SK-1", base.plusSeconds(600), null, "M-SK-1", 1000, 5, "L-SK-1", "F-SK-EXACT"),
+            new MachineEvent("E-SK-2", base.plusSeconds(4200), null, "M-SK-1", 1000, 3, "L-SK-2", "F-SK-EXACT"),
+            new MachineEvent("E-SK-3", base.plusSeconds(7800), null, "M-SK-2", 1000, 6, "L-SK-2", "F-SK-EXACT"),
+            new MachineEvent("E-SK-4", base.plusSeconds(7900), null, "M-SK-2", 1000, -1, "L-SK-3", "F-SK-EXACT"),
+            // In the unaligned edge before the first whole bucket
+            new MachineEvent("E-SK-5", base.minusSeconds(300), null, "M-SK-3", 1000, 9, "L-SK-3", "F-SK-EXACT")));
+        // Replaces E-SK-2 with fewer defects
+        machineEventService.saveBatch(List.of(
+            new MachineEvent("E-SK-2", base.plusSeconds(4200), null, "M-SK-1", 1000, 1, "L-SK-2", "F-SK-EXACT")));
+
+        Instant from = base.minusSeconds(1000);
+        Instant to = Instant.now();
+        ApproximateTopDefectLinesResponse response =
+            machineStatsService.getApproximateTopDefectLines("F-SK-EXACT", from, to, 10);
+        assertTrue(response.isApproximate());
+        assertEquals(0, response.getOtherLinesMaxDefects());
+        assertEquals(List.of("L-SK-3", "L-SK-2", "L-SK-1"),
+            response.getLines().stream().map(ApproximateLineStatsResponse::getLineId).toList());
+        Map<String, Long> exact = exact("F-SK-EXACT", from, to);
+        for (ApproximateLineStatsResponse line : response.getLines()) {
+            assertEquals(exact.get(line.getLineId()).longValue(), line.getTotalDefects());
+            assertEquals(0, line.getMaxError());
+        }
+
+        ApproximateTopDefectLinesResponse top = machineStatsService.getApproximateTopDefectLines("F-SK-EXACT", from, to, 1);
+        assertEquals(1, top.getLines().size());
+        assertEquals(7, top.getOtherLinesMaxDefects());
+    }
+
+    // ================== Heavy lines are found and every bound holds ==================
+    @Test
+    void testHeavyLinesWithinBounds() {
+        Instant base = Instant.now().truncatedTo(ChronoUnit.HOURS).minus(2, ChronoUnit.HOURS);
+        List<MachineEvent> events = new ArrayList<>();
+        for (int i = 0; i < 270; i++) {
+            events.add(new MachineEvent("E-SK-L-" + i, base.plusSeconds(60 + i), null, "M-SK-1", 1000, 1 + i % 2,
+                "L-SK-LIGHT-" + (i % 27), "F-SK-HEAVY"));
+        }
+        for (int i = 0; i < 60; i++) {
+            events.add(new MachineEvent("E-SK-H-" + i, base.plusSeconds(600 + i), null, "M-SK-2", 1000, 50,
+                "L-SK-HEAVY-" + (i % 3), "F-SK-HEAVY"));
+        }
+        // Several commits, so lines are evicted and tracked again between them
+        for (int i = 0; i < events.size(); i += 30) {
+            machineEventService.saveBatch(events.subList(i, Math.min(i + 30, events.size())));
+        }
+
+        Instant from = base.minusSeconds(60);
+        Instant to = Instant.now();
+        ApproximateTopDefectLinesResponse response =
+            machineStatsService.getApproximateTopDefectLines("F-SK-HEAVY", from, to, 3);
+        assertTrue(response.isApproximate());
+        assertEquals(List.of("L-SK-HEAVY-0", "L-SK-HEAVY-1", "L-SK-HEAVY-2"),
+            response.getLines().stream().map(ApproximateLineStatsResponse::getLineId).sorted().toList());
+        Map<String, Long> exact = exact("F-SK-HEAVY", from, to);
+        for (ApproximateLineStatsResponse line : response.getLines()) {
+            long trueDefects = exact.get(line.getLineId());
+            assertTrue(line.getTotalDefects() >= trueDefects, line.getLineId());
+            assertTrue(line.getTotalDefects() - line.getMaxError() <= trueDefects, line.getLineId());
+        }
+        exact.forEach((lineId, defects) -> {
+            if (lineId.startsWith("L-SK-LIGHT")) {
+                assertTrue(defects <= response.getOtherLinesMaxDefects(), lineId);
+            }
+        });
+    }
+
+    // ================== Space-Saving bounds under weighted and negative updates ==================
+    @Test
+    void testSpaceSavingBounds() {
+        Random random = new Random(42);
+        DefectLineSketchEngine.SpaceSaving sketch = new DefectLineSketchEngine.SpaceSaving(8);
+        Map<String, Long> truth = new HashMap<>();
+        for (int i = 0; i < 20_000; i++) {
+            // A few heavy lines among many light ones
+            String lineId = random.nextInt(2) == 0 ? "H-" + random.nextInt(3) : "L-" + random.nextInt(200);
+            long defects = 1 + random.nextInt(5);
+            if (random.nextInt(10) == 0 && truth.getOrDefault(lineId, 0L) >= defects) {
+                defects = -defects;
+            }
+            truth.merge(lineId, defects, Long::sum);
+            sketch.add(lineId, defects);
+        }
+        DefectLineSketchEngine.Estimate estimate = new DefectLineSketchEngine.Estimate();
+        sketch.mergeInto(estimate);
+        ApproximateTopDefectLinesResponse response = estimate.toResponse("F", Instant.EPOCH, Instant.EPOCH, 8);
+        Map<String, ApproximateLineStatsResponse> listed = new HashMap<>();
+        response.getLines().forEach(line -> listed.put(line.getLineId(), line));
+        assertTrue(listed.keySet().containsAll(List.of("H-0", "H-1", "H-2")));
+        truth.forEach((lineId, defects) -> {
+            ApproximateLineStatsResponse line = listed.get(lineId);
+            if (line == null) {
+                assertTrue(defects <= response.getOtherLinesMaxDefects(), lineId);
+            } else {
+                assertTrue(line.getTotalDefects() >= defects, lineId);
+                assertTrue(line.getTotalDefects() - line.getMaxError() <= defects, lineId);
+            }
+        });
+    }
+
+    private Map<String, Long> exact(String factoryId, Instant from, Instant to) {
+        Map<String, Long> defects = new HashMap<>();
+        for (LineStatsResponse line : machineStatsService.getTopDefectLines(factoryId, from, to, Integer.MAX_VALUE)) {
+            defects.put(line.getLineId(), line.getTotalDefects() == null ? 0 : line.getTotalDefects());
+        }
+        return defects;
+    }
+}
@@ -0,0 +1,195 @@
+package com.example.machine_factory.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.example.machine_factory.dto.DurationStatsResponse;
+import com.example.machine_factory.dto.StatsScope;
+import com.example.machine_factory.entity.MachineEvent;
+import com.example.machine_factory.repository.DurationHistogram;
+import com.example.machine_factory.repository.MachineEventRepository;
+
+@SpringBootTest
+class DurationStatsTest {
+
+    @Autowired
+    private MachineEventService machineEventService;
+
+    @Autowired
+    private MachineStatsService machineStatsService;
+
+    @Autowired
+    private MachineEventRepository machineEventRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @BeforeEach
+    void setUp() {
+        machineEventRepository.deleteAll();
+    }
+
+    // ================== Percentiles match the raw durations within a bin ==================
+    @Test
+    void testPercentilesOfMachineLineAndFactory() {
+        Instant base = Instant.now().truncatedTo(ChronoUnit.HOURS).minus(4, ChronoUnit.HOURS);
+        List<MachineEvent> events = new ArrayList<>();
+        List<Integer> machineDurations = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            // Three hours of events, one every ~10.8 seconds, durations up to about 40 s
+            int durationMs = 50 + (i * 7919) % 40_000;
+            Instant eventTime = base.plusMillis(i * 10_800L);
+            String machineId = i % 4 == 0 ? "M-DUR-2" : "M-DUR-1";
+            events.add(new MachineEvent("E-DUR-" + i, eventTime, null, machineId, durationMs, 0,
+                i % 4 == 0 ? "L-DUR-2" : "L-DUR-1", "F-DUR"));
+        }
+        machineEventService.saveBatch(events);
+
+        // Unaligned on both sides, so the edges come from raw rows
+        Instant start = base.plusSeconds(1234);
+        Instant end = base.plusSeconds(3 * 3600 - 777);
+        for (int i = 0; i < events.size(); i++) {
+            MachineEvent event = events.get(i);
+            if (event.getMachineId().equals("M-DUR-1") && !event.getEventTime().isBefore(start)
+                    && event.getEventTime().isBefore(end)) {
+                machineDurations.add(event.getDurationMs());
+            }
+        }
+        assertPercentiles(machineDurations, machineStatsService.getDurationStats("M-DUR-1", null, null, start, end));
+        // Every M-DUR-1 event is on L-DUR-1
+        DurationStatsResponse line = machineStatsService.getDurationStats(null, "L-DUR-1", "F-DUR", start, end);
+        assertEquals(StatsScope.LINE, line.getScope());
+        assertPercentiles(machineDurations, line);
+
+        List<Integer> factoryDurations = events.stream()
+            .filter(e -> !e.getEventTime().isBefore(start) && e.getEventTime().isBefore(end))
+            .map(MachineEvent::getDurationMs)
+            .toList();
+        assertPercentiles(factoryDurations, machineStatsService.getDurationStats(null, null, "F-DUR", start, end));
+
+        // Updates move an event to another bin, and the histograms follow
+        List<MachineEvent> updates = new ArrayList<>();
+        List<Integer> updated = new ArrayList<>();
+        for (int i = 0; i < events.size(); i++) {
+            MachineEvent event = events.get(i);
+            boolean inWindow = !event.getEventTime().isBefore(start) && event.getEventTime().isBefore(end);
+            if (event.getMachineId().equals("M-DUR-1") && i % 3 == 0) {
+                updates.add(new MachineEvent(event.getEventId(), event.getEventTime(), null, "M-DUR-1", 5, 0,
+                    "L-DUR-1", "F-DUR"));
+                if (inWindow) {
+                    updated.add(5);
+                }
+            } else if (event.getMachineId().equals("M-DUR-1") && inWindow) {
+                updated.add(event.getDurationMs());
+            }
+        }
+        machineEventService.saveBatch(updates);
+        assertPercentiles(updated, machineStatsService.getDurationStats("M-DUR-1", null, null, start, end));
+
+        DurationStatsResponse unknown = machineStatsService.getDurationStats("M-DUR-UNKNOWN", null, null, start, end);
+        assertEquals(0, unknown.getEventsCount());
+        assertNull(unknown.getP50());
+
+        ResponseStatusException e = assertThrows(ResponseStatusException.class,
+            () -> machineStatsService.getDurationStats("M-DUR-1", null, "F-DUR", start, end));
+        assertEquals(HttpStatus.BAD_REQUEST, e.getStatusCode());
+    }
+
+    // ================== A delete racing an insert into the same bin keeps both ==================
+    @Test
+    void testDeleteRacingInsertIntoTheSameBin() throws Exception {
+        Instant eventTime = Instant.now().truncatedTo(ChronoUnit.HOURS).minus(2, ChronoUnit.HOURS);
+        machineEventService.saveBatch(List.of(
+            new MachineEvent("E-DUR-RACE-1", eventTime.plusSeconds(10), null, "M-DUR-RACE", 1000, 0, "L-DUR", "F-DUR")));
+
+        // The insert holds the bin's row lock while the delete reaches it
+        CountDownLatch inserted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> insert = executor.submit(() -> transactionTemplate.executeWithoutResult(status -> {
+                machineEventService.saveBatch(List.of(
+                    new MachineEvent("E-DUR-RACE-2", eventTime.plusSeconds(20), null, "M-DUR-RACE", 1000, 0, "L-DUR", "F-DUR")));
+                inserted.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+            assertTrue(inserted.await(10, TimeUnit.SECONDS));
+            Future<?> delete = executor.submit(
+                () -> jdbcTemplate.update("DELETE FROM machine_events WHERE event_id = 'E-DUR-RACE-1'"));
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (jdbcTemplate.queryForObject("SELECT COUNT(*) FROM pg_stat_activity WHERE wait_event_type = 'Lock'"
+                    + " AND query LIKE 'DELETE FROM machine_events%'", Long.class) == 0) {
+                assertTrue(System.currentTimeMillis() < deadline, "delete did not wait for the insert");
+                Thread.sleep(10);
+            }
+            release.countDown();
+            insert.get(10, TimeUnit.SECONDS);
+            delete.get(10, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+
+        DurationStatsResponse stats = machineStatsService.getDurationStats("M-DUR-RACE", null, null,
+            eventTime, eventTime.plus(1, ChronoUnit.HOURS));
+        assertEquals(1, stats.getEventsCount());
+    }
+
+    // ================== Java bins match machine_duration_bin ==================
+    @Test
+    void testBinsMatchDatabase() {
+        int[] durations = { 0, 1, 127, 128, 129, 255, 256, 257, 1000, 4095, 4096, 65_537, 1_000_000, 21_600_000,
+            Integer.MAX_VALUE };
+        for (int durationMs : durations) {
+            int bin = DurationHistogram.bin(durationMs);
+            assertEquals(bin, jdbcTemplate.queryForObject("SELECT machine_duration_bin(?)", Integer.class, durationMs),
+                "bin of " + durationMs);
+            assertTrue(DurationHistogram.lowerBound(bin) <= durationMs && durationMs <= DurationHistogram.upperBound(bin),
+                "bounds of " + durationMs);
+        }
+        for (int bin = 1; bin < DurationHistogram.BINS; bin++) {
+            assertEquals(DurationHistogram.upperBound(bin - 1) + 1, DurationHistogram.lowerBound(bin), "bin " + bin);
+        }
+    }
+
+    private static void assertPercentiles(List<Integer> durations, DurationStatsResponse response) {
+        List<Integer> sorted = durations.stream().sorted().toList();
+        assertEquals(sorted.size(), response.getEventsCount());
+        assertPercentile(sorted, 0.5, response.getP50());
+        assertPercentile(sorted, 0.95, response.getP95());
+        assertPercentile(sorted, 0.99, response.getP99());
+    }
+
+    // Nearest rank, within the half width of its bin
+    private static void assertPercentile(List<Integer> sorted, double quantile, Long reported) {
+        int expected = sorted.get((int) Math.ceil(quantile * sorted.size()) - 1);
+        assertNotNull(reported);
+        assertTrue(Math.abs(reported - expected) <= expected / 128 + 1,
+            "p" + (int) (quantile * 100) + " " + reported + " vs " + expected);
+    }
+}
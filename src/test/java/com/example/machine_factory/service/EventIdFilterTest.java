@@ -0,0 +1,116 @@
+package com.example.machine_factory.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.example.machine_factory.dto.MachineEventsBatchResponse;
+import com.example.machine_factory.entity.MachineEvent;
+import com.example.machine_factory.repository.EventIdFilter;
+import com.example.machine_factory.repository.MachineEventRepository;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+@SpringBootTest
+class EventIdFilterTest {
+
+    @Autowired
+    private MachineEventService machineEventService;
+
+    @Autowired
+    private MachineEventRepository machineEventRepository;
+
+    @Autowired
+    private EventIdFilter eventIdFilter;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        machineEventRepository.deleteAll();
+        eventIdFilter.seed();
+    }
+
+    // ================== Seeding loads the stored IDs ==================
+    @Test
+    void testSeedContainsStoredIds() {
+        Instant eventTime = Instant.now().truncatedTo(ChronoUnit.MICROS).minus(1, ChronoUnit.HOURS);
+        machineEventService.saveBatch(List.of(
+            new MachineEvent("E-FILTER-S1", eventTime, null, "M-001", 1000, 1, "L-01", "F-01"),
+            new MachineEvent("E-FILTER-S2", eventTime, null, "M-001", 1000, 1, "L-01", "F-01")));
+        assertTrue(eventIdFilter.mightContain("E-FILTER-S1"));
+
+        eventIdFilter.seed();
+        assertTrue(eventIdFilter.mightContain("E-FILTER-S1"));
+        assertTrue(eventIdFilter.mightContain("E-FILTER-S2"));
+    }
+
+    // ================== New events take the insert path ==================
+    @Test
+    void testNewEventsSkipTheClaim() {
+        Instant eventTime = Instant.now().truncatedTo(ChronoUnit.MICROS).minus(1, ChronoUnit.HOURS);
+        double newEvents = counter("machine_factory.event_id_filter.new_events");
+
+        MachineEventsBatchResponse response = machineEventService.saveBatch(List.of(
+            new MachineEvent("E-FILTER-N1", eventTime, null, "M-001", 1000, 1, "L-01", "F-01"),
+            new MachineEvent("E-FILTER-N2", eventTime, null, "M-002", 1000, -1, null, "F-01"),
+            new MachineEvent("E-FILTER-N3", eventTime, null, "M-003", 1000, 2, "L-02", "F-02")));
+        assertEquals(3, response.getAccepted());
+        assertEquals(newEvents + 3, counter("machine_factory.event_id_filter.new_events"));
+        assertEquals(3, machineEventRepository.count());
+        // The key carries the hash, so a resend is a duplicate without reading the row
+        assertEquals(0, jdbcTemplate.queryForObject(
+            "SELECT COUNT(*) FROM machine_event_ids WHERE payload_hash IS NULL", Long.class));
+
+        MachineEventsBatchResponse resent = machineEventService.saveBatch(List.of(
+            new MachineEvent("E-FILTER-N1", eventTime, null, "M-001", 1000, 1, "L-01", "F-01"),
+            new MachineEvent("E-FILTER-N2", eventTime, null, "M-002", 1000, 5, null, "F-01")));
+        assertEquals(1, resent.getDeduped());
+        assertEquals(1, resent.getUpdated());
+        assertEquals(newEvents + 3, counter("machine_factory.event_id_filter.new_events"));
+    }
+
+    // ================== An ID the filter missed falls back to the upsert ==================
+    @Test
+    void testIdMissingFromFilterFallsBackToUpsert() {
+        Instant eventTime = Instant.now().truncatedTo(ChronoUnit.MICROS).minus(1, ChronoUnit.HOURS);
+        machineEventService.saveBatch(List.of(
+            new MachineEvent("E-FILTER-A", eventTime, null, "M-001", 1000, 1, "L-01", "F-01")));
+        // Written behind the filter's back, as another instance would
+        jdbcTemplate.update("""
+            INSERT INTO machine_event_ids (event_id, event_time, payload_hash)
+            SELECT 'E-FILTER-B', event_time, payload_hash FROM machine_event_ids WHERE event_id = 'E-FILTER-A'
+            """);
+        jdbcTemplate.update("""
+            INSERT INTO machine_events (event_id, event_time, received_time, machine_key, duration_ms, defect_count, line_key, factory_key)
+            SELECT 'E-FILTER-B', event_time, received_time, machine_key, duration_ms, defect_count, line_key, factory_key
+            FROM machine_events WHERE event_id = 'E-FILTER-A'
+            """);
+        double conflicts = counter("machine_factory.event_id_filter.conflicts");
+
+        MachineEventsBatchResponse response = machineEventService.saveBatch(List.of(
+            new MachineEvent("E-FILTER-B", eventTime, null, "M-001", 1000, 4, "L-01", "F-01"),
+            new MachineEvent("E-FILTER-C", eventTime, null, "M-001", 1000, 1, "L-01", "F-01")));
+        assertEquals(1, response.getUpdated());
+        assertEquals(1, response.getAccepted());
+        assertEquals(conflicts + 1, counter("machine_factory.event_id_filter.conflicts"));
+        assertEquals(4, machineEventRepository.findById("E-FILTER-B").get().getDefectCount());
+        assertTrue(eventIdFilter.mightContain("E-FILTER-C"));
+    }
+
+    private double counter(String name) {
+        return meterRegistry.get(name).functionCounter().count();
+    }
+}
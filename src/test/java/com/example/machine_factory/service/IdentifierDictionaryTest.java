@@ -0,0 +1,101 @@
+package com.example.machine_factory.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.machine_factory.dto.LineStatsResponse;
+import com.example.machine_factory.entity.MachineEvent;
+import com.example.machine_factory.repository.IdentifierDictionary;
+import com.example.machine_factory.repository.MachineEventRepository;
+
+@SpringBootTest
+class IdentifierDictionaryTest {
+
+    @Autowired
+    private MachineEventService machineEventService;
+
+    @Autowired
+    private MachineStatsService machineStatsService;
+
+    @Autowired
+    private MachineEventRepository machineEventRepository;
+
+    @Autowired
+    private IdentifierDictionary identifierDictionary;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        machineEventRepository.deleteAll();
+    }
+
+    // ================== Events store keys, the API still sees the IDs ==================
+    @Test
+    void testEventsAreStoredWithDictionaryKeys() {
+        // Dictionary rows are never deleted, so every run uses fresh IDs
+        String suffix = Long.toString(System.nanoTime());
+        String machineId = "M-DICT-" + suffix;
+        String factoryId = "F-DICT-" + suffix;
+        Instant eventTime = Instant.now().truncatedTo(ChronoUnit.MICROS).minus(1, ChronoUnit.HOURS);
+        machineEventService.saveBatch(List.of(
+            new MachineEvent("E-DICT-1", eventTime, null, machineId, 1000, 2, "L-A-" + suffix, factoryId),
+            new MachineEvent("E-DICT-2", eventTime, null, machineId, 1000, 5, "L-B-" + suffix, factoryId),
+            new MachineEvent("E-DICT-3", eventTime, null, machineId, 1000, 1, "L-A-" + suffix, factoryId)));
+
+        assertEquals(1, jdbcTemplate.queryForObject(
+            "SELECT COUNT(*) FROM machines WHERE machine_id = ?", Long.class, machineId));
+        assertEquals(3, jdbcTemplate.queryForObject("""
+            SELECT COUNT(*) FROM machine_events e JOIN machines m ON m.machine_key = e.machine_key
+            WHERE m.machine_id = ?
+            """, Long.class, machineId));
+
+        MachineEvent saved = machineEventRepository.findById("E-DICT-2").get();
+        assertEquals(machineId, saved.getMachineId());
+        assertEquals("L-B-" + suffix, saved.getLineId());
+        assertEquals(factoryId, saved.getFactoryId());
+
+        List<LineStatsResponse> lines = machineStatsService.getTopDefectLines(factoryId,
+            eventTime.minus(1, ChronoUnit.MINUTES), eventTime.plus(1, ChronoUnit.MINUTES), 10);
+        assertEquals(2, lines.size());
+        assertEquals("L-B-" + suffix, lines.get(0).getLineId());
+        assertEquals(Long.valueOf(5), lines.get(0).getTotalDefects());
+        assertEquals("L-A-" + suffix, lines.get(1).getLineId());
+        assertEquals(2, lines.get(1).getEventCount());
+    }
+
+    // ================== A rolled back key is not cached ==================
+    @Test
+    void testKeyCreatedByRolledBackTransactionIsNotCached() {
+        String machineId = "M-DICT-RB-" + System.nanoTime();
+        Instant eventTime = Instant.now().truncatedTo(ChronoUnit.MICROS).minus(1, ChronoUnit.HOURS);
+        transactionTemplate.executeWithoutResult(status -> {
+            identifierDictionary.resolve(List.of(
+                new MachineEvent("E-DICT-RB", eventTime, null, machineId, 1000, 1, "L-01", "F-01")));
+            assertNotNull(identifierDictionary.key(IdentifierDictionary.Kind.MACHINE, machineId));
+            status.setRollbackOnly();
+        });
+        assertEquals(0, jdbcTemplate.queryForObject(
+            "SELECT COUNT(*) FROM machines WHERE machine_id = ?", Long.class, machineId));
+
+        // Resolved again from scratch, so the stored key matches a committed dictionary row
+        machineEventService.saveBatch(List.of(
+            new MachineEvent("E-DICT-RB", eventTime, null, machineId, 1000, 1, "L-01", "F-01")));
+        assertEquals(1, machineEventRepository.getMachineStats(machineId,
+            eventTime.minus(1, ChronoUnit.HOURS), eventTime.plus(1, ChronoUnit.HOURS)).getEventsCount());
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.machine_factory.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.example.machine_factory.dto.MachineEventsBatchResponse;
+import com.example.machine_factory.entity.MachineEvent;
+import com.example.machine_factory.metrics.MachineFactoryMetrics;
+import com.example.machine_factory.repository.MachineEventRepository;
+
+import tools.jackson.databind.ObjectMapper;
+
+@SpringBootTest
+class MachineEventBinaryCodecTest {
+
+    @Autowired
+    private MachineEventService machineEventService;
+
+    @Autowired
+    private MachineEventRepository machineEventRepository;
+
+    @Autowired
+    private MachineEventBinaryCodec machineEventBinaryCodec;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MachineFactoryMetrics metrics;
+
+    @BeforeEach
+    void setUp() {
+        machineEventRepository.deleteAll();
+    }
+
+    // ================== Round trip keeps every field ==================
+    @Test
+    void testRoundTripKeepsEvents() {
+        Instant eventTime = Instant.parse("2026-01-15T10:00:00.123456Z");
+        List<MachineEvent> events = List.of(
+            new MachineEvent("E-BIN-1", eventTime, null, "M-001", 1000, 2, "L-01", "F-01"),
+            new MachineEvent("E-BIN-2", eventTime.minusSeconds(5), null, "M-002", -5, null, null, "F-01"),
+            new MachineEvent("E-BIN-3", Instant.parse("1969-12-31T23:59:59.5Z"), null, null, 0, -1, "L-01", null),
+            new MachineEvent("E-BIN-4", eventTime.plusNanos(999), null, "M-ü", Integer.MAX_VALUE, 7, "L-01", "F-02"));
+
+        List<MachineEvent> decoded = MachineEventBinaryCodec.decode(MachineEventBinaryCodec.encode(events));
+        assertEquals(events.size(), decoded.size());
+        for (int i = 0; i < events.size(); i++) {
+            MachineEvent expected = events.get(i);
+            MachineEvent actual = decoded.get(i);
+            assertEquals(expected.getEventId(), actual.getEventId());
+            assertEquals(expected.getEventTime().truncatedTo(ChronoUnit.MICROS), actual.getEventTime());
+            assertEquals(expected.getMachineId(), actual.getMachineId());
+            assertEquals(expected.getDurationMs(), actual.getDurationMs());
+            // Unknown is sent as -1, which validation maps back to null
+            assertEquals(expected.getDefectCount() == null ? Integer.valueOf(-1) : expected.getDefectCount(),
+                actual.getDefectCount());
+            assertEquals(expected.getLineId(), actual.getLineId());
+            assertEquals(expected.getFactoryId(), actual.getFactoryId());
+        }
+    }
+
+    // ================== Binary and JSON bodies ingest the same ==================
+    @Test
+    void testBinaryBatchIngestsLikeJson() throws Exception {
+        Instant eventTime = Instant.now().truncatedTo(ChronoUnit.MICROS).minus(1, ChronoUnit.HOURS);
+        List<MachineEvent> events = List.of(
+            new MachineEvent("E-BIN-A", eventTime, null, "M-001", 1000, 1, "L-01", "F-01"),
+            new MachineEvent("E-BIN-A", eventTime, null, "M-001", 1000, 1, "L-01", "F-01"),
+            new MachineEvent("E-BIN-B", eventTime, null, "M-001", -1, 1, "L-01", "F-01"),
+            new MachineEvent("E-BIN-C", eventTime, null, "M-002", 1000, -1, "L-02", "F-01"));
+        byte[] body = MachineEventBinaryCodec.encode(events);
+        assertTrue(body.length < objectMapper.writeValueAsBytes(events).length / 3);
+
+        MachineEventsBatchResponse response = machineEventService.saveBatch(
+            machineEventBinaryCodec.read(new ByteArrayInputStream(body)));
+        assertEquals(2, response.getAccepted());
+        assertEquals(1, response.getRejected());
+        assertEquals(2, machineEventRepository.count());
+        assertNull(machineEventRepository.findById("E-BIN-C").get().getDefectCount());
+        assertEquals(eventTime, machineEventRepository.findById("E-BIN-A").get().getEventTime());
+    }
+
+    @Test
+    void testMalformedBodiesAreRejected() {
+        byte[] body = MachineEventBinaryCodec.encode(List.of(
+            new MachineEvent("E-BIN-X", Instant.now(), null, "M-001", 1000, 1, "L-01", "F-01")));
+        for (byte[] malformed : List.of(
+                "[{\"eventId\": \"E-1\"}]".getBytes(),
+                Arrays.copyOf(body, body.length - 1),
+                Arrays.copyOf(body, body.length + 1))) {
+            ResponseStatusException e = assertThrows(ResponseStatusException.class,
+                () -> machineEventBinaryCodec.read(new ByteArrayInputStream(malformed)));
+            assertEquals(HttpStatus.BAD_REQUEST, e.getStatusCode());
+        }
+        // A count far beyond the body fails before allocating anything
+        byte[] huge = { 'M', 'E', 'V', 1, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x0f, 0 };
+        assertThrows(IllegalArgumentException.class, () -> MachineEventBinaryCodec.decode(huge));
+    }
+
+    @Test
+    void testOversizedBodyIsRejected() throws Exception {
+        byte[] body = MachineEventBinaryCodec.encode(List.of(
+            new MachineEvent("E-BIN-Y", Instant.now(), null, "M-001", 1000, 1, "L-01", "F-01")));
+        MachineEventBinaryCodec limited = new MachineEventBinaryCodec(metrics, DataSize.ofBytes(body.length - 1));
+        ResponseStatusException e = assertThrows(ResponseStatusException.class,
+            () -> limited.read(new ByteArrayInputStream(body)));
+        assertEquals(HttpStatus.CONTENT_TOO_LARGE, e.getStatusCode());
+        assertEquals(1, new MachineEventBinaryCodec(metrics, DataSize.ofBytes(body.length))
+            .read(new ByteArrayInputStream(body)).size());
+    }
+}
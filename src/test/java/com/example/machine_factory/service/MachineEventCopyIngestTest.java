@@ -0,0 +1,74 @@
+package com.example.machine_factory.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import com.example.machine_factory.dto.MachineEventsBatchResponse;
+import com.example.machine_factory.entity.MachineEvent;
+import com.example.machine_factory.repository.MachineEventRepository;
+
+// Every batch goes through the COPY + staging-table merge path
+@SpringBootTest(properties = "machine-factory.ingest.copy-threshold=1")
+class MachineEventCopyIngestTest {
+
+    @Autowired
+    private MachineEventService machineEventService;
+
+    @Autowired
+    private MachineEventRepository machineEventRepository;
+
+    @BeforeEach
+    void setUp() {
+        machineEventRepository.deleteAll();
+    }
+
+    @Test
+    void testCopyPathKeepsDedupeAndUpdateSemantics() {
+        Instant eventTime = Instant.now().truncatedTo(ChronoUnit.MICROS).minus(1, ChronoUnit.HOURS);
+        Instant olderReceivedTime = Instant.now().truncatedTo(ChronoUnit.MICROS).minus(2, ChronoUnit.HOURS);
+
+        MachineEventsBatchResponse first = machineEventService.saveBatch(List.of(
+            new MachineEvent("E-COPY-SAME", eventTime, null, "M-001", 1000, 1, "L-01", "F-01"),
+            new MachineEvent("E-COPY-CHANGED", eventTime, null, "M-001", 1000, 1, "L-01", "F-01"),
+            new MachineEvent("E-COPY-STALE", eventTime, null, "M-001", 1000, 1, "L-01", "F-01")
+        ));
+        assertEquals(3, first.getAccepted());
+
+        MachineEventsBatchResponse second = machineEventService.saveBatch(List.of(
+            new MachineEvent("E-COPY-NEW", eventTime, null, "M-001", 1000, -1, "L-01", "F-01"),
+            new MachineEvent("E-COPY-SAME", eventTime, null, "M-001", 1000, 1, "L-01", "F-01"),
+            new MachineEvent("E-COPY-CHANGED", eventTime, null, "M-001", 1000, 4, "L-01", "F-01"),
+            new MachineEvent("E-COPY-STALE", eventTime, olderReceivedTime, "M-001", 1000, 9, "L-01", "F-01")
+        ));
+
+        assertEquals(1, second.getAccepted());
+        assertEquals(1, second.getDeduped());
+        assertEquals(1, second.getUpdated());
+        assertNull(machineEventRepository.findById("E-COPY-NEW").get().getDefectCount());
+        assertEquals(4, machineEventRepository.findById("E-COPY-CHANGED").get().getDefectCount());
+        assertEquals(1, machineEventRepository.findById("E-COPY-STALE").get().getDefectCount());
+    }
+
+    @Test
+    void testCopyPathEscapesSpecialCharacters() {
+        Instant eventTime = Instant.now().truncatedTo(ChronoUnit.MICROS).minus(1, ChronoUnit.HOURS);
+        String eventId = "E-COPY\t\\N\nESCAPED";
+
+        MachineEventsBatchResponse response = machineEventService.saveBatch(List.of(
+            new MachineEvent(eventId, eventTime, null, "M-\\001", 1000, 2, null, "F-01")
+        ));
+
+        assertEquals(1, response.getAccepted());
+        MachineEvent saved = machineEventRepository.findById(eventId).get();
+        assertEquals("M-\\001", saved.getMachineId());
+        assertNull(saved.getLineId());
+    }
+}
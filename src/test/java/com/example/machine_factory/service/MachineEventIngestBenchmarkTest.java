@@ -0,0 +1,126 @@
+package com.example.machine_factory.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiFunction;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import com.example.machine_factory.dto.MachineEventUpsertResult;
+import com.example.machine_factory.dto.MachineEventsBatchResponse;
+import com.example.machine_factory.dto.UpsertOutcome;
+import com.example.machine_factory.entity.MachineEvent;
+import com.example.machine_factory.repository.MachineEventRepository;
+
+// Run with: ./mvnw test -Pbenchmark -Dtest=MachineEventIngestBenchmarkTest
+@Tag("benchmark")
+@SpringBootTest
+class MachineEventIngestBenchmarkTest {
+    private static final int EVENTS = Integer.getInteger("benchmark.events", 100_000);
+
+    @Autowired
+    private MachineEventRepository machineEventRepository;
+
+    @Autowired
+    private MachineEventService machineEventService;
+
+    @BeforeEach
+    void setUp() {
+        machineEventRepository.deleteAll();
+    }
+
+    @Test
+    void benchmarkArrayUpsertAgainstCopyMerge() {
+        List<MachineEvent> events = generateEvents(EVENTS);
+
+        long upsertInsertMs = timeIngest("array upsert (insert)", events, machineEventRepository::upsertAll);
+        long upsertDedupeMs = timeIngest("array upsert (dedupe)", events, machineEventRepository::upsertAll);
+        machineEventRepository.deleteAllInBatch();
+        long copyInsertMs = timeIngest("COPY merge (insert)", events, machineEventRepository::copyUpsertAll);
+        long copyDedupeMs = timeIngest("COPY merge (dedupe)", events, machineEventRepository::copyUpsertAll);
+
+        System.out.println("========================================");
+        System.out.println("BULK INGEST BENCHMARK RESULTS (" + EVENTS + " events)");
+        System.out.println("========================================");
+        System.out.println("Array upsert, new rows:  " + upsertInsertMs + " ms");
+        System.out.println("Array upsert, resend:    " + upsertDedupeMs + " ms");
+        System.out.println("COPY merge, new rows:    " + copyInsertMs + " ms");
+        System.out.println("COPY merge, resend:      " + copyDedupeMs + " ms");
+        System.out.println("========================================");
+    }
+
+    // One batch through saveBatch at each shard count, on an empty table and resent. Shard counts
+    // above half the pool are capped, so the pool size bounds the last rows.
+    @Test
+    void benchmarkShardedIngest() {
+        List<MachineEvent> events = generateEvents(EVENTS);
+        List<String> rows = new ArrayList<>();
+        for (int shards : new int[] { 1, 2, 4, 8 }) {
+            machineEventRepository.deleteAllInBatch();
+            long insertStart = System.currentTimeMillis();
+            MachineEventsBatchResponse inserted = machineEventService.saveBatch(copy(events), shards);
+            long insertMs = System.currentTimeMillis() - insertStart;
+            assertEquals(events.size(), inserted.getAccepted());
+
+            long resendStart = System.currentTimeMillis();
+            MachineEventsBatchResponse resent = machineEventService.saveBatch(copy(events), shards);
+            long resendMs = System.currentTimeMillis() - resendStart;
+            assertEquals(events.size(), resent.getDeduped());
+            rows.add(String.format("%d shard(s): new rows %6d ms, resend %6d ms", shards, insertMs, resendMs));
+        }
+
+        System.out.println("========================================");
+        System.out.println("SHARDED INGEST BENCHMARK RESULTS (" + EVENTS + " events)");
+        System.out.println("========================================");
+        rows.forEach(System.out::println);
+        System.out.println("========================================");
+    }
+
+    // saveBatch sets receivedTime on the events it writes, so every run gets fresh instances
+    private static List<MachineEvent> copy(List<MachineEvent> events) {
+        List<MachineEvent> copies = new ArrayList<>(events.size());
+        for (MachineEvent event : events) {
+            copies.add(new MachineEvent(event.getEventId(), event.getEventTime(), null, event.getMachineId(),
+                event.getDurationMs(), event.getDefectCount(), event.getLineId(), event.getFactoryId()));
+        }
+        return copies;
+    }
+
+    private long timeIngest(String label, List<MachineEvent> events,
+            BiFunction<List<MachineEvent>, Instant, List<MachineEventUpsertResult>> ingest) {
+        long startTime = System.currentTimeMillis();
+        List<MachineEventUpsertResult> results = ingest.apply(events, Instant.now());
+        long timeTaken = System.currentTimeMillis() - startTime;
+
+        assertEquals(events.size(), results.size(), label);
+        assertTrue(results.stream().allMatch(r -> r.getOutcome() == UpsertOutcome.INSERTED)
+            || results.stream().allMatch(r -> r.getOutcome() == UpsertOutcome.DEDUPED), label);
+        return timeTaken;
+    }
+
+    private static List<MachineEvent> generateEvents(int count) {
+        Instant baseTime = Instant.now().truncatedTo(ChronoUnit.MICROS).minus(1, ChronoUnit.DAYS);
+        List<MachineEvent> events = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            events.add(new MachineEvent(
+                "E-BENCH-" + i,
+                baseTime.plusMillis(i),
+                null,
+                "M-" + (i % 500),
+                1000 + (i % 5000),
+                i % 10,
+                "L-" + (i % 50),
+                "F-0" + (i % 4)
+            ));
+        }
+        return events;
+    }
+}
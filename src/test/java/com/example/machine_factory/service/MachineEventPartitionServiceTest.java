@@ -0,0 +1,143 @@
+package com.example.machine_factory.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.example.machine_factory.dto.MachineEventsBatchResponse;
+import com.example.machine_factory.entity.MachineEvent;
+import com.example.machine_factory.repository.MachineEventPartitionRepository;
+import com.example.machine_factory.repository.MachineEventRepository;
+import com.example.machine_factory.repository.MachineEventRepositoryCustomImpl;
+
+@SpringBootTest
+class MachineEventPartitionServiceTest {
+
+    @Autowired
+    private MachineEventService machineEventService;
+
+    @Autowired
+    private MachineEventPartitionService partitionService;
+
+    @Autowired
+    private MachineEventPartitionRepository partitionRepository;
+
+    @Autowired
+    private MachineEventRepository machineEventRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        machineEventRepository.deleteAll();
+    }
+
+    // ================== Partitions exist from today up to the premade ones ==================
+    @Test
+    void testFuturePartitionsAreCreatedAhead() {
+        partitionService.maintain();
+        List<String> names = partitionService.findPartitions().stream()
+            .map(MachineEventPartitionService.Partition::name).toList();
+        Instant now = Instant.now();
+        assertTrue(names.contains(partitionService.partitionFor(now).name()));
+        assertTrue(names.contains(partitionService.partitionFor(now.plus(7, ChronoUnit.DAYS)).name()));
+    }
+
+    // ================== Stats queries only scan the partitions of their window ==================
+    @Test
+    void testStatsQueriesArePrunedToTheirPartition() {
+        Instant now = Instant.now();
+        MachineEventPartitionService.Partition today = partitionService.partitionFor(now);
+        MachineEventPartitionService.Partition tomorrow = partitionService.partitionFor(now.plus(1, ChronoUnit.DAYS));
+        Instant from = today.from();
+        Instant to = today.from().plus(1, ChronoUnit.HOURS);
+
+        String machinePlan = explain(MachineEventRepositoryCustomImpl.MACHINE_STATS_SQL, "M-P", from, to);
+        String factoryPlan = explain(MachineEventRepositoryCustomImpl.TOP_DEFECT_LINES_SQL, "F-P", from, to, 5);
+        // Raw edges of the rollup query: two ranges in the same partition
+        String edgePlan = explain(MachineEventRepositoryCustomImpl.MACHINE_EDGE_STATS_SQL,
+            "M-P", from, from.plusSeconds(30), to.minusSeconds(30), to);
+
+        for (String plan : List.of(machinePlan, factoryPlan, edgePlan)) {
+            assertTrue(plan.contains(today.name()), plan);
+            assertFalse(plan.contains(tomorrow.name()), plan);
+            assertFalse(plan.contains(MachineEventPartitionRepository.DEFAULT_PARTITION), plan);
+        }
+    }
+
+    // ================== Updates move rows between partitions ==================
+    @Test
+    void testUpdateMovesEventToItsNewPartition() {
+        Instant yesterday = Instant.now().truncatedTo(ChronoUnit.MICROS).minus(1, ChronoUnit.DAYS);
+        Instant today = Instant.now().truncatedTo(ChronoUnit.MICROS).minus(1, ChronoUnit.MINUTES);
+        machineEventService.saveBatch(List.of(new MachineEvent("E-P-MOVE", yesterday, null, "M-P", 1000, 1, "L-01", "F-P")));
+        MachineEventsBatchResponse moved = machineEventService.saveBatch(
+            List.of(new MachineEvent("E-P-MOVE", today, null, "M-P", 1000, 1, "L-01", "F-P")));
+        assertEquals(1, moved.getUpdated());
+
+        assertEquals(1, machineEventRepository.count());
+        assertEquals(partitionService.partitionFor(today).name(), jdbcTemplate.queryForObject(
+            "SELECT tableoid::regclass::text FROM machine_events WHERE event_id = 'E-P-MOVE'", String.class));
+        assertEquals(today, jdbcTemplate.queryForObject(
+            "SELECT event_time FROM machine_event_ids WHERE event_id = 'E-P-MOVE'", OffsetDateTime.class).toInstant());
+
+        // The moved event is still found, and deduped, through its key
+        MachineEventsBatchResponse again = machineEventService.saveBatch(
+            List.of(new MachineEvent("E-P-MOVE", today, null, "M-P", 1000, 1, "L-01", "F-P")));
+        assertEquals(1, again.getDeduped());
+    }
+
+    // ================== Expired partitions are dropped with their keys and rollup ==================
+    @Test
+    void testExpiredPartitionIsDroppedWithKeysAndRollup() {
+        Instant old = Instant.now().minus(400, ChronoUnit.DAYS);
+        MachineEventPartitionService.Partition partition = partitionService.partitionFor(old);
+        if (!partitionRepository.findPartitionNames().contains(partition.name())) {
+            partitionRepository.createPartition(partition.name(), partition.from(), partition.to());
+        }
+        machineEventService.saveBatch(List.of(new MachineEvent("E-P-OLD", old, null, "M-P-OLD", 1000, 3, "L-01", "F-P")));
+        assertEquals(1, countRollupEvents("M-P-OLD"));
+        assertEquals(1, countHistogramBins("M-P-OLD"));
+
+        partitionService.maintain();
+
+        assertFalse(partitionRepository.findPartitionNames().contains(partition.name()));
+        assertEquals(0, machineEventRepository.count());
+        assertEquals(0, countRollupEvents("M-P-OLD"));
+        assertEquals(0, jdbcTemplate.queryForObject(
+            "SELECT COUNT(*) FROM machine_event_ids WHERE event_id = 'E-P-OLD'", Long.class));
+        // The emptied duration bin is pruned, not left at 0
+        assertEquals(0, countHistogramBins("M-P-OLD"));
+    }
+
+    private long countRollupEvents(String machineId) {
+        return jdbcTemplate.queryForObject(
+            "SELECT COALESCE(SUM(r.events_count), 0) FROM machine_stats_rollup r"
+                + " JOIN machines m ON m.machine_key = r.machine_key WHERE m.machine_id = ?", Long.class, machineId);
+    }
+
+    private long countHistogramBins(String machineId) {
+        return jdbcTemplate.queryForObject(
+            "SELECT COUNT(*) FROM machine_duration_histograms h"
+                + " JOIN machines m ON m.machine_key = h.machine_key WHERE m.machine_id = ?", Long.class, machineId);
+    }
+
+    private String explain(String sql, Object... args) {
+        Object[] params = new Object[args.length];
+        for (int i = 0; i < args.length; i++) {
+            params[i] = args[i] instanceof Instant instant ? instant.atOffset(ZoneOffset.UTC) : args[i];
+        }
+        return String.join("\n", jdbcTemplate.queryForList("EXPLAIN (COSTS OFF) " + sql, String.class, params));
+    }
+}
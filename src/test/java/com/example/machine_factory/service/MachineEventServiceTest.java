@@ -5,7 +5,9 @@ import static org.junit.jupiter.api.Assertions.*;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
@@ -17,13 +19,17 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import com.example.machine_factory.dto.MachineEventsBatchResponse;
 import com.example.machine_factory.dto.MachineStatsResponse;
 import com.example.machine_factory.dto.RejectionReason;
+import com.example.machine_factory.dto.UpsertOutcome;
 import com.example.machine_factory.entity.MachineEvent;
 import com.example.machine_factory.repository.MachineEventRepository;
 
+import io.micrometer.core.instrument.MeterRegistry;
+
 @SpringBootTest
 class MachineEventServiceTest {
 
@@ -36,6 +42,12 @@ class MachineEventServiceTest {
     @Autowired
     private MachineEventRepository machineEventRepository;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
     @BeforeEach
     void setUp() {
         machineEventRepository.deleteAll();
@@ -384,6 +396,38 @@ class MachineEventServiceTest {
         assertNull(valid3.get().getDefectCount());
     }
 
+    // ================== Test: Set-based upsert classifies a mixed batch exactly ==================
+    @Test
+    void testUpsertClassifiesMixedBatchExactly() {
+        Instant eventTime = Instant.now().truncatedTo(ChronoUnit.MICROS).minus(1, ChronoUnit.HOURS);
+        Instant olderReceivedTime = Instant.now().truncatedTo(ChronoUnit.MICROS).minus(2, ChronoUnit.HOURS);
+
+        machineEventService.saveBatch(List.of(
+            new MachineEvent("E-MIX-SAME", eventTime, null, "M-001", 1000, 1, "L-01", "F-01"),
+            new MachineEvent("E-MIX-CHANGED", eventTime, null, "M-001", 1000, 1, "L-01", "F-01"),
+            new MachineEvent("E-MIX-STALE", eventTime, null, "M-001", 1000, 1, "L-01", "F-01")
+        ));
+
+        MachineEventsBatchResponse response = machineEventService.saveBatch(List.of(
+            new MachineEvent("E-MIX-NEW", eventTime, null, "M-001", 1000, 1, "L-01", "F-01"),
+            new MachineEvent("E-MIX-SAME", eventTime, null, "M-001", 1000, 1, "L-01", "F-01"),
+            new MachineEvent("E-MIX-CHANGED", eventTime, null, "M-001", 1000, 7, "L-01", "F-01"),
+            new MachineEvent("E-MIX-STALE", eventTime, olderReceivedTime, "M-001", 1000, 9, "L-01", "F-01"),
+            // Repeated eventId inside one batch - first occurrence wins
+            new MachineEvent("E-MIX-NEW", eventTime, null, "M-001", 5000, 3, "L-01", "F-01")
+        ));
+
+        assertEquals(1, response.getAccepted());
+        assertEquals(1, response.getDeduped());
+        assertEquals(1, response.getUpdated());
+        assertEquals(0, response.getRejected());
+
+        assertEquals(1000, machineEventRepository.findById("E-MIX-NEW").get().getDurationMs());
+        assertEquals(7, machineEventRepository.findById("E-MIX-CHANGED").get().getDefectCount());
+        assertEquals(1, machineEventRepository.findById("E-MIX-STALE").get().getDefectCount());
+        assertEquals(4, machineEventRepository.count());
+    }
+
     // ================== PERFORMANCE TEST: 1000 events in under 1 second ==================
     @Test
     void testPerformance1000EventsUnder1Second() {
@@ -491,4 +535,83 @@ class MachineEventServiceTest {
         assertEquals(0, response.getRejected());
         assertEquals(1, machineEventRepository.count());
     }
+
+    // ================== Test: Ingest metrics count outcomes, rejections and stages ==================
+    @Test
+    void testIngestMetricsAreRecorded() {
+        Instant eventTime = Instant.now().truncatedTo(ChronoUnit.MICROS).minus(1, ChronoUnit.HOURS);
+        double inserted = counter("machine_factory.ingest.events", "outcome", "inserted");
+        double deduped = counter("machine_factory.ingest.events", "outcome", "deduped");
+        double invalidDuration = counter("machine_factory.ingest.rejected", "reason", RejectionReason.INVALID_DURATION.name());
+        long batches = meterRegistry.get("machine_factory.ingest.batch.size").summary().count();
+        long upserts = meterRegistry.get("machine_factory.ingest.stage").tag("stage", "upsert").timer().count();
+
+        machineEventService.saveBatch(List.of(
+            new MachineEvent("E-METRICS-1", eventTime, null, "M-001", 1000, 1, "L-01", "F-01"),
+            new MachineEvent("E-METRICS-2", eventTime, null, "M-001", -1, 1, "L-01", "F-01")));
+        machineEventService.saveBatch(List.of(
+            new MachineEvent("E-METRICS-1", eventTime, null, "M-001", 1000, 1, "L-01", "F-01")));
+
+        assertEquals(inserted + 1, counter("machine_factory.ingest.events", "outcome", "inserted"));
+        assertEquals(deduped + 1, counter("machine_factory.ingest.events", "outcome", "deduped"));
+        assertEquals(invalidDuration + 1,
+            counter("machine_factory.ingest.rejected", "reason", RejectionReason.INVALID_DURATION.name()));
+        assertEquals(batches + 2, meterRegistry.get("machine_factory.ingest.batch.size").summary().count());
+        assertEquals(upserts + 2, meterRegistry.get("machine_factory.ingest.stage").tag("stage", "upsert").timer().count());
+    }
+
+    // ================== Test: A rolled back upsert is not counted ==================
+    @Test
+    void testRolledBackUpsertIsNotCounted() {
+        Instant eventTime = Instant.now().truncatedTo(ChronoUnit.MICROS).minus(1, ChronoUnit.HOURS);
+        double inserted = counter("machine_factory.ingest.events", "outcome", "inserted");
+        long upserts = meterRegistry.get("machine_factory.ingest.stage").tag("stage", "upsert").timer().count();
+        Map<String, MachineEvent> events = new LinkedHashMap<>();
+        events.put("E-RETRY-1", new MachineEvent("E-RETRY-1", eventTime, null, "M-001", 1000, 1, "L-01", "F-01"));
+
+        // As when a shard loses a deadlock and is applied again
+        transactionTemplate.executeWithoutResult(status -> {
+            machineEventService.upsertValidEvents(events, Instant.now());
+            status.setRollbackOnly();
+        });
+        assertEquals(inserted, counter("machine_factory.ingest.events", "outcome", "inserted"));
+        assertEquals(upserts, meterRegistry.get("machine_factory.ingest.stage").tag("stage", "upsert").timer().count());
+
+        transactionTemplate.executeWithoutResult(status -> machineEventService.upsertValidEvents(events, Instant.now()));
+        assertEquals(inserted + 1, counter("machine_factory.ingest.events", "outcome", "inserted"));
+        assertEquals(upserts + 1, meterRegistry.get("machine_factory.ingest.stage").tag("stage", "upsert").timer().count());
+        assertEquals(1, machineEventRepository.count());
+    }
+
+    // ================== Test: A retried upsert keeps the receivedTime the event claimed ==================
+    @Test
+    void testRetriedUpsertIgnoresStaleClaim() {
+        Instant eventTime = Instant.now().truncatedTo(ChronoUnit.MICROS).minus(1, ChronoUnit.HOURS);
+        Instant stored = Instant.now().truncatedTo(ChronoUnit.MICROS).minus(10, ChronoUnit.MINUTES);
+        transactionTemplate.executeWithoutResult(status -> machineEventService.upsertValidEvents(
+            Map.of("E-CLAIM-1", new MachineEvent("E-CLAIM-1", eventTime, null, "M-001", 1000, 1, "L-01", "F-01")),
+            stored));
+
+        // Claims the stored receivedTime, so it updates the row on the first attempt
+        MachineEvent claimed = new MachineEvent("E-CLAIM-1", eventTime, stored, "M-001", 1000, 5, "L-01", "F-01");
+        Map<String, MachineEvent> events = Map.of("E-CLAIM-1", claimed);
+        transactionTemplate.executeWithoutResult(status -> {
+            assertEquals(UpsertOutcome.UPDATED,
+                machineEventService.upsertValidEvents(events, stored.plusSeconds(60)).get(0).getOutcome());
+            status.setRollbackOnly();
+        });
+        // A newer write commits before the retry
+        transactionTemplate.executeWithoutResult(status -> machineEventService.upsertValidEvents(
+            Map.of("E-CLAIM-1", new MachineEvent("E-CLAIM-1", eventTime, null, "M-001", 1000, 7, "L-01", "F-01")),
+            stored.plusSeconds(30)));
+
+        assertEquals(stored, claimed.getReceivedTime());
+        transactionTemplate.executeWithoutResult(status -> assertEquals(UpsertOutcome.IGNORED,
+            machineEventService.upsertValidEvents(events, stored.plusSeconds(90)).get(0).getOutcome()));
+        assertEquals(7, machineEventRepository.findById("E-CLAIM-1").get().getDefectCount());
+    }
+
+    private double counter(String name, String tag, String value) {
+        return meterRegistry.get(name).tag(tag, value).counter().count();
+    }
 }
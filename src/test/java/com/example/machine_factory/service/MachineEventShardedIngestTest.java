@@ -0,0 +1,90 @@
+package com.example.machine_factory.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.machine_factory.dto.MachineEventsBatchResponse;
+import com.example.machine_factory.entity.MachineEvent;
+import com.example.machine_factory.repository.MachineEventRepository;
+
+// Every batch is split into four shards written on separate connections
+@SpringBootTest(properties = {
+    "machine-factory.ingest.parallel.shards=4",
+    "machine-factory.ingest.parallel.threshold=1"
+})
+class MachineEventShardedIngestTest {
+
+    @Autowired
+    private MachineEventService machineEventService;
+
+    @Autowired
+    private MachineEventRepository machineEventRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        machineEventRepository.deleteAll();
+    }
+
+    @Test
+    void testShardedBatchKeepsDedupeAndUpdateSemantics() {
+        Instant eventTime = Instant.now().truncatedTo(ChronoUnit.MICROS).minus(1, ChronoUnit.HOURS);
+        List<MachineEvent> first = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            first.add(new MachineEvent("E-SHARD-" + i, eventTime.plusMillis(i), null, "M-" + (i % 7), 1000, 1, "L-01", "F-01"));
+        }
+        // Duplicate within the batch: the first occurrence wins, whichever shard it lands in
+        first.add(new MachineEvent("E-SHARD-0", eventTime, null, "M-0", 1000, 9, "L-01", "F-01"));
+        first.add(new MachineEvent("E-SHARD-INVALID", eventTime, null, "M-0", -1, 1, "L-01", "F-01"));
+
+        MachineEventsBatchResponse inserted = machineEventService.saveBatch(first);
+        assertEquals(1000, inserted.getAccepted());
+        assertEquals(1, inserted.getRejected());
+        assertEquals(1000, machineEventRepository.count());
+        assertEquals(1, machineEventRepository.findById("E-SHARD-0").get().getDefectCount());
+
+        List<MachineEvent> second = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            second.add(new MachineEvent("E-SHARD-" + i, eventTime.plusMillis(i), null, "M-" + (i % 7), 1000,
+                i % 4 == 0 ? 2 : 1, "L-01", "F-01"));
+        }
+        second.add(new MachineEvent("E-SHARD-NEW", eventTime, null, "M-0", 1000, 1, "L-01", "F-01"));
+
+        MachineEventsBatchResponse resent = machineEventService.saveBatch(second);
+        assertEquals(1, resent.getAccepted());
+        assertEquals(250, resent.getUpdated());
+        assertEquals(750, resent.getDeduped());
+        // The rollup triggers of all shards add up to the rows
+        assertEquals(1251, jdbcTemplate.queryForObject("SELECT SUM(defect_count) FROM machine_events", Long.class));
+        assertEquals(1251, jdbcTemplate.queryForObject("SELECT SUM(defects_sum) FROM machine_stats_rollup", Long.class));
+    }
+
+    @Test
+    void testBatchInsideCallerTransactionIsNotSharded() {
+        Instant eventTime = Instant.now().truncatedTo(ChronoUnit.MICROS).minus(1, ChronoUnit.HOURS);
+        transactionTemplate.executeWithoutResult(status -> {
+            machineEventService.saveBatch(List.of(
+                new MachineEvent("E-SHARD-TX-1", eventTime, null, "M-001", 1000, 1, "L-01", "F-01"),
+                new MachineEvent("E-SHARD-TX-2", eventTime, null, "M-001", 1000, 1, "L-01", "F-01")));
+            status.setRollbackOnly();
+        });
+        // Both shards would have committed on their own connections
+        assertEquals(0, machineEventRepository.count());
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.machine_factory.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import com.example.machine_factory.dto.MachineEventsChunkSummary;
+import com.example.machine_factory.dto.MachineEventsStreamResponse;
+import com.example.machine_factory.repository.MachineEventRepository;
+
+@SpringBootTest(properties = { "machine-factory.ingest.stream-chunk-size=2",
+    "machine-factory.ingest.stream-max-rejections=2" })
+class MachineEventStreamServiceTest {
+
+    @Autowired
+    private MachineEventStreamService machineEventStreamService;
+
+    @Autowired
+    private MachineEventRepository machineEventRepository;
+
+    @BeforeEach
+    void setUp() {
+        machineEventRepository.deleteAll();
+    }
+
+    @Test
+    void testNdjsonIsCommittedInChunks() {
+        Instant eventTime = Instant.now().truncatedTo(ChronoUnit.MICROS).minus(1, ChronoUnit.HOURS);
+        String body = event("E-S-1", eventTime, 1000) + "\n"
+            + event("E-S-2", eventTime, 1000) + "\n"
+            + event("E-S-3", eventTime, -5) + "\n"
+            + event("E-S-1", eventTime, 1000) + "\n"
+            + event("E-S-4", eventTime, 1000) + "\n";
+
+        List<MachineEventsChunkSummary> chunks = new ArrayList<>();
+        MachineEventsStreamResponse response = machineEventStreamService.ingest(stream(body), chunks::add);
+
+        assertEquals(3, chunks.size());
+        assertEquals(3, response.getChunks());
+        assertEquals(2, chunks.get(0).getAccepted());
+        assertEquals(1, chunks.get(1).getRejected());
+        assertEquals("E-S-3", chunks.get(1).getRejections().get(0).getEventId());
+        assertEquals(1, chunks.get(1).getDeduped());
+        assertEquals(1, chunks.get(2).getEvents());
+        assertEquals(3, response.getAccepted());
+        assertEquals(1, response.getDeduped());
+        assertEquals(1, response.getRejected());
+        assertEquals("E-S-3", response.getRejections().get(0).getEventId());
+        assertNull(response.getError());
+        assertEquals(3, machineEventRepository.count());
+    }
+
+    @Test
+    void testJsonArrayIsAccepted() {
+        Instant eventTime = Instant.now().truncatedTo(ChronoUnit.MICROS).minus(1, ChronoUnit.HOURS);
+        String body = "[" + event("E-A-1", eventTime, 1000) + "," + event("E-A-2", eventTime, 1000) + ","
+            + event("E-A-3", eventTime, 1000) + "]";
+
+        MachineEventsStreamResponse response = machineEventStreamService.ingest(stream(body), chunk -> {
+        });
+
+        assertEquals(2, response.getChunks());
+        assertEquals(3, response.getAccepted());
+        assertEquals(3, machineEventRepository.count());
+    }
+
+    @Test
+    void testMalformedEventKeepsEarlierChunks() {
+        Instant eventTime = Instant.now().truncatedTo(ChronoUnit.MICROS).minus(1, ChronoUnit.HOURS);
+        String body = event("E-M-1", eventTime, 1000) + "\n" + event("E-M-2", eventTime, 1000) + "\n"
+            + event("E-M-3", eventTime, 1000) + "\n{\"eventId\":";
+
+        List<MachineEventsChunkSummary> chunks = new ArrayList<>();
+        MachineEventsStreamResponse response = machineEventStreamService.ingest(stream(body), chunks::add);
+
+        // The committed chunk is reported with the error; E-M-3 was not committed
+        assertEquals(1, chunks.size());
+        assertEquals(1, response.getChunks());
+        assertEquals(2, response.getAccepted());
+        assertTrue(response.getError().startsWith("Malformed event after chunk 1"), response.getError());
+        assertEquals(2, machineEventRepository.count());
+    }
+
+    // ================== Rejections past the cap are counted but not kept ==================
+    @Test
+    void testRetainedRejectionsAreCapped() {
+        Instant eventTime = Instant.now().truncatedTo(ChronoUnit.MICROS).minus(1, ChronoUnit.HOURS);
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 5; i++) {
+            body.append(event("E-R-" + i, eventTime, -1)).append('\n');
+        }
+
+        List<MachineEventsChunkSummary> chunks = new ArrayList<>();
+        MachineEventsStreamResponse response = machineEventStreamService.ingest(stream(body.toString()), chunks::add);
+
+        assertEquals(5, response.getRejected());
+        assertEquals(2, response.getRejections().size());
+        assertEquals("E-R-0", response.getRejections().get(0).getEventId());
+        assertEquals("E-R-4", chunks.get(2).getRejections().get(0).getEventId());
+        assertEquals(0, machineEventRepository.count());
+    }
+
+    private static String event(String eventId, Instant eventTime, int durationMs) {
+        return "{\"eventId\":\"" + eventId + "\",\"eventTime\":\"" + eventTime + "\",\"machineId\":\"M-001\","
+            + "\"durationMs\":" + durationMs + ",\"defectCount\":1,\"lineId\":\"L-01\",\"factoryId\":\"F-01\"}";
+    }
+
+    private static ByteArrayInputStream stream(String body) {
+        return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,195 @@
+package com.example.machine_factory.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.machine_factory.dto.IngestTicketStatus;
+import com.example.machine_factory.dto.MachineEventsTicketResponse;
+import com.example.machine_factory.dto.RejectionReason;
+import com.example.machine_factory.entity.MachineEvent;
+import com.example.machine_factory.event.MachineEventsChangedEvent;
+import com.example.machine_factory.repository.MachineEventRepository;
+
+@SpringBootTest(properties = "machine-factory.ingest.async.max-flush-delay=200ms")
+class MachineEventWriteBehindServiceTest {
+
+    @Autowired
+    private MachineEventWriteBehindService machineEventWriteBehindService;
+
+    @Autowired
+    private MachineEventRepository machineEventRepository;
+
+    @Autowired
+    private MachineEventService machineEventService;
+
+    @Autowired
+    private LockFailureInjector lockFailureInjector;
+
+    // Fails the first flush that writes the armed eventId with a lock failure, and commits a newer
+    // write of that event once the flush has rolled back, as a concurrent request would
+    @TestConfiguration
+    static class LockFailureConfig {
+        @Bean
+        LockFailureInjector lockFailureInjector(MachineEventService machineEventService,
+                PlatformTransactionManager transactionManager) {
+            return new LockFailureInjector(machineEventService, transactionManager);
+        }
+    }
+
+    static class LockFailureInjector {
+        private final MachineEventService machineEventService;
+        private final TransactionTemplate newTransaction;
+        private final AtomicBoolean armed = new AtomicBoolean();
+        private volatile MachineEvent newerWrite;
+
+        LockFailureInjector(MachineEventService machineEventService, PlatformTransactionManager transactionManager) {
+            this.machineEventService = machineEventService;
+            this.newTransaction = new TransactionTemplate(transactionManager);
+            newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        }
+
+        void arm(MachineEvent newerWrite) {
+            this.newerWrite = newerWrite;
+            armed.set(true);
+        }
+
+        @EventListener
+        public void onMachineEventsChanged(MachineEventsChangedEvent event) {
+            MachineEvent written = event.getChanges().get(0).getCurrent();
+            if (!written.getEventId().equals(newerWrite == null ? null : newerWrite.getEventId())
+                    || !armed.compareAndSet(true, false)) {
+                return;
+            }
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    // Stored just before the failed attempt's write time
+                    newTransaction.executeWithoutResult(tx -> machineEventService.upsertValidEvents(
+                        Map.of(newerWrite.getEventId(), newerWrite), written.getReceivedTime().minusMillis(1)));
+                }
+            });
+            throw new CannotAcquireLockException("Injected lock failure");
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        machineEventRepository.deleteAll();
+    }
+
+    @Test
+    void testRequestsAreGroupCommittedWithExactTicketCounts() throws InterruptedException {
+        Instant eventTime = Instant.now().truncatedTo(ChronoUnit.MICROS).minus(1, ChronoUnit.HOURS);
+
+        MachineEventsTicketResponse first = machineEventWriteBehindService.submit(List.of(
+            new MachineEvent("E-WB-1", eventTime, null, "M-001", 1000, 1, "L-01", "F-01"),
+            new MachineEvent("E-WB-2", eventTime, null, "M-001", 1000, 1, "L-01", "F-01"),
+            new MachineEvent("E-WB-BAD", eventTime, null, "M-001", -1, 1, "L-01", "F-01")
+        ));
+        // Same eventIds again from a second request landing in the same flush window
+        MachineEventsTicketResponse second = machineEventWriteBehindService.submit(List.of(
+            new MachineEvent("E-WB-1", eventTime, null, "M-001", 1000, 1, "L-01", "F-01"),
+            new MachineEvent("E-WB-2", eventTime, null, "M-001", 1000, 6, "L-01", "F-01")
+        ));
+
+        // Rejections are reported before anything is written
+        assertEquals(IngestTicketStatus.PENDING, first.getStatus());
+        assertEquals(1, first.getRejected());
+        assertEquals(RejectionReason.INVALID_DURATION, first.getRejections().get(0).getReason());
+
+        MachineEventsTicketResponse firstDone = awaitCompletion(first.getTicketId());
+        MachineEventsTicketResponse secondDone = awaitCompletion(second.getTicketId());
+
+        assertEquals(2, firstDone.getAccepted());
+        assertEquals(1, firstDone.getRejected());
+        assertEquals(1, secondDone.getDeduped());
+        assertEquals(1, secondDone.getUpdated());
+        assertEquals(6, machineEventRepository.findById("E-WB-2").get().getDefectCount());
+        assertEquals(2, machineEventRepository.count());
+    }
+
+    // ================== A request the database rejects fails alone ==================
+    @Test
+    void testFailingRequestDoesNotFailTheRestOfItsGroup() throws InterruptedException {
+        Instant eventTime = Instant.now().truncatedTo(ChronoUnit.MICROS).minus(1, ChronoUnit.HOURS);
+
+        MachineEventsTicketResponse before = machineEventWriteBehindService.submit(List.of(
+            new MachineEvent("E-WB-OK-1", eventTime, null, "M-001", 1000, 1, "L-01", "F-01"),
+            new MachineEvent("E-WB-OK-2", eventTime, null, "M-001", 1000, 1, "L-01", "F-01")));
+        // Valid for the service, but PostgreSQL text cannot hold a NUL character
+        MachineEventsTicketResponse bad = machineEventWriteBehindService.submit(List.of(
+            new MachineEvent("E-WB-NUL-1", eventTime, null, "M-001", 1000, 1, "L-01", "F-01"),
+            new MachineEvent("E-WB-NUL-\u0000", eventTime, null, "M-001", 1000, 1, "L-01", "F-01")));
+        MachineEventsTicketResponse after = machineEventWriteBehindService.submit(List.of(
+            new MachineEvent("E-WB-OK-2", eventTime, null, "M-001", 1000, 4, "L-01", "F-01"),
+            new MachineEvent("E-WB-OK-3", eventTime, null, "M-001", 1000, 1, "L-01", "F-01")));
+
+        assertEquals(2, awaitCompletion(before.getTicketId()).getAccepted());
+        MachineEventsTicketResponse afterDone = awaitCompletion(after.getTicketId());
+        assertEquals(1, afterDone.getAccepted());
+        assertEquals(1, afterDone.getUpdated());
+        MachineEventsTicketResponse badDone = await(bad.getTicketId());
+        assertEquals(IngestTicketStatus.FAILED, badDone.getStatus());
+        // The SQL of the failed statement stays in the log
+        assertTrue(badDone.getError().startsWith("Write failed: "), badDone.getError());
+        assertFalse(badDone.getError().contains("machine_events"), badDone.getError());
+        assertEquals(0, badDone.getAccepted());
+
+        assertEquals(4, machineEventRepository.findById("E-WB-OK-2").get().getDefectCount());
+        assertFalse(machineEventRepository.existsById("E-WB-NUL-1"));
+        assertEquals(3, machineEventRepository.count());
+    }
+
+    // ================== A retried flush keeps the receivedTime each event claimed ==================
+    @Test
+    void testRetriedFlushIgnoresStaleClaim() throws InterruptedException {
+        Instant eventTime = Instant.now().truncatedTo(ChronoUnit.MICROS).minus(1, ChronoUnit.HOURS);
+        machineEventService.saveBatch(List.of(
+            new MachineEvent("E-WB-CLAIM", eventTime, null, "M-001", 1000, 1, "L-01", "F-01")));
+        Instant stored = machineEventRepository.findById("E-WB-CLAIM").get().getReceivedTime();
+        lockFailureInjector.arm(new MachineEvent("E-WB-CLAIM", eventTime, null, "M-001", 1000, 7, "L-01", "F-01"));
+
+        // Updates the row on the first attempt, but the newer write lands before the retry
+        MachineEventsTicketResponse ticket = machineEventWriteBehindService.submit(List.of(
+            new MachineEvent("E-WB-CLAIM", eventTime, stored, "M-001", 1000, 5, "L-01", "F-01")));
+
+        MachineEventsTicketResponse done = awaitCompletion(ticket.getTicketId());
+        assertEquals(0, done.getUpdated());
+        assertEquals(7, machineEventRepository.findById("E-WB-CLAIM").get().getDefectCount());
+    }
+
+    private MachineEventsTicketResponse awaitCompletion(String ticketId) throws InterruptedException {
+        MachineEventsTicketResponse ticket = await(ticketId);
+        assertEquals(IngestTicketStatus.COMPLETED, ticket.getStatus(), "Ticket " + ticketId + " did not complete");
+        return ticket;
+    }
+
+    private MachineEventsTicketResponse await(String ticketId) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        MachineEventsTicketResponse ticket = machineEventWriteBehindService.getTicket(ticketId);
+        while (ticket.getStatus() == IngestTicketStatus.PENDING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+            ticket = machineEventWriteBehindService.getTicket(ticketId);
+        }
+        return ticket;
+    }
+}
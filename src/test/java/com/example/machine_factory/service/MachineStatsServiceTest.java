@@ -0,0 +1,305 @@
+package com.example.machine_factory.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.example.machine_factory.dto.MachineStatsBulkRequest;
+import com.example.machine_factory.dto.MachineStatsQueryResult;
+import com.example.machine_factory.dto.MachineStatsResponse;
+import com.example.machine_factory.dto.StatsBucketResponse;
+import com.example.machine_factory.dto.StatsScope;
+import com.example.machine_factory.dto.StatsTimeseriesResponse;
+import com.example.machine_factory.entity.MachineEvent;
+import com.example.machine_factory.repository.MachineEventRepository;
+
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.ObjectMapper;
+
+@SpringBootTest
+class MachineStatsServiceTest {
+
+    @Autowired
+    private MachineEventService machineEventService;
+
+    @Autowired
+    private MachineStatsService machineStatsService;
+
+    @Autowired
+    private MachineEventRepository machineEventRepository;
+
+    @Autowired
+    private RecentMachineStatsEngine recentMachineStatsEngine;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @BeforeEach
+    void setUp() {
+        machineEventRepository.deleteAll();
+        recentMachineStatsEngine.seed();
+    }
+
+    // ================== Rollup + raw edges match a raw scan ==================
+    @Test
+    void testRollupStatsMatchRawScanForUnalignedWindows() {
+        Instant base = Instant.parse("2026-01-15T10:00:00Z");
+        machineEventService.saveBatch(List.of(
+            new MachineEvent("E-R-1", base.plusSeconds(10), null, "M-R", 1000, 1, "L-01", "F-01"),
+            new MachineEvent("E-R-2", base.plusSeconds(70), null, "M-R", 1000, 2, "L-01", "F-01"),
+            new MachineEvent("E-R-3", base.plusSeconds(130), null, "M-R", 1000, -1, "L-01", "F-01"),
+            new MachineEvent("E-R-4", base.plusSeconds(3599), null, "M-R", 1000, 4, "L-01", "F-01"),
+            new MachineEvent("E-R-5", base.plusSeconds(3600), null, "M-R", 1000, 8, "L-01", "F-01"),
+            new MachineEvent("E-R-OTHER", base.plusSeconds(70), null, "M-OTHER", 1000, 16, "L-01", "F-01")
+        ));
+
+        assertStatsMatchRawScan("M-R", base, base.plus(1, ChronoUnit.HOURS));
+        assertStatsMatchRawScan("M-R", base.plusSeconds(30), base.plusSeconds(3599));
+        assertStatsMatchRawScan("M-R", base.plusSeconds(5), base.plusSeconds(3601));
+        assertStatsMatchRawScan("M-R", base.plusSeconds(11), base.plusSeconds(50));
+
+        MachineStatsResponse stats = machineStatsService.getMachineStats("M-R", base, base.plus(2, ChronoUnit.HOURS));
+        assertEquals(5, stats.getEventsCount());
+        assertEquals(15, stats.getDefectsCount());
+    }
+
+    // ================== Updates move counts between buckets and machines ==================
+    @Test
+    void testRollupFollowsUpdatesAndDeletes() {
+        Instant base = Instant.parse("2026-01-15T10:00:00Z");
+        machineEventService.saveBatch(List.of(
+            new MachineEvent("E-U-1", base.plusSeconds(10), null, "M-U", 1000, 3, "L-01", "F-01"),
+            new MachineEvent("E-U-2", base.plusSeconds(20), null, "M-U", 1000, -1, "L-01", "F-01")
+        ));
+
+        // E-U-1 moves to another machine and minute, E-U-2 gets a known defect count
+        machineEventService.saveBatch(List.of(
+            new MachineEvent("E-U-1", base.plusSeconds(600), null, "M-U2", 1000, 5, "L-01", "F-01"),
+            new MachineEvent("E-U-2", base.plusSeconds(20), null, "M-U", 1000, 7, "L-01", "F-01")
+        ));
+
+        Instant end = base.plus(1, ChronoUnit.HOURS);
+        MachineStatsResponse first = machineStatsService.getMachineStats("M-U", base, end);
+        assertEquals(1, first.getEventsCount());
+        assertEquals(7, first.getDefectsCount());
+        MachineStatsResponse second = machineStatsService.getMachineStats("M-U2", base, end);
+        assertEquals(1, second.getEventsCount());
+        assertEquals(5, second.getDefectsCount());
+
+        machineEventRepository.deleteById("E-U-2");
+        MachineStatsResponse afterDelete = machineStatsService.getMachineStats("M-U", base, end);
+        assertEquals(0, afterDelete.getEventsCount());
+        assertNull(afterDelete.getDefectsCount());
+    }
+
+    // ================== In-memory recent stats follow committed changes ==================
+    @Test
+    void testRecentStatsServedFromMemoryMatchRawScan() {
+        assertTrue(recentMachineStatsEngine.isReady());
+        Instant base = Instant.now().truncatedTo(ChronoUnit.MINUTES).minus(30, ChronoUnit.MINUTES);
+        machineEventService.saveBatch(List.of(
+            new MachineEvent("E-M-1", base.plusSeconds(10), null, "M-M", 1000, 2, "L-01", "F-01"),
+            new MachineEvent("E-M-2", base.plusSeconds(70), null, "M-M", 1000, -1, "L-01", "F-01"),
+            new MachineEvent("E-M-3", base.plusSeconds(610), null, "M-M", 1000, 5, "L-01", "F-01")
+        ));
+        // E-M-1 moves to a later minute and E-M-2 gets a known defect count
+        machineEventService.saveBatch(List.of(
+            new MachineEvent("E-M-1", base.plusSeconds(900), null, "M-M", 1000, 3, "L-01", "F-01"),
+            new MachineEvent("E-M-2", base.plusSeconds(70), null, "M-M", 1000, 4, "L-01", "F-01")
+        ));
+
+        Instant end = base.plus(20, ChronoUnit.MINUTES);
+        MachineStatsQueryResult recent = recentMachineStatsEngine.getStats("M-M", base, end);
+        assertEquals(3, recent.getEventsCount());
+        assertEquals(12L, recent.getDefectsCount());
+        assertStatsMatchRawScan("M-M", base, end);
+        assertStatsMatchRawScan("M-M", base.plusSeconds(5), base.plusSeconds(905));
+        assertStatsMatchRawScan("M-M", base.plusSeconds(60), base.plusSeconds(120));
+        assertStatsMatchRawScan("M-M-UNKNOWN", base, end);
+    }
+
+    // ================== Bulk stats match the single-machine stats ==================
+    @Test
+    void testBulkStatsMatchSingleMachineStats() {
+        Instant base = Instant.parse("2026-01-15T10:00:00Z");
+        machineEventService.saveBatch(List.of(
+            new MachineEvent("E-B-1", base.plusSeconds(10), null, "M-B1", 1000, 1, "L-01", "F-BULK"),
+            new MachineEvent("E-B-2", base.plusSeconds(70), null, "M-B1", 1000, 2, "L-01", "F-BULK"),
+            new MachineEvent("E-B-3", base.plusSeconds(3590), null, "M-B1", 1000, 4, "L-01", "F-BULK"),
+            new MachineEvent("E-B-4", base.plusSeconds(130), null, "M-B2", 1000, -1, "L-02", "F-BULK"),
+            new MachineEvent("E-B-5", base.plusSeconds(200), null, "M-B3", 1000, 8, "L-01", "F-OTHER")
+        ));
+
+        for (Instant[] window : new Instant[][] {
+                { base, base.plus(1, ChronoUnit.HOURS) },
+                { base.plusSeconds(5), base.plusSeconds(3595) },
+                { base.plusSeconds(60), base.plusSeconds(100) } }) {
+            List<JsonNode> rows = bulkStats("{\"machineIds\": [\"M-B2\", \"M-B1\", \"M-B1\", \"M-B-UNKNOWN\"], "
+                + "\"start\": \"" + window[0] + "\", \"end\": \"" + window[1] + "\"}");
+            // Every requested machine once, known or not; the order follows the database collation
+            assertEquals(List.of("M-B-UNKNOWN", "M-B1", "M-B2"),
+                rows.stream().map(row -> row.get("machineId").asString()).sorted().toList());
+            for (JsonNode row : rows) {
+                assertBulkRowMatches(row, window[0], window[1]);
+            }
+        }
+
+        List<JsonNode> factoryRows = bulkStats("{\"factoryId\": \"F-BULK\", "
+            + "\"start\": \"" + base + "\", \"end\": \"" + base.plus(1, ChronoUnit.HOURS) + "\"}");
+        assertEquals(List.of("M-B1", "M-B2"), factoryRows.stream().map(row -> row.get("machineId").asString()).toList());
+        for (JsonNode row : factoryRows) {
+            assertBulkRowMatches(row, base, base.plus(1, ChronoUnit.HOURS));
+        }
+        assertEquals("Warning", factoryRows.get(0).get("status").asString());
+        assertTrue(factoryRows.get(1).get("defectsCount").isNull());
+    }
+
+    @Test
+    void testBulkStatsRejectsAmbiguousRequests() {
+        MachineStatsBulkRequest request = new MachineStatsBulkRequest();
+        request.setMachineIds(List.of("M-001"));
+        request.setFactoryId("F-01");
+        request.setStart(Instant.parse("2026-01-15T10:00:00Z"));
+        request.setEnd(Instant.parse("2026-01-15T11:00:00Z"));
+        ResponseStatusException both = assertThrows(ResponseStatusException.class,
+            () -> machineStatsService.writeMachineStats(request, new ByteArrayOutputStream()));
+        assertEquals(HttpStatus.BAD_REQUEST, both.getStatusCode());
+
+        request.setFactoryId(null);
+        request.setEnd(request.getStart());
+        assertThrows(ResponseStatusException.class,
+            () -> machineStatsService.writeMachineStats(request, new ByteArrayOutputStream()));
+    }
+
+    // ================== Time series buckets match the window stats ==================
+    @Test
+    void testTimeseriesBucketsMatchWindowStats() {
+        Instant base = Instant.parse("2026-01-15T10:00:00Z");
+        machineEventService.saveBatch(List.of(
+            new MachineEvent("E-T-1", base.plusSeconds(10), null, "M-T1", 1000, 1, "L-T1", "F-TS"),
+            new MachineEvent("E-T-2", base.plusSeconds(890), null, "M-T1", 1000, 2, "L-T1", "F-TS"),
+            new MachineEvent("E-T-3", base.plusSeconds(900), null, "M-T1", 1000, -1, "L-T1", "F-TS"),
+            new MachineEvent("E-T-4", base.plusSeconds(3599), null, "M-T1", 1000, 4, "L-T2", "F-TS"),
+            new MachineEvent("E-T-5", base.plusSeconds(1000), null, "M-T2", 1000, 8, "L-T1", "F-TS"),
+            new MachineEvent("E-T-6", base.plusSeconds(1000), null, "M-T3", 1000, 16, "L-T1", "F-OTHER")
+        ));
+
+        // Minute-aligned (rollup), unaligned end (rollup plus raw) and unaligned start (raw)
+        assertTimeseriesMatchesWindowStats("M-T1", base, base.plus(1, ChronoUnit.HOURS), Duration.ofMinutes(15));
+        assertTimeseriesMatchesWindowStats("M-T1", base, base.plusSeconds(3599), Duration.ofMinutes(15));
+        assertTimeseriesMatchesWindowStats("M-T1", base.plusSeconds(5), base.plusSeconds(3600), Duration.ofSeconds(450));
+
+        StatsTimeseriesResponse factory = machineStatsService.getStatsTimeseries(null, null, "F-TS",
+            base, base.plus(1, ChronoUnit.HOURS), Duration.ofMinutes(15));
+        assertEquals(StatsScope.FACTORY, factory.getScope());
+        assertEquals(List.of(2L, 2L, 0L, 1L), factory.getBuckets().stream().map(StatsBucketResponse::getEventsCount).toList());
+        assertEquals(Long.valueOf(8), factory.getBuckets().get(1).getDefectsCount());
+        assertNull(factory.getBuckets().get(2).getDefectsCount());
+
+        StatsTimeseriesResponse line = machineStatsService.getStatsTimeseries(null, "L-T1", "F-TS",
+            base, base.plus(1, ChronoUnit.HOURS), Duration.ofMinutes(15));
+        assertEquals(List.of(2L, 2L, 0L, 0L), line.getBuckets().stream().map(StatsBucketResponse::getEventsCount).toList());
+        assertEquals(Long.valueOf(8), line.getBuckets().get(1).getDefectsCount());
+        // The only bucket ends with the window, so its rate is per 14 minutes
+        StatsTimeseriesResponse partial = machineStatsService.getStatsTimeseries("M-T1", null, null,
+            base, base.plus(14, ChronoUnit.MINUTES), Duration.ofMinutes(15));
+        assertEquals(1, partial.getBuckets().size());
+        assertEquals(1 / (14 / 60.0), partial.getBuckets().get(0).getAvgDefectRate(), 1e-9);
+    }
+
+    @Test
+    void testTimeseriesIsDownsampledToMaxBuckets() {
+        Instant base = Instant.parse("2026-01-15T10:00:00Z");
+        machineEventService.saveBatch(List.of(
+            new MachineEvent("E-D-1", base.plusSeconds(1), null, "M-D", 1000, 1, "L-01", "F-01"),
+            new MachineEvent("E-D-2", base.plus(23, ChronoUnit.HOURS), null, "M-D", 1000, 2, "L-01", "F-01")
+        ));
+
+        // 86400 one-second buckets are more than the default 1000; 87 seconds is the smallest multiple that fits
+        StatsTimeseriesResponse series = machineStatsService.getStatsTimeseries("M-D", null, null,
+            base, base.plus(1, ChronoUnit.DAYS), Duration.ofSeconds(1));
+        assertTrue(series.isDownsampled());
+        assertEquals(Duration.ofSeconds(87), series.getInterval());
+        assertEquals(Duration.ofSeconds(1), series.getRequestedInterval());
+        assertEquals(994, series.getBuckets().size());
+        assertEquals(2, series.getBuckets().stream().mapToLong(StatsBucketResponse::getEventsCount).sum());
+        assertEquals(1, series.getBuckets().get(0).getEventsCount());
+        assertEquals(base.plus(1, ChronoUnit.DAYS).minusSeconds(86400 % 87),
+            series.getBuckets().get(993).getStart());
+
+        StatsTimeseriesResponse hourly = machineStatsService.getStatsTimeseries("M-D", null, null,
+            base, base.plus(1, ChronoUnit.DAYS), Duration.ofHours(1));
+        assertFalse(hourly.isDownsampled());
+        assertEquals(24, hourly.getBuckets().size());
+    }
+
+    @Test
+    void testTimeseriesRejectsAmbiguousRequests() {
+        Instant start = Instant.parse("2026-01-15T10:00:00Z");
+        Instant end = start.plus(1, ChronoUnit.HOURS);
+        ResponseStatusException both = assertThrows(ResponseStatusException.class,
+            () -> machineStatsService.getStatsTimeseries("M-001", null, "F-01", start, end, Duration.ofMinutes(1)));
+        assertEquals(HttpStatus.BAD_REQUEST, both.getStatusCode());
+        assertThrows(ResponseStatusException.class,
+            () -> machineStatsService.getStatsTimeseries(null, "L-01", null, start, end, Duration.ofMinutes(1)));
+        assertThrows(ResponseStatusException.class,
+            () -> machineStatsService.getStatsTimeseries("M-001", null, null, start, end, Duration.ZERO));
+        assertThrows(ResponseStatusException.class,
+            () -> machineStatsService.getStatsTimeseries("M-001", null, null, end, start, Duration.ofMinutes(1)));
+    }
+
+    private void assertTimeseriesMatchesWindowStats(String machineId, Instant start, Instant end, Duration interval) {
+        StatsTimeseriesResponse series = machineStatsService.getStatsTimeseries(machineId, null, null, start, end, interval);
+        assertFalse(series.isDownsampled());
+        List<StatsBucketResponse> buckets = series.getBuckets();
+        for (int i = 0; i < buckets.size(); i++) {
+            Instant bucketEnd = i == buckets.size() - 1 ? end : buckets.get(i + 1).getStart();
+            MachineStatsQueryResult raw = machineEventRepository.getMachineStats(machineId, buckets.get(i).getStart(), bucketEnd);
+            String label = "bucket " + buckets.get(i).getStart() + " of " + start + " - " + end;
+            assertEquals(raw.getEventsCount(), buckets.get(i).getEventsCount(), label);
+            assertEquals(raw.getDefectsCount(), buckets.get(i).getDefectsCount(), label);
+        }
+        assertEquals(machineEventRepository.getMachineStats(machineId, start, end).getEventsCount(),
+            buckets.stream().mapToLong(StatsBucketResponse::getEventsCount).sum());
+    }
+
+    private List<JsonNode> bulkStats(String json) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        machineStatsService.writeMachineStats(objectMapper.readValue(json, MachineStatsBulkRequest.class), out);
+        List<JsonNode> rows = new ArrayList<>();
+        for (String line : out.toString(StandardCharsets.UTF_8).split("\n")) {
+            if (!line.isBlank()) {
+                rows.add(objectMapper.readTree(line));
+            }
+        }
+        return rows;
+    }
+
+    private void assertBulkRowMatches(JsonNode row, Instant start, Instant end) {
+        MachineStatsResponse single = machineStatsService.getMachineStats(row.get("machineId").asString(), start, end);
+        String label = row.get("machineId").asString() + " " + start + " - " + end;
+        assertEquals(single.getEventsCount(), row.get("eventsCount").asLong(), label);
+        assertEquals(single.getDefectsCount(), row.get("defectsCount").isNull() ? null : row.get("defectsCount").asLong(), label);
+        assertEquals(single.getStatus(), row.get("status").isNull() ? null : row.get("status").asString(), label);
+    }
+
+    private void assertStatsMatchRawScan(String machineId, Instant start, Instant end) {
+        MachineStatsQueryResult raw = machineEventRepository.getMachineStats(machineId, start, end);
+        MachineStatsResponse stats = machineStatsService.getMachineStats(machineId, start, end);
+        assertEquals(raw.getEventsCount(), stats.getEventsCount(), "eventsCount for " + start + " - " + end);
+        assertEquals(raw.getDefectsCount(), stats.getDefectsCount(), "defectsCount for " + start + " - " + end);
+    }
+}
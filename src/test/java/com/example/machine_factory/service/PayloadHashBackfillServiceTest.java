@@ -0,0 +1,109 @@
+package com.example.machine_factory.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.example.machine_factory.dto.MachineEventsBatchResponse;
+import com.example.machine_factory.entity.MachineEvent;
+import com.example.machine_factory.repository.MachineEventRepository;
+
+@SpringBootTest
+class PayloadHashBackfillServiceTest {
+
+    @Autowired
+    private MachineEventService machineEventService;
+
+    @Autowired
+    private MachineEventRepository machineEventRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        machineEventRepository.deleteAll();
+    }
+
+    // ================== Ingest keeps the key hash in step with the row ==================
+    @Test
+    void testIngestWritesPayloadHashOnInsertAndUpdate() {
+        Instant eventTime = Instant.now().truncatedTo(ChronoUnit.MICROS).minus(1, ChronoUnit.HOURS);
+        machineEventService.saveBatch(List.of(new MachineEvent("E-HASH-1", eventTime, null, "M-001", 1000, 1, "L-01", "F-01")));
+        Long inserted = keyHash("E-HASH-1");
+        assertNotNull(inserted);
+        assertEquals(rowHash("E-HASH-1"), inserted);
+
+        MachineEventsBatchResponse updated = machineEventService.saveBatch(
+            List.of(new MachineEvent("E-HASH-1", eventTime, null, "M-001", 1000, 2, "L-01", "F-01")));
+        assertEquals(1, updated.getUpdated());
+        assertNotEquals(inserted, keyHash("E-HASH-1"));
+        assertEquals(rowHash("E-HASH-1"), keyHash("E-HASH-1"));
+
+        MachineEventsBatchResponse deduped = machineEventService.saveBatch(
+            List.of(new MachineEvent("E-HASH-1", eventTime, null, "M-001", 1000, 2, "L-01", "F-01")));
+        assertEquals(1, deduped.getDeduped());
+    }
+
+    // ================== Keys without a hash still classify correctly ==================
+    @Test
+    void testKeysWithoutHashFallBackToRowAndGetHashed() {
+        Instant eventTime = Instant.now().truncatedTo(ChronoUnit.MICROS).minus(1, ChronoUnit.HOURS);
+        machineEventService.saveBatch(List.of(
+            new MachineEvent("E-HASH-SAME", eventTime, null, "M-001", 1000, 1, "L-01", "F-01"),
+            new MachineEvent("E-HASH-CHANGED", eventTime, null, "M-001", 1000, 1, "L-01", "F-01")));
+        jdbcTemplate.update("UPDATE machine_event_ids SET payload_hash = NULL");
+
+        MachineEventsBatchResponse response = machineEventService.saveBatch(List.of(
+            new MachineEvent("E-HASH-SAME", eventTime, null, "M-001", 1000, 1, "L-01", "F-01"),
+            new MachineEvent("E-HASH-CHANGED", eventTime, null, "M-001", 1000, 3, "L-01", "F-01")));
+        assertEquals(1, response.getDeduped());
+        assertEquals(1, response.getUpdated());
+        assertEquals(0, response.getAccepted());
+        assertEquals(2, machineEventRepository.count());
+        assertEquals(rowHash("E-HASH-SAME"), keyHash("E-HASH-SAME"));
+        assertEquals(rowHash("E-HASH-CHANGED"), keyHash("E-HASH-CHANGED"));
+    }
+
+    // ================== Backfill hashes every key left without one ==================
+    @Test
+    void testBackfillHashesKeysWithoutHash() {
+        Instant eventTime = Instant.now().truncatedTo(ChronoUnit.MICROS).minus(1, ChronoUnit.HOURS);
+        machineEventService.saveBatch(List.of(
+            new MachineEvent("E-HASH-B1", eventTime, null, "M-001", 1000, 1, "L-01", "F-01"),
+            new MachineEvent("E-HASH-B2", eventTime.plusSeconds(1), null, "M-002", 1000, -1, null, "F-01"),
+            new MachineEvent("E-HASH-B3", eventTime.plusSeconds(2), null, "M-003", 2000, 4, "L-02", "F-02")));
+        jdbcTemplate.update("UPDATE machine_event_ids SET payload_hash = NULL");
+
+        // Batches of two, so the cursor has to move across batches
+        PayloadHashBackfillService backfill = new PayloadHashBackfillService(machineEventRepository, true, 2);
+        backfill.backfill();
+
+        assertTrue(backfill.isComplete());
+        assertEquals(0, jdbcTemplate.queryForObject(
+            "SELECT COUNT(*) FROM machine_event_ids WHERE payload_hash IS NULL", Long.class));
+        for (String eventId : List.of("E-HASH-B1", "E-HASH-B2", "E-HASH-B3")) {
+            assertEquals(rowHash(eventId), keyHash(eventId));
+        }
+    }
+
+    private Long keyHash(String eventId) {
+        return jdbcTemplate.queryForObject(
+            "SELECT payload_hash FROM machine_event_ids WHERE event_id = ?", Long.class, eventId);
+    }
+
+    private Long rowHash(String eventId) {
+        return jdbcTemplate.queryForObject("""
+            SELECT machine_event_payload_hash(event_time, machine_key, duration_ms, defect_count, line_key, factory_key)
+            FROM machine_events WHERE event_id = ?
+            """, Long.class, eventId);
+    }
+}
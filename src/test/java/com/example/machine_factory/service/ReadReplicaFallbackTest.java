@@ -0,0 +1,61 @@
+package com.example.machine_factory.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import com.example.machine_factory.config.ReplicaLagMonitor;
+import com.example.machine_factory.dto.MachineStatsResponse;
+import com.example.machine_factory.entity.MachineEvent;
+import com.example.machine_factory.repository.MachineEventRepository;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+// Nothing listens on the replica port, so every read-only transaction falls back to the primary
+@SpringBootTest(properties = "machine-factory.datasource.replica.url=jdbc:postgresql://localhost:1/postgres")
+class ReadReplicaFallbackTest {
+
+    @Autowired
+    private MachineEventService machineEventService;
+
+    @Autowired
+    private MachineStatsService machineStatsService;
+
+    @Autowired
+    private MachineEventRepository machineEventRepository;
+
+    @Autowired
+    private ReplicaLagMonitor replicaLagMonitor;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        machineEventRepository.deleteAll();
+        replicaLagMonitor.check();
+    }
+
+    @Test
+    void testStatsFallBackToThePrimaryWhenTheReplicaIsDown() {
+        assertFalse(replicaLagMonitor.isReplicaUsable());
+        assertEquals(-1, replicaLagMonitor.getLagMillis());
+        Instant eventTime = Instant.now().truncatedTo(ChronoUnit.MICROS).minus(1, ChronoUnit.HOURS);
+        machineEventService.saveBatch(List.of(
+            new MachineEvent("E-FALLBACK-1", eventTime, null, "M-FALLBACK", 1000, 2, "L-01", "F-01")));
+        double fallbacks = meterRegistry.get("machine_factory.datasource.replica.fallbacks").functionCounter().count();
+
+        MachineStatsResponse stats = machineStatsService.getMachineStats("M-FALLBACK",
+            eventTime.minus(10, ChronoUnit.SECONDS), eventTime.plus(10, ChronoUnit.SECONDS));
+        assertEquals(1, stats.getEventsCount());
+        assertEquals(Long.valueOf(2), stats.getDefectsCount());
+        assertTrue(meterRegistry.get("machine_factory.datasource.replica.fallbacks").functionCounter().count() > fallbacks);
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.machine_factory.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.machine_factory.config.ReplicaLagMonitor;
+import com.example.machine_factory.dto.ApproximateTopDefectLinesResponse;
+import com.example.machine_factory.dto.MachineStatsQueryResult;
+import com.example.machine_factory.entity.MachineEvent;
+import com.example.machine_factory.repository.EventIdFilter;
+import com.example.machine_factory.repository.MachineEventRepository;
+
+// The same database stands in for a replica that has not replayed the test's commits yet: its
+// search_path finds empty copies of the tables the seeds read before the real ones
+@SpringBootTest(properties = "machine-factory.datasource.replica.url=${spring.datasource.url}?currentSchema=lagging_replica,public")
+class ReadReplicaLagTest {
+
+    private static final List<String> STALE_TABLES = List.of("machine_events", "machine_stats_rollup", "machine_event_ids");
+
+    @Autowired
+    private MachineEventService machineEventService;
+
+    @Autowired
+    private MachineEventRepository machineEventRepository;
+
+    @Autowired
+    private RecentMachineStatsEngine recentMachineStatsEngine;
+
+    @Autowired
+    private EventIdFilter eventIdFilter;
+
+    @Autowired
+    private DefectLineSketchEngine defectLineSketchEngine;
+
+    @Autowired
+    private ReplicaLagMonitor replicaLagMonitor;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        machineEventRepository.deleteAll();
+        jdbcTemplate.execute("DROP SCHEMA IF EXISTS lagging_replica CASCADE");
+        jdbcTemplate.execute("CREATE SCHEMA lagging_replica");
+        for (String table : STALE_TABLES) {
+            jdbcTemplate.execute("CREATE TABLE lagging_replica.%1$s (LIKE public.%1$s)".formatted(table));
+        }
+        replicaLagMonitor.check();
+    }
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.execute("DROP SCHEMA IF EXISTS lagging_replica CASCADE");
+    }
+
+    // ================== Seeds read the primary, not the lagging replica ==================
+    @Test
+    void testSeedsSeeCommitsTheReplicaHasNotReplayed() {
+        Instant minute = Instant.now().truncatedTo(ChronoUnit.MINUTES).minus(10, ChronoUnit.MINUTES);
+        machineEventService.saveBatch(List.of(
+            new MachineEvent("E-LAG-1", minute.plusSeconds(5), null, "M-LAG", 1000, 2, "L-01", "F-01"),
+            new MachineEvent("E-LAG-2", minute.plusSeconds(10), null, "M-LAG", 1000, 1, "L-01", "F-01")));
+        assertTrue(replicaLagMonitor.isReplicaUsable());
+        TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+        assertEquals(Long.valueOf(0), readOnly.execute(status ->
+            jdbcTemplate.queryForObject("SELECT COUNT(*) FROM machine_stats_rollup", Long.class)));
+
+        recentMachineStatsEngine.seed();
+        MachineStatsQueryResult stats = recentMachineStatsEngine.getStats("M-LAG", minute, minute.plus(1, ChronoUnit.MINUTES));
+        assertEquals(2, stats.getEventsCount());
+        assertEquals(Long.valueOf(3), stats.getDefectsCount());
+
+        eventIdFilter.seed();
+        assertTrue(eventIdFilter.mightContain("E-LAG-1"));
+        assertTrue(eventIdFilter.mightContain("E-LAG-2"));
+
+        defectLineSketchEngine.seed();
+        Instant bucket = Instant.ofEpochSecond(Math.floorDiv(minute.getEpochSecond(), defectLineSketchEngine.getBucket().toSeconds())
+            * defectLineSketchEngine.getBucket().toSeconds());
+        ApproximateTopDefectLinesResponse lines = defectLineSketchEngine
+            .estimate("F-01", bucket, bucket.plus(defectLineSketchEngine.getBucket()))
+            .toResponse("F-01", bucket, bucket.plus(defectLineSketchEngine.getBucket()), 10);
+        assertEquals(1, lines.getLines().size());
+        assertEquals(3, lines.getLines().get(0).getTotalDefects());
+    }
+}
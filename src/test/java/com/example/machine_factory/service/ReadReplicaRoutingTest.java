@@ -0,0 +1,87 @@
+package com.example.machine_factory.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.machine_factory.config.ReplicaLagMonitor;
+import com.example.machine_factory.dto.LineStatsResponse;
+import com.example.machine_factory.entity.MachineEvent;
+import com.example.machine_factory.repository.MachineEventRepository;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+// The same database stands in for the replica, told apart by its application_name
+@SpringBootTest(properties = "machine-factory.datasource.replica.url=${spring.datasource.url}?ApplicationName=machine-factory-replica")
+class ReadReplicaRoutingTest {
+
+    @Autowired
+    private MachineEventService machineEventService;
+
+    @Autowired
+    private MachineStatsService machineStatsService;
+
+    @Autowired
+    private MachineEventRepository machineEventRepository;
+
+    @Autowired
+    private ReplicaLagMonitor replicaLagMonitor;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        machineEventRepository.deleteAll();
+        replicaLagMonitor.check();
+    }
+
+    @Test
+    void testReadOnlyTransactionsUseTheReplica() {
+        assertTrue(replicaLagMonitor.isReplicaUsable());
+        TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+        assertEquals("machine-factory-replica", readOnly.execute(status -> applicationName()));
+        assertNotEquals("machine-factory-replica", new TransactionTemplate(transactionManager).execute(status -> applicationName()));
+        assertNotEquals("machine-factory-replica", applicationName());
+    }
+
+    @Test
+    void testStatsQueriesRunOnTheReplica() {
+        Instant eventTime = Instant.now().truncatedTo(ChronoUnit.MICROS).minus(1, ChronoUnit.HOURS);
+        machineEventService.saveBatch(List.of(
+            new MachineEvent("E-REPLICA-1", eventTime, null, "M-001", 1000, 3, "L-01", "F-REPLICA"),
+            new MachineEvent("E-REPLICA-2", eventTime, null, "M-001", 1000, 1, "L-02", "F-REPLICA")));
+        double replicaConnections = replicaUsage();
+
+        List<LineStatsResponse> lines = machineStatsService.getTopDefectLines("F-REPLICA",
+            eventTime.minus(1, ChronoUnit.MINUTES), eventTime.plus(1, ChronoUnit.MINUTES), 10);
+        assertEquals(2, lines.size());
+        assertEquals("L-01", lines.get(0).getLineId());
+        assertTrue(replicaUsage() > replicaConnections);
+    }
+
+    private String applicationName() {
+        return jdbcTemplate.queryForObject("SELECT current_setting('application_name')", String.class);
+    }
+
+    private double replicaUsage() {
+        return meterRegistry.get("hikaricp.connections.usage").tag("pool", "replica").timer().count();
+    }
+}
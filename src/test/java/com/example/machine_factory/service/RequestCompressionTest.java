@@ -0,0 +1,157 @@
+package com.example.machine_factory.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import com.example.machine_factory.controller.RequestDecompressionFilter;
+import com.example.machine_factory.entity.MachineEvent;
+import com.example.machine_factory.repository.MachineEventRepository;
+import com.github.luben.zstd.Zstd;
+
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.ObjectMapper;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class RequestCompressionTest {
+
+    @Value("${local.server.port}")
+    private int port;
+
+    @Autowired
+    private MachineEventRepository machineEventRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private RequestDecompressionFilter decompressionFilter;
+
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+
+    @BeforeEach
+    void setUp() {
+        machineEventRepository.deleteAll();
+    }
+
+    // ================== gzip and zstd bodies are ingested like plain ones ==================
+    @Test
+    void testCompressedBatchesAreDecompressed() throws Exception {
+        Instant eventTime = Instant.now().truncatedTo(ChronoUnit.MICROS).minus(1, ChronoUnit.HOURS);
+        byte[] json = objectMapper.writeValueAsBytes(List.of(
+            new MachineEvent("E-GZ-1", eventTime, null, "M-001", 1000, 1, "L-01", "F-01"),
+            new MachineEvent("E-GZ-2", eventTime, null, "M-001", 1000, 2, "L-01", "F-01")));
+        HttpResponse<byte[]> gzipResponse = post("/events/batch", "application/json", "gzip", gzip(json));
+        assertEquals(200, gzipResponse.statusCode());
+        assertEquals(2, objectMapper.readTree(gzipResponse.body()).get("accepted").asInt());
+
+        byte[] binary = MachineEventBinaryCodec.encode(List.of(
+            new MachineEvent("E-ZSTD-1", eventTime, null, "M-002", 1000, 3, "L-01", "F-01")));
+        HttpResponse<byte[]> zstdResponse = post("/events/batch", MachineEventBinaryCodec.MEDIA_TYPE, "zstd",
+            Zstd.compress(binary));
+        assertEquals(200, zstdResponse.statusCode());
+        assertEquals(1, objectMapper.readTree(zstdResponse.body()).get("accepted").asInt());
+
+        byte[] ndjson = ("{\"eventId\":\"E-GZ-3\",\"eventTime\":\"" + eventTime + "\",\"machineId\":\"M-003\","
+            + "\"durationMs\":1000,\"defectCount\":0,\"lineId\":\"L-01\",\"factoryId\":\"F-01\"}\n")
+            .getBytes(StandardCharsets.UTF_8);
+        HttpResponse<byte[]> streamResponse = post("/events/stream", "application/x-ndjson", "gzip", gzip(ndjson));
+        assertEquals(200, streamResponse.statusCode());
+        // One chunk summary, then the totals
+        String[] lines = new String(streamResponse.body(), StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, lines.length);
+        assertEquals(1, objectMapper.readTree(lines[1]).get("accepted").asInt());
+        assertEquals(4, machineEventRepository.count());
+    }
+
+    // ================== Decompression bombs and unknown encodings are refused ==================
+    @Test
+    void testBombIsRejected() throws Exception {
+        // 64 MB of spaces in a JSON array compress to well over 100 times smaller
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write('[');
+            byte[] spaces = new byte[1024 * 1024];
+            Arrays.fill(spaces, (byte) ' ');
+            for (int i = 0; i < 64; i++) {
+                out.write(spaces);
+            }
+            out.write(']');
+        }
+        HttpResponse<byte[]> response = post("/events/batch", "application/json", "gzip", compressed.toByteArray());
+        assertEquals(413, response.statusCode());
+
+        HttpResponse<byte[]> brotli = post("/events/batch", "application/json", "br", new byte[] { 1, 2, 3 });
+        assertEquals(415, brotli.statusCode());
+        assertEquals(0, machineEventRepository.count());
+    }
+
+    // ================== Non-blocking reads of compressed bodies are refused ==================
+    @Test
+    void testNonBlockingReadIsRejected() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/events/batch");
+        request.addHeader("Content-Encoding", "gzip");
+        request.setContent(gzip("[]".getBytes(StandardCharsets.UTF_8)));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        decompressionFilter.doFilter(request, response, (req, res) -> req.getInputStream().setReadListener(null));
+        assertEquals(415, response.getStatus());
+        assertTrue(response.getErrorMessage().contains("non-blocking"), response.getErrorMessage());
+    }
+
+    // ================== Large JSON responses are gzip-compressed on request ==================
+    @Test
+    void testJsonResponseIsCompressed() throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port
+                + "/stats/timeseries?machineId=M-001&start=2026-01-15T00:00:00Z&end=2026-01-16T00:00:00Z&interval=PT10M"))
+            .header("Accept-Encoding", "gzip").build();
+        HttpResponse<byte[]> response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(200, response.statusCode());
+        assertEquals("gzip", response.headers().firstValue("Content-Encoding").orElse(null));
+        JsonNode body = objectMapper.readTree(gunzip(response.body()));
+        assertEquals(144, body.get("buckets").size());
+    }
+
+    private HttpResponse<byte[]> post(String path, String contentType, String encoding, byte[] body) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + path))
+            .header("Content-Type", contentType)
+            .header("Content-Encoding", encoding)
+            .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+            .build();
+        return httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(bytes);
+        }
+        return compressed.toByteArray();
+    }
+
+    private static byte[] gunzip(byte[] bytes) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readAllBytes();
+        }
+    }
+}
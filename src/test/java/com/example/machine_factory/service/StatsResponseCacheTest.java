@@ -0,0 +1,94 @@
+package com.example.machine_factory.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import com.example.machine_factory.dto.StatsCacheResponse;
+import com.example.machine_factory.entity.MachineEvent;
+import com.example.machine_factory.repository.MachineEventRepository;
+
+@SpringBootTest(properties = "machine-factory.stats.cache.max-entries=3")
+class StatsResponseCacheTest {
+
+    @Autowired
+    private MachineEventService machineEventService;
+
+    @Autowired
+    private MachineStatsService machineStatsService;
+
+    @Autowired
+    private MachineEventRepository machineEventRepository;
+
+    @Autowired
+    private StatsResponseCache statsResponseCache;
+
+    private final Instant from = Instant.parse("2026-01-15T10:00:00Z");
+    private final Instant to = Instant.parse("2026-01-15T11:00:00Z");
+
+    @BeforeEach
+    void setUp() {
+        machineEventRepository.deleteAll();
+        statsResponseCache.clear();
+    }
+
+    // ================== Ingest evicts only the touched scope and window ==================
+    @Test
+    void testIngestEvictsOnlyOverlappingEntries() {
+        StatsCacheResponse before = statsResponseCache.getStats();
+        machineEventService.saveBatch(List.of(
+            new MachineEvent("E-C-1", from.plusSeconds(10), null, "M-C", 1000, 1, "L-01", "F-C")
+        ));
+        byte[] lines = machineStatsService.getTopDefectLinesJson("F-C", from, to, 5);
+        byte[] stats = machineStatsService.getMachineStatsJson("M-C", from, to);
+        assertSame(lines, machineStatsService.getTopDefectLinesJson("F-C", from, to, 5));
+        assertSame(stats, machineStatsService.getMachineStatsJson("M-C", from, to));
+
+        // Another factory and machine, and the same factory outside the window, leave both entries alone
+        machineEventService.saveBatch(List.of(
+            new MachineEvent("E-C-2", from.plusSeconds(20), null, "M-OTHER", 1000, 1, "L-01", "F-OTHER"),
+            new MachineEvent("E-C-3", to.plusSeconds(20), null, "M-C2", 1000, 1, "L-01", "F-C")
+        ));
+        assertSame(lines, machineStatsService.getTopDefectLinesJson("F-C", from, to, 5));
+        assertSame(stats, machineStatsService.getMachineStatsJson("M-C", from, to));
+
+        // Moving E-C-1 out of the window touches both entries through its previous payload
+        machineEventService.saveBatch(List.of(
+            new MachineEvent("E-C-1", to.plusSeconds(30), null, "M-C", 1000, 1, "L-01", "F-C")
+        ));
+        byte[] refreshedStats = machineStatsService.getMachineStatsJson("M-C", from, to);
+        assertNotSame(stats, refreshedStats);
+        assertTrue(new String(refreshedStats, StandardCharsets.UTF_8).contains("\"eventsCount\":0"));
+        assertNotSame(lines, machineStatsService.getTopDefectLinesJson("F-C", from, to, 5));
+
+        StatsCacheResponse after = statsResponseCache.getStats();
+        assertEquals(4, after.getHits() - before.getHits());
+        assertEquals(4, after.getMisses() - before.getMisses());
+        assertEquals(2, after.getInvalidations() - before.getInvalidations());
+    }
+
+    // ================== Size bound evicts least recently used ==================
+    @Test
+    void testLeastRecentlyUsedEntryIsEvicted() {
+        StatsCacheResponse before = statsResponseCache.getStats();
+        byte[] first = machineStatsService.getMachineStatsJson("M-1", from, to);
+        machineStatsService.getMachineStatsJson("M-2", from, to);
+        machineStatsService.getMachineStatsJson("M-3", from, to);
+        assertSame(first, machineStatsService.getMachineStatsJson("M-1", from, to));
+        machineStatsService.getMachineStatsJson("M-4", from, to);
+
+        StatsCacheResponse after = statsResponseCache.getStats();
+        assertEquals(3, after.getSize());
+        assertEquals(1, after.getEvictions() - before.getEvictions());
+        assertSame(first, machineStatsService.getMachineStatsJson("M-1", from, to));
+        assertEquals(2, statsResponseCache.getStats().getHits() - before.getHits());
+        assertNotNull(after.getHitRatio());
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.machine_factory.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.example.machine_factory.entity.MachineEvent;
+import com.example.machine_factory.repository.MachineEventRepository;
+
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.ObjectMapper;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+    "machine-factory.stats.subscriptions.push-interval=PT0.1S"
+})
+class StatsSubscriptionServiceTest {
+    private static final Duration WAIT = Duration.ofSeconds(10);
+
+    @Value("${local.server.port}")
+    private int port;
+
+    @Autowired
+    private MachineEventService machineEventService;
+
+    @Autowired
+    private MachineEventRepository machineEventRepository;
+
+    @Autowired
+    private RecentMachineStatsEngine recentMachineStatsEngine;
+
+    @Autowired
+    private StatsSubscriptionService statsSubscriptionService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+    private Stream<String> stream;
+
+    private record SseEvent(String name, JsonNode data) {
+    }
+
+    @BeforeEach
+    void setUp() {
+        machineEventRepository.deleteAll();
+        recentMachineStatsEngine.seed();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (stream != null) {
+            stream.close();
+        }
+    }
+
+    // ================== Machine subscribers get the window stats when they change ==================
+    @Test
+    void testMachineSubscriptionPushesChangedStats() throws Exception {
+        BlockingQueue<SseEvent> events = subscribe("machineId=M-SSE&window=PT10M");
+        SseEvent initial = next(events, event -> true);
+        assertEquals("machine-stats", initial.name());
+        assertEquals(0, initial.data().get("eventsCount").asLong());
+
+        Instant eventTime = Instant.now().truncatedTo(ChronoUnit.MICROS).minus(1, ChronoUnit.MINUTES);
+        machineEventService.saveBatch(List.of(
+            new MachineEvent("E-SSE-1", eventTime, null, "M-SSE", 1000, 2, "L-01", "F-01"),
+            new MachineEvent("E-SSE-2", eventTime, null, "M-SSE", 1000, 3, "L-01", "F-01"),
+            new MachineEvent("E-SSE-OTHER", eventTime, null, "M-SSE-OTHER", 1000, 9, "L-01", "F-01")));
+
+        SseEvent changed = next(events, event -> event.data().get("eventsCount").asLong() == 2);
+        assertEquals("M-SSE", changed.data().get("machineId").asString());
+        assertEquals(5, changed.data().get("defectsCount").asLong());
+        assertTrue(statsSubscriptionService.getSubscriberCount() >= 1);
+    }
+
+    // ================== Factory subscribers get all lines, then the changed ones ==================
+    @Test
+    void testFactorySubscriptionPushesChangedLines() throws Exception {
+        Instant eventTime = Instant.now().truncatedTo(ChronoUnit.MICROS).minus(1, ChronoUnit.MINUTES);
+        machineEventService.saveBatch(List.of(
+            new MachineEvent("E-SSE-F1", eventTime, null, "M-001", 1000, 1, "L-SSE-1", "F-SSE"),
+            new MachineEvent("E-SSE-F2", eventTime, null, "M-002", 1000, 4, "L-SSE-2", "F-SSE")));
+
+        BlockingQueue<SseEvent> events = subscribe("factoryId=F-SSE&window=PT10M");
+        SseEvent initial = next(events, event -> true);
+        assertEquals("line-stats", initial.name());
+        assertEquals(2, initial.data().size());
+
+        // An update of one line and a new event of another factory
+        machineEventService.saveBatch(List.of(
+            new MachineEvent("E-SSE-F1", eventTime, null, "M-001", 1000, 6, "L-SSE-1", "F-SSE"),
+            new MachineEvent("E-SSE-F3", eventTime, null, "M-003", 1000, 1, "L-SSE-1", "F-SSE-OTHER")));
+
+        SseEvent changed = next(events, event -> true);
+        assertEquals(1, changed.data().size());
+        JsonNode line = changed.data().get(0);
+        assertEquals("L-SSE-1", line.get("lineId").asString());
+        assertEquals(6, line.get("totalDefects").asLong());
+        assertEquals(1, line.get("eventCount").asLong());
+    }
+
+    @Test
+    void testSubscribeRejectsInvalidRequests() {
+        ResponseStatusException both = assertThrows(ResponseStatusException.class,
+            () -> statsSubscriptionService.subscribe("M-001", "F-01", Duration.ofHours(1)));
+        assertEquals(HttpStatus.BAD_REQUEST, both.getStatusCode());
+        assertThrows(ResponseStatusException.class,
+            () -> statsSubscriptionService.subscribe("M-001", null, Duration.ofSeconds(90)));
+        assertThrows(ResponseStatusException.class,
+            () -> statsSubscriptionService.subscribe("M-001", null, Duration.ofDays(2)));
+    }
+
+    private BlockingQueue<SseEvent> subscribe(String query) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/stats/subscribe?" + query))
+            .header("Accept", "text/event-stream").build();
+        HttpResponse<Stream<String>> response = httpClient.send(request, HttpResponse.BodyHandlers.ofLines());
+        assertEquals(200, response.statusCode());
+        stream = response.body();
+        BlockingQueue<SseEvent> events = new LinkedBlockingQueue<>();
+        Thread reader = new Thread(() -> {
+            String[] name = new String[1];
+            try {
+                stream.forEach(line -> {
+                    if (line.startsWith("event:")) {
+                        name[0] = line.substring("event:".length());
+                    } else if (line.startsWith("data:")) {
+                        events.add(new SseEvent(name[0], objectMapper.readTree(line.substring("data:".length()))));
+                    }
+                });
+            } catch (RuntimeException e) {
+                // Closed by tearDown
+            }
+        });
+        reader.setDaemon(true);
+        reader.start();
+        return events;
+    }
+
+    private static SseEvent next(BlockingQueue<SseEvent> events, Predicate<SseEvent> matching) throws InterruptedException {
+        long deadline = System.nanoTime() + WAIT.toNanos();
+        while (System.nanoTime() < deadline) {
+            SseEvent event = events.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            if (event != null && matching.test(event)) {
+                return event;
+            }
+        }
+        fail("No matching event within " + WAIT);
+        return null;
+    }
+}